@@ -0,0 +1,308 @@
+package com.sparkle.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.sparkle.bench.krc.RegexKrcLyricsFileReader;
+import com.sparkle.lyrics.LyricsFileReader;
+import com.sparkle.lyrics.formats.krc.KrcLyricsFileReader;
+import com.sparkle.lyrics.model.LyricsInfo;
+import com.sparkle.lyrics.model.LyricsLineInfo;
+import com.sparkle.lyrics.model.TranslateLrcLineInfo;
+import com.sparkle.lyrics.utils.StringCompressUtils;
+
+/**
+ * KRC歌词逐字符扫描读取器和原来的正则表达式读取器的一致性检查
+ * <p>
+ * 1. 歌词目录中的krc样例:参照读取器读完整的流,新读取器分别读完整的流和每次只返回几个字节、
+ * available()只返回1的流;
+ * 2. 按正则版本的特殊行为整理的歌词行:第一个 [a,b] 不在行首、split 丢弃末尾的空段、
+ * 数值溢出和 int 相加回绕等;
+ * 3. 固定种子生成的随机歌词.
+ * 解析结果(标签、歌词行、每个字和时长、翻译和音译)转成文本后逐个比较,有不一致时退出码为1.
+ * 在项目根目录运行:gradle krcParityCheck,或者
+ * java -cp ... com.sparkle.bench.KrcParityCheck [歌词目录] [随机歌词数]
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class KrcParityCheck {
+
+    /**
+     * 解码参数,和 KrcLyricsFileReader 相同
+     */
+    private static final char[] KEY = { '@', 'G', 'a', 'w', '^', '2', 't',
+            'G', 'Q', '6', '1', '-', 'Î', 'Ò', 'n', 'i' };
+
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    /**
+     * 正则版本的特殊行为,每组是说明和歌词行
+     */
+    private static final String[][] EDGE_CASES = {
+            { "标签", "[ti:abc]", "[offset:100]", "[id:123]", "" },
+            { "普通歌词行", "[1000,500]<0,100,0>a<100,200,0>b" },
+            { "第一个[a,b]不在行首", "xx[12,34]yy<1,2,3>z",
+                    "[12,34][56,78]<1,2,3>z", "[a,1][2,3]<1,2,3>w",
+                    "<1,2,3>a[1,2]b", ">[1,2]<1,2,3><" },
+            { "字标签之前的文字", "[1000,500]pre<0,100,0>a" },
+            { "末尾空段被丢弃", "[1000,500]<0,100,0>a<100,200,0>",
+                    "[1,2]<1,2,3>a<4,5,6>\r", "[1,2]<1,2,3><4,5,6>b",
+                    "[1,2]<1,2,3>a<4,5,6><7,8,9>", "[1,2]<1,2,3>\r" },
+            { "没有字标签", "[1000,500]", "[1000,500]plain text" },
+            { "不完整的字标签", "[1,2]<1,2,<3,4,5>q<6,7,8>r", "[1,2]<1,2,3",
+                    "[1,2]<1,2,3>a\r<4,5,6>b" },
+            { "数值溢出", "[1,2]<1,99999999999,3>q", "[99999999999,1]x",
+                    "[1,2]<99999999999,5,99999999999>q",
+                    "[1,2]<1,2147483648,3>a" },
+            { "int相加回绕", "[2147483647,1]x", "[1,2]<1,2147483647,3>a" },
+            { "非ASCII数字和前导0", "[\u0661,\u0662]x", "[00000000000000001,2]a" } };
+
+    /**
+     * 随机歌词使用的字符
+     */
+    private static final String FUZZ_CHARS = "[]<>,,0123456789ab\r \u6b4c";
+
+    public static void main(String[] args) throws Exception {
+        File lyricsDir = new File(args.length > 0 ? args[0]
+                : "sparkleplayer/lyrics");
+        int fuzzCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        LyricsFileReader regexReader = new RegexKrcLyricsFileReader();
+        LyricsFileReader scanReader = new KrcLyricsFileReader();
+        int failed = 0;
+
+        // 读取器解析失败时会打印异常,检查期间不输出
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            File[] files = lyricsDir.listFiles();
+            if (files == null) {
+                throw new IOException("歌词目录不存在: " + lyricsDir.getPath());
+            }
+            Arrays.sort(files);
+            int samples = 0;
+            for (int i = 0; i < files.length; i++) {
+                File file = files[i];
+                if (!file.getName().toLowerCase().endsWith(".krc")) {
+                    continue;
+                }
+                samples++;
+                byte[] data = readBytes(file);
+                String expected = dump(regexReader, new ByteArrayInputStream(
+                        data));
+                String actual = dump(scanReader,
+                        new ByteArrayInputStream(data));
+                String shortRead = dump(scanReader, new ShortReadInputStream(
+                        data));
+                if (expected.equals(actual) && expected.equals(shortRead)) {
+                    System.out.println("一致: " + file.getName());
+                } else {
+                    failed++;
+                    System.out.println("不一致: " + file.getName()
+                            + (expected.equals(actual) ? " (短读取的流)" : ""));
+                }
+            }
+            if (samples == 0) {
+                System.out.println("没有krc样例: " + lyricsDir.getPath());
+            }
+
+            for (int i = 0; i < EDGE_CASES.length; i++) {
+                String[] edgeCase = EDGE_CASES[i];
+                StringBuilder text = new StringBuilder();
+                for (int j = 1; j < edgeCase.length; j++) {
+                    text.append(edgeCase[j]).append('\n');
+                }
+                String expected = dump(regexReader, new ByteArrayInputStream(
+                        encode(text.toString())));
+                String actual = dump(scanReader, new ShortReadInputStream(
+                        encode(text.toString())));
+                if (expected.equals(actual)) {
+                    System.out.println("一致: " + edgeCase[0]);
+                } else {
+                    failed++;
+                    System.out.println("不一致: " + edgeCase[0] + "\n" + expected
+                            + "\n--\n" + actual);
+                }
+            }
+
+            Random random = new Random(42);
+            int fuzzFailed = 0;
+            for (int i = 0; i < fuzzCount; i++) {
+                String text = randomLyrics(random);
+                String expected = dump(regexReader, new ByteArrayInputStream(
+                        encode(text)));
+                String actual = dump(scanReader, new ShortReadInputStream(
+                        encode(text)));
+                if (!expected.equals(actual)) {
+                    fuzzFailed++;
+                    if (fuzzFailed <= 5) {
+                        System.out.println("随机歌词不一致: "
+                                + text.replace("\n", "\\n").replace("\r",
+                                        "\\r"));
+                    }
+                }
+            }
+            System.out.println("随机歌词: " + fuzzCount + "个, 不一致"
+                    + fuzzFailed + "个");
+            failed += fuzzFailed;
+        } finally {
+            System.setErr(err);
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String randomLyrics(Random random) {
+        StringBuilder text = new StringBuilder();
+        int lines = 1 + random.nextInt(5);
+        for (int i = 0; i < lines; i++) {
+            if (random.nextBoolean()) {
+                text.append('[').append(random.nextInt(100000)).append(',')
+                        .append(random.nextInt(5000)).append(']');
+            }
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                if (random.nextInt(6) == 0) {
+                    text.append('<').append(random.nextInt(1000)).append(',')
+                            .append(random.nextInt(1000)).append(',')
+                            .append(random.nextInt(2)).append('>');
+                } else {
+                    text.append(FUZZ_CHARS.charAt(random.nextInt(FUZZ_CHARS
+                            .length())));
+                }
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * 按krc文件格式压缩和加密歌词文本
+     *
+     * @param text
+     * @return
+     * @throws Exception
+     */
+    private static byte[] encode(String text) throws Exception {
+        byte[] zip = StringCompressUtils.compress(text, UTF8);
+        byte[] data = new byte[zip.length + 4];
+        data[0] = 'k';
+        data[1] = 'r';
+        data[2] = 'c';
+        data[3] = '1';
+        for (int i = 0; i < zip.length; i++) {
+            data[i + 4] = (byte) (zip[i] ^ KEY[i % KEY.length]);
+        }
+        return data;
+    }
+
+    /**
+     * 解析结果转成文本,解析失败时返回异常类型
+     *
+     * @param reader
+     * @param in
+     * @return
+     */
+    private static String dump(LyricsFileReader reader, InputStream in) {
+        LyricsInfo lyricsInfo;
+        try {
+            lyricsInfo = reader.readInputStream(in);
+        } catch (Throwable e) {
+            // 数据不完整时解压会抛出 AssertionError
+            return "异常: " + e.getClass().getName();
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(new TreeMap<String, Object>(lyricsInfo.getLyricsTags()));
+        for (Map.Entry<Integer, LyricsLineInfo> entry : lyricsInfo
+                .getLyricsLineInfoTreeMap().entrySet()) {
+            text.append('\n').append(entry.getKey()).append(':');
+            dumpLine(text, entry.getValue());
+        }
+        if (lyricsInfo.getTranslateLyricsInfo() != null) {
+            for (TranslateLrcLineInfo translateLrcLineInfo : lyricsInfo
+                    .getTranslateLyricsInfo().getTranslateLrcLineInfos()) {
+                text.append("\n翻译:").append(
+                        translateLrcLineInfo.getLineLyrics());
+            }
+        }
+        if (lyricsInfo.getTransliterationLyricsInfo() != null) {
+            for (LyricsLineInfo lyricsLineInfo : lyricsInfo
+                    .getTransliterationLyricsInfo()
+                    .getTransliterationLrcLineInfos()) {
+                text.append("\n音译:");
+                dumpLine(text, lyricsLineInfo);
+            }
+        }
+        return text.toString();
+    }
+
+    private static void dumpLine(StringBuilder text,
+            LyricsLineInfo lyricsLineInfo) {
+        text.append(lyricsLineInfo.getStartTime()).append(',')
+                .append(lyricsLineInfo.getEndTime()).append('|')
+                .append(lyricsLineInfo.getLineLyrics()).append('|')
+                .append(Arrays.toString(lyricsLineInfo.getLyricsWords()))
+                .append(Arrays.toString(lyricsLineInfo.getWordsDisInterval()));
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 每次最多返回7个字节,available()只返回1,和网络流、解压流一样不能按available()分配缓冲区
+     */
+    private static class ShortReadInputStream extends InputStream {
+        private final byte[] data;
+        private int position;
+
+        ShortReadInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, 7), data.length - position);
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return position < data.length ? 1 : 0;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.sparkle.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sparkle.lyrics.LyricsFileReader;
+import com.sparkle.lyrics.LyricsFileWriter;
+import com.sparkle.lyrics.formats.hrcs.HrcsLyricsFileReader;
+import com.sparkle.lyrics.formats.hrcs.HrcsLyricsFileWriter;
+import com.sparkle.lyrics.formats.hrcx.HrcxLyricsFileReader;
+import com.sparkle.lyrics.formats.hrcx.HrcxLyricsFileWriter;
+import com.sparkle.lyrics.formats.krc.KrcLyricsFileReader;
+import com.sparkle.lyrics.formats.krc.KrcLyricsFileWriter;
+import com.sparkle.lyrics.formats.ksc.KscLyricsFileReader;
+import com.sparkle.lyrics.formats.ksc.KscLyricsFileWriter;
+import com.sparkle.lyrics.formats.lrc.LrcLyricsFileReader;
+import com.sparkle.lyrics.formats.lrc.LrcLyricsFileWriter;
+import com.sparkle.lyrics.model.LyricsInfo;
+import com.sparkle.lyrics.utils.FileUtils;
+import com.sparkle.util.LyricsCacheUtil;
+
+/**
+ * 歌词磁盘缓存的性能对比:每种支持的歌词格式分别测量解析歌词文件和读取缓存的耗时
+ * <p>
+ * 歌词目录中的样例复制到临时目录后再测量,没有样例的格式用第一个样例转换生成.
+ * 读取器和保存器直接按格式创建,不经过按后缀名查找.
+ * 缓存写在 {@link LyricsCacheUtil#PATH_LYRICS_CACHE} 中,结束后删除本次生成的缓存.
+ * 在项目根目录运行:gradle lyricsCacheBench,或者
+ * java -cp ... com.sparkle.bench.LyricsCacheBench [歌词目录] [次数]
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class LyricsCacheBench {
+
+    /**
+     * 预热次数
+     */
+    private static final int WARMUP = 50;
+
+    /**
+     * 支持的格式
+     */
+    private static final String[] EXTS = { "krc", "ksc", "hrcx", "hrcs",
+            "lrc" };
+
+    private static final LyricsFileReader[] READERS = {
+            new KrcLyricsFileReader(), new KscLyricsFileReader(),
+            new HrcxLyricsFileReader(), new HrcsLyricsFileReader(),
+            new LrcLyricsFileReader() };
+
+    private static final LyricsFileWriter[] WRITERS = {
+            new KrcLyricsFileWriter(), new KscLyricsFileWriter(),
+            new HrcxLyricsFileWriter(), new HrcsLyricsFileWriter(),
+            new LrcLyricsFileWriter() };
+
+    public static void main(String[] args) throws Exception {
+        File lyricsDir = new File(args.length > 0 ? args[0]
+                : "sparkleplayer/lyrics");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        File workDir = new File(System.getProperty("java.io.tmpdir"),
+                "sparkle-lyrics-bench-" + System.nanoTime());
+        workDir.mkdirs();
+        List<File> cacheFiles = new ArrayList<File>();
+        try {
+            Map<String, File> samples = prepareSamples(lyricsDir, workDir);
+            System.out.println(String.format(
+                    "%-6s %-40s %6s %12s %12s %12s %8s", "格式", "文件", "行数",
+                    "首次解析(us)", "解析(us)", "读缓存(us)", "倍数"));
+            for (Map.Entry<String, File> entry : samples.entrySet()) {
+                File file = entry.getValue();
+                cacheFiles.add(LyricsCacheUtil.getCacheFile(file));
+                bench(entry.getKey(), file, rounds);
+            }
+        } finally {
+            for (int i = 0; i < cacheFiles.size(); i++) {
+                cacheFiles.get(i).delete();
+            }
+            deleteDir(workDir);
+        }
+    }
+
+    /**
+     * 每种格式取一个样例,没有样例的格式用第一个样例的解析结果转换生成
+     *
+     * @param lyricsDir
+     * @param workDir
+     * @return 格式 -> 样例文件
+     * @throws Exception
+     */
+    private static Map<String, File> prepareSamples(File lyricsDir,
+            File workDir) throws Exception {
+        Map<String, File> samples = new LinkedHashMap<String, File>();
+        File[] files = lyricsDir.listFiles();
+        if (files == null) {
+            throw new IOException("歌词目录不存在: " + lyricsDir.getPath());
+        }
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            String ext = FileUtils.getFileExt(file.getName());
+            if (!file.isFile() || indexOf(ext) == -1) {
+                continue;
+            }
+            if (!samples.containsKey(ext)) {
+                File copy = new File(workDir, file.getName());
+                copy(file, copy);
+                samples.put(ext, copy);
+            }
+        }
+        if (samples.isEmpty()) {
+            throw new IOException("没有歌词样例: " + lyricsDir.getPath());
+        }
+
+        // 转换时优先使用有逐字时间的样例,lrc没有逐字时间
+        File source = null;
+        for (File file : samples.values()) {
+            if (!"lrc".equals(FileUtils.getFileExt(file.getName()))) {
+                source = file;
+                break;
+            }
+        }
+        if (source == null) {
+            source = samples.values().iterator().next();
+        }
+        LyricsInfo lyricsInfo = null;
+        Map<String, File> result = new LinkedHashMap<String, File>();
+        for (int i = 0; i < EXTS.length; i++) {
+            String ext = EXTS[i];
+            if (samples.containsKey(ext)) {
+                result.put(ext, samples.get(ext));
+                continue;
+            }
+            if (lyricsInfo == null) {
+                lyricsInfo = READERS[indexOf(FileUtils.getFileExt(source
+                        .getName()))].readFile(source);
+            }
+            File file = new File(workDir, "converted." + ext);
+            if (WRITERS[i].writer(lyricsInfo, file.getPath())) {
+                result.put(ext, file);
+            } else {
+                System.out.println(ext + ": 转换失败,跳过");
+            }
+        }
+        return result;
+    }
+
+    private static int indexOf(String ext) {
+        for (int i = 0; i < EXTS.length; i++) {
+            if (EXTS[i].equals(ext)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void bench(String ext, File file, int rounds)
+            throws Exception {
+        LyricsFileReader reader = READERS[indexOf(ext)];
+
+        long start = System.nanoTime();
+        LyricsInfo parsed = reader.readFile(file);
+        long firstParse = System.nanoTime() - start;
+
+        for (int i = 0; i < WARMUP; i++) {
+            reader.readFile(file);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            reader.readFile(file);
+        }
+        long parse = (System.nanoTime() - start) / rounds;
+
+        LyricsCacheUtil.write(file, file.length(), file.lastModified(), parsed);
+        LyricsInfo cached = LyricsCacheUtil.read(file);
+        if (cached == null) {
+            System.out.println(ext + ": 缓存不可用,检查 sparkle.lyrics.diskcache");
+            return;
+        }
+        int lines = parsed.getLyricsLineInfoTreeMap().size();
+        if (cached.getLyricsLineInfoTreeMap().size() != lines) {
+            throw new IllegalStateException(ext + ": 缓存的歌词行数和解析结果不一致");
+        }
+        for (int i = 0; i < WARMUP; i++) {
+            LyricsCacheUtil.read(file);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            LyricsCacheUtil.read(file);
+        }
+        long load = (System.nanoTime() - start) / rounds;
+
+        String name = file.getName();
+        if (name.length() > 40) {
+            name = name.substring(0, 37) + "...";
+        }
+        System.out.println(String.format("%-6s %-40s %6d %12d %12d %12d %8.1f",
+                ext, name, lines, firstParse / 1000, parse / 1000, load / 1000,
+                load == 0 ? 0 : (double) parse / load));
+        if (lines == 0) {
+            System.out.println(ext + ": 解析结果没有歌词行,耗时没有可比性");
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        try {
+            FileOutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, length);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+        }
+        dir.delete();
+    }
+}
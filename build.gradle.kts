@@ -90,6 +90,32 @@ sourceSets {
             exclude("**/*.java")
         }
     }
+    // 性能对比和一致性检查程序，不打包到jar中
+    create("bench") {
+        java {
+            setSrcDirs(listOf("bench"))
+        }
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+        runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+    }
+}
+
+// 歌词解析和磁盘缓存读取的耗时对比，参数：[歌词目录] [次数]
+val lyricsCacheBench = tasks.register<JavaExec>("lyricsCacheBench") {
+    description = "对比每种歌词格式解析文件和读取缓存的耗时"
+    group = "verification"
+    classpath = sourceSets["bench"].runtimeClasspath
+    mainClass.set("com.sparkle.bench.LyricsCacheBench")
+    workingDir = projectDir
+}
+
+// KRC逐字符扫描读取器和原来的正则表达式读取器的一致性检查，参数：[歌词目录] [随机歌词数]
+val krcParityCheck = tasks.register<JavaExec>("krcParityCheck") {
+    description = "对比KRC新旧读取器的解析结果"
+    group = "verification"
+    classpath = sourceSets["bench"].runtimeClasspath
+    mainClass.set("com.sparkle.bench.KrcParityCheck")
+    workingDir = projectDir
 }
 
 tasks.jar {
@@ -197,6 +223,11 @@ tasks.withType<com.github.spotbugs.snom.SpotBugsTask> {
     }
 }
 
+// bench 只是辅助程序，不做静态分析
+tasks.matching { it.name in listOf("checkstyleBench", "pmdBench", "spotbugsBench") }.configureEach {
+    enabled = false
+}
+
 // 检查任务依赖
 tasks.check {
     dependsOn(tasks.checkstyleMain, tasks.pmdMain, tasks.spotbugsMain)
@@ -34,6 +34,12 @@ public class BaseData {
      * 播放模式：0是 顺序播放 1是随机播放 2是循环播放 3是单曲播放 4单曲循环
      */
     public static int playModel;
+    /**
+     * 无缝播放:提前打开并解码下一首歌曲,歌曲之间不留空隙.启动参数
+     * -Dsparkle.player.gapless=false 时使用原来的播放器
+     */
+    public static boolean gaplessPlayback = Boolean.parseBoolean(System
+            .getProperty("sparkle.player.gapless", "true"));
 
     /**
      * 展开的列表
@@ -56,6 +56,15 @@ public class Constants {
      * db数据库保存到C盘里面
      */
     public final static String PATH_DB = PATH_TEMP + File.separator + "db";
+    /**
+     * 缓存
+     */
+    public final static String PATH_CACHE = PATH_TEMP + File.separator + "cache";
+    /**
+     * 随机播放顺序
+     */
+    public final static String PATH_SHUFFLE = PATH_CACHE + File.separator
+            + "shuffle.dat";
     /**
      * ==================================
      * <p>
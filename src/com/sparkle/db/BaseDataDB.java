@@ -44,12 +44,14 @@ public class BaseDataDB {
 
     public BaseDataDB() {
         //
+        Statement stmt = null;
         try {
+            // 先获取连接,和finally中的DBUtils.close()对应
+            Connection connection = DBUtils.getConnection();
             boolean flag = DBUtils.isTableExist(TBL_NAME);
             if (!flag) {
-                Connection connection = DBUtils.getConnection();
                 connection.setAutoCommit(true);
-                Statement stmt = connection.createStatement();
+                stmt = connection.createStatement();
                 stmt.executeUpdate(CREATE_TBL);
 
                 // 添加表版本表数据
@@ -90,6 +92,7 @@ public class BaseDataDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(stmt);
             DBUtils.close();
         }
     }
@@ -113,14 +116,18 @@ public class BaseDataDB {
             String updateTabSql = "alter table " + TBL_NAME + " add ";
             for (int i = 0; i < valueList.size(); i++) {
                 String sql = updateTabSql + valueList.get(i);
+                PreparedStatement ps = null;
                 try {
                     Connection connection = DBUtils.getConnection();
-                    PreparedStatement ps = connection.prepareStatement(sql);
+                    ps = connection.prepareStatement(sql);
                     ps.executeUpdate();
 
                 } catch (Exception e) {
                     e.printStackTrace();
                     logger.error(e.toString());
+                } finally {
+                    DBUtils.close(ps);
+                    DBUtils.close();
                 }
             }
             return true;
@@ -158,10 +165,11 @@ public class BaseDataDB {
      * 
      */
     public boolean init() {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "select * from " + TBL_NAME + " where id=?";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
             ps.setString(1, id);
             ResultSet result = ps.executeQuery();
             if (result.next()) {
@@ -191,6 +199,7 @@ public class BaseDataDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
         return false;
@@ -201,11 +210,12 @@ public class BaseDataDB {
      * 
      */
     private void addTab() {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "insert into " + TBL_NAME
                     + " values(?,?,?,?,?,?,?,?,?,?,?)";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
 
             ps.setString(1, id);
             ps.setInt(2, BaseData.listViewAlpha);
@@ -227,6 +237,7 @@ public class BaseDataDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
@@ -236,6 +247,7 @@ public class BaseDataDB {
      * 
      */
     private void update() {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "update " + TBL_NAME
@@ -243,7 +255,7 @@ public class BaseDataDB {
                     + "playInfoPID=?,playInfoID=?,showDesktopLyrics=?,"
                     + "lrcColorIndex=?,lrcFontSize=?,desktopLrcFontSize=?,"
                     + "desktopLrcIndex=? " + "where id=?";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
 
             ps.setInt(1, BaseData.listViewAlpha);
             ps.setInt(2, BaseData.volumeSize);
@@ -271,6 +283,7 @@ public class BaseDataDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
@@ -281,10 +294,11 @@ public class BaseDataDB {
      * @return
      */
     private boolean isExist() {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "select * from " + TBL_NAME + " where id=?";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
             ps.setString(1, id);
             ResultSet result = ps.executeQuery();
             if (result.next()) {
@@ -294,6 +308,7 @@ public class BaseDataDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
         return false;
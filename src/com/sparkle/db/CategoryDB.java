@@ -38,12 +38,14 @@ public class CategoryDB {
     private static CategoryDB _CategoryDB;
 
     public CategoryDB() {
+        Statement stmt = null;
         try {
+            // 先获取连接,和finally中的DBUtils.close()对应
+            Connection connection = DBUtils.getConnection();
             boolean flag = DBUtils.isTableExist(TBL_NAME);
             if (!flag) {
-                Connection connection = DBUtils.getConnection();
                 connection.setAutoCommit(true);
-                Statement stmt = connection.createStatement();
+                stmt = connection.createStatement();
                 stmt.executeUpdate(CREATE_TBL);
                 
                 // 添加表版本表数据
@@ -57,6 +59,7 @@ public class CategoryDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(stmt);
             DBUtils.close();
         }
     }
@@ -74,10 +77,11 @@ public class CategoryDB {
      * @return
      */
     public boolean add(Category category) {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "insert into " + TBL_NAME + " values(?,?,?)";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
             ps.setObject(1, category.getCid());
             ps.setObject(2, category.getCategoryName());
             ps.setObject(3, category.getCreateTime());
@@ -90,6 +94,7 @@ public class CategoryDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
         return false;
@@ -101,10 +106,11 @@ public class CategoryDB {
      * @param categoryId
      */
     public void delete(String categoryId) {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "delete from " + TBL_NAME + " where cid=?";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
 
             ps.setString(1, categoryId);
             int result = ps.executeUpdate();// 返回行数或者0
@@ -115,6 +121,7 @@ public class CategoryDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
@@ -125,11 +132,12 @@ public class CategoryDB {
      * @return
      */
     public List<Category> getAllCategory() {
+        PreparedStatement ps = null;
         try {
             List<Category> categorys = new ArrayList<Category>();
             Connection connection = DBUtils.getConnection();
             String sql = "select * from " + TBL_NAME + " order by createTime";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
             ResultSet resultSet = ps.executeQuery();
             while (resultSet.next()) {
                 Category category = getCategoryInfo(resultSet);
@@ -142,6 +150,7 @@ public class CategoryDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
         return null;
@@ -0,0 +1,355 @@
+package com.sparkle.db;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.sparkle.common.Constants;
+import com.sparkle.logger.LoggerManage;
+
+/**
+ * 内嵌数据库连接管理.
+ * <p>
+ * Derby 引擎在进程内只启动一次,连接放在一个小连接池里长期复用,
+ * 每个线程最多占用一个连接,需要事务时也在这个连接上进行.
+ * 同一线程内多次获取得到的是同一个连接,每次 {@link #acquire()} 都要对应一次 {@link #release()},
+ * 嵌套调用时只有最外层的 {@link #release()} 才把连接归还到池中.
+ * 进程退出时由 {@link #shutdown()} 关闭引擎,且只执行一次.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public final class DBConnectionManage {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 驱动
+     */
+    private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+
+    /**
+     * 数据库地址
+     */
+    private static final String URL = "jdbc:derby:" + Constants.PATH_DB
+            + File.separator;
+
+    /**
+     * 默认连接池大小.每个线程最多占用一个连接,同时访问数据库的线程有界面线程、
+     * 消息队列的工作线程、手动导入歌曲的线程和文件夹同步的线程
+     */
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    /**
+     * 获取连接的最长等待时间(毫秒)
+     */
+    private static final long ACQUIRE_TIMEOUT = 10 * 1000;
+
+    private static DBConnectionManage _DBConnectionManage;
+
+    /**
+     * 连接池大小
+     */
+    private final int poolSize;
+
+    /**
+     * 空闲连接
+     */
+    private final Deque<Connection> idleConnections = new ArrayDeque<Connection>();
+
+    /**
+     * 当前线程持有的连接
+     */
+    private final ThreadLocal<Connection> boundConnection = new ThreadLocal<Connection>();
+
+    /**
+     * 当前线程未归还的 {@link #acquire()} 次数
+     */
+    private final ThreadLocal<int[]> acquireDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * 已经创建且未关闭的连接数
+     */
+    private int openCount = 0;
+
+    /**
+     * 引擎是否已经关闭
+     */
+    private boolean shutdown = false;
+
+    /**
+     * 连接获取次数
+     */
+    private long acquireCount = 0;
+
+    /**
+     * 物理连接创建次数
+     */
+    private long createCount = 0;
+
+    /**
+     * 因池满而等待的次数
+     */
+    private long waitCount = 0;
+
+    /**
+     * 引擎启动耗时(毫秒),即第一个连接的建立时间
+     */
+    private long bootTime = -1;
+
+    private DBConnectionManage(int poolSize) {
+        this.poolSize = Math.max(1, poolSize);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                shutdown();
+            }
+        }, "DBShutdownHook"));
+    }
+
+    public static synchronized DBConnectionManage getDBConnectionManage() {
+        if (_DBConnectionManage == null) {
+            _DBConnectionManage = new DBConnectionManage(Integer.getInteger(
+                    "sparkle.db.poolSize", DEFAULT_POOL_SIZE));
+        }
+        return _DBConnectionManage;
+    }
+
+    /**
+     * 获取当前线程的连接,没有则从连接池中取出一个.
+     * 不管是否获取成功都要调用一次 {@link #release()}
+     *
+     * @return
+     * @throws SQLException
+     */
+    public Connection acquire() throws SQLException {
+        // 先计数,获取失败时调用者在finally中的release()不会影响外层
+        acquireDepth.get()[0]++;
+        Connection connection = boundConnection.get();
+        synchronized (this) {
+            acquireCount++;
+        }
+        if (connection != null) {
+            return connection;
+        }
+        connection = borrow();
+        boundConnection.set(connection);
+        return connection;
+    }
+
+    /**
+     * 对应一次 {@link #acquire()},最外层调用时归还当前线程的连接,
+     * 当前线程没有未归还的获取时不做处理
+     */
+    public void release() {
+        int[] depth = acquireDepth.get();
+        if (depth[0] == 0) {
+            logger.warn("release() 没有对应的 acquire()");
+            return;
+        }
+        depth[0]--;
+        if (depth[0] > 0) {
+            // 外层调用还在使用这个连接
+            return;
+        }
+        acquireDepth.remove();
+        Connection connection = boundConnection.get();
+        if (connection == null) {
+            return;
+        }
+        boundConnection.remove();
+        release(connection);
+    }
+
+    /**
+     * 归还连接,未提交的事务会被回滚
+     *
+     * @param connection
+     */
+    private void release(Connection connection) {
+        boolean reusable = false;
+        try {
+            if (!connection.isClosed()) {
+                if (!connection.getAutoCommit()) {
+                    // 未提交的事务不能带回连接池
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                reusable = true;
+            }
+        } catch (SQLException e) {
+            logger.error(e.toString());
+        }
+
+        synchronized (this) {
+            if (reusable && !shutdown) {
+                idleConnections.push(connection);
+            } else {
+                openCount--;
+                closeQuietly(connection);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * 从连接池中取出连接,池中没有空闲连接且未达到上限时新建
+     *
+     * @return
+     * @throws SQLException
+     */
+    private synchronized Connection borrow() throws SQLException {
+        long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT;
+        boolean waited = false;
+        while (true) {
+            if (shutdown) {
+                throw new SQLException("数据库已经关闭!");
+            }
+            if (!idleConnections.isEmpty()) {
+                return idleConnections.pop();
+            }
+            if (openCount < poolSize) {
+                openCount++;
+                try {
+                    return createConnection();
+                } catch (SQLException e) {
+                    openCount--;
+                    throw e;
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SQLException("获取数据库连接超时!");
+            }
+            if (!waited) {
+                waited = true;
+                waitCount++;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("获取数据库连接被中断!");
+            }
+        }
+    }
+
+    /**
+     * 新建物理连接,第一次建立连接时会启动 Derby 引擎
+     *
+     * @return
+     * @throws SQLException
+     */
+    private Connection createConnection() throws SQLException {
+        try {
+            Class.forName(DRIVER);
+        } catch (ClassNotFoundException e) {
+            // 新版本 Derby 的驱动由 DriverManager 自动加载
+            logger.warn(e.toString());
+        }
+        long start = System.currentTimeMillis();
+        Connection connection = DriverManager.getConnection(URL
+                + ";create=true");
+        createCount++;
+        if (bootTime < 0) {
+            bootTime = System.currentTimeMillis() - start;
+            logger.info("数据库启动耗时: " + bootTime + "ms");
+        }
+        return connection;
+    }
+
+    /**
+     * 关闭所有连接并关闭 Derby 引擎,重复调用无效
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            while (!idleConnections.isEmpty()) {
+                openCount--;
+                closeQuietly(idleConnections.pop());
+            }
+            notifyAll();
+            if (createCount == 0) {
+                // 引擎没有启动过
+                return;
+            }
+        }
+        try {
+            DriverManager.getConnection(URL + ";shutdown=true");
+        } catch (SQLException e) {
+            // 正常关闭时 Derby 会抛出 08006 异常
+            if (!"08006".equals(e.getSQLState())) {
+                logger.error(e.toString());
+            }
+        }
+        logger.info("数据库已关闭 " + getStatistics());
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.getMessage();
+        }
+    }
+
+    /**
+     * 连接获取次数
+     *
+     * @return
+     */
+    public synchronized long getAcquireCount() {
+        return acquireCount;
+    }
+
+    /**
+     * 物理连接创建次数
+     *
+     * @return
+     */
+    public synchronized long getCreateCount() {
+        return createCount;
+    }
+
+    /**
+     * 因连接池已满而等待的次数
+     *
+     * @return
+     */
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * 引擎启动耗时(毫秒),尚未启动时为-1
+     *
+     * @return
+     */
+    public synchronized long getBootTime() {
+        return bootTime;
+    }
+
+    /**
+     * 统计信息
+     *
+     * @return
+     */
+    public synchronized String getStatistics() {
+        return "[acquire=" + acquireCount + ",create=" + createCount
+                + ",wait=" + waitCount + ",open=" + openCount + ",idle="
+                + idleConnections.size() + ",poolSize=" + poolSize
+                + ",bootTime=" + bootTime + "ms]";
+    }
+}
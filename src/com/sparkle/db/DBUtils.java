@@ -1,13 +1,11 @@
 package com.sparkle.db;
 
-import java.io.File;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
-import com.sparkle.common.Constants;
 import com.sparkle.logger.LoggerManage;
 
 /**
@@ -20,20 +18,14 @@ public class DBUtils {
     private static LoggerManage logger = LoggerManage.getYuyiLogger();
 
     /**
-     * 获取数据库连接
+     * 获取数据库连接,连接由 {@link DBConnectionManage} 统一管理,
+     * 每次调用都要在finally中对应调用一次 {@link #close()}
      * 
      * @return
      * @throws Exception
      */
     public static Connection getConnection() throws Exception {
-        String driver = "org.apache.derby.jdbc.EmbeddedDriver";
-        String url = "jdbc:derby:";
-        String facetDir = Constants.PATH_DB + File.separator;
-        // Class.forName(driver).newInstance();
-        Class.forName(driver);
-        Connection connection = DriverManager.getConnection(url + facetDir
-                + ";create=true");
-        return connection;
+        return DBConnectionManage.getDBConnectionManage().acquire();
     }
 
     /**
@@ -44,31 +36,90 @@ public class DBUtils {
      * @throws Exception
      */
     public static boolean isTableExist(String sTablename) throws Exception {
-        Connection connection = getConnection();
-        if (connection != null) {
+        try {
+            Connection connection = getConnection();
             DatabaseMetaData dbmd = connection.getMetaData();
             ResultSet rs = dbmd.getTables(null, null, sTablename.toUpperCase(),
                     null);
-            if (rs.next()) {
-                logger.info(sTablename + " 表已经存在!不用创建!");
-                return true;
+            try {
+                if (rs.next()) {
+                    logger.info(sTablename + " 表已经存在!不用创建!");
+                    return true;
+                }
+            } finally {
+                close(rs);
             }
+            return false;
+        } finally {
+            close();
         }
-        return false;
     }
 
     /**
-     * 关闭数据库
+     * 对应一次 {@link #getConnection()},最外层调用时归还当前线程的数据库连接.内嵌数据库不在这里关闭,退出程序时调用
+     * {@link #shutdown()}
      */
     public static void close() {
-        // 内嵌模式数据库操作用完之后需要关闭数据库,这里没有执行数据库名称则全部关闭.
+        DBConnectionManage.getDBConnectionManage().release();
+    }
+
+    /**
+     * 结束当前线程连接上的事务:没有提交的数据回滚,恢复自动提交.在finally中调用
+     * 
+     * @param connection
+     *            为null时不处理
+     */
+    public static void endTransaction(Connection connection) {
+        if (connection == null) {
+            return;
+        }
         try {
-            String url = "jdbc:derby:";
-            String facetDir = Constants.PATH_DB + File.separator;
-            // DriverManager.getConnection("jdbc:derby:;shutdown=true");
-            DriverManager.getConnection(url + facetDir + ";shutdown=true");
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        }
+    }
+
+    /**
+     * 关闭语句
+     * 
+     * @param statement
+     */
+    public static void close(Statement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
         } catch (SQLException e) {
             e.getMessage();
         }
     }
+
+    /**
+     * 关闭结果集
+     * 
+     * @param resultSet
+     */
+    public static void close(ResultSet resultSet) {
+        if (resultSet == null) {
+            return;
+        }
+        try {
+            resultSet.close();
+        } catch (SQLException e) {
+            e.getMessage();
+        }
+    }
+
+    /**
+     * 关闭数据库.内嵌模式数据库用完之后需要关闭,整个进程只需要关闭一次
+     */
+    public static void shutdown() {
+        DBConnectionManage.getDBConnectionManage().shutdown();
+    }
 }
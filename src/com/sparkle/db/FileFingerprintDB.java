@@ -0,0 +1,320 @@
+package com.sparkle.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.model.FileFingerprint;
+import com.sparkle.model.TabVersion;
+import com.sparkle.util.IDGenerate;
+
+/**
+ * 歌曲文件指纹
+ *
+ * @author yuyi2003
+ *
+ */
+public class FileFingerprintDB {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+    /**
+     * 表名
+     */
+    public static final String TBL_NAME = "fingerprintTbl";
+
+    /**
+     * 当前版本
+     * <p>
+     * 1: 按 (categoryId, path) 保存,同一个文件夹导入到多个播放列表时各自保存歌曲id,
+     * 增加 (categoryId, folder) 索引,同步时只读取该文件夹的指纹
+     * </p>
+     */
+    private int version = 1;
+
+    /**
+     * 建表语句
+     */
+    public static final String CREATE_TBL = "create table " + TBL_NAME + " ("
+            + "categoryId VARCHAR(256) NOT NULL,path VARCHAR(1024) NOT NULL,"
+            + "folder VARCHAR(1024),size BIGINT,lastModified BIGINT,"
+            + "partialHash VARCHAR(64),sid VARCHAR(256),"
+            + "PRIMARY KEY (categoryId, path))";
+
+    /**
+     * 文件夹索引
+     */
+    public static final String CREATE_FOLDER_INDEX = "create index "
+            + TBL_NAME + "_folder on " + TBL_NAME + " (categoryId, folder)";
+
+    private static FileFingerprintDB _FileFingerprintDB;
+
+    public FileFingerprintDB() {
+        Statement stmt = null;
+        try {
+            // 先获取连接,和finally中的DBUtils.close()对应
+            Connection connection = DBUtils.getConnection();
+            boolean flag = DBUtils.isTableExist(TBL_NAME);
+            if (!flag) {
+                connection.setAutoCommit(true);
+                stmt = connection.createStatement();
+                stmt.executeUpdate(CREATE_TBL);
+                stmt.executeUpdate(CREATE_FOLDER_INDEX);
+
+                // 添加表版本表数据
+                TabVersion tabVersion = new TabVersion();
+                tabVersion.setId(IDGenerate.getId(TabVersion.key));
+                tabVersion.setTabName(TBL_NAME);
+                tabVersion.setVersion(version);
+                TabVersionDB.getTabVersionDB().add(tabVersion);
+            } else {
+                // 表存在
+                TabVersion tabVersion = TabVersionDB.getTabVersionDB()
+                        .getTabVersion(TBL_NAME);
+                if (tabVersion != null && tabVersion.getVersion() < version) {
+                    // 更新表
+                    if (updateTab()) {
+                        tabVersion.setVersion(version);
+                        // 数据库中没有该记录
+                        if (tabVersion.getId() == null
+                                || tabVersion.getTabName() == null) {
+                            tabVersion.setId(IDGenerate.getId(TabVersion.key));
+                            tabVersion.setTabName(TBL_NAME);
+                            TabVersionDB.getTabVersionDB().add(tabVersion);
+                        } else {
+                            // 更新数据库中的版本
+                            TabVersionDB.getTabVersionDB().update(tabVersion);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            DBUtils.close(stmt);
+            DBUtils.close();
+        }
+    }
+
+    /**
+     * 更新表:旧的指纹没有播放列表id,直接删除后按新的表结构重建.
+     * 指纹只是解析结果的缓存,下次同步时会为播放列表中已有的歌曲重新记录
+     *
+     * @return
+     */
+    private boolean updateTab() {
+        Connection connection = null;
+        Statement stmt = null;
+        try {
+            connection = DBUtils.getConnection();
+            connection.setAutoCommit(false);
+            stmt = connection.createStatement();
+            stmt.executeUpdate("drop table " + TBL_NAME);
+            stmt.executeUpdate(CREATE_TBL);
+            stmt.executeUpdate(CREATE_FOLDER_INDEX);
+            connection.commit();
+            logger.info(TBL_NAME + " 表已升级到版本" + version);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(TBL_NAME + " 表升级失败!" + e.toString());
+        } finally {
+            DBUtils.close(stmt);
+            DBUtils.endTransaction(connection);
+            DBUtils.close();
+        }
+        return false;
+    }
+
+    public static synchronized FileFingerprintDB getFileFingerprintDB() {
+        if (_FileFingerprintDB == null)
+            _FileFingerprintDB = new FileFingerprintDB();
+        return _FileFingerprintDB;
+    }
+
+    /**
+     * 获取播放列表中一个文件夹的文件指纹,key为规范路径
+     *
+     * @param categoryId
+     * @param folder
+     *            文件夹规范路径
+     * @return
+     */
+    public Map<String, FileFingerprint> getFolder(String categoryId,
+            String folder) {
+        Map<String, FileFingerprint> fingerprints = new HashMap<String, FileFingerprint>();
+        PreparedStatement ps = null;
+        try {
+            Connection connection = DBUtils.getConnection();
+            String sql = "select * from " + TBL_NAME
+                    + " where categoryId=? and folder=?";
+            ps = connection.prepareStatement(sql);
+            ps.setString(1, categoryId);
+            ps.setString(2, folder);
+            ResultSet resultSet = ps.executeQuery();
+            while (resultSet.next()) {
+                FileFingerprint fingerprint = getFingerprint(resultSet);
+                fingerprints.put(fingerprint.getPath(), fingerprint);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            DBUtils.close(ps);
+            DBUtils.close();
+        }
+        return fingerprints;
+    }
+
+    /**
+     * 获取播放列表中一个文件的指纹
+     *
+     * @param categoryId
+     * @param path
+     *            规范路径
+     * @return 没有时返回null
+     */
+    public FileFingerprint get(String categoryId, String path) {
+        PreparedStatement ps = null;
+        try {
+            Connection connection = DBUtils.getConnection();
+            String sql = "select * from " + TBL_NAME
+                    + " where categoryId=? and path=?";
+            ps = connection.prepareStatement(sql);
+            ps.setString(1, categoryId);
+            ps.setString(2, path);
+            ResultSet resultSet = ps.executeQuery();
+            if (resultSet.next()) {
+                return getFingerprint(resultSet);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            DBUtils.close(ps);
+            DBUtils.close();
+        }
+        return null;
+    }
+
+    private FileFingerprint getFingerprint(ResultSet resultSet)
+            throws Exception {
+        FileFingerprint fingerprint = new FileFingerprint();
+        fingerprint.setCategoryId(resultSet.getString("categoryId"));
+        fingerprint.setPath(resultSet.getString("path"));
+        fingerprint.setFolder(resultSet.getString("folder"));
+        fingerprint.setSize(resultSet.getLong("size"));
+        fingerprint.setLastModified(resultSet.getLong("lastModified"));
+        fingerprint.setPartialHash(resultSet.getString("partialHash"));
+        fingerprint.setSid(resultSet.getString("sid"));
+        return fingerprint;
+    }
+
+    /**
+     * 保存文件指纹,已存在的记录会被覆盖,所有数据在一个事务中写入
+     *
+     * @param fingerprints
+     */
+    public void saveAll(Collection<FileFingerprint> fingerprints) {
+        if (fingerprints == null || fingerprints.isEmpty()) {
+            return;
+        }
+        Connection connection = null;
+        PreparedStatement deletePs = null;
+        PreparedStatement insertPs = null;
+        try {
+            connection = DBUtils.getConnection();
+            connection.setAutoCommit(false);
+            deletePs = connection.prepareStatement("delete from " + TBL_NAME
+                    + " where categoryId=? and path=?");
+            insertPs = connection.prepareStatement("insert into " + TBL_NAME
+                    + " values(?,?,?,?,?,?,?)");
+            for (FileFingerprint fingerprint : fingerprints) {
+                deletePs.setString(1, fingerprint.getCategoryId());
+                deletePs.setString(2, fingerprint.getPath());
+                deletePs.addBatch();
+
+                insertPs.setString(1, fingerprint.getCategoryId());
+                insertPs.setString(2, fingerprint.getPath());
+                insertPs.setString(3, fingerprint.getFolder());
+                insertPs.setLong(4, fingerprint.getSize());
+                insertPs.setLong(5, fingerprint.getLastModified());
+                insertPs.setString(6, fingerprint.getPartialHash());
+                insertPs.setString(7, fingerprint.getSid());
+                insertPs.addBatch();
+            }
+            deletePs.executeBatch();
+            insertPs.executeBatch();
+            connection.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error("保存文件指纹失败!" + e.toString());
+        } finally {
+            DBUtils.close(deletePs);
+            DBUtils.close(insertPs);
+            DBUtils.endTransaction(connection);
+            DBUtils.close();
+        }
+    }
+
+    /**
+     * 删除播放列表中的文件指纹
+     *
+     * @param categoryId
+     * @param paths
+     *            规范路径
+     */
+    public void deleteAll(String categoryId, Collection<String> paths) {
+        if (paths == null || paths.isEmpty()) {
+            return;
+        }
+        Connection connection = null;
+        PreparedStatement ps = null;
+        try {
+            connection = DBUtils.getConnection();
+            connection.setAutoCommit(false);
+            ps = connection.prepareStatement("delete from " + TBL_NAME
+                    + " where categoryId=? and path=?");
+            for (String path : paths) {
+                ps.setString(1, categoryId);
+                ps.setString(2, path);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            connection.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error("删除文件指纹失败!" + e.toString());
+        } finally {
+            DBUtils.close(ps);
+            DBUtils.endTransaction(connection);
+            DBUtils.close();
+        }
+    }
+
+    /**
+     * 删除播放列表的所有文件指纹
+     *
+     * @param categoryId
+     */
+    public void deleteAll(String categoryId) {
+        PreparedStatement ps = null;
+        try {
+            Connection connection = DBUtils.getConnection();
+            ps = connection.prepareStatement("delete from " + TBL_NAME
+                    + " where categoryId=?");
+            ps.setString(1, categoryId);
+            ps.executeUpdate();
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error("删除文件指纹失败!" + e.toString());
+        } finally {
+            DBUtils.close(ps);
+            DBUtils.close();
+        }
+    }
+}
@@ -3,9 +3,12 @@ package com.sparkle.db;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.sparkle.logger.LoggerManage;
 import com.sparkle.model.SongInfo;
@@ -19,30 +22,57 @@ public class SongInfoDB {
      */
     public static final String TBL_NAME = "songTbl";
 
-    private int version = 0;
     /**
-     * 建表语句,不支持long型等
+     * 当前版本
+     * <p>
+     * 1: sid 为主键,增加 (categoryId, createTime) 索引,时长、大小和下载进度改为 BIGINT
+     * </p>
+     */
+    private int version = 1;
+    /**
+     * 建表语句
      */
     public static final String CREATE_TBL = "create table " + TBL_NAME
-            + "(sid VARCHAR(256),displayName VARCHAR(256),"
-            + "title VARCHAR(256),singer VARCHAR(256),duration int,"
-            + "durationStr VARCHAR(256),size int,sizeStr VARCHAR(256),"
+            + "(sid VARCHAR(256) NOT NULL PRIMARY KEY,displayName VARCHAR(256),"
+            + "title VARCHAR(256),singer VARCHAR(256),duration BIGINT,"
+            + "durationStr VARCHAR(256),size BIGINT,sizeStr VARCHAR(256),"
             + "filePath VARCHAR(256),type int,categoryId VARCHAR(256),"
             + "createTime VARCHAR(256),albumUrl VARCHAR(256),"
             + "singerPIC VARCHAR(256),lyricsUrl VARCHAR(256),"
             + "fileExt VARCHAR(256),downloadUrl VARCHAR(256),"
-            + "downloadProgress int,downloadStatus int)";
+            + "downloadProgress BIGINT,downloadStatus int)";
+
+    /**
+     * 分类索引,按分类加载歌曲时使用
+     */
+    public static final String CREATE_CATEGORY_INDEX = "create index "
+            + TBL_NAME + "_category_idx on " + TBL_NAME
+            + "(categoryId, createTime)";
+
+    /**
+     * 升级时旧表的临时表名
+     */
+    private static final String OLD_TBL_NAME = TBL_NAME + "Old";
+
+    /**
+     * 插入语句
+     */
+    private static final String INSERT_SQL = "insert into " + TBL_NAME
+            + " values(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
     private static SongInfoDB _SongInfoDB;
 
     public SongInfoDB() {
+        Statement stmt = null;
         try {
+            // 先获取连接,和finally中的DBUtils.close()对应
+            Connection connection = DBUtils.getConnection();
             boolean flag = DBUtils.isTableExist(TBL_NAME);
             if (!flag) {
-                Connection connection = DBUtils.getConnection();
                 connection.setAutoCommit(true);
-                Statement stmt = connection.createStatement();
+                stmt = connection.createStatement();
                 stmt.executeUpdate(CREATE_TBL);
+                stmt.executeUpdate(CREATE_CATEGORY_INDEX);
                 
                 // 添加表版本表数据
                 TabVersion tabVersion = new TabVersion();
@@ -50,13 +80,98 @@ public class SongInfoDB {
                 tabVersion.setTabName(TBL_NAME);
                 tabVersion.setVersion(version);
                 TabVersionDB.getTabVersionDB().add(tabVersion);
+            } else {
+                // 表存在
+                TabVersion tabVersion = TabVersionDB.getTabVersionDB()
+                        .getTabVersion(TBL_NAME);
+                if (tabVersion != null) {
+                    // 数据库中保存的表的版本比现在的版本小，则更新表
+                    if (tabVersion.getVersion() < version) {
+                        // 更新表
+                        if (updateTab()) {
+                            tabVersion.setVersion(version);
+                            // 数据库中没有该记录
+                            if (tabVersion.getId() == null
+                                    || tabVersion.getTabName() == null) {
+                                tabVersion.setId(IDGenerate
+                                        .getId(TabVersion.key));
+                                tabVersion.setTabName(TBL_NAME);
+                                TabVersionDB.getTabVersionDB().add(tabVersion);
+                            } else {
+                                // 更新数据库中的版本
+                                TabVersionDB.getTabVersionDB().update(
+                                        tabVersion);
+                            }
+                        }
+                    }
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(stmt);
+            DBUtils.close();
+        }
+    }
+
+    /**
+     * 更新表:旧表改名后按新的表结构重建,再把旧数据复制过来,
+     * 整个过程在一个事务中完成,失败时保留旧表
+     * 
+     * @return
+     */
+    private boolean updateTab() {
+        Connection connection = null;
+        Statement stmt = null;
+        PreparedStatement selectPs = null;
+        PreparedStatement insertPs = null;
+        try {
+            connection = DBUtils.getConnection();
+            connection.setAutoCommit(false);
+            stmt = connection.createStatement();
+            stmt.executeUpdate("rename table " + TBL_NAME + " to "
+                    + OLD_TBL_NAME);
+            stmt.executeUpdate(CREATE_TBL);
+            stmt.executeUpdate(CREATE_CATEGORY_INDEX);
+
+            selectPs = connection.prepareStatement("select * from "
+                    + OLD_TBL_NAME);
+            insertPs = connection.prepareStatement(INSERT_SQL);
+            ResultSet resultSet = selectPs.executeQuery();
+            Set<String> sids = new HashSet<String>();
+            int count = 0;
+            while (resultSet.next()) {
+                SongInfo songInfo = getSongInfo(resultSet);
+                // 主键不能为空,也不能重复
+                if (songInfo == null || songInfo.getSid() == null
+                        || !sids.add(songInfo.getSid())) {
+                    continue;
+                }
+                bindSongInfo(insertPs, songInfo);
+                insertPs.addBatch();
+                count++;
+                if (count % BatchWriter.DEFAULT_BATCH_SIZE == 0) {
+                    insertPs.executeBatch();
+                }
+            }
+            insertPs.executeBatch();
+            stmt.executeUpdate("drop table " + OLD_TBL_NAME);
+            connection.commit();
+            logger.info(TBL_NAME + " 表已升级到版本" + version + ",共复制" + count
+                    + "条数据");
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(TBL_NAME + " 表升级失败!" + e.toString());
+        } finally {
+            DBUtils.close(selectPs);
+            DBUtils.close(insertPs);
+            DBUtils.close(stmt);
+            DBUtils.endTransaction(connection);
             DBUtils.close();
         }
+        return false;
     }
 
     public static SongInfoDB getSongInfoDB() {
@@ -72,47 +187,11 @@ public class SongInfoDB {
      * @param songInfo
      */
     public void add(SongInfo songInfo) {
-
-        List<Object> valuesList = new ArrayList<Object>();
-        valuesList.add(songInfo.getSid());
-        valuesList.add(songInfo.getDisplayName());
-        valuesList.add(songInfo.getTitle());
-        valuesList.add(songInfo.getSinger());
-        valuesList.add((int) songInfo.getDuration());
-        valuesList.add(songInfo.getDurationStr());
-        valuesList.add((int) songInfo.getSize());
-        valuesList.add(songInfo.getSizeStr());
-        valuesList.add(songInfo.getFilePath());
-        valuesList.add(songInfo.getType());
-        valuesList.add(songInfo.getCategoryId());
-        valuesList.add(songInfo.getCreateTime());
-        valuesList.add(songInfo.getAlbumUrl());
-        valuesList.add(songInfo.getSingerPIC());
-        valuesList.add(songInfo.getLyricsUrl());
-        valuesList.add(songInfo.getFileExt());
-        valuesList.add(songInfo.getDownloadUrl());
-        valuesList.add((int) songInfo.getDownloadProgress());
-        valuesList.add(songInfo.getDownloadStatus());
-
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
-            String sql = "insert into " + TBL_NAME + " values(";
-
-            for (int i = 0; i < valuesList.size(); i++) {
-                if (i == 0) {
-                    sql += "?";
-                } else {
-                    sql += ",?";
-                }
-            }
-            sql += ")";
-
-            PreparedStatement ps = connection.prepareStatement(sql);
-
-            Object[] values = valuesList.toArray();
-            for (int i = 0; i < values.length; i++) {
-                ps.setObject((i + 1), values[i]);
-            }
+            ps = connection.prepareStatement(INSERT_SQL);
+            bindSongInfo(ps, songInfo);
 
             int result = ps.executeUpdate();
             if (result <= 0)
@@ -122,10 +201,189 @@ public class SongInfoDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
 
+    /**
+     * 批量添加歌曲数据,所有数据在同一个事务中插入,失败时全部回滚
+     * 
+     * @param songInfos
+     * @return 插入成功的歌曲数
+     */
+    public int addAll(List<SongInfo> songInfos) {
+        if (songInfos == null || songInfos.isEmpty()) {
+            return 0;
+        }
+        BatchWriter writer = null;
+        try {
+            writer = openBatchWriter(songInfos.size());
+            for (int i = 0; i < songInfos.size(); i++) {
+                writer.add(songInfos.get(i));
+            }
+            return writer.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error("批量插入歌曲数据失败!" + e.toString());
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 打开一个批量写入器,边解析边写入,每 batchSize 条在一个事务中写入一次,
+     * 调用 {@link BatchWriter#commit()} 写入最后不满一批的数据
+     * 
+     * @param batchSize
+     * @return
+     * @throws SQLException
+     */
+    public BatchWriter openBatchWriter(int batchSize) throws SQLException {
+        return new BatchWriter(batchSize);
+    }
+
+    /**
+     * 设置插入语句的参数
+     * 
+     * @param ps
+     * @param songInfo
+     * @throws SQLException
+     */
+    private void bindSongInfo(PreparedStatement ps, SongInfo songInfo)
+            throws SQLException {
+        ps.setString(1, songInfo.getSid());
+        ps.setString(2, songInfo.getDisplayName());
+        ps.setString(3, songInfo.getTitle());
+        ps.setString(4, songInfo.getSinger());
+        ps.setLong(5, songInfo.getDuration());
+        ps.setString(6, songInfo.getDurationStr());
+        ps.setLong(7, songInfo.getSize());
+        ps.setString(8, songInfo.getSizeStr());
+        ps.setString(9, songInfo.getFilePath());
+        ps.setInt(10, songInfo.getType());
+        ps.setString(11, songInfo.getCategoryId());
+        ps.setString(12, songInfo.getCreateTime());
+        ps.setString(13, songInfo.getAlbumUrl());
+        ps.setString(14, songInfo.getSingerPIC());
+        ps.setString(15, songInfo.getLyricsUrl());
+        ps.setString(16, songInfo.getFileExt());
+        ps.setString(17, songInfo.getDownloadUrl());
+        ps.setLong(18, songInfo.getDownloadProgress());
+        ps.setInt(19, songInfo.getDownloadStatus());
+    }
+
+    /**
+     * 歌曲批量写入器.
+     * <p>
+     * 使用当前线程的连接和一条预编译语句,每批数据在一个事务中写入,失败时回滚这一批.
+     * 批与批之间连接处于自动提交状态,同一线程中的其它数据库操作照常使用这个连接.
+     * 只能在打开它的线程中使用,用完之后必须调用 {@link #close()},没有写入的数据会被丢弃.
+     * </p>
+     */
+    public class BatchWriter {
+        /**
+         * 默认每批的条数
+         */
+        public static final int DEFAULT_BATCH_SIZE = 100;
+
+        private final int batchSize;
+
+        private Connection connection;
+
+        private PreparedStatement ps;
+
+        /**
+         * 未执行的条数
+         */
+        private int pending = 0;
+
+        /**
+         * 已写入的条数
+         */
+        private int count = 0;
+
+        private boolean closed = false;
+
+        private BatchWriter(int batchSize) throws SQLException {
+            this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+            try {
+                connection = DBConnectionManage.getDBConnectionManage()
+                        .acquire();
+                ps = connection.prepareStatement(INSERT_SQL);
+            } catch (SQLException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * 添加一首歌曲,满一批时执行批处理
+         * 
+         * @param songInfo
+         * @throws SQLException
+         */
+        public void add(SongInfo songInfo) throws SQLException {
+            bindSongInfo(ps, songInfo);
+            ps.addBatch();
+            pending++;
+            if (pending >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * 在一个事务中写入未执行的批处理,失败时这一批回滚并丢弃
+         * 
+         * @throws SQLException
+         */
+        public void flush() throws SQLException {
+            if (pending == 0) {
+                return;
+            }
+            try {
+                connection.setAutoCommit(false);
+                ps.executeBatch();
+                connection.commit();
+                count += pending;
+            } finally {
+                pending = 0;
+                ps.clearBatch();
+                DBUtils.endTransaction(connection);
+            }
+        }
+
+        /**
+         * 写入最后不满一批的数据
+         * 
+         * @return 上次调用之后写入的条数
+         * @throws SQLException
+         */
+        public int commit() throws SQLException {
+            flush();
+            int result = count;
+            count = 0;
+            return result;
+        }
+
+        /**
+         * 归还连接,没有写入的数据被丢弃
+         */
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            DBUtils.close(ps);
+            ps = null;
+            connection = null;
+            DBConnectionManage.getDBConnectionManage().release();
+        }
+    }
+
     /**
      * 通过分类的id获取该分类下的所有歌曲列表
      * 
@@ -133,12 +391,13 @@ public class SongInfoDB {
      * @return
      */
     public List<SongInfo> getSongList(String categoryId) {
+        PreparedStatement ps = null;
         try {
             List<SongInfo> songInfos = new ArrayList<SongInfo>();
             Connection connection = DBUtils.getConnection();
             String sql = "select * from " + TBL_NAME
                     + " where categoryId=? order by createTime";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
             ps.setString(1, categoryId);
             ResultSet resultSet = ps.executeQuery();
             while (resultSet.next()) {
@@ -152,6 +411,37 @@ public class SongInfoDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
+            DBUtils.close();
+        }
+        return null;
+    }
+
+    /**
+     * 通过歌曲id获取歌曲数据
+     * 
+     * @param sid
+     * @return 没有该歌曲时返回null
+     */
+    public SongInfo getSongInfoBySid(String sid) {
+        if (sid == null) {
+            return null;
+        }
+        PreparedStatement ps = null;
+        try {
+            Connection connection = DBUtils.getConnection();
+            String sql = "select * from " + TBL_NAME + " where sid=?";
+            ps = connection.prepareStatement(sql);
+            ps.setString(1, sid);
+            ResultSet resultSet = ps.executeQuery();
+            if (resultSet.next()) {
+                return getSongInfo(resultSet);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
         return null;
@@ -172,10 +462,10 @@ public class SongInfoDB {
             song.setDisplayName(resultSet.getString("displayName"));
             song.setTitle(resultSet.getString("title"));
             song.setSinger(resultSet.getString("singer"));
-            song.setDuration(resultSet.getInt("duration"));
+            song.setDuration(resultSet.getLong("duration"));
             song.setDurationStr(resultSet.getString("durationStr"));
             song.setFileExt(resultSet.getString("fileExt"));
-            song.setSize(resultSet.getInt("size"));
+            song.setSize(resultSet.getLong("size"));
             song.setSizeStr(resultSet.getString("sizeStr"));
             song.setFilePath(resultSet.getString("filePath"));
             song.setType(resultSet.getInt("type"));
@@ -185,7 +475,7 @@ public class SongInfoDB {
             song.setSingerPIC(resultSet.getString("singerPIC"));
             song.setLyricsUrl(resultSet.getString("lyricsUrl"));
             song.setDownloadUrl(resultSet.getString("downloadUrl"));
-            song.setDownloadProgress(resultSet.getInt("downloadProgress"));
+            song.setDownloadProgress(resultSet.getLong("downloadProgress"));
             song.setDownloadStatus(resultSet.getInt("downloadStatus"));
 
             return song;
@@ -200,10 +490,11 @@ public class SongInfoDB {
      * 删除sid的相关数据
      */
     public void delete(String sid) {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "delete from " + TBL_NAME + " where sid=?";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
 
             ps.setString(1, sid);
             int result = ps.executeUpdate();// 返回行数或者0
@@ -214,6 +505,7 @@ public class SongInfoDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
@@ -224,10 +516,11 @@ public class SongInfoDB {
      * @param categoryId
      */
     public void deleteAllSongs(String categoryId) {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "delete from " + TBL_NAME + " where categoryId=?";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
 
             ps.setString(1, categoryId);
             int result = ps.executeUpdate();// 返回行数或者0
@@ -238,6 +531,7 @@ public class SongInfoDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
@@ -249,10 +543,11 @@ public class SongInfoDB {
      * @param lyricsUrl
      */
     public void updateSongLyricsUrl(String sid, String lyricsUrl) {
+        PreparedStatement ps = null;
         try {
             Connection connection = DBUtils.getConnection();
             String sql = "update " + TBL_NAME + " set lyricsUrl=? where sid=?";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
 
             ps.setString(1, lyricsUrl);
             ps.setString(2, sid);
@@ -264,6 +559,7 @@ public class SongInfoDB {
             e.printStackTrace();
             logger.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
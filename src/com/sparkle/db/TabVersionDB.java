@@ -68,18 +68,21 @@ public final class TabVersionDB {
      * 初始化数据库表.
      */
     private void initializeTable() {
+        Statement stmt = null;
         try {
+            // 先获取连接,和finally中的DBUtils.close()对应
+            final Connection connection = DBUtils.getConnection();
             final boolean flag = DBUtils.isTableExist(TBL_NAME);
             if (!flag) {
-                final Connection connection = DBUtils.getConnection();
                 connection.setAutoCommit(true);
-                final Statement stmt = connection.createStatement();
+                stmt = connection.createStatement();
                 stmt.executeUpdate(CREATE_TBL);
             }
         } catch (final Exception e) {
             e.printStackTrace();
             LOGGER.error(e.toString());
         } finally {
+            DBUtils.close(stmt);
             DBUtils.close();
         }
     }
@@ -90,10 +93,11 @@ public final class TabVersionDB {
      * @param tabVersion 表版本信息
      */
     public void add(final TabVersion tabVersion) {
+        PreparedStatement ps = null;
         try {
             final Connection connection = DBUtils.getConnection();
             final String sql = "insert into " + TBL_NAME + " values(?,?,?)";
-            final PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
 
             ps.setString(1, tabVersion.getId());
             ps.setString(2, tabVersion.getTabName());
@@ -108,6 +112,7 @@ public final class TabVersionDB {
             e.printStackTrace();
             LOGGER.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
@@ -119,12 +124,13 @@ public final class TabVersionDB {
      * @return 表版本信息
      */
     public TabVersion getTabVersion(final String tabName) {
+        PreparedStatement ps = null;
         try {
             final TabVersion tabVersion = new TabVersion();
             final Connection connection = DBUtils.getConnection();
             final String sql = SELECT_FROM_PREFIX + TBL_NAME + " where tabName=?";
 
-            final PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
             ps.setString(1, tabName);
 
             final ResultSet result = ps.executeQuery();
@@ -138,6 +144,7 @@ public final class TabVersionDB {
             e.printStackTrace();
             LOGGER.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
         return null;
@@ -149,10 +156,11 @@ public final class TabVersionDB {
      * @param tabVersion 表版本信息
      */
     public void update(final TabVersion tabVersion) {
+        PreparedStatement ps = null;
         try {
             final Connection connection = DBUtils.getConnection();
             final String sql = "update " + TBL_NAME + " set version=? where id=?";
-            final PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
 
             ps.setInt(1, tabVersion.getVersion());
             ps.setString(2, tabVersion.getId());
@@ -166,6 +174,7 @@ public final class TabVersionDB {
             e.printStackTrace();
             LOGGER.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
     }
@@ -177,10 +186,11 @@ public final class TabVersionDB {
      * @return 如果数据存在返回 true
      */
     public boolean isExist(final String id) {
+        PreparedStatement ps = null;
         try {
             final Connection connection = DBUtils.getConnection();
             final String sql = SELECT_FROM_PREFIX + TBL_NAME + " where id=?";
-            final PreparedStatement ps = connection.prepareStatement(sql);
+            ps = connection.prepareStatement(sql);
             ps.setString(1, id);
             final ResultSet result = ps.executeQuery();
             if (result.next()) {
@@ -190,6 +200,7 @@ public final class TabVersionDB {
             e.printStackTrace();
             LOGGER.error(e.toString());
         } finally {
+            DBUtils.close(ps);
             DBUtils.close();
         }
         return false;
@@ -0,0 +1,160 @@
+package com.sparkle.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.model.TabVersion;
+import com.sparkle.model.WatchFolder;
+import com.sparkle.util.IDGenerate;
+
+/**
+ * 播放列表关联的歌曲文件夹
+ * 
+ * @author yuyi2003
+ * 
+ */
+public class WatchFolderDB {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+    /**
+     * 表名
+     */
+    public static final String TBL_NAME = "watchFolderTbl";
+    /**
+     * 默认版本
+     */
+    private int version = 0;
+
+    /**
+     * 建表语句
+     */
+    public static final String CREATE_TBL = "create table " + TBL_NAME + " ("
+            + "categoryId VARCHAR(256) NOT NULL,path VARCHAR(1024) NOT NULL,"
+            + "PRIMARY KEY (categoryId,path))";
+
+    private static WatchFolderDB _WatchFolderDB;
+
+    public WatchFolderDB() {
+        Statement stmt = null;
+        try {
+            // 先获取连接,和finally中的DBUtils.close()对应
+            Connection connection = DBUtils.getConnection();
+            boolean flag = DBUtils.isTableExist(TBL_NAME);
+            if (!flag) {
+                connection.setAutoCommit(true);
+                stmt = connection.createStatement();
+                stmt.executeUpdate(CREATE_TBL);
+
+                // 添加表版本表数据
+                TabVersion tabVersion = new TabVersion();
+                tabVersion.setId(IDGenerate.getId(TabVersion.key));
+                tabVersion.setTabName(TBL_NAME);
+                tabVersion.setVersion(version);
+                TabVersionDB.getTabVersionDB().add(tabVersion);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            DBUtils.close(stmt);
+            DBUtils.close();
+        }
+    }
+
+    public static synchronized WatchFolderDB getWatchFolderDB() {
+        if (_WatchFolderDB == null)
+            _WatchFolderDB = new WatchFolderDB();
+        return _WatchFolderDB;
+    }
+
+    /**
+     * 添加关联的文件夹,已存在时不做处理
+     * 
+     * @param watchFolder
+     */
+    public void add(WatchFolder watchFolder) {
+        PreparedStatement ps = null;
+        try {
+            Connection connection = DBUtils.getConnection();
+            ps = connection.prepareStatement("select count(*) from "
+                    + TBL_NAME + " where categoryId=? and path=?");
+            ps.setString(1, watchFolder.getCategoryId());
+            ps.setString(2, watchFolder.getPath());
+            ResultSet resultSet = ps.executeQuery();
+            boolean exists = resultSet.next() && resultSet.getInt(1) > 0;
+            DBUtils.close(resultSet);
+            DBUtils.close(ps);
+            ps = null;
+            if (exists) {
+                return;
+            }
+
+            ps = connection.prepareStatement("insert into " + TBL_NAME
+                    + " values(?,?)");
+            ps.setString(1, watchFolder.getCategoryId());
+            ps.setString(2, watchFolder.getPath());
+            int result = ps.executeUpdate();// 返回行数或者0
+            if (result <= 0)
+                logger.error("添加关联文件夹失败!");
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            DBUtils.close(ps);
+            DBUtils.close();
+        }
+    }
+
+    /**
+     * 删除播放列表关联的所有文件夹
+     * 
+     * @param categoryId
+     */
+    public void deleteAll(String categoryId) {
+        PreparedStatement ps = null;
+        try {
+            Connection connection = DBUtils.getConnection();
+            String sql = "delete from " + TBL_NAME + " where categoryId=?";
+            ps = connection.prepareStatement(sql);
+            ps.setString(1, categoryId);
+            ps.executeUpdate();
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            DBUtils.close(ps);
+            DBUtils.close();
+        }
+    }
+
+    /**
+     * 获取所有关联的文件夹
+     * 
+     * @return
+     */
+    public List<WatchFolder> getAll() {
+        List<WatchFolder> watchFolders = new ArrayList<WatchFolder>();
+        PreparedStatement ps = null;
+        try {
+            Connection connection = DBUtils.getConnection();
+            String sql = "select * from " + TBL_NAME;
+            ps = connection.prepareStatement(sql);
+            ResultSet resultSet = ps.executeQuery();
+            while (resultSet.next()) {
+                watchFolders.add(new WatchFolder(resultSet
+                        .getString("categoryId"), resultSet.getString("path")));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            DBUtils.close(ps);
+            DBUtils.close();
+        }
+        return watchFolders;
+    }
+}
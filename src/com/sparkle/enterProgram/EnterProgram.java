@@ -10,6 +10,7 @@ import javax.swing.plaf.FontUIResource;
 
 import com.sparkle.common.BaseData;
 import com.sparkle.logger.LoggerManage;
+import com.sparkle.service.FolderWatchService;
 import com.sparkle.service.MediaPlayerService;
 import com.sparkle.ui.MainFrame;
 import com.sparkle.util.DataUtil;
@@ -59,6 +60,8 @@ public class EnterProgram {
         // 启动主界面
         new MainFrame();
         logger.info("启动界面完成");
+        // 开始监听播放列表关联的文件夹
+        FolderWatchService.getFolderWatchService().start();
     }
 
     /**
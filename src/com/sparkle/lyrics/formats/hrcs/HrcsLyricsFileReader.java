@@ -189,11 +189,9 @@ public class HrcsLyricsFileReader extends LyricsFileReader {
         lyricsInfo.setLyricsFileExt(getSupportFileExt());
         
         if (in != null) {
-            final byte[] buffer = new byte[in.available()];
-            in.read(buffer);
+            // 边读边解压，读到流结束为止
+            final String content = StringCompressUtils.decompress(in, getDefaultCharset());
             in.close();
-            
-            final String content = StringCompressUtils.decompress(buffer, getDefaultCharset());
             final String[] lines = content.split(NEWLINE_STRING);
             
             final TreeMap<Integer, LyricsLineInfo> lyricsLineInfosTemp = new TreeMap<Integer, LyricsLineInfo>();
@@ -96,12 +96,9 @@ public class HrcsLyricsFileWriter extends LyricsFileWriter {
                     lyricsFile.getParentFile().mkdirs();
                 }
                 
-                // 对字符串运行压缩
-                final byte[] content = StringCompressUtils.compress(parseLyricsInfo(lyricsInfo), getDefaultCharset());
-                
-                // 生成歌词文件
+                // 生成歌词文件，压缩后直接写入
                 final FileOutputStream os = new FileOutputStream(lyricsFile);
-                os.write(content);
+                StringCompressUtils.compress(parseLyricsInfo(lyricsInfo), getDefaultCharset(), os, null);
                 os.close();
             }
             return true;
@@ -118,11 +118,9 @@ public class HrcxLyricsFileReader extends LyricsFileReader {
         lyricsInfo.setLyricsFileExt(getSupportFileExt());
         
         if (in != null) {
-            byte[] buffer = new byte[in.available()];
-            in.read(buffer);
+            // 边读边解压，读到流结束为止
+            String content = StringCompressUtils.decompress(in, getDefaultCharset());
             in.close();
-            
-            String content = StringCompressUtils.decompress(buffer, getDefaultCharset());
             String[] lines = content.split("\n");
             
             TreeMap<Integer, LyricsLineInfo> lyricsLineInfos = new TreeMap<Integer, LyricsLineInfo>();
@@ -73,12 +73,9 @@ public class HrcxLyricsFileWriter extends LyricsFileWriter {
                     lyricsFile.getParentFile().mkdirs();
                 }
                 
-                // 对字符串运行压缩
-                byte[] content = StringCompressUtils.compress(parseLyricsInfo(lyricsInfo), getDefaultCharset());
-                
-                // 生成歌词文件
+                // 生成歌词文件，压缩后直接写入
                 FileOutputStream os = new FileOutputStream(lyricsFile);
-                os.write(content);
+                StringCompressUtils.compress(parseLyricsInfo(lyricsInfo), getDefaultCharset(), os, null);
                 os.close();
             }
             return true;
@@ -6,12 +6,11 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import net.sf.json.JSONArray;
 import net.sf.json.JSONException;
@@ -30,6 +29,10 @@ import com.sparkle.lyrics.utils.StringCompressUtils;
 
 /**
  * KRC歌词读取器
+ * <p>
+ * 歌词行在解压后的文本中逐字符扫描，直接解析行时间和字时间，不使用正则表达式，
+ * 结果和按 \[\d+,\d+\]、\<\d+,\d+,\d+\> 匹配、分割的结果一致.
+ * </p>
  * 
  * @author yuyi2003
  */
@@ -56,6 +59,17 @@ public class KrcLyricsFileReader extends LyricsFileReader {
     private final static String LEGAL_QQ_PREFIX = "[qq:";
     private final static String LEGAL_TOTAL_PREFIX = "[total:";
     private final static String LEGAL_LANGUAGE_PREFIX = "[language:";
+    /**
+     * 标签行的前缀
+     */
+    private final static String[] LEGAL_TAG_PREFIXES = { LEGAL_SONGNAME_PREFIX,
+            LEGAL_SINGERNAME_PREFIX, LEGAL_OFFSET_PREFIX, LEGAL_BY_PREFIX,
+            LEGAL_HASH_PREFIX, LEGAL_AL_PREFIX, LEGAL_SIGN_PREFIX,
+            LEGAL_QQ_PREFIX, LEGAL_TOTAL_PREFIX, LEGAL_LANGUAGE_PREFIX };
+    /**
+     * 文件头 krc1 的长度
+     */
+    private final static int HEADER_LENGTH = 4;
     /**
      * 解码参数
      */
@@ -106,29 +120,29 @@ public class KrcLyricsFileReader extends LyricsFileReader {
         LyricsInfo lyricsIfno = new LyricsInfo();
         lyricsIfno.setLyricsFileExt(getSupportFileExt());
         if (in != null) {
-            byte[] zip_byte = new byte[in.available()];
-            byte[] top = new byte[4];
-            in.read(top);
-            in.read(zip_byte);
-            int j = zip_byte.length;
-            for (int k = 0; k < j; k++) {
-                int l = k % 16;
-                int tmp67_65 = k;
-                byte[] tmp67_64 = zip_byte;
-                tmp67_64[tmp67_65] = (byte) (tmp67_64[tmp67_65] ^ key[l]);
+            // 跳过文件头，后面的数据边读边解密、解压，读到流结束为止
+            int headerLength = 0;
+            while (headerLength < HEADER_LENGTH && in.read() != -1) {
+                headerLength++;
             }
-            String lyricsTextStr = StringCompressUtils.decompress(zip_byte, getDefaultCharset());
-            String[] lyricsTexts = lyricsTextStr.split("\n");
+            String lyricsTextStr = StringCompressUtils.decompress(in, key,
+                    getDefaultCharset());
+            in.close();
             TreeMap<Integer, LyricsLineInfo> lyricsLineInfos = new TreeMap<Integer, LyricsLineInfo>();
             Map<String, Object> lyricsTags = new HashMap<String, Object>();
             int index = 0;
 
-            for (int i = 0; i < lyricsTexts.length; i++) {
-                String lineInfo = lyricsTexts[i];
+            int lineStart = 0;
+            int textLength = lyricsTextStr.length();
+            while (lineStart < textLength) {
+                int lineEnd = lyricsTextStr.indexOf('\n', lineStart);
+                if (lineEnd < 0) {
+                    lineEnd = textLength;
+                }
                 try {
                     // 行读取，并解析每行歌词的内容
                     LyricsLineInfo lyricsLineInfo = parserLineInfos(lyricsTags,
-                            lineInfo, lyricsIfno);
+                            lyricsTextStr, lineStart, lineEnd, lyricsIfno);
                     if (lyricsLineInfo != null) {
                         lyricsLineInfos.put(index, lyricsLineInfo);
                         index++;
@@ -137,9 +151,8 @@ public class KrcLyricsFileReader extends LyricsFileReader {
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
-
+                lineStart = lineEnd + 1;
             }
-            in.close();
 
             // 设置歌词的标签类
             lyricsIfno.setLyricsTags(lyricsTags);
@@ -153,13 +166,32 @@ public class KrcLyricsFileReader extends LyricsFileReader {
      * 解析歌词
      * 
      * @param lyricsTags 歌词标签
-     * @param lineInfo 行信息
+     * @param text 歌词文本
+     * @param start 行开始位置
+     * @param end 行结束位置
      * @param lyricsIfno 歌词信息
-     * @return 歌词行信息
+     * @return 歌词行信息，不是歌词行时返回null
      */
     private LyricsLineInfo parserLineInfos(Map<String, Object> lyricsTags,
-            String lineInfo, LyricsInfo lyricsIfno) {
-        LyricsLineInfo lyricsLineInfo = null;
+            String text, int start, int end, LyricsInfo lyricsIfno) {
+        for (int i = 0; i < LEGAL_TAG_PREFIXES.length; i++) {
+            if (text.startsWith(LEGAL_TAG_PREFIXES[i], start)) {
+                parserTags(lyricsTags, text.substring(start, end), lyricsIfno);
+                return null;
+            }
+        }
+        return parserLyricsLine(text, start, end);
+    }
+
+    /**
+     * 解析标签
+     * 
+     * @param lyricsTags 歌词标签
+     * @param lineInfo 行信息
+     * @param lyricsIfno 歌词信息
+     */
+    private void parserTags(Map<String, Object> lyricsTags, String lineInfo,
+            LyricsInfo lyricsIfno) {
         if (lineInfo.startsWith(LEGAL_SONGNAME_PREFIX)) {
             int startIndex = LEGAL_SONGNAME_PREFIX.length();
             int endIndex = lineInfo.lastIndexOf("]");
@@ -206,63 +238,177 @@ public class KrcLyricsFileReader extends LyricsFileReader {
                 }
 
             }
-        } else {
-            // 匹配歌词行
-            Pattern pattern = Pattern.compile("\\[\\d+,\\d+\\]");
-            Matcher matcher = pattern.matcher(lineInfo);
-            if (matcher.find()) {
-                lyricsLineInfo = new LyricsLineInfo();
-                // [此行开始时刻距0时刻的毫秒数,此行持续的毫秒数]<0,此字持续的毫秒数,0>歌<此字开始的时刻距此行开始时刻的毫秒数,此字持续的毫秒数,0>词<此字开始的时刻距此行开始时刻的毫秒数,此字持续的毫秒数,0>正<此字开始的时刻距此行开始时刻的毫秒数,此字持续的毫秒数,0>文
-                // 获取行的出现时间和结束时间
-                int mStartIndex = matcher.start();
-                int mEndIndex = matcher.end();
-                String lineTime[] = lineInfo.substring(mStartIndex + 1,
-                        mEndIndex - 1).split(",");
-                //
-
-                int startTime = Integer.parseInt(lineTime[0]);
-                int endTime = startTime + Integer.parseInt(lineTime[1]);
-                lyricsLineInfo.setEndTime(endTime);
-                lyricsLineInfo.setStartTime(startTime);
-                // 获取歌词信息
-                String lineContent = lineInfo.substring(mEndIndex,
-                        lineInfo.length());
-
-                // 歌词匹配的正则表达式
-                String regex = "\\<\\d+,\\d+,\\d+\\>";
-                Pattern lyricsWordsPattern = Pattern.compile(regex);
-                Matcher lyricsWordsMatcher = lyricsWordsPattern
-                        .matcher(lineContent);
-
-                // 歌词分隔
-                String lineLyricsTemp[] = lineContent.split(regex);
-                String[] lyricsWords = getLyricsWords(lineLyricsTemp);
-                lyricsLineInfo.setLyricsWords(lyricsWords);
-
-                // 获取每个歌词的时间
-                int wordsDisInterval[] = new int[lyricsWords.length];
-                int index = 0;
-                while (lyricsWordsMatcher.find()) {
-                    //
-                    String wordsDisIntervalStr = lyricsWordsMatcher.group();
-                    String wordsDisIntervalStrTemp = wordsDisIntervalStr
-                            .substring(1, wordsDisIntervalStr.length() - 1);
-                    String wordsDisIntervalTemp[] = wordsDisIntervalStrTemp
-                            .split(",");
-                    wordsDisInterval[index++] = Integer
-                            .parseInt(wordsDisIntervalTemp[1]);
-                }
-                lyricsLineInfo.setWordsDisInterval(wordsDisInterval);
+        }
+    }
 
-                // 获取当行歌词
-                String lineLyrics = lyricsWordsMatcher.replaceAll("");
-                lyricsLineInfo.setLineLyrics(lineLyrics);
+    /**
+     * 解析歌词行
+     * <p>
+     * [此行开始时刻距0时刻的毫秒数,此行持续的毫秒数]<0,此字持续的毫秒数,0>歌<此字开始的时刻距此行开始时刻的毫秒数,此字持续的毫秒数,0>词
+     * 行时间为行中第一个[数字,数字]，字标签把后面的内容分成几段，第一个字标签前的内容只算到行歌词里，
+     * 最后面的空段去掉；字标签比字多时这一行无效.
+     * </p>
+     * 
+     * @param text 歌词文本
+     * @param start 行开始位置
+     * @param end 行结束位置
+     * @return 歌词行信息，没有行时间时返回null
+     */
+    private LyricsLineInfo parserLyricsLine(String text, int start, int end) {
+        // 获取行的出现时间和结束时间
+        int timeStart = -1;
+        int timeComma = -1;
+        int timeEnd = -1;
+        for (int i = start; i < end && timeStart < 0; i++) {
+            if (text.charAt(i) == '[') {
+                int comma = skipDigits(text, i + 1, end);
+                if (comma > i + 1 && comma < end && text.charAt(comma) == ',') {
+                    int close = skipDigits(text, comma + 1, end);
+                    if (close > comma + 1 && close < end
+                            && text.charAt(close) == ']') {
+                        timeStart = i;
+                        timeComma = comma;
+                        timeEnd = close + 1;
+                    }
+                }
+            }
+        }
+        if (timeStart < 0) {
+            return null;
+        }
+        LyricsLineInfo lyricsLineInfo = new LyricsLineInfo();
+        int startTime = parseInt(text, timeStart + 1, timeComma);
+        int endTime = startTime + parseInt(text, timeComma + 1, timeEnd - 1);
+        lyricsLineInfo.setEndTime(endTime);
+        lyricsLineInfo.setStartTime(startTime);
+
+        // 字标签分隔的每段内容的开始和结束位置，以及每个字的时长
+        int[] pieces = new int[32];
+        int[] durations = new int[16];
+        int tagCount = 0;
+        int pieceStart = timeEnd;
+        int i = timeEnd;
+        while (i < end) {
+            int tagEnd = text.charAt(i) == '<' ? skipWordTag(text, i, end) : -1;
+            if (tagEnd < 0) {
+                i++;
+                continue;
+            }
+            if (pieces.length < (tagCount + 2) * 2) {
+                pieces = Arrays.copyOf(pieces, pieces.length * 2);
+                durations = Arrays.copyOf(durations, durations.length * 2);
+            }
+            pieces[tagCount * 2] = pieceStart;
+            pieces[tagCount * 2 + 1] = i;
+            int durationStart = skipDigits(text, i + 1, end) + 1;
+            durations[tagCount] = parseInt(text, durationStart,
+                    skipDigits(text, durationStart, end));
+            tagCount++;
+            pieceStart = tagEnd;
+            i = tagEnd;
+        }
+        pieces[tagCount * 2] = pieceStart;
+        pieces[tagCount * 2 + 1] = end;
+
+        // 去掉最后面的空段，没有字标签时保留整行
+        int pieceCount = tagCount + 1;
+        if (tagCount > 0) {
+            while (pieceCount > 0
+                    && pieces[pieceCount * 2 - 2] == pieces[pieceCount * 2 - 1]) {
+                pieceCount--;
             }
+        }
+        // 第一段不是字，只有一段时字的内容为空
+        int wordCount = pieceCount < 2 ? pieceCount : pieceCount - 1;
+        if (tagCount > wordCount) {
+            throw new IllegalArgumentException("字标签比字多："
+                    + text.substring(start, end));
+        }
+        String[] lyricsWords = new String[wordCount];
+        if (pieceCount >= 2) {
+            for (int j = 1; j < pieceCount; j++) {
+                lyricsWords[j - 1] = text.substring(pieces[j * 2],
+                        pieces[j * 2 + 1]);
+            }
+        }
+        lyricsLineInfo.setLyricsWords(lyricsWords);
+        lyricsLineInfo.setWordsDisInterval(Arrays.copyOf(durations, wordCount));
 
+        // 获取当行歌词
+        String lineLyrics;
+        if (tagCount == 0) {
+            lineLyrics = text.substring(timeEnd, end);
+        } else {
+            StringBuilder builder = new StringBuilder(end - timeEnd);
+            for (int j = 0; j <= tagCount; j++) {
+                builder.append(text, pieces[j * 2], pieces[j * 2 + 1]);
+            }
+            lineLyrics = builder.toString();
         }
+        lyricsLineInfo.setLineLyrics(lineLyrics);
         return lyricsLineInfo;
     }
 
+    /**
+     * 跳过数字
+     * 
+     * @param text 歌词文本
+     * @param from 开始位置
+     * @param end 结束位置
+     * @return 第一个不是数字的位置
+     */
+    private static int skipDigits(String text, int from, int end) {
+        int i = from;
+        while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 匹配字标签 <数字,数字,数字>
+     * 
+     * @param text 歌词文本
+     * @param from '<'的位置
+     * @param end 结束位置
+     * @return 标签后面的位置，不是字标签时返回-1
+     */
+    private static int skipWordTag(String text, int from, int end) {
+        int i = from + 1;
+        for (int k = 0; k < 3; k++) {
+            int digitsEnd = skipDigits(text, i, end);
+            if (digitsEnd == i || digitsEnd >= end) {
+                return -1;
+            }
+            char c = text.charAt(digitsEnd);
+            if (c != (k < 2 ? ',' : '>')) {
+                return -1;
+            }
+            i = digitsEnd + 1;
+        }
+        return i;
+    }
+
+    /**
+     * 解析非负整数，和Integer.parseInt一样超出范围时抛出异常
+     * 
+     * @param text 歌词文本
+     * @param from 开始位置
+     * @param to 结束位置
+     * @return 整数
+     */
+    private static int parseInt(String text, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("For input string: \""
+                        + text.substring(from, to) + "\"");
+            }
+        }
+        return (int) value;
+    }
+
     /**
      * 解析翻译和音译歌词
      * 
@@ -370,25 +516,6 @@ public class KrcLyricsFileReader extends LyricsFileReader {
         }
     }
 
-    /**
-     * 分隔每个歌词
-     * 
-     * @param lineLyricsTemp 歌词临时数组
-     * @return 歌词词组数组
-     */
-    private String[] getLyricsWords(String[] lineLyricsTemp) {
-        String temp[] = null;
-        if (lineLyricsTemp.length < 2) {
-            return new String[lineLyricsTemp.length];
-        }
-        //
-        temp = new String[lineLyricsTemp.length - 1];
-        for (int i = 1; i < lineLyricsTemp.length; i++) {
-            temp[i - 1] = lineLyricsTemp[i];
-        }
-        return temp;
-    }
-
     @Override
     public boolean isFileSupported(String ext) {
         return ext.equalsIgnoreCase("krc");
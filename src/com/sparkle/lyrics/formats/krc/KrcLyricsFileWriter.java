@@ -168,18 +168,6 @@ public class KrcLyricsFileWriter extends LyricsFileWriter {
                     lyricsFile.getParentFile().mkdirs();
                 }
 
-                //
-                // 对字符串运行压缩
-                byte[] content = StringCompressUtils.compress(
-                        parseLyricsInfo(lyricsIfno), getDefaultCharset());
-
-                int j = content.length;
-                for (int k = 0; k < j; k++) {
-                    int l = k % 16;
-                    int tmp67_65 = k;
-                    byte[] tmp67_64 = content;
-                    tmp67_64[tmp67_65] = (byte) (tmp67_64[tmp67_65] ^ key[l]);
-                }
                 String topText = "krc1";
                 byte[] top = new byte[4];
                 for (int i = 0; i < topText.length(); i++) {
@@ -189,7 +177,9 @@ public class KrcLyricsFileWriter extends LyricsFileWriter {
                 // 生成歌词文件
                 FileOutputStream os = new FileOutputStream(lyricsFile);
                 os.write(top);
-                os.write(content);
+                // 对字符串运行压缩和加密，直接写入文件
+                StringCompressUtils.compress(parseLyricsInfo(lyricsIfno),
+                        getDefaultCharset(), os, key);
                 os.close();
 
             }
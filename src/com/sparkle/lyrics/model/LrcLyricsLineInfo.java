@@ -42,10 +42,20 @@ public class LrcLyricsLineInfo {
     }
 
     public void setLineLyrics(String lineLyrics) {
-        if (lineLyrics != null) {
+        if (lineLyrics != null && hasLineBreak(lineLyrics)) {
             this.lineLyrics = lineLyrics.replaceAll("\r|\n", "");
         } else {
-            this.lineLyrics = null;
+            this.lineLyrics = lineLyrics;
         }
     }
+
+    /**
+     * 是否有换行符，没有时不需要用正则替换
+     * 
+     * @param text
+     * @return
+     */
+    static boolean hasLineBreak(String text) {
+        return text.indexOf('\r') >= 0 || text.indexOf('\n') >= 0;
+    }
 }
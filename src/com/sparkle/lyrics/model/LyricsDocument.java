@@ -0,0 +1,530 @@
+package com.sparkle.lyrics.model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * 紧凑的歌词文档
+ * <p>
+ * 所有歌词文字放在一个字符数组中，用偏移量区分每行和每个字；行的开始、结束时间和字的时长放在int数组中。
+ * 原文、翻译和音译是同一份文档的三个视图，共用时间数据，不再为每个视图复制歌词行。
+ * 创建后不能修改，可以在多个线程中共用。
+ * </p>
+ *
+ * @author yuyi2003
+ */
+public final class LyricsDocument {
+    /**
+     * 原文
+     */
+    public static final int LANE_ORIGINAL = 0;
+
+    /**
+     * 翻译，只有整行的文字，时间和原文相同
+     */
+    public static final int LANE_TRANSLATE = 1;
+
+    /**
+     * 音译，每个字和原文的字一一对应，时间和原文相同
+     */
+    public static final int LANE_TRANSLITERATION = 2;
+
+    private static final int LANE_COUNT = 3;
+
+    private final int lineCount;
+
+    private final int[] lineStart;
+
+    private final int[] lineEnd;
+
+    /**
+     * 每行第一个字在wordDuration中的位置，最后一个元素为字的总数
+     */
+    private final int[] wordFrom;
+
+    /**
+     * 每个字的时长
+     */
+    private final int[] wordDuration;
+
+    /**
+     * 所有视图的文字
+     */
+    private final char[] text;
+
+    private final Lane[] lanes;
+
+    private LyricsDocument(Builder builder) {
+        lineCount = builder.lineCount;
+        lineStart = Arrays.copyOf(builder.lineStart, lineCount);
+        lineEnd = Arrays.copyOf(builder.lineEnd, lineCount);
+        wordFrom = Arrays.copyOf(builder.wordFrom, lineCount + 1);
+        wordDuration = Arrays.copyOf(builder.wordDuration, wordFrom[lineCount]);
+        // 每个视图的行文字连续存放，字的文字也连续存放，用开始位置就能算出长度
+        StringBuilder textBuilder = new StringBuilder();
+        int[][] lineTexts = new int[LANE_COUNT][];
+        int[][] wordTexts = new int[LANE_COUNT][];
+        for (int i = 0; i < LANE_COUNT; i++) {
+            LaneBuilder laneBuilder = builder.lanes[i];
+            if (laneBuilder.present) {
+                lineTexts[i] = laneBuilder.lines.append(textBuilder, lineCount);
+                if (laneBuilder.hasWords) {
+                    wordTexts[i] = laneBuilder.words.append(textBuilder, wordFrom[lineCount]);
+                }
+            }
+        }
+        text = new char[textBuilder.length()];
+        textBuilder.getChars(0, text.length, text, 0);
+        lanes = new Lane[LANE_COUNT];
+        for (int i = 0; i < LANE_COUNT; i++) {
+            if (lineTexts[i] != null) {
+                lanes[i] = new Lane(lineTexts[i], wordTexts[i]);
+            }
+        }
+    }
+
+    /**
+     * 从旧的歌词信息转换
+     *
+     * @param lyricsInfo 歌词信息
+     * @return 没有歌词行时返回null
+     */
+    public static LyricsDocument from(LyricsInfo lyricsInfo) {
+        TreeMap<Integer, LyricsLineInfo> lyricsLineInfos = lyricsInfo.getLyricsLineInfoTreeMap();
+        if (lyricsLineInfos == null) {
+            return null;
+        }
+        int size = lyricsLineInfos.size();
+        Builder builder = new Builder(size);
+        for (int i = 0; i < size; i++) {
+            LyricsLineInfo lyricsLineInfo = lyricsLineInfos.get(i);
+            builder.addLine(lyricsLineInfo.getStartTime(), lyricsLineInfo.getEndTime(),
+                    lyricsLineInfo.getLineLyrics(), lyricsLineInfo.getLyricsWords(),
+                    lyricsLineInfo.getWordsDisInterval());
+        }
+        TranslateLyricsInfo translateLyricsInfo = lyricsInfo.getTranslateLyricsInfo();
+        if (translateLyricsInfo != null && translateLyricsInfo.getTranslateLrcLineInfos() != null) {
+            List<TranslateLrcLineInfo> translateLrcLineInfos = translateLyricsInfo
+                    .getTranslateLrcLineInfos();
+            for (int i = 0; i < size && i < translateLrcLineInfos.size(); i++) {
+                builder.setTranslate(i, translateLrcLineInfos.get(i).getLineLyrics());
+            }
+        }
+        TransliterationLyricsInfo transliterationLyricsInfo = lyricsInfo
+                .getTransliterationLyricsInfo();
+        if (transliterationLyricsInfo != null
+                && transliterationLyricsInfo.getTransliterationLrcLineInfos() != null) {
+            List<LyricsLineInfo> transliterationLrcLineInfos = transliterationLyricsInfo
+                    .getTransliterationLrcLineInfos();
+            for (int i = 0; i < size && i < transliterationLrcLineInfos.size(); i++) {
+                LyricsLineInfo lyricsLineInfo = transliterationLrcLineInfos.get(i);
+                builder.setTransliteration(i, lyricsLineInfo.getLineLyrics(),
+                        lyricsLineInfo.getLyricsWords());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 行数
+     *
+     * @return 行数
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getStartTime(int line) {
+        return lineStart[line];
+    }
+
+    public int getEndTime(int line) {
+        return lineEnd[line];
+    }
+
+    /**
+     * 这一行有几个字
+     *
+     * @param line 行号
+     * @return 字数
+     */
+    public int getWordCount(int line) {
+        return wordFrom[line + 1] - wordFrom[line];
+    }
+
+    /**
+     * 字的时长
+     *
+     * @param line 行号
+     * @param word 这一行的第几个字
+     * @return 时长(毫秒)
+     */
+    public int getWordDuration(int line, int word) {
+        return wordDuration[wordFrom[line] + word];
+    }
+
+    /**
+     * 每行的开始时间，时间轴等需要直接读取时间数据时使用，不能修改
+     *
+     * @return 长度为行数的数组
+     */
+    public int[] getLineStarts() {
+        return lineStart;
+    }
+
+    /**
+     * 每行的结束时间，不能修改
+     *
+     * @return 长度为行数的数组
+     */
+    public int[] getLineEnds() {
+        return lineEnd;
+    }
+
+    /**
+     * 每行第一个字的位置，不能修改
+     *
+     * @return 长度为行数加1的数组
+     */
+    public int[] getWordFrom() {
+        return wordFrom;
+    }
+
+    /**
+     * 所有字的时长，不能修改
+     *
+     * @return 数组
+     */
+    public int[] getWordDurations() {
+        return wordDuration;
+    }
+
+    /**
+     * 获取视图
+     *
+     * @param lane {@link #LANE_ORIGINAL}、{@link #LANE_TRANSLATE}或者{@link #LANE_TRANSLITERATION}
+     * @return 没有这种歌词时返回null
+     */
+    public Lane getLane(int lane) {
+        return lanes[lane];
+    }
+
+    public Lane getOriginal() {
+        return lanes[LANE_ORIGINAL];
+    }
+
+    public Lane getTranslate() {
+        return lanes[LANE_TRANSLATE];
+    }
+
+    public Lane getTransliteration() {
+        return lanes[LANE_TRANSLITERATION];
+    }
+
+    /**
+     * 文字占用的字符数
+     *
+     * @return 字符数
+     */
+    public int getTextLength() {
+        return text.length;
+    }
+
+    /**
+     * 大约占用的内存
+     *
+     * @return 字节数
+     */
+    public long getApproximateSize() {
+        long size = 64 + text.length * 2L
+                + 4L * (lineStart.length + lineEnd.length + wordFrom.length + wordDuration.length);
+        for (int i = 0; i < LANE_COUNT; i++) {
+            if (lanes[i] != null) {
+                size += 32 + 4L * lanes[i].lineText.length;
+                if (lanes[i].wordText != null) {
+                    size += 4L * lanes[i].wordText.length;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 歌词视图，只保存文字在字符数组中的位置，时间从文档中读取
+     */
+    public final class Lane {
+        /**
+         * 每行文字的位置，长度为行数加1
+         */
+        private final int[] lineText;
+
+        /**
+         * 每个字的文字位置，下标和文档中字的下标一致，长度为字数加1；只有整行文字时为null
+         */
+        private final int[] wordText;
+
+        private Lane(int[] lineText, int[] wordText) {
+            this.lineText = lineText;
+            this.wordText = wordText;
+        }
+
+        public LyricsDocument getDocument() {
+            return LyricsDocument.this;
+        }
+
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        public int getStartTime(int line) {
+            return lineStart[line];
+        }
+
+        public int getEndTime(int line) {
+            return lineEnd[line];
+        }
+
+        /**
+         * 是否分割了每个字
+         *
+         * @return 只有整行文字时返回false
+         */
+        public boolean hasWords() {
+            return wordText != null;
+        }
+
+        /**
+         * 这一行的文字
+         *
+         * @param line 行号
+         * @return 文字
+         */
+        public String getLineLyrics(int line) {
+            return new String(text, lineText[line], lineText[line + 1] - lineText[line]);
+        }
+
+        /**
+         * 这一行的字数
+         *
+         * @param line 行号
+         * @return 只有整行文字时返回0
+         */
+        public int getWordCount(int line) {
+            return wordText == null ? 0 : LyricsDocument.this.getWordCount(line);
+        }
+
+        /**
+         * 获取字
+         *
+         * @param line 行号
+         * @param word 这一行的第几个字
+         * @return 文字
+         */
+        public String getWord(int line, int word) {
+            int index = wordFrom[line] + word;
+            return new String(text, wordText[index], wordText[index + 1] - wordText[index]);
+        }
+
+        /**
+         * 字的时长，和原文共用
+         *
+         * @param line 行号
+         * @param word 这一行的第几个字
+         * @return 时长(毫秒)
+         */
+        public int getWordDuration(int line, int word) {
+            return LyricsDocument.this.getWordDuration(line, word);
+        }
+
+        /**
+         * 这一行所有的字
+         *
+         * @param line 行号
+         * @return 新的数组
+         */
+        public String[] getWords(int line) {
+            String[] words = new String[getWordCount(line)];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = getWord(line, i);
+            }
+            return words;
+        }
+    }
+
+    /**
+     * 创建歌词文档
+     */
+    public static final class Builder {
+        private int lineCount = 0;
+
+        private int[] lineStart;
+
+        private int[] lineEnd;
+
+        private int[] wordFrom;
+
+        private int[] wordDuration;
+
+        private final LaneBuilder[] lanes = new LaneBuilder[LANE_COUNT];
+
+        /**
+         * @param capacity 预计的行数
+         */
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+            lineStart = new int[capacity];
+            lineEnd = new int[capacity];
+            wordFrom = new int[capacity + 1];
+            wordDuration = new int[capacity * 8];
+            for (int i = 0; i < LANE_COUNT; i++) {
+                lanes[i] = new LaneBuilder(capacity);
+            }
+            lanes[LANE_ORIGINAL].present = true;
+        }
+
+        /**
+         * 添加原文的一行
+         *
+         * @param startTime 开始时间
+         * @param endTime 结束时间
+         * @param lineLyrics 整行的文字
+         * @param words 每个字，可以为null
+         * @param durations 每个字的时长，可以为null
+         * @return this
+         */
+        public Builder addLine(int startTime, int endTime, String lineLyrics, String[] words,
+                int[] durations) {
+            if (lineCount == lineStart.length) {
+                int capacity = lineCount * 2;
+                lineStart = Arrays.copyOf(lineStart, capacity);
+                lineEnd = Arrays.copyOf(lineEnd, capacity);
+                wordFrom = Arrays.copyOf(wordFrom, capacity + 1);
+            }
+            int count = 0;
+            if (words != null && durations != null) {
+                count = Math.min(words.length, durations.length);
+            }
+            int from = wordFrom[lineCount];
+            if (from + count > wordDuration.length) {
+                wordDuration = Arrays.copyOf(wordDuration,
+                        Math.max(wordDuration.length * 2, from + count));
+            }
+            if (count > 0) {
+                System.arraycopy(durations, 0, wordDuration, from, count);
+            }
+            lineStart[lineCount] = startTime;
+            lineEnd[lineCount] = endTime;
+            wordFrom[lineCount + 1] = from + count;
+            lanes[LANE_ORIGINAL].put(lineCount, lineLyrics, words, from, count);
+            lineCount++;
+            return this;
+        }
+
+        /**
+         * 设置某一行的翻译
+         *
+         * @param line 行号，必须已经添加
+         * @param lineLyrics 翻译的文字
+         * @return this
+         */
+        public Builder setTranslate(int line, String lineLyrics) {
+            checkLine(line);
+            lanes[LANE_TRANSLATE].present = true;
+            lanes[LANE_TRANSLATE].put(line, lineLyrics, null, 0, 0);
+            return this;
+        }
+
+        /**
+         * 设置某一行的音译
+         *
+         * @param line 行号，必须已经添加
+         * @param lineLyrics 整行的音译文字
+         * @param words 每个字的音译，和原文的字一一对应
+         * @return this
+         */
+        public Builder setTransliteration(int line, String lineLyrics, String[] words) {
+            checkLine(line);
+            lanes[LANE_TRANSLITERATION].present = true;
+            lanes[LANE_TRANSLITERATION].put(line, lineLyrics, words, wordFrom[line],
+                    wordFrom[line + 1] - wordFrom[line]);
+            return this;
+        }
+
+        private void checkLine(int line) {
+            if (line < 0 || line >= lineCount) {
+                throw new IndexOutOfBoundsException("line " + line + ", size " + lineCount);
+            }
+        }
+
+        public LyricsDocument build() {
+            return new LyricsDocument(this);
+        }
+    }
+
+    /**
+     * 创建时暂存每个视图的文字，行和字可以按任意顺序设置
+     */
+    private static final class LaneBuilder {
+        private boolean present = false;
+
+        private boolean hasWords = false;
+
+        private final Texts lines;
+
+        private final Texts words;
+
+        LaneBuilder(int capacity) {
+            lines = new Texts(capacity);
+            words = new Texts(capacity * 8);
+        }
+
+        void put(int line, String lineLyrics, String[] lyricsWords, int from, int count) {
+            lines.set(line, lineLyrics);
+            if (lyricsWords == null) {
+                return;
+            }
+            hasWords = true;
+            for (int i = 0; i < count; i++) {
+                words.set(from + i, i < lyricsWords.length ? lyricsWords[i] : null);
+            }
+        }
+    }
+
+    /**
+     * 按下标存放的文字，可以自动扩容
+     */
+    private static final class Texts {
+        private String[] values;
+
+        Texts(int capacity) {
+            values = new String[Math.max(capacity, 1)];
+        }
+
+        void set(int index, String value) {
+            if (index >= values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, index + 1));
+            }
+            values[index] = value;
+        }
+
+        /**
+         * 把前count个文字连续追加到text中
+         *
+         * @param text
+         * @param count
+         * @return 每个文字的开始位置，最后一个元素为结束位置
+         */
+        int[] append(StringBuilder text, int count) {
+            int[] offsets = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = text.length();
+                if (i < values.length && values[i] != null) {
+                    text.append(values[i]);
+                }
+            }
+            offsets[count] = text.length();
+            return offsets;
+        }
+    }
+}
@@ -35,6 +35,11 @@ public class LyricsInfo {
      */
     private Map<String, Object> lyricsTags;
 
+    /**
+     * 紧凑的歌词文档，第一次使用时由歌词行转换
+     */
+    private LyricsDocument lyricsDocument;
+
     public Map<String, Object> getLyricsTags() {
         return lyricsTags;
     }
@@ -49,6 +54,7 @@ public class LyricsInfo {
 
     public void setTranslateLyricsInfo(TranslateLyricsInfo translateLyricsInfo) {
         this.translateLyricsInfo = translateLyricsInfo;
+        lyricsDocument = null;
     }
 
     public TransliterationLyricsInfo getTransliterationLyricsInfo() {
@@ -57,6 +63,7 @@ public class LyricsInfo {
 
     public void setTransliterationLyricsInfo(TransliterationLyricsInfo transliterationLyricsInfo) {
         this.transliterationLyricsInfo = transliterationLyricsInfo;
+        lyricsDocument = null;
     }
 
     public String getLyricsFileExt() {
@@ -73,6 +80,19 @@ public class LyricsInfo {
 
     public void setLyricsLineInfoTreeMap(TreeMap<Integer, LyricsLineInfo> lyricsLineInfoTreeMap) {
         this.lyricsLineInfoTreeMap = lyricsLineInfoTreeMap;
+        lyricsDocument = null;
+    }
+
+    /**
+     * 获取紧凑的歌词文档，原文、翻译和音译共用时间数据
+     * 
+     * @return 没有歌词行时返回null
+     */
+    public synchronized LyricsDocument getLyricsDocument() {
+        if (lyricsDocument == null && lyricsLineInfoTreeMap != null) {
+            lyricsDocument = LyricsDocument.from(this);
+        }
+        return lyricsDocument;
     }
 
     public void setTitle(String title) {
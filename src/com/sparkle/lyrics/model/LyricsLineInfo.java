@@ -39,7 +39,7 @@ public class LyricsLineInfo extends LrcLyricsLineInfo {
     public void setLyricsWords(String[] lyricsWords) {
         if (lyricsWords != null) {
             for (int i = 0; i < lyricsWords.length; i++) {
-                if (lyricsWords[i] != null) {
+                if (lyricsWords[i] != null && hasLineBreak(lyricsWords[i])) {
                     lyricsWords[i] = lyricsWords[i].replaceAll("\r|\n", "");
                 }
             }
@@ -32,10 +32,10 @@ public class TranslateLrcLineInfo {
     }
 
     public void setLineLyrics(String lineLyrics) {
-        if (lineLyrics != null) {
+        if (lineLyrics != null && LrcLyricsLineInfo.hasLineBreak(lineLyrics)) {
             this.lineLyrics = lineLyrics.replaceAll("\r|\n", "");
         } else {
-            this.lineLyrics = null;
+            this.lineLyrics = lineLyrics;
         }
     }
 
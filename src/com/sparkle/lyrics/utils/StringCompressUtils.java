@@ -1,24 +1,76 @@
 package com.sparkle.lyrics.utils;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 /**
  * 字符串解压和压缩工具类
- * 
+ * <p>
+ * 解压时按块读取，需要时先异或解密，再交给Inflater，解压出的字节直接解码成字符，
+ * 只有最后生成字符串时复制一次；压缩时编码、压缩、加密后直接写到输出流.
+ * 每个线程的Inflater、Deflater和缓冲区重复使用.
+ * </p>
+ *
  * @author yuyi2003
  */
 public class StringCompressUtils {
 
+    /**
+     * 缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 读取的压缩数据或者编码后的字节
+     */
+    private static final ThreadLocal<byte[]> inputBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * 解压出的字节或者压缩后的数据
+     */
+    private static final ThreadLocal<byte[]> outputBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+
     /**
      * 压缩
-     * 
+     *
      * @param text 要压缩的文本
      * @param charset 字符编码
      * @return 压缩后的字节数组
@@ -26,97 +78,196 @@ public class StringCompressUtils {
     public static byte[] compress(String text, Charset charset) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            OutputStream out = new DeflaterOutputStream(baos);
-            out.write(text.getBytes(charset));
-            out.close();
+            compress(text, charset, baos, null);
         } catch (IOException e) {
             throw new AssertionError(e);
         }
         return baos.toByteArray();
     }
 
+    /**
+     * 压缩并写到输出流
+     *
+     * @param text 要压缩的文本
+     * @param charset 字符编码
+     * @param output 输出流，不会关闭
+     * @param key 异或加密的密钥，为null时不加密
+     * @throws IOException IO异常
+     */
+    public static void compress(String text, Charset charset,
+            OutputStream output, char[] key) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        byte[] in = inputBuffer.get();
+        byte[] out = outputBuffer.get();
+        CharBuffer chars = CharBuffer.wrap(text);
+        ByteBuffer bytes = ByteBuffer.wrap(in);
+        boolean flushing = false;
+        int keyIndex = 0;
+        while (!deflater.finished()) {
+            if (deflater.needsInput() && !flushing) {
+                // 编码下一块
+                bytes.clear();
+                CoderResult result = encoder.encode(chars, bytes, true);
+                if (result.isUnderflow()) {
+                    result = encoder.flush(bytes);
+                    flushing = result.isUnderflow();
+                }
+                deflater.setInput(in, 0, bytes.position());
+                if (flushing) {
+                    deflater.finish();
+                }
+            }
+            int len = deflater.deflate(out);
+            if (len > 0) {
+                keyIndex = xor(out, len, key, keyIndex);
+                output.write(out, 0, len);
+            }
+        }
+    }
+
     /**
      * 解压
-     * 
-     * @param input 输入流
+     *
+     * @param input 输入流，不会关闭
      * @param charset 字符编码
      * @return 解压后的字符串
      * @throws IOException IO异常
      */
     public static String decompress(InputStream input, Charset charset)
             throws IOException {
-        return decompress(toByteArray(input), charset);
+        return decompress(input, null, charset);
+    }
+
+    /**
+     * 解密并解压
+     *
+     * @param input 输入流，不会关闭
+     * @param key 异或加密的密钥，为null时不解密
+     * @param charset 字符编码
+     * @return 解压后的字符串
+     * @throws IOException IO异常
+     */
+    public static String decompress(InputStream input, char[] key,
+            Charset charset) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        return inflate(inflater, input, key, charset,
+                Math.max(input.available(), BUFFER_SIZE / 4) * 4);
     }
 
     /**
      * 解压
-     * 
+     *
      * @param bytes 压缩的字节数组
      * @param charset 字符编码
      * @return 解压后的字符串
      */
     public static String decompress(byte[] bytes, Charset charset) {
-        InputStream in = new InflaterInputStream(
-                new ByteArrayInputStream(bytes));
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(bytes);
         try {
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = in.read(buffer)) > 0)
-                baos.write(buffer, 0, len);
-            return new String(baos.toByteArray(), charset);
+            return inflate(inflater, null, null, charset,
+                    Math.max(bytes.length, BUFFER_SIZE / 4) * 4);
         } catch (IOException e) {
             throw new AssertionError(e);
         }
     }
 
     /**
-     * 将输入流转换为字节数组
-     * 
-     * @param input 输入流
-     * @return 字节数组
-     * @throws IOException IO异常
+     * 解压并解码
+     *
+     * @param inflater 已经重置的Inflater
+     * @param input 输入流，为null时只解压已经设置的数据
+     * @param key 异或加密的密钥，为null时不解密
+     * @param charset 字符编码
+     * @param capacity 预计的字符数
+     * @return 解压后的字符串
+     * @throws IOException 数据不完整或者格式不对
      */
-    private static byte[] toByteArray(InputStream input) throws IOException {
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        copy(input, output);
-        return output.toByteArray();
+    private static String inflate(Inflater inflater, InputStream input,
+            char[] key, Charset charset, int capacity) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] in = inputBuffer.get();
+        ByteBuffer bytes = ByteBuffer.wrap(outputBuffer.get());
+        CharBuffer chars = CharBuffer.allocate(capacity);
+        int keyIndex = 0;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int n = input == null ? -1 : input.read(in);
+                    if (n == -1) {
+                        throw new EOFException(
+                                "Unexpected end of ZLIB input stream");
+                    }
+                    keyIndex = xor(in, n, key, keyIndex);
+                    inflater.setInput(in, 0, n);
+                }
+                if (inflater.needsDictionary()) {
+                    throw new ZipException("ZLIB dictionary missing");
+                }
+                int len = inflater.inflate(bytes.array(), bytes.position(),
+                        bytes.remaining());
+                bytes.position(bytes.position() + len);
+                // 解码已经解压的字节，不完整的字符留到下一次
+                bytes.flip();
+                chars = decode(decoder, bytes, chars, false);
+                bytes.compact();
+            }
+        } catch (DataFormatException e) {
+            String message = e.getMessage();
+            throw new ZipException(message != null ? message
+                    : "Invalid ZLIB data format");
+        }
+        bytes.flip();
+        chars = decode(decoder, bytes, chars, true);
+        while (decoder.flush(chars).isOverflow()) {
+            chars = grow(chars);
+        }
+        return new String(chars.array(), 0, chars.position());
     }
 
-    /**
-     * 复制输入流到输出流
-     * 
-     * @param input 输入流
-     * @param output 输出流
-     * @return 复制的字节数
-     * @throws IOException IO异常
-     */
-    private static int copy(InputStream input, OutputStream output)
-            throws IOException {
-        long count = copyLarge(input, output);
-        if (count > 2147483647L) {
-            return -1;
+    private static CharBuffer decode(CharsetDecoder decoder, ByteBuffer bytes,
+            CharBuffer chars, boolean endOfInput) {
+        while (decoder.decode(bytes, chars, endOfInput).isOverflow()) {
+            chars = grow(chars);
         }
-        return (int) count;
+        return chars;
+    }
+
+    private static CharBuffer grow(CharBuffer chars) {
+        CharBuffer bigger = CharBuffer.allocate(chars.capacity() * 2);
+        chars.flip();
+        bigger.put(chars);
+        return bigger;
     }
 
     /**
-     * 复制大量数据
-     * 
-     * @param input 输入流
-     * @param output 输出流
-     * @return 复制的字节数
-     * @throws IOException IO异常
+     * 异或加密和解密
+     *
+     * @param data 数据
+     * @param length 长度
+     * @param key 密钥，为null时不处理
+     * @param keyIndex 第一个字节对应的密钥位置
+     * @return 下一个字节对应的密钥位置
      */
-    private static long copyLarge(InputStream input, OutputStream output)
-            throws IOException {
-        byte[] buffer = new byte[4096];
-        long count = 0L;
-        int n = 0;
-        while (-1 != (n = input.read(buffer))) {
-            output.write(buffer, 0, n);
-            count += n;
+    private static int xor(byte[] data, int length, char[] key, int keyIndex) {
+        if (key == null) {
+            return keyIndex;
+        }
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (data[i] ^ key[keyIndex]);
+            keyIndex++;
+            if (keyIndex == key.length) {
+                keyIndex = 0;
+            }
         }
-        return count;
+        return keyIndex;
     }
 }
@@ -1,16 +1,42 @@
 package com.sparkle.manage;
 
 import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.model.SongInfo;
 import com.sparkle.util.LyricsUtil;
 
 /**
  * 歌词处理类.
- * 
+ * <p>
+ * 解析过的歌词按歌曲sid、歌词文件路径和修改时间缓存，按最近使用的顺序淘汰，
+ * 条数和大约占用的内存都有上限；切换回之前的歌曲时不需要重新解析歌词文件.
+ * 开始播放一首歌时在后台线程中预先解析下一首的歌词.
+ * </p>
+ *
  * @author yuyi2003
- * 
+ *
  */
 public final class LyricsManage {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 缓存的最大条数，可以用 -Dsparkle.lyrics.cache.entries 设置.
+     */
+    private static final int MAX_ENTRIES = Math.max(1,
+            Integer.getInteger("sparkle.lyrics.cache.entries", 16));
+
+    /**
+     * 缓存大约占用的最大内存(字节)，可以用 -Dsparkle.lyrics.cache.bytes 设置.
+     */
+    private static final long MAX_BYTES = Math.max(0,
+            Long.getLong("sparkle.lyrics.cache.bytes", 8L * 1024 * 1024));
 
     /**
      * 当前歌词的歌曲sid.
@@ -22,37 +48,78 @@ public final class LyricsManage {
      */
     private static LyricsUtil mLyricsUtil;
 
+    /**
+     * 歌词缓存，按访问顺序排列，最久没有使用的在最前面.
+     */
+    private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+
+    /**
+     * 缓存的歌词大约占用的内存.
+     */
+    private static long cacheBytes = 0;
+
+    private static long hitCount = 0;
+
+    private static long missCount = 0;
+
+    private static long prefetchCount = 0;
+
+    /**
+     * 解析歌词文件时加锁，预读和界面同时要同一个文件时只解析一次.
+     */
+    private static final Object loadLock = new Object();
+
+    /**
+     * 预读下一首歌词的线程.
+     */
+    private static ExecutorService prefetchExecutor;
+
+    /**
+     * 缓存项.
+     */
+    private static class Entry {
+        private final String sid;
+        private final LyricsUtil lyricsUtil;
+        private final long bytes;
+
+        Entry(String sid, LyricsUtil lyricsUtil, long bytes) {
+            this.sid = sid;
+            this.lyricsUtil = lyricsUtil;
+            this.bytes = bytes;
+        }
+    }
+
     /**
      * 私有构造函数防止实例化.
      */
     private LyricsManage() {
         // 工具类不允许实例化
-    }    /**
+    }
+
+    /**
      * 通过歌曲的sid和歌词路径获取歌词解析器.
-     * 
+     *
      * @param sid 歌曲ID
      * @param lrcFile 歌词文件
      * @return 歌词解析器
      */
     public static LyricsUtil getLyricsParser(final String sid, final File lrcFile) {
-        if (sid.equals(mSid)) {
-            if (mLyricsUtil == null) {
-                mLyricsUtil = new LyricsUtil(lrcFile);
-            }
-        } else {
+        LyricsUtil lyricsUtil = load(sid, lrcFile);
+        synchronized (LyricsManage.class) {
             mSid = sid;
-            mLyricsUtil = new LyricsUtil(lrcFile);
+            mLyricsUtil = lyricsUtil;
         }
-        return mLyricsUtil;
+        return lyricsUtil;
     }
 
     /**
      * 获取歌词解析.
-     * 
+     *
      * @param sid 歌曲ID
      * @return 歌词解析器
      */
-    public static LyricsUtil getLyricsParser(final String sid) {
+    public static synchronized LyricsUtil getLyricsParser(final String sid) {
         if (sid.equals(mSid)) {
             return mLyricsUtil;
         }
@@ -61,11 +128,11 @@ public final class LyricsManage {
 
     /**
      * 通过歌曲ID获取KSC歌词解析器.
-     * 
+     *
      * @param sid 歌曲ID
      * @return 歌词解析器
      */
-    public static LyricsUtil getKscLyricsParserByInputStream(final String sid) {
+    public static synchronized LyricsUtil getKscLyricsParserByInputStream(final String sid) {
         if (sid.equals(mSid)) {
             if (mLyricsUtil == null) {
                 mLyricsUtil = new LyricsUtil();
@@ -78,10 +145,155 @@ public final class LyricsManage {
         return mLyricsUtil;
     }
 
+    /**
+     * 在后台解析下一首歌曲的歌词，切换歌曲时直接从缓存中取.
+     *
+     * @param songInfo 下一首歌曲，为null时不处理
+     */
+    public static void prefetch(final SongInfo songInfo) {
+        if (songInfo == null || songInfo.getSid() == null) {
+            return;
+        }
+        getPrefetchExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    File lrcFile = LyricsUtil.getLrcFile(songInfo.getDisplayName());
+                    if (lrcFile == null || !lrcFile.exists()) {
+                        return;
+                    }
+                    synchronized (LyricsManage.class) {
+                        if (cache.containsKey(getKey(songInfo.getSid(), lrcFile))) {
+                            return;
+                        }
+                        prefetchCount++;
+                    }
+                    load(songInfo.getSid(), lrcFile);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    logger.error(e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * 从缓存中获取，没有时解析歌词文件并放入缓存.
+     *
+     * @param sid 歌曲ID
+     * @param lrcFile 歌词文件
+     * @return 歌词解析器
+     */
+    private static LyricsUtil load(final String sid, final File lrcFile) {
+        String key = getKey(sid, lrcFile);
+        LyricsUtil lyricsUtil = get(key);
+        if (lyricsUtil != null) {
+            return lyricsUtil;
+        }
+        synchronized (loadLock) {
+            synchronized (LyricsManage.class) {
+                Entry entry = cache.get(key);
+                if (entry != null) {
+                    // 等锁的时候已经被预读
+                    return entry.lyricsUtil;
+                }
+                missCount++;
+            }
+            lyricsUtil = new LyricsUtil(lrcFile);
+            put(key, new Entry(sid, lyricsUtil, lyricsUtil.getApproximateSize()));
+        }
+        return lyricsUtil;
+    }
+
+    private static synchronized LyricsUtil get(final String key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        hitCount++;
+        return entry.lyricsUtil;
+    }
+
+    private static synchronized void put(final String key, final Entry entry) {
+        Entry old = cache.put(key, entry);
+        if (old != null) {
+            cacheBytes -= old.bytes;
+        }
+        cacheBytes += entry.bytes;
+        // 淘汰最久没有使用的，最少保留刚放入的一条
+        Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator();
+        while (cache.size() > 1 && (cache.size() > MAX_ENTRIES || cacheBytes > MAX_BYTES)) {
+            Entry eldest = it.next().getValue();
+            if (eldest == entry) {
+                break;
+            }
+            cacheBytes -= eldest.bytes;
+            it.remove();
+        }
+    }
+
+    /**
+     * 文件被修改后键也会改变，旧的歌词自然被淘汰.
+     *
+     * @param sid 歌曲ID
+     * @param lrcFile 歌词文件
+     * @return 缓存的键
+     */
+    private static String getKey(final String sid, final File lrcFile) {
+        return sid + "|" + lrcFile.getPath() + "|" + lrcFile.lastModified();
+    }
+
+    private static synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "LyricsPrefetch");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * 缓存中是否有这首歌的歌词.
+     *
+     * @param sid 歌曲ID
+     * @return 有时返回true
+     */
+    public static synchronized boolean isCached(final String sid) {
+        for (Entry entry : cache.values()) {
+            if (entry.sid.equals(sid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 统计信息，包括缓存条数、大约占用的内存和命中率.
+     *
+     * @return 统计信息
+     */
+    public static synchronized String getStatistics() {
+        long total = hitCount + missCount;
+        return "[entries=" + cache.size() + "/" + MAX_ENTRIES + ",bytes=" + cacheBytes + "/"
+                + MAX_BYTES + ",hits=" + hitCount + ",misses=" + missCount + ",prefetches="
+                + prefetchCount + ",hitRate="
+                + (total == 0 ? 0 : Math.round(hitCount * 1000.0 / total) / 10.0) + "%]";
+    }
+
     /**
      * 清空数据.
      */
-    public static void clean() {
+    public static synchronized void clean() {
         mLyricsUtil = null;
+        cache.clear();
+        cacheBytes = 0;
     }
 }
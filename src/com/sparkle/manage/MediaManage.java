@@ -3,10 +3,13 @@ package com.sparkle.manage;
 import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import com.sparkle.observable.SparkleObserver;
-import java.util.Random;
 
 import com.sparkle.common.BaseData;
 import com.sparkle.common.Constants;
@@ -16,15 +19,21 @@ import com.sparkle.model.Category;
 import com.sparkle.model.EventIntent;
 import com.sparkle.model.SongInfo;
 import com.sparkle.model.SongMessage;
+import com.sparkle.observable.Delivery;
 import com.sparkle.observable.ObserverManage;
 import com.sparkle.service.MediaPlayerService;
-import com.sparkle.util.AudioFilter;
+import com.sparkle.service.MetadataExtractService;
 import com.sparkle.util.DateUtil;
 import com.sparkle.util.IDGenerate;
 import com.sparkle.util.MediaUtils;
 
 /**
  * 播放器管理
+ * <p>
+ * 播放消息在工作线程中处理,播放列表在界面线程中修改,无缝播放和歌词预解析在各自的线程中查询下一首.
+ * 播放列表的歌曲列表写时复制:修改时在锁内生成新的列表再替换,已经发布的列表不再修改,
+ * 其他线程拿到的列表可以直接遍历;上一首、下一首的查询也在锁内完成,不修改任何状态.
+ * </p>
  * 
  * @author yuyi2003
  * 
@@ -39,14 +48,19 @@ public class MediaManage implements SparkleObserver {
     private List<Category> categorys;
 
     /**
-     * 当前播放列表下的歌曲列表
+     * 歌曲所在播放列表和位置的索引
      */
-    private List<SongInfo> songlist;
+    private PlayQueueIndex playQueueIndex = new PlayQueueIndex();
+
+    /**
+     * 随机播放的顺序
+     */
+    private ShuffleEngine shuffleEngine = new ShuffleEngine();
 
     /**
      * 当前播放歌曲
      */
-    private SongInfo songInfo;
+    private volatile SongInfo songInfo;
 
     /**
      * 正在播放
@@ -63,14 +77,19 @@ public class MediaManage implements SparkleObserver {
     /**
      * 播放歌曲状态
      */
-    private int playStatus = PAUSE;
+    private volatile int playStatus = PAUSE;
     /**
      * 旧的播放歌曲id
      */
     public static String oldPlayInfoID = "-1";
 
     public MediaManage() {
-        ObserverManage.getObserver().addObserver(this);
+        ObserverManage.getObserver().addSongObserver(this, Delivery.WORKER,
+                SongMessage.PLAYMUSIC, SongMessage.SEEKTOMUSIC,
+                SongMessage.PLAYINFOMUSIC, SongMessage.SERVICEPAUSEEDMUSIC,
+                SongMessage.PAUSEMUSIC, SongMessage.NEXTMUSIC,
+                SongMessage.PREMUSIC, SongMessage.REINITMUSIC,
+                SongMessage.STOPMUSIC, SongMessage.SERVICESTOPEDMUSIC);
     }
 
     public static MediaManage getMediaManage() {
@@ -96,26 +115,30 @@ public class MediaManage implements SparkleObserver {
 
             File defFile = new File(Constants.PATH_AUDIO + File.separator);
 
-            List<SongInfo> songInfos = new ArrayList<SongInfo>();
+            final List<SongInfo> songInfos = new ArrayList<SongInfo>();
             File[] defAudioFiles = defFile.listFiles(new FileFilter() {
 
                 @Override
                 public boolean accept(File f) {
-                    return new AudioFilter().accept(f);
+                    return MediaUtils.isCandidate(f);
                 }
             });
-            for (int i = 0; i < defAudioFiles.length; i++) {
-                File audioFile = defAudioFiles[i];
-                if (audioFile.exists()) {
-                    SongInfo songInfo = MediaUtils.getSongInfoByFile(audioFile
-                            .getPath());
-                    if (songInfo != null) {
-                        songInfo.setCategoryId(category.getCid());
-                        SongInfoDB.getSongInfoDB().add(songInfo);
-
-                        songInfos.add(songInfo);
-                    }
-                }
+            if (defAudioFiles != null) {
+                final String categoryId = category.getCid();
+                MetadataExtractService.getMetadataExtractService().extract(
+                        Arrays.asList(defAudioFiles),
+                        new MetadataExtractService.ExtractListener() {
+
+                            @Override
+                            public void onExtracted(File file,
+                                    SongInfo songInfo) {
+                                if (songInfo != null) {
+                                    songInfo.setCategoryId(categoryId);
+                                    songInfos.add(songInfo);
+                                }
+                            }
+                        });
+                SongInfoDB.getSongInfoDB().addAll(songInfos);
             }
 
             category.setSongInfos(songInfos);
@@ -129,14 +152,20 @@ public class MediaManage implements SparkleObserver {
                 List<SongInfo> songInfos = SongInfoDB.getSongInfoDB()
                         .getSongList(category.getCid());
                 category.setSongInfos(songInfos);
-
-                categorys.remove(i);
-                categorys.add(i, category);
             }
         }
+        playQueueIndex.rebuild(categorys);
+        shuffleEngine.load(new File(Constants.PATH_SHUFFLE));
         // printData();
     }
 
+    /**
+     * 保存随机播放的顺序,退出时调用
+     */
+    public void saveShuffleState() {
+        shuffleEngine.save(new File(Constants.PATH_SHUFFLE));
+    }
+
     /**
      * 添加歌曲到播放列表中
      * 
@@ -144,49 +173,108 @@ public class MediaManage implements SparkleObserver {
      *            播放列表的id
      * @param songInfo
      */
-    public void addSongInfo(String pId, SongInfo songInfo) {
-        for (int i = 0; i < categorys.size(); i++) {
-            Category category = categorys.get(i);
-            if (category.getCid().equals(pId)) {
-                List<SongInfo> songInfos = category.getSongInfos();
-                songInfos.add(songInfo);
-                category.setSongInfos(songInfos);
-
-                categorys.remove(i);
-                categorys.add(i, category);
-                break;
-            }
+    public synchronized void addSongInfo(String pId, SongInfo songInfo) {
+        Category category = playQueueIndex.getCategory(pId);
+        if (category != null) {
+            List<SongInfo> songInfos = new ArrayList<SongInfo>(
+                    category.getSongInfos());
+            songInfos.add(songInfo);
+            category.setSongInfos(songInfos);
+            playQueueIndex.added(category, songInfos.size() - 1);
+            shuffleEngine.added(pId, songInfo.getSid());
         }
         // printData();
     }
 
     /**
-     * 移除歌曲
+     * 批量添加歌曲到播放列表中
      * 
      * @param pId
-     * @param sid
+     *            播放列表的id
+     * @param songInfos
      */
-    public void delSongInfo(String pId, String sid) {
-        for (int i = 0; i < categorys.size(); i++) {
-            Category category = categorys.get(i);
-            if (category.getCid().equals(pId)) {
-                List<SongInfo> songInfos = category.getSongInfos();
-
-                for (int j = 0; j < songInfos.size(); j++) {
-                    SongInfo songInfo = songInfos.get(j);
-                    if (songInfo.getSid().equals(sid)) {
-                        songInfos.remove(j);
-                        break;
-                    }
-                }
+    public void addSongInfos(String pId, List<SongInfo> songInfos) {
+        updateSongInfos(pId, new ArrayList<String>(), songInfos);
+    }
 
-                category.setSongInfos(songInfos);
+    /**
+     * 批量移除歌曲
+     * 
+     * @param pId
+     * @param sids
+     */
+    public void delSongInfos(String pId, Collection<String> sids) {
+        updateSongInfos(pId, sids, new ArrayList<SongInfo>());
+    }
 
-                categorys.remove(i);
-                categorys.add(i, category);
-                break;
+    /**
+     * 批量移除和添加歌曲,整批只复制一次歌曲列表、只更新一次索引
+     * 
+     * @param pId
+     *            播放列表的id
+     * @param removedSids
+     *            移除的歌曲id
+     * @param addedSongInfos
+     *            添加到列表末尾的歌曲
+     */
+    public synchronized void updateSongInfos(String pId,
+            Collection<String> removedSids, List<SongInfo> addedSongInfos) {
+        Category category = playQueueIndex.getCategory(pId);
+        if (category == null
+                || (removedSids.isEmpty() && addedSongInfos.isEmpty())) {
+            return;
+        }
+        Set<String> removeSids = new HashSet<String>(removedSids);
+        List<SongInfo> songInfos = category.getSongInfos();
+        List<SongInfo> newSongInfos = new ArrayList<SongInfo>(
+                songInfos.size() + addedSongInfos.size());
+        List<String> removed = new ArrayList<String>();
+        int from = -1;
+        for (int i = 0; i < songInfos.size(); i++) {
+            SongInfo songInfo = songInfos.get(i);
+            if (!removeSids.isEmpty()
+                    && removeSids.contains(songInfo.getSid())) {
+                removed.add(songInfo.getSid());
+                if (from == -1) {
+                    from = i;
+                }
+            } else {
+                newSongInfos.add(songInfo);
             }
         }
+        if (from == -1) {
+            // 没有移除歌曲,只需要更新新增部分的索引
+            from = newSongInfos.size();
+        }
+        newSongInfos.addAll(addedSongInfos);
+        category.setSongInfos(newSongInfos);
+        playQueueIndex.removed(category, removed, from);
+        for (int i = 0; i < removed.size(); i++) {
+            shuffleEngine.removed(pId, removed.get(i));
+        }
+        for (int i = 0; i < addedSongInfos.size(); i++) {
+            shuffleEngine.added(pId, addedSongInfos.get(i).getSid());
+        }
+    }
+
+    /**
+     * 移除歌曲
+     * 
+     * @param pId
+     * @param sid
+     */
+    public synchronized void delSongInfo(String pId, String sid) {
+        PlayQueueIndex.Position position = playQueueIndex.getPosition(sid);
+        if (position != null && position.getCategory().getCid().equals(pId)) {
+            Category category = position.getCategory();
+            int index = position.getIndex();
+            List<SongInfo> songInfos = new ArrayList<SongInfo>(
+                    category.getSongInfos());
+            songInfos.remove(index);
+            category.setSongInfos(songInfos);
+            playQueueIndex.removed(category, sid, index);
+            shuffleEngine.removed(pId, sid);
+        }
         // printData();
     }
 
@@ -195,8 +283,11 @@ public class MediaManage implements SparkleObserver {
      * 
      * @param category
      */
-    public void addCategory(Category category) {
-        categorys.add(category);
+    public synchronized void addCategory(Category category) {
+        List<Category> newCategorys = new ArrayList<Category>(categorys);
+        newCategorys.add(category);
+        categorys = newCategorys;
+        playQueueIndex.index(category);
         // printData();
     }
 
@@ -205,50 +296,59 @@ public class MediaManage implements SparkleObserver {
      * 
      * @param pId
      */
-    public void delCategory(String pId) {
-        for (int i = 0; i < categorys.size(); i++) {
-            Category category = categorys.get(i);
-            if (category.getCid().equals(pId)) {
-                categorys.remove(i);
-                break;
-            }
+    public synchronized void delCategory(String pId) {
+        Category category = playQueueIndex.getCategory(pId);
+        if (category != null) {
+            List<Category> newCategorys = new ArrayList<Category>(categorys);
+            newCategorys.remove(category);
+            categorys = newCategorys;
+            playQueueIndex.remove(category);
+            shuffleEngine.reset(pId);
         }
         // printData();
     }
 
     /**
-     * 获取该播放列表下的所有歌曲
+     * 获取该播放列表下的所有歌曲的副本,修改后通过 {@link #updateSongInfoList} 更新
      * 
      * @param pId
      * @return
      */
-    public List<SongInfo> getSongInfoList(String pId) {
-        for (int i = 0; i < categorys.size(); i++) {
-            Category category = categorys.get(i);
-            if (category.getCid().equals(pId)) {
-                return category.getSongInfos();
-            }
+    public synchronized List<SongInfo> getSongInfoList(String pId) {
+        Category category = playQueueIndex.getCategory(pId);
+        if (category != null) {
+            return new ArrayList<SongInfo>(category.getSongInfos());
         }
         return new ArrayList<SongInfo>();
     }
 
+    /**
+     * 获取该播放列表下的歌曲数,不复制歌曲列表
+     * 
+     * @param pId
+     * @return
+     */
+    public synchronized int getSongSize(String pId) {
+        Category category = playQueueIndex.getCategory(pId);
+        if (category != null) {
+            return category.getSongSize();
+        }
+        return 0;
+    }
+
     /**
      * 更新播放列表下的所有歌曲列表
      * 
      * @param pId
      * @param songInfos
      */
-    public void updateSongInfoList(String pId, List<SongInfo> songInfos) {
-        for (int i = 0; i < categorys.size(); i++) {
-            Category category = categorys.get(i);
-            if (category.getCid().equals(pId)) {
-
-                category.setSongInfos(songInfos);
-
-                categorys.remove(i);
-                categorys.add(i, category);
-                break;
-            }
+    public synchronized void updateSongInfoList(String pId,
+            List<SongInfo> songInfos) {
+        Category category = playQueueIndex.getCategory(pId);
+        if (category != null) {
+            category.setSongInfos(new ArrayList<SongInfo>(songInfos));
+            playQueueIndex.index(category);
+            shuffleEngine.sync(category);
         }
         // printData();
     }
@@ -301,6 +401,8 @@ public class MediaManage implements SparkleObserver {
             msg.setSongInfo(songInfo);
             msg.setType(SongMessage.INITMUSIC);
             ObserverManage.getObserver().setMessage(msg);
+
+            LyricsManage.prefetch(getNextSongInfo(songInfo));
         }
 
         new Thread() {
@@ -338,8 +440,8 @@ public class MediaManage implements SparkleObserver {
             return;
         }
 
-        // 快进的话，要修改当前的播放状态
-        if (playStatus == PLAYING) {
+        // 快进的话，要修改当前的播放状态，上一次快进还没完成时同样交给播放服务合并
+        if (playStatus == PLAYING || playStatus == SEEKTO) {
             playStatus = SEEKTO;
             //
             SongMessage songMessage = new SongMessage();
@@ -413,134 +515,275 @@ public class MediaManage implements SparkleObserver {
 
         boolean isInit = true;
 
-        int playIndex = getPlayingSongIndex();
+        SongInfo preSongInfo = selectPreSongInfo(playModel);
+        if (preSongInfo == null || preSongInfo.getSid() == null) {
+            stopToPlay();
+            return;
+        }
+        songInfo = preSongInfo;
+        // 保存歌曲索引
+
+        BaseData.playInfoID = songInfo.getSid();
+
+        EventIntent eventIntent = new EventIntent();
+        eventIntent.setEventType(EventIntent.SONGLIST);
+        eventIntent.setpLId(BaseData.playInfoPID);
+        eventIntent.setsId(BaseData.playInfoID);
+        eventIntent.setMouseType(EventIntent.DOUBLECLICK);
+
+        ObserverManage.getObserver().setMessage(eventIntent);
+
+        playInfoMusic(songInfo, isInit);
+    }
+
+    /**
+     * 获取歌曲在所属播放列表中的索引
+     * 
+     * @param sid
+     * @return
+     */
+    private int getSongIndex(String sid) {
+        PlayQueueIndex.Position position = playQueueIndex.getPosition(sid);
+        if (position == null) {
+            return -1;
+        }
+        return position.getIndex();
+    }
+
+    /**
+     * 获取歌曲所在播放列表的歌曲列表，歌曲已经被移除时取当前的播放列表
+     * 
+     * @param sid
+     * @return
+     */
+    private List<SongInfo> getPlayingSongList(String sid) {
+        Category category = getPlayingCategory(sid);
+        if (category == null) {
+            return new ArrayList<SongInfo>();
+        }
+        return category.getSongInfos();
+    }
+
+    /**
+     * 按播放模式选出上一首
+     * 
+     * @param playModel
+     * @return 没有上一首或者需要停止播放时返回null
+     */
+    private synchronized SongInfo selectPreSongInfo(int playModel) {
+        List<SongInfo> songlist = getPlayingSongList(oldPlayInfoID);
+        int playIndex = getSongIndex(oldPlayInfoID);
         switch (playModel) {
         case 0:
             // 顺序播放
-            // playIndex--;
-            playIndex = getPrePlaySequenceIndex(playIndex);
-            if (playIndex == -1 || playIndex >= songlist.size()) {
-                stopToPlay();
-                return;
-            }
-
-            if (songlist.size() != 0) {
-                songInfo = songlist.get(playIndex);
-            } else {
-                stopToPlay();
-                return;
-            }
+            playIndex = getPrePlaySequenceIndex(songlist, playIndex);
+            break;
+        case 1:
+            // 随机播放，按播放历史回到上一首
+            playIndex = getPreShuffleIndex();
+            break;
+        case 2:
+            // 循环播放
+            playIndex = getPrePlayListRepeatIndex(songlist, playIndex);
+            break;
+        case 4:
+            // 单曲循环播放，playIndex == -1说明歌曲被移除了
+            return playIndex == -1 ? null : songInfo;
+        default:
+            // 单曲播放
+            return null;
+        }
+        if (playIndex == -1 || playIndex >= songlist.size()) {
+            return null;
+        }
+        return songlist.get(playIndex);
+    }
 
+    /**
+     * 按播放模式选出下一首，随机播放时记为已播放
+     * 
+     * @param playModel
+     * @return 没有下一首或者需要停止播放时返回null
+     */
+    private synchronized SongInfo selectNextSongInfo(int playModel) {
+        List<SongInfo> songlist = getPlayingSongList(oldPlayInfoID);
+        int playIndex = getSongIndex(oldPlayInfoID);
+        switch (playModel) {
+        case 0:
+            // 顺序播放
+            playIndex = getNextPlaySequenceIndex(songlist, playIndex);
             break;
         case 1:
             // 随机播放
-
-            // playIndex = new Random().nextInt(songlist.size());
-            playIndex = getPlayRandomIndex();
-            if (playIndex == -1 || playIndex >= songlist.size()) {
-                stopToPlay();
-                return;
-            }
-
-            if (songlist.size() != 0) {
-                songInfo = songlist.get(playIndex);
-            } else {
-                stopToPlay();
-                return;
-            }
+            playIndex = getNextShuffleIndex();
             break;
         case 2:
             // 循环播放
+            playIndex = getNextPlayListRepeatIndex(songlist, playIndex);
+            break;
+        case 4:
+            // 单曲循环播放，playIndex == -1说明歌曲被移除了
+            return playIndex == -1 ? null : songInfo;
+        default:
+            // 单曲播放
+            return null;
+        }
+        if (playIndex == -1 || playIndex >= songlist.size()) {
+            return null;
+        }
+        return songlist.get(playIndex);
+    }
 
-            // playIndex--;
-            // if (playIndex < 0) {
-            // playIndex = 0;
-            // }
-            playIndex = getPrePlayListRepeatIndex(playIndex);
-            if (playIndex == -1 || playIndex >= songlist.size()) {
-                stopToPlay();
-                return;
-            }
-            if (songlist.size() != 0) {
-                songInfo = songlist.get(playIndex);
-            } else {
-                stopToPlay();
-                return;
+    /**
+     * 按当前的播放模式获取下一首歌曲,不改变播放状态,无缝播放时用来提前准备下一首
+     * 
+     * @param current
+     *            当前歌曲
+     * @return 没有下一首时返回null
+     */
+    public synchronized SongInfo getNextSongInfo(SongInfo current) {
+        if (current == null) {
+            return null;
+        }
+        int playIndex = getSongIndex(current.getSid());
+        if (playIndex == -1) {
+            return null;
+        }
+        List<SongInfo> songlist = getPlayingSongList(current.getSid());
+        switch (BaseData.playModel) {
+        case 0:
+            // 顺序播放
+            playIndex = getNextPlaySequenceIndex(songlist, playIndex);
+            break;
+        case 1:
+            // 随机播放，只看下一首，真正切换时再记为已播放
+            Category category = getPlayingCategory(current.getSid());
+            if (category == null) {
+                return null;
             }
+            playIndex = getSongIndex(shuffleEngine.peekNext(category,
+                    current.getSid()));
+            break;
+        case 2:
+            // 循环播放
+            playIndex = getNextPlayListRepeatIndex(songlist, playIndex);
             break;
-        case 3:
-            // 单曲播放
-            stopToPlay();
-            return;
         case 4:
             // 单曲循环播放
-
-            break;
+            return current;
+        default:
+            // 单曲播放
+            return null;
         }
-
-        // playIndex == -1说明在单曲播放状态下歌曲被移除了
-        if (songInfo == null || songInfo.getSid() == null || playIndex == -1) {
-            stopToPlay();
-            return;
+        if (playIndex == -1 || playIndex >= songlist.size()) {
+            return null;
         }
-        // 保存歌曲索引
+        return songlist.get(playIndex);
+    }
 
+    /**
+     * 无缝播放时播放器已经接着播放下一首,这里只更新播放状态并通知界面,不重新打开播放器
+     * 
+     * @param nextSongInfo
+     */
+    public void gaplessNext(SongInfo nextSongInfo) {
+        EventIntent resetIntent = new EventIntent();
+        resetIntent.setEventType(EventIntent.SONGLIST);
+        resetIntent.setpLId(BaseData.playInfoPID);
+        resetIntent.setsId(BaseData.playInfoID);
+        resetIntent.setMouseType(EventIntent.RESET);
+        ObserverManage.getObserver().setMessage(resetIntent);
+
+        oldPlayInfoID = BaseData.playInfoID;
+        if (BaseData.playModel == 1) {
+            Category category = getPlayingCategory(nextSongInfo.getSid());
+            if (category != null) {
+                shuffleEngine.moveTo(category, oldPlayInfoID,
+                        nextSongInfo.getSid());
+            }
+        }
+        songInfo = nextSongInfo;
+        songInfo.setPlayProgress(0);
         BaseData.playInfoID = songInfo.getSid();
+        playStatus = PLAYING;
 
         EventIntent eventIntent = new EventIntent();
         eventIntent.setEventType(EventIntent.SONGLIST);
         eventIntent.setpLId(BaseData.playInfoPID);
         eventIntent.setsId(BaseData.playInfoID);
         eventIntent.setMouseType(EventIntent.DOUBLECLICK);
-
         ObserverManage.getObserver().setMessage(eventIntent);
 
-        playInfoMusic(songInfo, isInit);
+        SongMessage msg = new SongMessage();
+        msg.setSongInfo(songInfo);
+        msg.setType(SongMessage.INITMUSIC);
+        ObserverManage.getObserver().setMessage(msg);
+
+        // 提前解析再下一首的歌词
+        LyricsManage.prefetch(getNextSongInfo(songInfo));
     }
 
     /**
-     * 获取当前歌曲的索引
+     * 获取歌曲所在的播放列表，歌曲已经被移除时取当前的播放列表
      * 
+     * @param sid
      * @return
      */
-    private int getPlayingSongIndex() {
-        for (int i = 0; i < categorys.size(); i++) {
-            Category category = categorys.get(i);
-            List<SongInfo> songInfos = category.getSongInfos();
-            for (int j = 0; j < songInfos.size(); j++) {
-                SongInfo songInfo = songInfos.get(j);
-                if (songInfo.getSid().equals(oldPlayInfoID)) {
-                    this.songlist = songInfos;
-                    return j;
-                }
-            }
+    private Category getPlayingCategory(String sid) {
+        PlayQueueIndex.Position position = playQueueIndex.getPosition(sid);
+        if (position != null) {
+            return position.getCategory();
         }
-        return -1;
+        return playQueueIndex.getCategory(BaseData.playInfoPID);
     }
 
     /**
+     * 获取随机播放下一首的索引
      * 
-     * @param playIndex
      * @return
      */
-    private int getPlayRandomIndex() {
-        int index = new Random().nextInt(songlist.size());
-        for (int i = index; i < songlist.size(); i++) {
-            SongInfo songInfo = songlist.get(i);
-            if (songInfo != null) {
-                return i;
-            }
+    private int getNextShuffleIndex() {
+        Category category = getPlayingCategory(oldPlayInfoID);
+        if (category == null) {
+            return -1;
         }
-        return -1;
+        String sid = shuffleEngine.next(category, oldPlayInfoID);
+        if (sid == null) {
+            return -1;
+        }
+        return getSongIndex(sid);
+    }
+
+    /**
+     * 获取随机播放上一首的索引，没有播放历史时随机取一首
+     * 
+     * @return
+     */
+    private int getPreShuffleIndex() {
+        Category category = getPlayingCategory(oldPlayInfoID);
+        if (category == null) {
+            return -1;
+        }
+        String sid = shuffleEngine.previous(category, oldPlayInfoID);
+        if (sid == null) {
+            sid = shuffleEngine.next(category, oldPlayInfoID);
+        }
+        if (sid == null) {
+            return -1;
+        }
+        return getSongIndex(sid);
     }
 
     /**
      * 获取列表循环播放上一首
      * 
+     * @param songlist
+     *            歌曲所在播放列表的歌曲列表
      * @param oldPlayIndex
      * @return
      */
-    private int getPrePlayListRepeatIndex(int oldPlayIndex) {
+    private int getPrePlayListRepeatIndex(List<SongInfo> songlist,
+            int oldPlayIndex) {
         for (int i = oldPlayIndex - 1; i >= 0; i--) {
             if (i < 0)
                 break;
@@ -563,10 +806,13 @@ public class MediaManage implements SparkleObserver {
     /**
      * 获取顺序播放上一首
      * 
+     * @param songlist
+     *            歌曲所在播放列表的歌曲列表
      * @param oldPlayIndex
      * @return
      */
-    private int getPrePlaySequenceIndex(int oldPlayIndex) {
+    private int getPrePlaySequenceIndex(List<SongInfo> songlist,
+            int oldPlayIndex) {
         for (int i = oldPlayIndex - 1; i >= 0; i--) {
             if (i < 0)
                 break;
@@ -591,75 +837,12 @@ public class MediaManage implements SparkleObserver {
 
         boolean isInit = true;
 
-        // 顺序播放
-        int playIndex = getPlayingSongIndex();
-        switch (playModel) {
-        case 0:
-
-            // playIndex++;
-            playIndex = getNextPlaySequenceIndex(playIndex);
-            if (playIndex == -1 || playIndex >= songlist.size()) {
-                stopToPlay();
-                return;
-            }
-            if (songlist.size() != 0) {
-                songInfo = songlist.get(playIndex);
-            } else {
-                stopToPlay();
-                return;
-            }
-
-            break;
-        case 1:
-            // 随机播放
-
-            // playIndex = new Random().nextInt(songlist.size());
-            playIndex = getPlayRandomIndex();
-            if (playIndex == -1 || playIndex >= songlist.size()) {
-                stopToPlay();
-                return;
-            }
-            if (songlist.size() != 0) {
-                songInfo = songlist.get(playIndex);
-            } else {
-                stopToPlay();
-                return;
-            }
-            break;
-        case 2:
-            // 循环播放
-
-            // playIndex++;
-            playIndex = getNextPlayListRepeatIndex(playIndex);
-            // if (playIndex >= songlist.size()) {
-            // playIndex = 0;
-            // }
-            if (playIndex == -1 || playIndex >= songlist.size()) {
-                stopToPlay();
-                return;
-            }
-
-            if (songlist.size() != 0) {
-                songInfo = songlist.get(playIndex);
-            } else {
-                stopToPlay();
-                return;
-            }
-
-            break;
-        case 3:
-            // 单曲播放
-            stopToPlay();
-            return;
-        case 4:
-            // 单曲循环播放
-            break;
-        }
-        // playIndex == -1说明在单曲播放状态下歌曲被移除了
-        if (songInfo == null || songInfo.getSid() == null || playIndex == -1) {
+        SongInfo nextSongInfo = selectNextSongInfo(playModel);
+        if (nextSongInfo == null || nextSongInfo.getSid() == null) {
             stopToPlay();
             return;
         }
+        songInfo = nextSongInfo;
 
         BaseData.playInfoID = songInfo.getSid();
 
@@ -677,10 +860,13 @@ public class MediaManage implements SparkleObserver {
     /**
      * 获取列表循环播放的下一首的索引
      * 
+     * @param songlist
+     *            歌曲所在播放列表的歌曲列表
      * @param oldPlayIndex
      * @return
      */
-    private int getNextPlayListRepeatIndex(int oldPlayIndex) {
+    private int getNextPlayListRepeatIndex(List<SongInfo> songlist,
+            int oldPlayIndex) {
         for (int i = oldPlayIndex + 1; i < songlist.size(); i++) {
             SongInfo songInfo = songlist.get(i);
             if (songInfo != null) {
@@ -699,11 +885,14 @@ public class MediaManage implements SparkleObserver {
     /**
      * 获取顺序播放的下一首的索引
      * 
+     * @param songlist
+     *            歌曲所在播放列表的歌曲列表
      * @param oldPlayIndex
      *            旧的索引
      * @return
      */
-    private int getNextPlaySequenceIndex(int oldPlayIndex) {
+    private int getNextPlaySequenceIndex(List<SongInfo> songlist,
+            int oldPlayIndex) {
         for (int i = oldPlayIndex + 1; i < songlist.size(); i++) {
             SongInfo songInfo = songlist.get(i);
             if (songInfo != null) {
@@ -730,18 +919,39 @@ public class MediaManage implements SparkleObserver {
         this.playStatus = playStatus;
     }
 
-    public List<Category> getCategorys() {
+    public synchronized List<Category> getCategorys() {
         return categorys;
     }
 
-    public void setCategorys(List<Category> categorys) {
-        this.categorys = categorys;
+    public synchronized void setCategorys(List<Category> categorys) {
+        this.categorys = new ArrayList<Category>(categorys);
+        playQueueIndex.rebuild(categorys);
     }
 
     public SongInfo getSongInfo() {
         return songInfo;
     }
 
+    /**
+     * 当前歌曲的播放进度,播放时从播放进度通道读取,否则为歌曲记录的进度
+     * 
+     * @return 没有歌曲时返回0
+     */
+    public long getPlayProgress() {
+        SongInfo mSongInfo = songInfo;
+        if (mSongInfo == null) {
+            return 0;
+        }
+        if (playStatus == PLAYING) {
+            long millis = MediaPlayerService.getMediaPlayerService()
+                    .getPlaybackProgress().getMillis();
+            if (millis >= 0) {
+                return millis;
+            }
+        }
+        return mSongInfo.getPlayProgress();
+    }
+
     public void setSongInfo(SongInfo songInfo) {
         this.songInfo = songInfo;
     }
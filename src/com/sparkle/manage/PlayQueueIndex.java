@@ -0,0 +1,209 @@
+package com.sparkle.manage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sparkle.model.Category;
+import com.sparkle.model.SongInfo;
+
+/**
+ * 播放列表索引
+ * <p>
+ * 记录每首歌曲所在的播放列表和在列表中的位置,上一首、下一首时不需要遍历所有播放列表.
+ * 歌曲列表在外部被直接修改时,查询会发现位置不对,只重建该播放列表的索引.
+ * 无缝播放准备下一首时会在其他线程中查询,所以所有方法都是同步的.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class PlayQueueIndex {
+
+    /**
+     * 歌曲的位置
+     */
+    public static class Position {
+        private Category category;
+        private int index;
+
+        public Category getCategory() {
+            return category;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
+
+    /**
+     * 播放列表id -> 播放列表
+     */
+    private final Map<String, Category> categoryMap = new HashMap<String, Category>();
+
+    /**
+     * 歌曲id -> 位置
+     */
+    private final Map<String, Position> positionMap = new HashMap<String, Position>();
+
+    /**
+     * 重建所有播放列表的索引
+     *
+     * @param categorys
+     */
+    public synchronized void rebuild(List<Category> categorys) {
+        categoryMap.clear();
+        positionMap.clear();
+        for (int i = 0; i < categorys.size(); i++) {
+            index(categorys.get(i));
+        }
+    }
+
+    /**
+     * 添加或者重建播放列表的索引
+     *
+     * @param category
+     */
+    public synchronized void index(Category category) {
+        categoryMap.put(category.getCid(), category);
+        reindex(category, 0);
+    }
+
+    /**
+     * 移除播放列表的索引
+     *
+     * @param category
+     */
+    public synchronized void remove(Category category) {
+        categoryMap.remove(category.getCid());
+        List<SongInfo> songInfos = category.getSongInfos();
+        for (int i = 0; i < songInfos.size(); i++) {
+            String sid = songInfos.get(i).getSid();
+            Position position = positionMap.get(sid);
+            if (position != null && position.category == category) {
+                positionMap.remove(sid);
+            }
+        }
+    }
+
+    /**
+     * 歌曲已经添加到播放列表的指定位置
+     *
+     * @param category
+     * @param index
+     */
+    public synchronized void added(Category category, int index) {
+        reindex(category, index);
+    }
+
+    /**
+     * 歌曲已经从播放列表的指定位置移除
+     *
+     * @param category
+     * @param sid
+     * @param index
+     */
+    public synchronized void removed(Category category, String sid, int index) {
+        positionMap.remove(sid);
+        reindex(category, index);
+    }
+
+    /**
+     * 多首歌曲已经从播放列表移除
+     *
+     * @param category
+     * @param sids
+     * @param from
+     *            移除的歌曲中最小的原位置
+     */
+    public synchronized void removed(Category category,
+            Collection<String> sids, int from) {
+        for (String sid : sids) {
+            positionMap.remove(sid);
+        }
+        reindex(category, from);
+    }
+
+    /**
+     * 获取播放列表
+     *
+     * @param cid
+     * @return 没有时返回null
+     */
+    public synchronized Category getCategory(String cid) {
+        return categoryMap.get(cid);
+    }
+
+    /**
+     * 获取歌曲的位置
+     *
+     * @param sid
+     * @return 歌曲不在任何播放列表中时返回null
+     */
+    public synchronized Position getPosition(String sid) {
+        Position position = positionMap.get(sid);
+        if (position == null) {
+            return null;
+        }
+        if (isValid(position, sid)) {
+            return position;
+        }
+        if (categoryMap.get(position.category.getCid()) == position.category) {
+            // 歌曲列表在外部被修改过
+            reindex(position.category, 0);
+        }
+        if (isValid(position, sid)) {
+            return position;
+        }
+        positionMap.remove(sid);
+        return null;
+    }
+
+    /**
+     * 播放列表数量
+     *
+     * @return
+     */
+    public synchronized int getCategoryCount() {
+        return categoryMap.size();
+    }
+
+    /**
+     * 歌曲数量
+     *
+     * @return
+     */
+    public synchronized int getSongCount() {
+        return positionMap.size();
+    }
+
+    private boolean isValid(Position position, String sid) {
+        if (categoryMap.get(position.category.getCid()) != position.category) {
+            return false;
+        }
+        List<SongInfo> songInfos = position.category.getSongInfos();
+        return position.index < songInfos.size()
+                && sid.equals(songInfos.get(position.index).getSid());
+    }
+
+    /**
+     * 从指定位置开始更新播放列表中歌曲的位置
+     *
+     * @param category
+     * @param from
+     */
+    private void reindex(Category category, int from) {
+        List<SongInfo> songInfos = category.getSongInfos();
+        for (int i = Math.max(0, from); i < songInfos.size(); i++) {
+            String sid = songInfos.get(i).getSid();
+            Position position = positionMap.get(sid);
+            if (position == null) {
+                position = new Position();
+                positionMap.put(sid, position);
+            }
+            position.category = category;
+            position.index = i;
+        }
+    }
+}
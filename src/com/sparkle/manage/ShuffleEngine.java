@@ -0,0 +1,445 @@
+package com.sparkle.manage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.model.Category;
+import com.sparkle.model.SongInfo;
+
+/**
+ * 随机播放
+ * <p>
+ * 对当前播放列表做一次 Fisher–Yates 洗牌,但不预先打乱整个列表:
+ * 列表分为已播放和未播放两部分,每次从未播放部分随机抽出一首移到已播放部分,
+ * 所有歌曲都播放过一遍之后才开始新的一轮,一轮之内不会重复.
+ * 上一首从播放历史中取,历史有长度上限.歌曲的添加和删除直接在排列上修改,不重新洗牌,
+ * 排列在退出时保存,下次启动继续按原来的顺序播放.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class ShuffleEngine {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 播放历史的最大长度
+     */
+    public static final int HISTORY_SIZE = 200;
+
+    /**
+     * 保存文件的格式版本
+     */
+    private static final int VERSION = 1;
+
+    private static final int MAGIC = 0x53484631;
+
+    private final Random random = new Random();
+
+    /**
+     * 排列所属的播放列表
+     */
+    private String categoryId;
+
+    /**
+     * 歌曲id的排列,[0, drawn) 为本轮已经播放过的歌曲
+     */
+    private List<String> order = new ArrayList<String>();
+
+    /**
+     * 歌曲id -> 在排列中的位置
+     */
+    private Map<String, Integer> positions = new HashMap<String, Integer>();
+
+    /**
+     * 本轮已经播放的歌曲数
+     */
+    private int drawn = 0;
+
+    /**
+     * 已经抽出但还没有播放的下一首,无缝播放提前准备下一首时使用
+     */
+    private String candidate;
+
+    /**
+     * 播放历史,最近播放的在最前面
+     */
+    private LinkedList<String> history = new LinkedList<String>();
+
+    /**
+     * 回退之后再前进时按原来的顺序播放
+     */
+    private LinkedList<String> forward = new LinkedList<String>();
+
+    /**
+     * 获取下一首并记为已播放
+     *
+     * @param category
+     * @param currentSid
+     * @return 播放列表为空时返回null
+     */
+    public synchronized String next(Category category, String currentSid) {
+        String next = peekNext(category, currentSid);
+        if (next != null) {
+            moveTo(category, currentSid, next);
+        }
+        return next;
+    }
+
+    /**
+     * 获取下一首,不改变状态,多次调用返回同一首
+     *
+     * @param category
+     * @param currentSid
+     * @return 播放列表为空时返回null
+     */
+    public synchronized String peekNext(Category category, String currentSid) {
+        attach(category);
+        while (!forward.isEmpty()) {
+            String sid = forward.getFirst();
+            if (positions.containsKey(sid)) {
+                return sid;
+            }
+            forward.removeFirst();
+        }
+        if (order.isEmpty()) {
+            return null;
+        }
+        if (candidate != null && positions.containsKey(candidate)) {
+            return candidate;
+        }
+        if (drawn >= order.size()) {
+            // 所有歌曲都播放过了,开始新的一轮
+            drawn = 0;
+        }
+        int undrawn = order.size() - drawn;
+        candidate = order.get(drawn + random.nextInt(undrawn));
+        if (undrawn > 1 && candidate.equals(currentSid)) {
+            // 新一轮的第一首不要和刚播放的一样
+            int index = drawn + random.nextInt(undrawn - 1);
+            if (order.get(index).equals(currentSid)) {
+                index = order.size() - 1;
+            }
+            candidate = order.get(index);
+        }
+        return candidate;
+    }
+
+    /**
+     * 获取上一首
+     *
+     * @param category
+     * @param currentSid
+     * @return 没有播放历史时返回null
+     */
+    public synchronized String previous(Category category, String currentSid) {
+        attach(category);
+        while (!history.isEmpty()) {
+            String sid = history.removeFirst();
+            if (!positions.containsKey(sid)) {
+                continue;
+            }
+            if (currentSid != null && positions.containsKey(currentSid)) {
+                forward.addFirst(currentSid);
+            }
+            candidate = null;
+            return sid;
+        }
+        return null;
+    }
+
+    /**
+     * 已经从当前歌曲切换到下一首,下一首记为本轮已播放
+     *
+     * @param category
+     * @param currentSid
+     * @param nextSid
+     */
+    public synchronized void moveTo(Category category, String currentSid,
+            String nextSid) {
+        attach(category);
+        if (currentSid != null && positions.containsKey(currentSid)) {
+            history.addFirst(currentSid);
+            if (history.size() > HISTORY_SIZE) {
+                history.removeLast();
+            }
+        }
+        if (!forward.isEmpty() && forward.getFirst().equals(nextSid)) {
+            forward.removeFirst();
+            return;
+        }
+        forward.clear();
+        if (nextSid.equals(candidate)) {
+            candidate = null;
+        }
+        Integer position = positions.get(nextSid);
+        if (position == null) {
+            return;
+        }
+        if (drawn >= order.size()) {
+            drawn = 0;
+        }
+        if (position >= drawn) {
+            swap(position, drawn);
+            drawn++;
+        }
+    }
+
+    /**
+     * 歌曲已经添加到播放列表,放在未播放部分
+     *
+     * @param categoryId
+     * @param sid
+     */
+    public synchronized void added(String categoryId, String sid) {
+        if (!categoryId.equals(this.categoryId) || positions.containsKey(sid)) {
+            return;
+        }
+        positions.put(sid, order.size());
+        order.add(sid);
+    }
+
+    /**
+     * 歌曲已经从播放列表移除
+     *
+     * @param categoryId
+     * @param sid
+     */
+    public synchronized void removed(String categoryId, String sid) {
+        if (!categoryId.equals(this.categoryId)) {
+            return;
+        }
+        Integer position = positions.get(sid);
+        if (position == null) {
+            return;
+        }
+        int index = position;
+        if (index < drawn) {
+            // 先换到已播放部分的末尾
+            swap(index, drawn - 1);
+            index = drawn - 1;
+            drawn--;
+        }
+        int last = order.size() - 1;
+        swap(index, last);
+        order.remove(last);
+        positions.remove(sid);
+        if (sid.equals(candidate)) {
+            candidate = null;
+        }
+    }
+
+    /**
+     * 播放列表被删除或者整个替换时清除排列
+     *
+     * @param categoryId
+     */
+    public synchronized void reset(String categoryId) {
+        if (categoryId.equals(this.categoryId)) {
+            this.categoryId = null;
+            clear();
+        }
+    }
+
+    /**
+     * 播放列表的歌曲被整个替换之后,按新的列表补上差异
+     *
+     * @param category
+     */
+    public synchronized void sync(Category category) {
+        if (category.getCid().equals(categoryId)) {
+            reconcile(category);
+        }
+    }
+
+    /**
+     * 切换到指定的播放列表,与保存的排列不一致时只补上差异,不重新洗牌
+     *
+     * @param category
+     */
+    private void attach(Category category) {
+        if (!category.getCid().equals(categoryId)) {
+            categoryId = category.getCid();
+            clear();
+        } else if (category.getSongInfos().size() == order.size()) {
+            return;
+        }
+        reconcile(category);
+    }
+
+    private void reconcile(Category category) {
+        List<SongInfo> songInfos = category.getSongInfos();
+        Set<String> sids = new HashSet<String>();
+        for (int i = 0; i < songInfos.size(); i++) {
+            String sid = songInfos.get(i).getSid();
+            sids.add(sid);
+            if (!positions.containsKey(sid)) {
+                positions.put(sid, order.size());
+                order.add(sid);
+            }
+        }
+        if (sids.size() != order.size()) {
+            List<String> removedSids = new ArrayList<String>();
+            for (int i = 0; i < order.size(); i++) {
+                if (!sids.contains(order.get(i))) {
+                    removedSids.add(order.get(i));
+                }
+            }
+            for (int i = 0; i < removedSids.size(); i++) {
+                removed(categoryId, removedSids.get(i));
+            }
+        }
+    }
+
+    private void clear() {
+        order = new ArrayList<String>();
+        positions = new HashMap<String, Integer>();
+        drawn = 0;
+        candidate = null;
+        history.clear();
+        forward.clear();
+    }
+
+    private void swap(int i, int j) {
+        if (i == j) {
+            return;
+        }
+        String a = order.get(i);
+        String b = order.get(j);
+        order.set(i, b);
+        order.set(j, a);
+        positions.put(b, i);
+        positions.put(a, j);
+    }
+
+    /**
+     * 保存排列和播放历史
+     *
+     * @param file
+     */
+    public synchronized void save(File file) {
+        if (categoryId == null) {
+            if (file.exists()) {
+                file.delete();
+            }
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            file.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(categoryId);
+            out.writeInt(drawn);
+            out.writeInt(order.size());
+            for (int i = 0; i < order.size(); i++) {
+                out.writeUTF(order.get(i));
+            }
+            out.writeInt(history.size());
+            for (int i = 0; i < history.size(); i++) {
+                out.writeUTF(history.get(i));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.getMessage();
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取上次保存的排列,文件不存在或者格式不对时从头开始
+     *
+     * @param file
+     */
+    public synchronized void load(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            String mCategoryId = in.readUTF();
+            int mDrawn = in.readInt();
+            int size = in.readInt();
+            List<String> mOrder = new ArrayList<String>(size);
+            Map<String, Integer> mPositions = new HashMap<String, Integer>(
+                    size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                String sid = in.readUTF();
+                mPositions.put(sid, mOrder.size());
+                mOrder.add(sid);
+            }
+            int historySize = in.readInt();
+            LinkedList<String> mHistory = new LinkedList<String>();
+            for (int i = 0; i < historySize; i++) {
+                mHistory.add(in.readUTF());
+            }
+            if (mPositions.size() != mOrder.size()) {
+                // 有重复的歌曲,文件已经损坏
+                return;
+            }
+            clear();
+            categoryId = mCategoryId;
+            order = mOrder;
+            positions = mPositions;
+            drawn = Math.max(0, Math.min(mDrawn, mOrder.size()));
+            history = mHistory;
+        } catch (IOException e) {
+            logger.error("读取随机播放顺序失败 " + e.toString());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.getMessage();
+                }
+            }
+        }
+    }
+
+    /**
+     * 本轮已经播放的歌曲数
+     *
+     * @return
+     */
+    public synchronized int getDrawnCount() {
+        return drawn;
+    }
+
+    /**
+     * 排列中的歌曲数
+     *
+     * @return
+     */
+    public synchronized int getSize() {
+        return order.size();
+    }
+}
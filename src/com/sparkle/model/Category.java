@@ -21,9 +21,9 @@ public class Category {
      */
     private String categoryName;
     /**
-     * 分类的内容
+     * 分类的内容,由 MediaManage 整体替换,其他线程可以直接读取
      */
-    private List<SongInfo> songInfos = new ArrayList<SongInfo>();
+    private volatile List<SongInfo> songInfos = new ArrayList<SongInfo>();
 
     public Category() {
 
@@ -0,0 +1,95 @@
+package com.sparkle.model;
+
+/**
+ * 文件指纹,用来判断歌曲文件自上次解析之后是否有变化
+ * 
+ * @author yuyi2003
+ * 
+ */
+public class FileFingerprint {
+    /**
+     * 播放列表id,同一个文件在不同的播放列表中各有一份指纹
+     */
+    private String categoryId;
+    /**
+     * 规范路径
+     */
+    private String path;
+    /**
+     * 同步时所在文件夹的规范路径
+     */
+    private String folder;
+    /**
+     * 文件大小
+     */
+    private long size;
+    /**
+     * 最后修改时间
+     */
+    private long lastModified;
+    /**
+     * 文件头尾部分内容的摘要,没有计算时为null
+     */
+    private String partialHash;
+    /**
+     * 最近一次由该文件解析出来的歌曲id
+     */
+    private String sid;
+
+    public String getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(String categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public void setFolder(String folder) {
+        this.folder = folder;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getPartialHash() {
+        return partialHash;
+    }
+
+    public void setPartialHash(String partialHash) {
+        this.partialHash = partialHash;
+    }
+
+    public String getSid() {
+        return sid;
+    }
+
+    public void setSid(String sid) {
+        this.sid = sid;
+    }
+
+}
@@ -212,4 +212,33 @@ public class SongInfo implements Serializable {
         this.categoryId = categoryId;
     }
 
+    /**
+     * 复制歌曲信息,播放进度不复制
+     * 
+     * @return
+     */
+    public SongInfo copy() {
+        SongInfo songInfo = new SongInfo();
+        songInfo.sid = sid;
+        songInfo.displayName = displayName;
+        songInfo.title = title;
+        songInfo.singer = singer;
+        songInfo.duration = duration;
+        songInfo.durationStr = durationStr;
+        songInfo.size = size;
+        songInfo.sizeStr = sizeStr;
+        songInfo.filePath = filePath;
+        songInfo.type = type;
+        songInfo.categoryId = categoryId;
+        songInfo.createTime = createTime;
+        songInfo.albumUrl = albumUrl;
+        songInfo.singerPIC = singerPIC;
+        songInfo.lyricsUrl = lyricsUrl;
+        songInfo.fileExt = fileExt;
+        songInfo.downloadUrl = downloadUrl;
+        songInfo.downloadProgress = downloadProgress;
+        songInfo.downloadStatus = downloadStatus;
+        return songInfo;
+    }
+
 }
@@ -0,0 +1,43 @@
+package com.sparkle.model;
+
+/**
+ * 播放列表关联的歌曲文件夹,文件夹中的歌曲变化会自动同步到播放列表
+ * 
+ * @author yuyi2003
+ * 
+ */
+public class WatchFolder {
+    /**
+     * 播放列表id
+     */
+    private String categoryId;
+    /**
+     * 文件夹的规范路径
+     */
+    private String path;
+
+    public WatchFolder() {
+    }
+
+    public WatchFolder(String categoryId, String path) {
+        this.categoryId = categoryId;
+        this.path = path;
+    }
+
+    public String getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(String categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.sparkle.observable;
+
+/**
+ * 消息的投递方式.
+ *
+ * @author yuyi2003
+ */
+public enum Delivery {
+    /**
+     * 在发布消息的线程中直接通知，旧式观察者使用.
+     */
+    SYNC,
+    /**
+     * 在 Swing 事件分发线程中通知，界面使用.发布者本身在事件分发线程中时直接通知.
+     */
+    EDT,
+    /**
+     * 在服务线程中通知，播放控制等服务使用.所有服务共用一个线程，按发布顺序依次通知，
+     * 发布者本身在服务线程中时直接通知.
+     */
+    WORKER
+}
@@ -1,5 +1,7 @@
 package com.sparkle.observable;
 
+import com.sparkle.model.SongMessage;
+
 /**
  * 观察者管理器，用来观察一些操作，如主题颜色的改变，何时弹出更新的窗口等等.
  * 现已更新为使用现代观察者模式，替代已过时的 java.util.Observable.
@@ -17,7 +19,8 @@ public final class ObserverManage extends SparkleObservable {
      * 私有构造函数，防止外部实例化.
      */
     private ObserverManage() {
-        // 私有构造函数
+        // 播放进度只需要最新的
+        setLatestValue(SongMessage.SERVICEPLAYINGMUSIC);
     }
 
     /**
@@ -33,13 +36,12 @@ public final class ObserverManage extends SparkleObservable {
     }
 
     /**
-     * 设置消息并通知观察者.
+     * 发布消息，只通知订阅了该消息的观察者，异步订阅的观察者在各自的线程中收到消息.
      * 
      * @param data 消息数据
      */
     public void setMessage(final Object data) {
-        setChanged();
-        notifyObservers(data);
+        publish(data);
     }
       /**
      * 兼容性方法：添加旧式 Observer.
@@ -1,19 +1,18 @@
 package com.sparkle.observable;
 
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.List;
-
 /**
  * 现代化的被观察者类，替代已过时的 java.util.Observable.
- * 使用线程安全的 CopyOnWriteArrayList 来管理观察者.
+ * 观察者由 {@link TopicDispatcher} 按消息类型分组管理，发布消息时只通知订阅了该类型的观察者，
+ * 通过 {@link #addObserver(SparkleObserver)} 添加的观察者仍然收到所有消息.
+ * 观察者可以指定 {@link Delivery}，在界面线程或者服务线程中异步接收消息.
  * 
  * @author yuyi2003
  */
 public class SparkleObservable {
     /**
-     * 观察者列表.
+     * 观察者.
      */
-    private final List<SparkleObserver> observers = new CopyOnWriteArrayList<>();
+    private final TopicDispatcher dispatcher = new TopicDispatcher();
     
     /**
      * 变化标志.
@@ -21,30 +20,100 @@ public class SparkleObservable {
     private boolean changed;
     
     /**
-     * 添加观察者.
+     * 添加观察者，观察者会收到所有消息.
+     * 
+     * @param observer 要添加的观察者
+     */
+    public void addObserver(final SparkleObserver observer) {
+        if (observer != null) {
+            dispatcher.subscribeAll(observer);
+        }
+    }
+    
+    /**
+     * 添加观察者，只接收指定类型的消息.
+     * 
+     * @param observer 要添加的观察者
+     * @param messageClasses 消息类型
+     */
+    public void addObserver(final SparkleObserver observer,
+            final Class<?>... messageClasses) {
+        addObserver(observer, Delivery.SYNC, messageClasses);
+    }
+    
+    /**
+     * 添加观察者，只接收指定类型的消息，按指定的方式投递.
+     * 同一个观察者的所有订阅使用同一种投递方式，以最后一次指定的为准.
      * 
      * @param observer 要添加的观察者
+     * @param delivery 投递方式
+     * @param messageClasses 消息类型
      */
-    public synchronized void addObserver(final SparkleObserver observer) {
-        if (observer != null && !observers.contains(observer)) {
-            observers.add(observer);
+    public void addObserver(final SparkleObserver observer,
+            final Delivery delivery, final Class<?>... messageClasses) {
+        if (observer != null) {
+            dispatcher.subscribe(observer, delivery, messageClasses);
         }
     }
     
+    /**
+     * 添加观察者，只接收指定类型的歌曲消息，可以和按消息类型订阅同时使用.
+     * 
+     * @param observer 要添加的观察者
+     * @param types 歌曲消息的类型，见 {@link com.sparkle.model.SongMessage}
+     */
+    public void addSongObserver(final SparkleObserver observer,
+            final int... types) {
+        addSongObserver(observer, Delivery.SYNC, types);
+    }
+    
+    /**
+     * 添加观察者，只接收指定类型的歌曲消息，按指定的方式投递.
+     * 
+     * @param observer 要添加的观察者
+     * @param delivery 投递方式
+     * @param types 歌曲消息的类型，见 {@link com.sparkle.model.SongMessage}
+     */
+    public void addSongObserver(final SparkleObserver observer,
+            final Delivery delivery, final int... types) {
+        if (observer != null) {
+            dispatcher.subscribeSong(observer, delivery, types);
+        }
+    }
+    
+    /**
+     * 标记歌曲消息类型为只关心最新值，异步投递时观察者只收到最新的一条.
+     * 
+     * @param type 歌曲消息的类型
+     */
+    public void setLatestValue(final int type) {
+        dispatcher.markLatestValue(type);
+    }
+    
+    /**
+     * 在指定的线程中执行任务，已经在该线程中时直接执行.
+     * 
+     * @param delivery 投递方式
+     * @param task 任务
+     */
+    public void execute(final Delivery delivery, final Runnable task) {
+        dispatcher.execute(delivery, task);
+    }
+    
     /**
      * 删除观察者.
      * 
      * @param observer 要删除的观察者
      */
-    public synchronized void deleteObserver(final SparkleObserver observer) {
-        observers.remove(observer);
+    public void deleteObserver(final SparkleObserver observer) {
+        dispatcher.unsubscribe(observer);
     }
     
     /**
      * 删除所有观察者.
      */
-    public synchronized void deleteObservers() {
-        observers.clear();
+    public void deleteObservers() {
+        dispatcher.clear();
     }
     
     /**
@@ -76,24 +145,22 @@ public class SparkleObservable {
      * @param arg 传递给观察者的参数
      */
     public void notifyObservers(final Object arg) {
-        final SparkleObserver[] arrLocal;
-        
         synchronized (this) {
             if (!changed) {
                 return;
             }
-            arrLocal = observers.toArray(new SparkleObserver[0]);
             clearChanged();
         }
-        
-        for (final SparkleObserver observer : arrLocal) {
-            try {
-                observer.update(this, arg);
-            } catch (final Exception e) {
-                // 记录错误但不影响其他观察者
-                e.printStackTrace();
-            }
-        }
+        publish(arg);
+    }
+    
+    /**
+     * 通知订阅了该消息的观察者，不检查改变标记，也不加锁.
+     * 
+     * @param arg 传递给观察者的参数
+     */
+    protected void publish(final Object arg) {
+        dispatcher.publish(this, arg);
     }
     
     /**
@@ -108,8 +175,18 @@ public class SparkleObservable {
      * 
      * @return 观察者数量
      */
-    public synchronized int countObservers() {
-        return observers.size();
+    public int countObservers() {
+        return dispatcher.size();
+    }
+    
+    /**
+     * 获取会收到该消息的观察者数量.
+     * 
+     * @param arg 消息
+     * @return 观察者数量
+     */
+    public int countSubscribers(final Object arg) {
+        return dispatcher.countSubscribers(arg);
     }
     
     /**
@@ -117,7 +194,7 @@ public class SparkleObservable {
      * 
      * @return 观察者数组的副本
      */
-    protected synchronized SparkleObserver[] getObservers() {
-        return observers.toArray(new SparkleObserver[0]);
+    protected SparkleObserver[] getObservers() {
+        return dispatcher.getObservers();
     }
 }
@@ -0,0 +1,470 @@
+package com.sparkle.observable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import com.sparkle.model.SongMessage;
+
+/**
+ * 按主题分发消息.
+ * <p>
+ * 主题由消息的类型决定，{@link SongMessage} 再按 {@link SongMessage#getType()} 细分.
+ * 订阅变化时重新生成每个主题的观察者数组，发布时只读取当前的分发表，不加锁.
+ * 通过 {@link #subscribeAll(SparkleObserver)} 订阅的旧式观察者仍然会收到所有消息.
+ * 同一主题内按订阅的先后顺序通知.
+ * </p>
+ * <p>
+ * 每个观察者按自己的 {@link Delivery} 接收消息.标记为"只关心最新值"的主题(例如播放进度)，
+ * 观察者还没来得及处理时只保留最新的一条，旧的直接丢弃.
+ * </p>
+ *
+ * @author yuyi2003
+ */
+final class TopicDispatcher {
+
+    private static final Subscription[] EMPTY = new Subscription[0];
+
+    /**
+     * 一个观察者的订阅.
+     */
+    private static final class Subscription {
+        private final SparkleObserver observer;
+        private volatile Delivery delivery = Delivery.SYNC;
+        /**
+         * 是否订阅所有消息.
+         */
+        private boolean all;
+        private final Set<Class<?>> messageClasses = new LinkedHashSet<>();
+        private final Set<Integer> songTypes = new LinkedHashSet<>();
+        /**
+         * 只关心最新值的主题 -> 等待投递的消息.
+         */
+        private final Map<Integer, AtomicReference<Object>> latestSlots = new HashMap<>();
+
+        private Subscription(final SparkleObserver observer) {
+            this.observer = observer;
+        }
+
+        private boolean accepts(final Class<?> messageClass) {
+            return all || messageClasses.contains(messageClass);
+        }
+
+        private boolean acceptsSong(final int type) {
+            return accepts(SongMessage.class) || songTypes.contains(type);
+        }
+
+        private AtomicReference<Object> getLatestSlot(final int type) {
+            AtomicReference<Object> slot = latestSlots.get(type);
+            if (slot == null) {
+                slot = new AtomicReference<>();
+                latestSlots.put(type, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * 一个主题的观察者.
+     */
+    private static final class Topic {
+        private final Subscription[] subscriptions;
+        /**
+         * 与 subscriptions 一一对应，不是只关心最新值的主题时为null.
+         */
+        private final AtomicReference<Object>[] latestSlots;
+
+        private Topic(final Subscription[] subscriptions,
+                final AtomicReference<Object>[] latestSlots) {
+            this.subscriptions = subscriptions;
+            this.latestSlots = latestSlots;
+        }
+    }
+
+    private static final Topic EMPTY_TOPIC = new Topic(EMPTY, null);
+
+    /**
+     * 分发表，订阅变化时整体替换.
+     */
+    private static final class Table {
+        /**
+         * 只订阅所有消息的观察者，用于没有人单独订阅的消息类型.
+         */
+        private Topic allOnly = EMPTY_TOPIC;
+        private final Map<Class<?>, Topic> byClass = new HashMap<>();
+        /**
+         * 没有人单独订阅的歌曲消息类型.
+         */
+        private Topic songDefault = EMPTY_TOPIC;
+        private int songTypeBase = 0;
+        private Topic[] bySongType = new Topic[0];
+
+        private Topic lookup(final Object data) {
+            if (data instanceof SongMessage) {
+                final int index = ((SongMessage) data).getType() - songTypeBase;
+                if (index >= 0 && index < bySongType.length
+                        && bySongType[index] != null) {
+                    return bySongType[index];
+                }
+                return songDefault;
+            }
+            if (data == null) {
+                return allOnly;
+            }
+            final Topic topic = byClass.get(data.getClass());
+            return topic == null ? allOnly : topic;
+        }
+    }
+
+    /**
+     * 按订阅先后排列的订阅列表，只在持有锁时修改.
+     */
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    /**
+     * 只关心最新值的歌曲消息类型.
+     */
+    private final Set<Integer> latestSongTypes = new HashSet<>();
+
+    private volatile Table table = new Table();
+
+    /**
+     * 服务线程
+     */
+    private ExecutorService worker;
+
+    private volatile Thread workerThread;
+
+    /**
+     * 订阅所有消息，旧式观察者使用.
+     *
+     * @param observer 观察者
+     */
+    synchronized void subscribeAll(final SparkleObserver observer) {
+        getSubscription(observer).all = true;
+        rebuild();
+    }
+
+    /**
+     * 订阅指定类型的消息.
+     *
+     * @param observer 观察者
+     * @param delivery 投递方式
+     * @param messageClasses 消息类型
+     */
+    synchronized void subscribe(final SparkleObserver observer,
+            final Delivery delivery, final Class<?>... messageClasses) {
+        final Subscription subscription = getSubscription(observer);
+        subscription.delivery = delivery;
+        for (final Class<?> messageClass : messageClasses) {
+            subscription.messageClasses.add(messageClass);
+        }
+        rebuild();
+    }
+
+    /**
+     * 订阅指定类型的歌曲消息.
+     *
+     * @param observer 观察者
+     * @param delivery 投递方式
+     * @param types 歌曲消息的类型
+     */
+    synchronized void subscribeSong(final SparkleObserver observer,
+            final Delivery delivery, final int... types) {
+        final Subscription subscription = getSubscription(observer);
+        subscription.delivery = delivery;
+        for (final int type : types) {
+            subscription.songTypes.add(type);
+        }
+        rebuild();
+    }
+
+    /**
+     * 标记歌曲消息类型为只关心最新值.
+     *
+     * @param type 歌曲消息的类型
+     */
+    synchronized void markLatestValue(final int type) {
+        if (latestSongTypes.add(type)) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 取消观察者的所有订阅.
+     *
+     * @param observer 观察者
+     */
+    synchronized void unsubscribe(final SparkleObserver observer) {
+        for (int i = 0; i < subscriptions.size(); i++) {
+            if (subscriptions.get(i).observer == observer) {
+                subscriptions.remove(i);
+                rebuild();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 取消所有订阅.
+     */
+    synchronized void clear() {
+        subscriptions.clear();
+        rebuild();
+    }
+
+    /**
+     * 所有观察者.
+     *
+     * @return 观察者数组的副本
+     */
+    synchronized SparkleObserver[] getObservers() {
+        final SparkleObserver[] observers = new SparkleObserver[subscriptions.size()];
+        for (int i = 0; i < observers.length; i++) {
+            observers[i] = subscriptions.get(i).observer;
+        }
+        return observers;
+    }
+
+    /**
+     * 观察者数量.
+     *
+     * @return 观察者数量
+     */
+    synchronized int size() {
+        return subscriptions.size();
+    }
+
+    /**
+     * 会收到该消息的观察者数量.
+     *
+     * @param data 消息
+     * @return 观察者数量
+     */
+    int countSubscribers(final Object data) {
+        return table.lookup(data).subscriptions.length;
+    }
+
+    /**
+     * 把消息投递给订阅了该消息的观察者，不加锁.
+     *
+     * @param source 事件源
+     * @param data 消息
+     */
+    void publish(final Object source, final Object data) {
+        final Topic topic = table.lookup(data);
+        final Subscription[] targets = topic.subscriptions;
+        for (int i = 0; i < targets.length; i++) {
+            deliver(targets[i], source, data,
+                    topic.latestSlots == null ? null : topic.latestSlots[i]);
+        }
+    }
+
+    /**
+     * 在指定的线程中执行任务，已经在该线程中时直接执行.
+     *
+     * @param delivery 投递方式
+     * @param task 任务
+     */
+    void execute(final Delivery delivery, final Runnable task) {
+        if (delivery == Delivery.SYNC || isOnLane(delivery)) {
+            task.run();
+        } else {
+            post(delivery, task);
+        }
+    }
+
+    private void deliver(final Subscription subscription,
+            final Object source, final Object data,
+            final AtomicReference<Object> latestSlot) {
+        final Delivery delivery = subscription.delivery;
+        if (delivery == Delivery.SYNC || isOnLane(delivery)) {
+            if (latestSlot != null) {
+                // 还没投递的旧值不再需要
+                latestSlot.set(null);
+            }
+            invoke(subscription.observer, source, data);
+            return;
+        }
+        if (latestSlot == null) {
+            post(delivery, new Runnable() {
+
+                @Override
+                public void run() {
+                    invoke(subscription.observer, source, data);
+                }
+            });
+            return;
+        }
+        if (latestSlot.getAndSet(data) != null) {
+            // 已经有等待投递的任务，它会取到这条最新的消息
+            return;
+        }
+        post(delivery, new Runnable() {
+
+            @Override
+            public void run() {
+                final Object latest = latestSlot.getAndSet(null);
+                if (latest != null) {
+                    invoke(subscription.observer, source, latest);
+                }
+            }
+        });
+    }
+
+    private static void invoke(final SparkleObserver observer,
+            final Object source, final Object data) {
+        try {
+            observer.update(source, data);
+        } catch (final Exception e) {
+            // 记录错误但不影响其他观察者
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isOnLane(final Delivery delivery) {
+        if (delivery == Delivery.EDT) {
+            return SwingUtilities.isEventDispatchThread();
+        }
+        return Thread.currentThread() == workerThread;
+    }
+
+    private void post(final Delivery delivery, final Runnable task) {
+        if (delivery == Delivery.EDT) {
+            SwingUtilities.invokeLater(task);
+        } else {
+            getWorker().execute(task);
+        }
+    }
+
+    private synchronized ExecutorService getWorker() {
+        if (worker == null) {
+            worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "EventBusWorker");
+                    thread.setDaemon(true);
+                    workerThread = thread;
+                    return thread;
+                }
+            });
+        }
+        return worker;
+    }
+
+    private Subscription find(final SparkleObserver observer) {
+        for (final Subscription subscription : subscriptions) {
+            if (subscription.observer == observer) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+    private Subscription getSubscription(final SparkleObserver observer) {
+        Subscription subscription = find(observer);
+        if (subscription == null) {
+            subscription = new Subscription(observer);
+            subscriptions.add(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * 重新生成分发表.
+     */
+    private void rebuild() {
+        final Table newTable = new Table();
+
+        final Set<Class<?>> classes = new LinkedHashSet<>();
+        int minType = Integer.MAX_VALUE;
+        int maxType = Integer.MIN_VALUE;
+        for (final Subscription subscription : subscriptions) {
+            classes.addAll(subscription.messageClasses);
+            for (final Integer type : subscription.songTypes) {
+                minType = Math.min(minType, type);
+                maxType = Math.max(maxType, type);
+            }
+        }
+        for (final Integer type : latestSongTypes) {
+            minType = Math.min(minType, type);
+            maxType = Math.max(maxType, type);
+        }
+
+        final List<Subscription> targets = new ArrayList<>();
+        for (final Subscription subscription : subscriptions) {
+            if (subscription.all) {
+                targets.add(subscription);
+            }
+        }
+        newTable.allOnly = new Topic(targets.toArray(EMPTY), null);
+
+        for (final Class<?> messageClass : classes) {
+            if (messageClass == SongMessage.class) {
+                continue;
+            }
+            targets.clear();
+            for (final Subscription subscription : subscriptions) {
+                if (subscription.accepts(messageClass)) {
+                    targets.add(subscription);
+                }
+            }
+            newTable.byClass.put(messageClass,
+                    new Topic(targets.toArray(EMPTY), null));
+        }
+
+        targets.clear();
+        for (final Subscription subscription : subscriptions) {
+            if (subscription.accepts(SongMessage.class)) {
+                targets.add(subscription);
+            }
+        }
+        newTable.songDefault = new Topic(targets.toArray(EMPTY), null);
+
+        if (minType <= maxType) {
+            newTable.songTypeBase = minType;
+            newTable.bySongType = new Topic[maxType - minType + 1];
+            for (int type = minType; type <= maxType; type++) {
+                targets.clear();
+                boolean subscribed = latestSongTypes.contains(type);
+                for (final Subscription subscription : subscriptions) {
+                    if (subscription.songTypes.contains(type)) {
+                        subscribed = true;
+                    }
+                    if (subscription.acceptsSong(type)) {
+                        targets.add(subscription);
+                    }
+                }
+                if (subscribed) {
+                    newTable.bySongType[type - minType] = newTopic(targets,
+                            type);
+                }
+            }
+        }
+        table = newTable;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Topic newTopic(final List<Subscription> targets, final int type) {
+        final Subscription[] array = targets.toArray(EMPTY);
+        if (!latestSongTypes.contains(type)) {
+            return new Topic(array, null);
+        }
+        final AtomicReference<Object>[] latestSlots = new AtomicReference[array.length];
+        for (int i = 0; i < array.length; i++) {
+            latestSlots[i] = array[i].getLatestSlot(type);
+        }
+        return new Topic(array, latestSlots);
+    }
+}
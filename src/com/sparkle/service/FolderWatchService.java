@@ -0,0 +1,680 @@
+package com.sparkle.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.sparkle.db.WatchFolderDB;
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.manage.MediaManage;
+import com.sparkle.model.SongInfo;
+import com.sparkle.model.SongMessage;
+import com.sparkle.model.WatchFolder;
+import com.sparkle.observable.ObserverManage;
+
+/**
+ * 歌曲文件夹监听
+ * <p>
+ * 监听已经导入到播放列表的文件夹,短时间内连续发生的新增、修改和删除合并成一批,
+ * 交给 {@link LibraryScanService} 增量同步到数据库,再在界面线程中更新播放列表.
+ * 默认使用 {@link WatchService},网络盘或者无法注册监听的文件夹改为定时轮询.
+ * </p>
+ * <p>
+ * 只监听文件夹本身的文件,不包括子文件夹,与导入文件夹时只导入第一层文件一致.
+ * 文件夹持续有变化超过 {@link #MAX_DELAY} 时只同步大小和修改时间已经不变的文件,
+ * 还在写入的文件留到下一批,避免导入只写了一半的文件.
+ * </p>
+ * <p>
+ * 手动重新扫描和监听到的变化都在同一个同步线程中执行,
+ * 每个播放列表的读取、同步和更新 {@link MediaManage} 依次完成,不会交错.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class FolderWatchService {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 最后一次变化之后等待的时间(毫秒),期间没有新的变化才开始同步
+     */
+    private static final long DEBOUNCE_TIME = Long.getLong(
+            "sparkle.watch.debounce", 1500);
+
+    /**
+     * 文件夹持续有变化时,从第一次变化到开始同步的最长等待时间(毫秒),
+     * 超过后先同步已经不再变化的文件
+     */
+    private static final long MAX_DELAY = 30 * 1000;
+
+    /**
+     * 轮询间隔(毫秒)
+     */
+    private static final long POLL_INTERVAL = Long.getLong(
+            "sparkle.watch.pollInterval", 5000);
+
+    /**
+     * 网络文件系统类型,这些文件系统上的 WatchService 收不到其他机器上的变化
+     */
+    private static final Set<String> NETWORK_FILE_STORES = new HashSet<String>(
+            Arrays.asList("nfs", "nfs4", "cifs", "smbfs", "smb2", "afpfs",
+                    "webdav", "davfs", "fuse.sshfs", "9p"));
+
+    private static FolderWatchService _FolderWatchService;
+
+    /**
+     * 所有文件夹都使用轮询
+     */
+    private final boolean forcePolling;
+
+    /**
+     * 同步线程,轮询和合并后的同步都在该线程中执行
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 文件系统监听,不可用时为null
+     */
+    private WatchService watchService;
+
+    /**
+     * 监听key对应的文件夹规范路径
+     */
+    private final Map<WatchKey, String> watchKeys = new HashMap<WatchKey, String>();
+
+    /**
+     * 文件夹规范路径对应的播放列表id
+     */
+    private final Map<String, Set<String>> folderCategorys = new HashMap<String, Set<String>>();
+
+    /**
+     * 轮询的文件夹上一次的文件快照,key为文件名
+     */
+    private final Map<String, Map<String, String>> pollSnapshots = new HashMap<String, Map<String, String>>();
+
+    /**
+     * 等待同步的文件夹及其有变化的文件,值为null时整个文件夹重新扫描
+     */
+    private Map<String, Set<File>> pendingChanges = new LinkedHashMap<String, Set<File>>();
+
+    /**
+     * 等待同步的文件记录变化时的大小和最后修改时间
+     */
+    private Map<File, String> pendingStamps = new HashMap<File, String>();
+
+    /**
+     * 本批第一次变化的时间
+     */
+    private long firstChangeTime;
+
+    /**
+     * 本批最后一次变化的时间
+     */
+    private long lastChangeTime;
+
+    /**
+     * 是否已经安排了同步
+     */
+    private boolean flushScheduled = false;
+
+    private boolean started = false;
+
+    public static synchronized FolderWatchService getFolderWatchService() {
+        if (_FolderWatchService == null) {
+            _FolderWatchService = new FolderWatchService(
+                    Boolean.getBoolean("sparkle.watch.poll"));
+        }
+        return _FolderWatchService;
+    }
+
+    private FolderWatchService(boolean forcePolling) {
+        this.forcePolling = forcePolling;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FolderWatchSync");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 开始监听数据库中记录的所有文件夹,并同步程序关闭期间发生的变化
+     */
+    public void start() {
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            started = true;
+            if (!forcePolling) {
+                try {
+                    watchService = FileSystems.getDefault().newWatchService();
+                } catch (IOException e) {
+                    logger.warn("文件夹监听不可用,改为轮询 " + e.toString());
+                }
+            }
+        }
+        if (watchService != null) {
+            Thread watchThread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    watchLoop();
+                }
+            }, "FolderWatch");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                pollFolders();
+            }
+        }, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+
+        List<WatchFolder> watchFolders = WatchFolderDB.getWatchFolderDB()
+                .getAll();
+        synchronized (this) {
+            for (int i = 0; i < watchFolders.size(); i++) {
+                WatchFolder watchFolder = watchFolders.get(i);
+                register(watchFolder.getCategoryId(), watchFolder.getPath());
+            }
+            Iterator<String> iterator = folderCategorys.keySet().iterator();
+            while (iterator.hasNext()) {
+                addChange(iterator.next(), null);
+            }
+        }
+    }
+
+    /**
+     * 监听文件夹,文件夹中的变化会同步到播放列表.只监听文件夹本身的文件,不包括子文件夹
+     *
+     * @param categoryId
+     * @param folder
+     */
+    public void watch(String categoryId, File folder) {
+        String path = LibraryScanService.getCanonicalPath(folder);
+        WatchFolderDB.getWatchFolderDB().add(new WatchFolder(categoryId, path));
+        synchronized (this) {
+            register(categoryId, path);
+        }
+    }
+
+    /**
+     * 在同步线程中扫描文件夹并同步到播放列表,完成后监听该文件夹.
+     * 与监听到的变化按顺序同步,界面通过 ADDMUSIC / LOCALDELMUSIC 消息更新
+     *
+     * @param categoryId
+     * @param folder
+     */
+    public void rescan(final String categoryId, final File folder) {
+        scheduler.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    String path = LibraryScanService.getCanonicalPath(folder);
+                    File[] files = folder.listFiles();
+                    if (files == null) {
+                        files = new File[0];
+                    }
+                    Arrays.sort(files);
+                    LibraryScanService.ScanResult result = syncCategory(
+                            categoryId, path, files);
+                    logger.info("重新扫描文件夹 " + path + " " + result);
+                    // 之后文件夹中的变化自动同步到该播放列表
+                    watch(categoryId, folder);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    logger.error("扫描文件夹失败!" + folder + " " + e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * 取消播放列表关联的所有文件夹的监听
+     *
+     * @param categoryId
+     */
+    public void unwatch(String categoryId) {
+        WatchFolderDB.getWatchFolderDB().deleteAll(categoryId);
+        synchronized (this) {
+            Iterator<Map.Entry<String, Set<String>>> iterator = folderCategorys
+                    .entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Set<String>> entry = iterator.next();
+                Set<String> categoryIds = entry.getValue();
+                if (!categoryIds.remove(categoryId) || !categoryIds.isEmpty()) {
+                    continue;
+                }
+                // 没有播放列表关联该文件夹了
+                iterator.remove();
+                pollSnapshots.remove(entry.getKey());
+                pendingChanges.remove(entry.getKey());
+                Iterator<Map.Entry<WatchKey, String>> keyIterator = watchKeys
+                        .entrySet().iterator();
+                while (keyIterator.hasNext()) {
+                    Map.Entry<WatchKey, String> keyEntry = keyIterator.next();
+                    if (keyEntry.getValue().equals(entry.getKey())) {
+                        keyEntry.getKey().cancel();
+                        keyIterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录文件夹与播放列表的关联,文件夹第一次出现时开始监听
+     *
+     * @param categoryId
+     * @param path
+     */
+    private void register(String categoryId, String path) {
+        Set<String> categoryIds = folderCategorys.get(path);
+        if (categoryIds == null) {
+            categoryIds = new HashSet<String>();
+            folderCategorys.put(path, categoryIds);
+            if (started) {
+                listen(path);
+            }
+        }
+        categoryIds.add(categoryId);
+    }
+
+    /**
+     * 开始监听文件夹,无法使用 WatchService 时改为轮询.子文件夹不注册监听
+     *
+     * @param path
+     */
+    private void listen(String path) {
+        if (watchService != null && !isNetworkFolder(path)) {
+            try {
+                WatchKey key = Paths.get(path).register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchKeys.put(key, path);
+                return;
+            } catch (IOException e) {
+                logger.warn("监听文件夹失败,改为轮询 " + path + " " + e.toString());
+            }
+        }
+        pollSnapshots.put(path, snapshot(new File(path)));
+    }
+
+    /**
+     * 文件夹是否在网络文件系统上,无法判断时按网络文件系统处理
+     *
+     * @param path
+     * @return
+     */
+    private boolean isNetworkFolder(String path) {
+        try {
+            FileStore fileStore = Files.getFileStore(Paths.get(path));
+            return NETWORK_FILE_STORES.contains(fileStore.type().toLowerCase());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 接收 WatchService 的事件
+     */
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            synchronized (this) {
+                String path = watchKeys.get(key);
+                if (path == null) {
+                    key.pollEvents();
+                    key.cancel();
+                    continue;
+                }
+                List<WatchEvent<?>> events = key.pollEvents();
+                for (int i = 0; i < events.size(); i++) {
+                    WatchEvent<?> event = events.get(i);
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // 事件丢失,整个文件夹重新扫描
+                        addChange(path, null);
+                    } else {
+                        Path name = (Path) event.context();
+                        addChange(path, new File(path, name.toString()));
+                    }
+                }
+                if (!key.reset()) {
+                    // 文件夹被删除或者卸载,改为轮询,重新出现时可以继续同步
+                    watchKeys.remove(key);
+                    pollSnapshots.put(path, new HashMap<String, String>());
+                    addChange(path, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * 轮询文件夹,与上一次的快照比较
+     */
+    private void pollFolders() {
+        Map<String, Map<String, String>> oldSnapshots;
+        synchronized (this) {
+            oldSnapshots = new HashMap<String, Map<String, String>>(
+                    pollSnapshots);
+        }
+        for (Map.Entry<String, Map<String, String>> entry : oldSnapshots
+                .entrySet()) {
+            String path = entry.getKey();
+            Map<String, String> oldSnapshot = entry.getValue();
+            Map<String, String> newSnapshot = snapshot(new File(path));
+            List<File> changedFiles = new ArrayList<File>();
+            for (Map.Entry<String, String> file : newSnapshot.entrySet()) {
+                if (!file.getValue().equals(oldSnapshot.get(file.getKey()))) {
+                    changedFiles.add(new File(path, file.getKey()));
+                }
+            }
+            for (String name : oldSnapshot.keySet()) {
+                if (!newSnapshot.containsKey(name)) {
+                    changedFiles.add(new File(path, name));
+                }
+            }
+            synchronized (this) {
+                if (!pollSnapshots.containsKey(path)) {
+                    // 已经取消监听
+                    continue;
+                }
+                pollSnapshots.put(path, newSnapshot);
+                for (int i = 0; i < changedFiles.size(); i++) {
+                    addChange(path, changedFiles.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * 文件夹快照,key为文件名,值为文件大小和最后修改时间
+     *
+     * @param folder
+     * @return
+     */
+    private Map<String, String> snapshot(File folder) {
+        Map<String, String> snapshot = new HashMap<String, String>();
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return snapshot;
+        }
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            if (file.isFile()) {
+                snapshot.put(file.getName(), stamp(file));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * 文件的大小和最后修改时间
+     *
+     * @param file
+     * @return
+     */
+    private static String stamp(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * 记录变化并安排同步
+     *
+     * @param path
+     *            文件夹规范路径
+     * @param file
+     *            有变化的文件,为null时整个文件夹重新扫描
+     */
+    private synchronized void addChange(String path, File file) {
+        if (!folderCategorys.containsKey(path)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (pendingChanges.isEmpty()) {
+            firstChangeTime = now;
+        }
+        lastChangeTime = now;
+        if (!pendingChanges.containsKey(path)) {
+            pendingChanges.put(path, file == null ? null : new HashSet<File>());
+        }
+        Set<File> files = pendingChanges.get(path);
+        if (file == null) {
+            pendingChanges.put(path, null);
+        } else if (files != null) {
+            files.add(file);
+        }
+        if (file != null) {
+            pendingStamps.put(file, stamp(file));
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            scheduleFlush(DEBOUNCE_TIME);
+        }
+    }
+
+    private void scheduleFlush(long delay) {
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 变化平静下来之后同步本批的所有文件夹.
+     * 超过最长等待时间仍有变化时,只同步记录变化之后大小和修改时间都没有改变的文件
+     */
+    private void flush() {
+        Map<String, Set<File>> changes;
+        Map<File, String> stamps;
+        boolean busy;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long quietTime = now - lastChangeTime;
+            busy = quietTime < DEBOUNCE_TIME;
+            if (busy && now - firstChangeTime < MAX_DELAY) {
+                scheduleFlush(DEBOUNCE_TIME - quietTime);
+                return;
+            }
+            changes = pendingChanges;
+            stamps = pendingStamps;
+            pendingChanges = new LinkedHashMap<String, Set<File>>();
+            pendingStamps = new HashMap<File, String>();
+            flushScheduled = false;
+        }
+        for (Map.Entry<String, Set<File>> entry : changes.entrySet()) {
+            try {
+                Set<File> files = entry.getValue();
+                if (busy) {
+                    files = takeSettled(entry.getKey(), files, stamps);
+                    if (files.isEmpty()) {
+                        continue;
+                    }
+                }
+                syncFolder(entry.getKey(), files);
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.error("同步文件夹失败!" + entry.getKey() + " "
+                        + e.toString());
+            }
+        }
+    }
+
+    /**
+     * 取出已经不再变化的文件,还在变化的文件重新加入下一批
+     *
+     * @param path
+     *            文件夹规范路径
+     * @param changedFiles
+     *            为null时为文件夹中的所有文件
+     * @param stamps
+     *            记录变化时文件的大小和最后修改时间
+     * @return
+     */
+    private Set<File> takeSettled(String path, Set<File> changedFiles,
+            Map<File, String> stamps) {
+        Set<File> files;
+        if (changedFiles == null) {
+            files = new HashSet<File>();
+            File[] listFiles = new File(path).listFiles();
+            if (listFiles != null) {
+                files.addAll(Arrays.asList(listFiles));
+            }
+        } else {
+            files = changedFiles;
+        }
+        Set<File> settled = new HashSet<File>();
+        Iterator<File> iterator = files.iterator();
+        while (iterator.hasNext()) {
+            File file = iterator.next();
+            // 已经删除的文件不会再变化,子文件夹不同步
+            if (!file.isFile() || stamp(file).equals(stamps.get(file))) {
+                settled.add(file);
+            } else {
+                addChange(path, file);
+            }
+        }
+        if (settled.size() < files.size()) {
+            logger.info("文件夹仍在变化,还在写入的文件留到下一批同步 " + path + " "
+                    + (files.size() - settled.size()));
+        }
+        return settled;
+    }
+
+    /**
+     * 把文件夹的变化同步到关联的所有播放列表
+     *
+     * @param path
+     * @param changedFiles
+     *            为null时整个文件夹重新扫描
+     */
+    private void syncFolder(String path, Set<File> changedFiles) {
+        List<String> categoryIds;
+        synchronized (this) {
+            Set<String> temp = folderCategorys.get(path);
+            if (temp == null) {
+                return;
+            }
+            categoryIds = new ArrayList<String>(temp);
+        }
+        File[] files;
+        if (changedFiles == null) {
+            files = new File(path).listFiles();
+            if (files == null) {
+                files = new File[0];
+            }
+        } else {
+            files = changedFiles.toArray(new File[changedFiles.size()]);
+        }
+        Arrays.sort(files);
+
+        for (int i = 0; i < categoryIds.size(); i++) {
+            LibraryScanService.ScanResult result = syncCategory(
+                    categoryIds.get(i), path, files);
+            if (result.hasUpdate()) {
+                logger.info("文件夹有变化 " + path + " " + result);
+            }
+        }
+    }
+
+    /**
+     * 把文件同步到一个播放列表,只在同步线程中调用.
+     * 读取播放列表、同步和更新 {@link MediaManage} 之间不会有其他同步插入
+     *
+     * @param categoryId
+     * @param path
+     *            文件夹规范路径
+     * @param files
+     * @return
+     */
+    private LibraryScanService.ScanResult syncCategory(String categoryId,
+            String path, File[] files) {
+        List<SongInfo> songInfos = MediaManage.getMediaManage()
+                .getSongInfoList(categoryId);
+        LibraryScanService.ScanResult result = LibraryScanService
+                .getLibraryScanService().sync(categoryId, path, files,
+                        songInfos, new LibraryScanService.ScanListener() {
+
+                            @Override
+                            public void onSongAdded(SongInfo songInfo) {
+                            }
+
+                            @Override
+                            public void onSongRemoved(SongInfo songInfo) {
+                            }
+                        });
+        if (result.hasUpdate()) {
+            publish(categoryId, result);
+        }
+        return result;
+    }
+
+    /**
+     * 更新播放列表并通知界面,界面在界面线程中收到消息
+     *
+     * @param categoryId
+     * @param result
+     */
+    private void publish(String categoryId, LibraryScanService.ScanResult result) {
+        List<String> removedSids = new ArrayList<String>();
+        for (int i = 0; i < result.removed.size(); i++) {
+            removedSids.add(result.removed.get(i).getSid());
+        }
+        // 整批只替换一次歌曲列表,下一次同步读取到的就是更新后的列表
+        MediaManage.getMediaManage().updateSongInfos(categoryId, removedSids,
+                result.added);
+        for (int i = 0; i < result.removed.size(); i++) {
+            SongMessage msg = new SongMessage();
+            msg.setType(SongMessage.LOCALDELMUSIC);
+            msg.setSongInfo(result.removed.get(i));
+            ObserverManage.getObserver().setMessage(msg);
+        }
+        for (int i = 0; i < result.added.size(); i++) {
+            SongMessage msg = new SongMessage();
+            msg.setType(SongMessage.ADDMUSIC);
+            msg.setSongInfo(result.added.get(i));
+            ObserverManage.getObserver().setMessage(msg);
+        }
+    }
+}
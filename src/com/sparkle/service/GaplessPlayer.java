@@ -0,0 +1,921 @@
+package com.sparkle.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.model.SongInfo;
+import com.tulskiy.musique.audio.AudioFileReader;
+import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.audio.player.io.AudioOutput;
+import com.tulskiy.musique.model.Track;
+import com.tulskiy.musique.system.Codecs;
+import com.tulskiy.musique.system.TrackIO;
+import com.tulskiy.musique.util.AudioMath;
+
+/**
+ * 无缝播放器
+ * <p>
+ * 解码线程把 PCM 数据写入按时长限制的缓冲队列,输出线程从队列中取出数据写入声卡.
+ * 当前歌曲快要解码完时提前读取下一首歌曲的文件头、打开解码器并预先解码几秒数据,
+ * 当前歌曲解码完成后直接接上下一首的数据,声卡的输出不会因为切换歌曲而中断.
+ * 两首歌曲的音频格式不同时声卡需要重新打开,这种情况下仍然会有很短的间隙.
+ * </p>
+ * <p>
+ * 播放器的两个线程和声卡在整个进程中只创建一次,播放新歌曲时只替换解码器,
+ * 快进时直接在当前的解码器上定位,连续多次快进只执行最后一次.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class GaplessPlayer {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 解码缓冲的时长(毫秒)
+     */
+    private static final long BUFFER_MILLIS = 3000;
+
+    /**
+     * 下一首歌曲预先解码的时长(毫秒)
+     */
+    private static final long PRE_DECODE_MILLIS = 2000;
+
+    /**
+     * 当前歌曲剩余多少时间没有解码时开始准备下一首(毫秒)
+     */
+    private static final long PREPARE_AHEAD_MILLIS = 15 * 1000;
+
+    /**
+     * 当前歌曲解码完成时,等待下一首准备好的最长时间(毫秒)
+     */
+    private static final long PREPARE_TIMEOUT = 5 * 1000;
+
+    /**
+     * 每次写入声卡的最大字节数,停止播放后最多还会输出这么多旧数据
+     */
+    private static final int WRITE_SIZE = 8 * 1024;
+
+    /**
+     * 播放回调,除 {@link #onPrepareNext(SongInfo)} 外都在输出线程中回调
+     */
+    public interface Listener {
+        /**
+         * 歌曲开始从声卡播放出来,包括无缝切换到下一首.
+         * 无缝切换时声卡中还有上一首的数据,等这些数据播放完才回调
+         *
+         * @param songInfo
+         */
+        void onTrackStarted(SongInfo songInfo);
+
+        /**
+         * 歌曲播放完成,且没有下一首
+         *
+         * @param songInfo
+         */
+        void onFinished(SongInfo songInfo);
+
+        /**
+         * 播放出错
+         *
+         * @param songInfo
+         * @param e
+         */
+        void onError(SongInfo songInfo, Exception e);
+
+        /**
+         * 获取下一首歌曲,在准备线程中回调
+         *
+         * @param songInfo
+         *            当前歌曲
+         * @return 没有下一首时返回null
+         */
+        SongInfo onPrepareNext(SongInfo songInfo);
+    }
+
+    /**
+     * 一首歌曲的解码状态
+     */
+    private static class Session {
+        SongInfo songInfo;
+        Decoder decoder;
+        AudioFormat format;
+        /**
+         * 歌曲在文件中的起始位置(cue 分轨时不为0)
+         */
+        long trackStartSample;
+        int sampleRate;
+        /**
+         * 开始解码的位置(毫秒),快进之后为快进的位置
+         */
+        long startMillis;
+        /**
+         * 等待解码线程执行的快进位置(毫秒),-1表示没有
+         */
+        long seekMillis = -1;
+        /**
+         * 已经解码的字节数
+         */
+        long decodedBytes;
+        /**
+         * 所属的播放批次,停止或者重新播放之后旧批次的数据全部丢弃
+         */
+        int generation;
+        /**
+         * 是否已经写入了第一块数据
+         */
+        boolean started;
+        /**
+         * 第一块数据写入声卡时,本批次已经写入声卡的字节数
+         */
+        long lineOffset;
+        /**
+         * 正在准备的下一首
+         */
+        Future<Session> nextFuture;
+        /**
+         * 预先解码的数据
+         */
+        List<byte[]> preDecoded;
+    }
+
+    /**
+     * 解码队列中的一块数据
+     */
+    private static class Chunk {
+        final Session session;
+        /**
+         * 为null时表示歌曲播放完成
+         */
+        final byte[] data;
+        final boolean first;
+
+        Chunk(Session session, byte[] data, boolean first) {
+            this.session = session;
+            this.data = data;
+            this.first = first;
+        }
+    }
+
+    private final Listener listener;
+
+    private final AudioOutput output = new AudioOutput();
+
+    private final Object lock = new Object();
+
+    /**
+     * 解码队列
+     */
+    private final LinkedList<Chunk> chunks = new LinkedList<Chunk>();
+
+    /**
+     * 解码队列中的字节数
+     */
+    private long queuedBytes = 0;
+
+    /**
+     * 当前播放批次
+     */
+    private int generation = 0;
+
+    /**
+     * 解码线程正在解码的歌曲
+     */
+    private Session session;
+
+    /**
+     * 等待解码线程接手的歌曲
+     */
+    private Session pendingSession;
+
+    /**
+     * 正在播放出来的歌曲
+     */
+    private Session playingSession;
+
+    /**
+     * 已经写入声卡,但声卡还在播放上一首的数据的下一首
+     */
+    private Session startingSession;
+
+    /**
+     * 本批次已经写入声卡的字节数,声卡清空时归0
+     */
+    private long writtenBytes = 0;
+
+    /**
+     * 上一次返回的播放位置,保证同一段播放中位置不会倒退
+     */
+    private long lastMillis = -1;
+
+    /**
+     * 准备下一首的线程
+     */
+    private final ExecutorService prepareExecutor;
+
+    public GaplessPlayer(Listener listener) {
+        this.listener = listener;
+        prepareExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GaplessPrepare");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Thread decodeThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                decodeLoop();
+            }
+        }, "GaplessDecode");
+        decodeThread.setDaemon(true);
+        decodeThread.start();
+
+        Thread outputThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                outputLoop();
+            }
+        }, "GaplessOutput");
+        outputThread.setDaemon(true);
+        outputThread.setPriority(Thread.MAX_PRIORITY);
+        outputThread.start();
+    }
+
+    /**
+     * 从指定位置开始播放歌曲,正在播放的歌曲立即停止
+     *
+     * @param songInfo
+     * @param track
+     * @param startMillis
+     * @throws Exception
+     *             无法解码时抛出
+     */
+    public void play(SongInfo songInfo, Track track, long startMillis)
+            throws Exception {
+        Session newSession = openSession(songInfo, track, startMillis);
+        synchronized (lock) {
+            clear();
+            newSession.generation = generation;
+            pendingSession = newSession;
+            lock.notifyAll();
+        }
+        output.flush();
+    }
+
+    /**
+     * 快进到指定位置,复用当前的解码器.解码线程还没有执行的快进会被新的快进覆盖.
+     * 解码线程已经接上下一首而声卡还在播放上一首时,重新打开上一首再快进,丢弃准备好的下一首
+     *
+     * @param millis
+     * @return 没有正在播放的歌曲时返回false
+     */
+    public boolean seek(long millis) {
+        Session audible;
+        synchronized (lock) {
+            audible = getFinishingSession();
+        }
+        if (audible != null) {
+            Session reopened = null;
+            try {
+                reopened = openSession(audible.songInfo,
+                        readTrack(audible.songInfo), Math.max(0, millis));
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.error("重新打开歌曲失败:" + audible.songInfo.getFilePath()
+                        + " " + e.toString());
+            }
+            if (reopened != null) {
+                boolean replaced = false;
+                synchronized (lock) {
+                    // 打开期间声卡已经切换到下一首时,按下一首快进
+                    if (audible == getFinishingSession()) {
+                        clear();
+                        reopened.generation = generation;
+                        pendingSession = reopened;
+                        lock.notifyAll();
+                        replaced = true;
+                    }
+                }
+                if (replaced) {
+                    output.flush();
+                    return true;
+                }
+                reopened.decoder.close();
+            }
+        }
+        synchronized (lock) {
+            Session target = pendingSession;
+            if (target == null && session != null
+                    && session.generation == generation) {
+                target = session;
+            }
+            if (target == null) {
+                return false;
+            }
+            // 丢弃旧位置的数据,歌曲本身保留在新的批次中
+            generation++;
+            target.generation = generation;
+            target.seekMillis = Math.max(0, millis);
+            chunks.clear();
+            queuedBytes = 0;
+            playingSession = null;
+            startingSession = null;
+            writtenBytes = 0;
+            lastMillis = -1;
+            lock.notifyAll();
+        }
+        output.flush();
+        return true;
+    }
+
+    /**
+     * 解码线程已经不再解码、但声卡还在播放的歌曲,调用时需持有 lock
+     *
+     * @return 正在播放的歌曲就是正在解码的歌曲时返回null
+     */
+    private Session getFinishingSession() {
+        if (pendingSession != null || playingSession == null
+                || playingSession == session
+                || playingSession.generation != generation) {
+            return null;
+        }
+        return playingSession;
+    }
+
+    /**
+     * 停止播放,声卡保持打开以便下次播放
+     */
+    public void stop() {
+        synchronized (lock) {
+            clear();
+            lock.notifyAll();
+        }
+        output.flush();
+    }
+
+    /**
+     * 丢弃当前批次的所有数据
+     */
+    private void clear() {
+        generation++;
+        if (pendingSession != null) {
+            release(pendingSession);
+            pendingSession = null;
+        }
+        chunks.clear();
+        queuedBytes = 0;
+        playingSession = null;
+        startingSession = null;
+        writtenBytes = 0;
+        lastMillis = -1;
+    }
+
+    /**
+     * 是否正在播放,快进中也算正在播放
+     *
+     * @return
+     */
+    public boolean isPlaying() {
+        synchronized (lock) {
+            return playingSession != null || pendingSession != null
+                    || session != null && session.generation == generation;
+        }
+    }
+
+    /**
+     * 当前歌曲已经播放到的位置(毫秒),没有播放时返回-1
+     *
+     * @return
+     */
+    public long getCurrentMillis() {
+        synchronized (lock) {
+            if (playingSession == null) {
+                return -1;
+            }
+            long bytes = Math.max(0, getHeardBytes()
+                    - playingSession.lineOffset);
+            if (startingSession != null) {
+                // 下一首还没有播放出来,当前歌曲停在结尾
+                bytes = Math.min(bytes, startingSession.lineOffset
+                        - playingSession.lineOffset);
+            }
+            long millis = playingSession.startMillis
+                    + Math.round(AudioMath.bytesToMillis(bytes,
+                            playingSession.format));
+            lastMillis = Math.max(lastMillis, millis);
+            return lastMillis;
+        }
+    }
+
+    /**
+     * 本批次已经从声卡播放出来的字节数,调用时需持有 lock
+     *
+     * @return
+     */
+    private long getHeardBytes() {
+        // 已经写入声卡但还没有播放出来的数据
+        long buffered = Math.max(0, AudioOutput.BUFFER_SIZE
+                - output.available());
+        return Math.max(0, writtenBytes - buffered);
+    }
+
+    /**
+     * 下一首的数据已经播放出来时切换正在播放的歌曲,调用时需持有 lock
+     *
+     * @param drained
+     *            声卡中的数据是否已经全部播放完
+     * @return 切换到的歌曲,没有切换时返回null
+     */
+    private Session promoteStarting(boolean drained) {
+        if (startingSession == null) {
+            return null;
+        }
+        if (!drained && getHeardBytes() < startingSession.lineOffset) {
+            return null;
+        }
+        playingSession = startingSession;
+        startingSession = null;
+        lastMillis = -1;
+        return playingSession;
+    }
+
+    /**
+     * 设置音量
+     *
+     * @param volume
+     *            0-1
+     */
+    public void setVolume(float volume) {
+        output.setVolume(volume);
+    }
+
+    /**
+     * 读取歌曲文件头
+     *
+     * @param songInfo
+     * @return
+     * @throws Exception
+     */
+    public static Track readTrack(SongInfo songInfo) throws Exception {
+        File songFile = new File(songInfo.getFilePath());
+        AudioFileReader audioFileReader = TrackIO
+                .getAudioFileReader(songFile.getName());
+        if (audioFileReader == null) {
+            throw new IllegalStateException("不支持的文件格式:"
+                    + songInfo.getFilePath());
+        }
+        return audioFileReader.read(songFile);
+    }
+
+    /**
+     * 打开解码器,每首歌曲使用单独的解码器实例,下一首可以在当前歌曲解码的同时打开
+     *
+     * @param songInfo
+     * @param track
+     * @param startMillis
+     * @return
+     */
+    private Session openSession(SongInfo songInfo, Track track,
+            long startMillis) {
+        Decoder decoder = null;
+        if (Codecs.getDecoder(track) != null) {
+            decoder = Codecs.getNewDecoder(track);
+        }
+        if (decoder == null || !decoder.open(track)) {
+            throw new IllegalStateException("不能解码此文件:"
+                    + songInfo.getFilePath());
+        }
+        Session newSession = new Session();
+        newSession.songInfo = songInfo;
+        newSession.decoder = decoder;
+        newSession.format = decoder.getAudioFormat();
+        newSession.trackStartSample = track.getTrackData().getStartPosition();
+        newSession.sampleRate = track.getTrackData().getSampleRate();
+        seekSession(newSession, startMillis);
+        return newSession;
+    }
+
+    /**
+     * 在解码器上定位
+     *
+     * @param target
+     * @param millis
+     */
+    private void seekSession(Session target, long millis) {
+        long startSample = target.trackStartSample;
+        if (millis > 0) {
+            startSample += AudioMath.millisToSamples(millis, target.sampleRate);
+        }
+        if (startSample > 0) {
+            target.decoder.seekSample(startSample);
+        }
+        target.startMillis = Math.max(0, millis);
+        target.decodedBytes = 0;
+    }
+
+    /**
+     * 关闭歌曲的解码器,以及为它准备的下一首
+     *
+     * @param oldSession
+     */
+    private void release(Session oldSession) {
+        oldSession.decoder.close();
+        if (oldSession.nextFuture != null) {
+            releaseNext(oldSession.nextFuture);
+            oldSession.nextFuture = null;
+        }
+    }
+
+    /**
+     * 关闭准备好但不再需要的下一首.准备线程是单线程,排在后面的任务执行时准备已经完成
+     *
+     * @param nextFuture
+     */
+    private void releaseNext(final Future<Session> nextFuture) {
+        prepareExecutor.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Session next = nextFuture.get();
+                    if (next != null) {
+                        next.decoder.close();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    e.getMessage();
+                }
+            }
+        });
+    }
+
+    /**
+     * 解码线程
+     */
+    private void decodeLoop() {
+        byte[] buf = new byte[65536];
+        while (true) {
+            Session stale = null;
+            Session current;
+            long seekMillis;
+            synchronized (lock) {
+                try {
+                    while (true) {
+                        if (session != null && session.generation != generation) {
+                            stale = session;
+                            session = null;
+                        }
+                        if (session == null && pendingSession != null) {
+                            session = pendingSession;
+                            pendingSession = null;
+                        }
+                        if (session != null || stale != null) {
+                            break;
+                        }
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                current = session;
+                seekMillis = -1;
+                if (current != null) {
+                    seekMillis = current.seekMillis;
+                    current.seekMillis = -1;
+                }
+            }
+            if (stale != null) {
+                release(stale);
+            }
+            if (current == null) {
+                continue;
+            }
+            if (seekMillis >= 0) {
+                // 快进:复用解码器,为旧位置准备的下一首不再需要
+                seekSession(current, seekMillis);
+                current.started = false;
+                if (current.nextFuture != null) {
+                    releaseNext(current.nextFuture);
+                    current.nextFuture = null;
+                }
+                continue;
+            }
+
+            int len;
+            try {
+                len = current.decoder.decode(buf);
+            } catch (Exception e) {
+                logger.error("解码出错:" + current.songInfo.getFilePath() + " "
+                        + e.toString());
+                len = -1;
+            }
+            if (len < 0) {
+                if (!hasPendingSeek(current)) {
+                    decodeNext(current);
+                }
+                continue;
+            }
+            if (len == 0) {
+                continue;
+            }
+            current.decodedBytes += len;
+            enqueue(current, Arrays.copyOf(buf, len));
+
+            if (current.nextFuture == null
+                    && getRemainingMillis(current) <= PREPARE_AHEAD_MILLIS) {
+                current.nextFuture = prepareNext(current.songInfo);
+            }
+        }
+    }
+
+    private boolean hasPendingSeek(Session current) {
+        synchronized (lock) {
+            return current.seekMillis >= 0;
+        }
+    }
+
+    /**
+     * 当前歌曲还没有解码的时长
+     *
+     * @param current
+     * @return
+     */
+    private long getRemainingMillis(Session current) {
+        long decodedMillis = current.startMillis
+                + Math.round(AudioMath.bytesToMillis(current.decodedBytes,
+                        current.format));
+        return current.songInfo.getDuration() - decodedMillis;
+    }
+
+    /**
+     * 当前歌曲解码完成,接上下一首
+     *
+     * @param current
+     */
+    private void decodeNext(Session current) {
+        if (current.nextFuture == null) {
+            current.nextFuture = prepareNext(current.songInfo);
+        }
+        Future<Session> nextFuture = current.nextFuture;
+        current.nextFuture = null;
+        Session next = null;
+        try {
+            next = nextFuture.get(PREPARE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("准备下一首超时");
+            releaseNext(nextFuture);
+        } catch (ExecutionException e) {
+            logger.error("准备下一首失败 " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseNext(nextFuture);
+            return;
+        }
+
+        boolean seeking;
+        boolean finished = false;
+        synchronized (lock) {
+            // 等待下一首期间收到快进,当前歌曲继续使用
+            seeking = current.seekMillis >= 0
+                    && current.generation == generation;
+            if (!seeking) {
+                if (session == current) {
+                    session = null;
+                }
+                if (current.generation != generation) {
+                    finished = true;
+                } else if (next == null) {
+                    // 没有下一首,播放完成
+                    chunks.add(new Chunk(current, null, false));
+                    lock.notifyAll();
+                    finished = true;
+                } else {
+                    next.generation = generation;
+                    session = next;
+                }
+            }
+        }
+        if (!seeking) {
+            current.decoder.close();
+        }
+        if (seeking || finished) {
+            if (next != null) {
+                next.decoder.close();
+            }
+            return;
+        }
+        for (int i = 0; i < next.preDecoded.size(); i++) {
+            enqueue(next, next.preDecoded.get(i));
+        }
+        next.preDecoded = null;
+    }
+
+    /**
+     * 在准备线程中打开下一首并预先解码
+     *
+     * @param songInfo
+     *            当前歌曲
+     * @return
+     */
+    private Future<Session> prepareNext(final SongInfo songInfo) {
+        return prepareExecutor.submit(new Callable<Session>() {
+
+            @Override
+            public Session call() throws Exception {
+                SongInfo nextSongInfo = listener.onPrepareNext(songInfo);
+                if (nextSongInfo == null
+                        || !new File(nextSongInfo.getFilePath()).exists()) {
+                    return null;
+                }
+                Session next = openSession(nextSongInfo,
+                        readTrack(nextSongInfo), 0);
+                next.preDecoded = new ArrayList<byte[]>();
+                long target = millisToBytes(PRE_DECODE_MILLIS, next.format);
+                byte[] buf = new byte[65536];
+                while (next.decodedBytes < target) {
+                    int len = next.decoder.decode(buf);
+                    if (len < 0) {
+                        break;
+                    }
+                    next.decodedBytes += len;
+                    next.preDecoded.add(Arrays.copyOf(buf, len));
+                }
+                return next;
+            }
+        });
+    }
+
+    /**
+     * 把数据放入解码队列,队列满时等待
+     *
+     * @param current
+     * @param data
+     */
+    private void enqueue(Session current, byte[] data) {
+        long maxBytes = millisToBytes(BUFFER_MILLIS, current.format);
+        synchronized (lock) {
+            try {
+                while (queuedBytes >= maxBytes
+                        && current.generation == generation) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (current.generation != generation || current.seekMillis >= 0) {
+                // 已经停止或者正在快进,丢弃旧位置的数据
+                return;
+            }
+            chunks.add(new Chunk(current, data, !current.started));
+            current.started = true;
+            queuedBytes += data.length;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 输出线程
+     */
+    private void outputLoop() {
+        while (true) {
+            Chunk chunk;
+            synchronized (lock) {
+                try {
+                    while (chunks.isEmpty()) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                chunk = chunks.removeFirst();
+                if (chunk.data != null) {
+                    queuedBytes -= chunk.data.length;
+                }
+                lock.notifyAll();
+                if (chunk.session.generation != generation) {
+                    continue;
+                }
+            }
+            SongInfo songInfo = chunk.session.songInfo;
+            if (chunk.data == null) {
+                if (output.isOpen()) {
+                    output.drain();
+                }
+                Session started;
+                synchronized (lock) {
+                    if (chunk.session.generation != generation) {
+                        continue;
+                    }
+                    // 很短的下一首在声卡播放完时才算开始
+                    started = promoteStarting(true);
+                    playingSession = null;
+                }
+                if (started != null) {
+                    listener.onTrackStarted(started.songInfo);
+                }
+                listener.onFinished(songInfo);
+                continue;
+            }
+            if (chunk.first) {
+                Session previous;
+                synchronized (lock) {
+                    previous = startingSession != null ? startingSession
+                            : playingSession;
+                }
+                try {
+                    // 格式相同时声卡不会重新打开
+                    output.init(chunk.session.format);
+                    output.start();
+                } catch (Exception e) {
+                    stop();
+                    listener.onError(songInfo, e);
+                    continue;
+                }
+                boolean immediate;
+                Session started;
+                synchronized (lock) {
+                    if (chunk.session.generation != generation) {
+                        continue;
+                    }
+                    // 前面还有歌曲在声卡中且格式相同时,等它播放完才算开始
+                    immediate = previous == null
+                            || !previous.format.matches(chunk.session.format);
+                    started = promoteStarting(immediate);
+                    if (immediate) {
+                        // 声卡是空的或者重新打开过
+                        writtenBytes = 0;
+                        chunk.session.lineOffset = 0;
+                        playingSession = chunk.session;
+                        lastMillis = -1;
+                    } else {
+                        chunk.session.lineOffset = writtenBytes;
+                        startingSession = chunk.session;
+                    }
+                }
+                if (started != null) {
+                    listener.onTrackStarted(started.songInfo);
+                }
+                if (immediate) {
+                    listener.onTrackStarted(songInfo);
+                }
+            }
+            write(chunk);
+        }
+    }
+
+    /**
+     * 分段写入声卡,停止播放之后不再写入剩余的数据
+     *
+     * @param chunk
+     */
+    private void write(Chunk chunk) {
+        for (int offset = 0; offset < chunk.data.length; offset += WRITE_SIZE) {
+            synchronized (lock) {
+                if (chunk.session.generation != generation) {
+                    return;
+                }
+            }
+            int len = Math.min(WRITE_SIZE, chunk.data.length - offset);
+            output.write(chunk.data, offset, len);
+            Session started;
+            synchronized (lock) {
+                if (chunk.session.generation != generation) {
+                    return;
+                }
+                writtenBytes += len;
+                started = promoteStarting(false);
+            }
+            if (started != null) {
+                listener.onTrackStarted(started.songInfo);
+            }
+        }
+    }
+
+    private static long millisToBytes(long millis, AudioFormat format) {
+        return AudioMath.samplesToBytes(
+                AudioMath.millisToSamples(millis, (int) format.getSampleRate()),
+                format.getFrameSize());
+    }
+}
@@ -0,0 +1,452 @@
+package com.sparkle.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.sparkle.db.FileFingerprintDB;
+import com.sparkle.db.SongInfoDB;
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.model.FileFingerprint;
+import com.sparkle.model.SongInfo;
+import com.sparkle.util.DateUtil;
+import com.sparkle.util.IDGenerate;
+import com.sparkle.util.MediaUtils;
+
+/**
+ * 歌曲文件夹增量扫描
+ * <p>
+ * 每个解析过的文件按 (播放列表id, 规范路径) 保存一份指纹(大小、最后修改时间,可选的头尾内容摘要).
+ * 重新扫描文件夹时只读取该播放列表中该文件夹的指纹,只解析新增或者有变化的文件,
+ * 指纹未变的文件直接复用之前解析的歌曲信息,已经不存在的文件从播放列表中移除.
+ * 播放列表中已有但还没有指纹的歌曲(如升级之后第一次扫描)直接按当前文件记录指纹,不重新解析.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class LibraryScanService {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 计算内容摘要时读取的文件头尾长度
+     */
+    private static final int PARTIAL_HASH_LENGTH = 64 * 1024;
+
+    private static LibraryScanService _LibraryScanService;
+
+    /**
+     * 是否计算文件头尾内容的摘要.
+     * 网络盘上的修改时间不可靠时可以打开,代价是每个文件多读取 128KB
+     */
+    private final boolean partialHashEnabled;
+
+    /**
+     * 扫描回调,在调用扫描方法的线程中回调
+     */
+    public interface ScanListener {
+        /**
+         * 添加了歌曲
+         *
+         * @param songInfo
+         */
+        void onSongAdded(SongInfo songInfo);
+
+        /**
+         * 移除了歌曲
+         *
+         * @param songInfo
+         */
+        void onSongRemoved(SongInfo songInfo);
+    }
+
+    /**
+     * 扫描结果
+     */
+    public static class ScanResult {
+        /**
+         * 新增的歌曲,包括文件有变化而重新解析的歌曲
+         */
+        public final List<SongInfo> added = new ArrayList<SongInfo>();
+        /**
+         * 移除的歌曲,包括文件有变化而被替换的旧歌曲
+         */
+        public final List<SongInfo> removed = new ArrayList<SongInfo>();
+        /**
+         * 没有变化的文件数
+         */
+        public int unchanged = 0;
+        /**
+         * 实际解析的文件数
+         */
+        public int parsed = 0;
+
+        public boolean hasUpdate() {
+            return !added.isEmpty() || !removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "[added=" + added.size() + ",removed=" + removed.size()
+                    + ",unchanged=" + unchanged + ",parsed=" + parsed + "]";
+        }
+    }
+
+    public static synchronized LibraryScanService getLibraryScanService() {
+        if (_LibraryScanService == null) {
+            _LibraryScanService = new LibraryScanService(
+                    Boolean.getBoolean("sparkle.scan.partialHash"));
+        }
+        return _LibraryScanService;
+    }
+
+    private LibraryScanService(boolean partialHashEnabled) {
+        this.partialHashEnabled = partialHashEnabled;
+    }
+
+    /**
+     * 扫描文件夹并同步到播放列表,阻塞到扫描完成为止.
+     * songInfos 为播放列表当前的歌曲列表,扫描过程中会直接在该列表上添加和移除歌曲,
+     * 数据库中的歌曲数据和文件指纹也一并更新
+     *
+     * @param categoryId
+     *            播放列表id
+     * @param folder
+     *            文件夹
+     * @param songInfos
+     *            播放列表当前的歌曲列表
+     * @param listener
+     * @return
+     */
+    public ScanResult rescan(String categoryId, File folder,
+            List<SongInfo> songInfos, ScanListener listener) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+        return sync(categoryId, getCanonicalPath(folder), files, songInfos,
+                listener);
+    }
+
+    /**
+     * 把文件同步到播放列表:新增或者有变化的文件重新解析,
+     * 播放列表中位于 folderPath 下但已经不存在的文件被移除.
+     * folderPath 为null时不检查已经不存在的文件,指纹逐个文件读取
+     *
+     * @param categoryId
+     * @param folderPath
+     *            规范路径
+     * @param files
+     * @param songInfos
+     * @param listener
+     * @return
+     */
+    public ScanResult sync(final String categoryId, String folderPath,
+            File[] files, final List<SongInfo> songInfos,
+            final ScanListener listener) {
+        final ScanResult result = new ScanResult();
+        final Map<String, FileFingerprint> fingerprints;
+        if (folderPath != null) {
+            fingerprints = FileFingerprintDB.getFileFingerprintDB().getFolder(
+                    categoryId, folderPath);
+        } else {
+            fingerprints = null;
+        }
+        final Map<String, FileFingerprint> changedFingerprints = new HashMap<String, FileFingerprint>();
+        List<String> vanishedPaths = new ArrayList<String>();
+
+        // 播放列表中已有的歌曲,key为规范路径
+        Map<String, SongInfo> existSongs = new HashMap<String, SongInfo>();
+        for (int i = 0; i < songInfos.size(); i++) {
+            SongInfo songInfo = songInfos.get(i);
+            File file = new File(songInfo.getFilePath());
+            String path = getCanonicalPath(file);
+            if (folderPath != null && !file.exists()
+                    && folderPath.equals(getCanonicalPath(file.getParentFile()))) {
+                // 文件已经不存在
+                result.removed.add(songInfo);
+                vanishedPaths.add(path);
+                continue;
+            }
+            existSongs.put(path, songInfo);
+        }
+
+        // 需要解析的文件,与 parsePaths 一一对应
+        List<File> parseFiles = new ArrayList<File>();
+        final List<String> parsePaths = new ArrayList<String>();
+        Set<String> scannedPaths = new HashSet<String>();
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            if (!MediaUtils.isCandidate(file))
+                continue;
+            String path = getCanonicalPath(file);
+            if (!scannedPaths.add(path)) {
+                continue;
+            }
+            FileFingerprint fingerprint;
+            if (fingerprints != null) {
+                fingerprint = fingerprints.get(path);
+            } else {
+                fingerprint = FileFingerprintDB.getFileFingerprintDB().get(
+                        categoryId, path);
+            }
+            SongInfo existSong = existSongs.get(path);
+            if (existSong != null && fingerprint == null) {
+                // 已有的歌曲还没有指纹,按当前文件记录,保留原来的歌曲
+                changedFingerprints.put(path, createFingerprint(file, path,
+                        categoryId, existSong.getSid()));
+                result.unchanged++;
+                continue;
+            }
+            boolean unchanged = isUnchanged(file, fingerprint,
+                    changedFingerprints);
+            if (existSong != null) {
+                if (unchanged) {
+                    if (!existSong.getSid().equals(fingerprint.getSid())) {
+                        fingerprint.setSid(existSong.getSid());
+                        changedFingerprints.put(path, fingerprint);
+                    }
+                    result.unchanged++;
+                    continue;
+                }
+                // 文件有变化,旧的歌曲被替换
+                result.removed.add(existSong);
+                existSongs.remove(path);
+            } else if (unchanged) {
+                // 文件没有变化,复用之前解析的歌曲信息
+                SongInfo songInfo = SongInfoDB.getSongInfoDB()
+                        .getSongInfoBySid(fingerprint.getSid());
+                if (songInfo != null) {
+                    songInfo = newSongInfo(songInfo, categoryId, file);
+                    result.added.add(songInfo);
+                    fingerprint.setSid(songInfo.getSid());
+                    changedFingerprints.put(fingerprint.getPath(), fingerprint);
+                    existSongs.put(path, songInfo);
+                    result.unchanged++;
+                    continue;
+                }
+            }
+            parseFiles.add(file);
+            parsePaths.add(path);
+        }
+
+        for (int i = 0; i < result.removed.size(); i++) {
+            SongInfo songInfo = result.removed.get(i);
+            songInfos.remove(songInfo);
+            SongInfoDB.getSongInfoDB().delete(songInfo.getSid());
+            listener.onSongRemoved(songInfo);
+        }
+        FileFingerprintDB.getFileFingerprintDB().deleteAll(categoryId,
+                vanishedPaths);
+
+        SongInfoDB.BatchWriter batchWriter = null;
+        try {
+            batchWriter = SongInfoDB.getSongInfoDB().openBatchWriter(
+                    SongInfoDB.BatchWriter.DEFAULT_BATCH_SIZE);
+        } catch (SQLException e) {
+            logger.error(e.toString());
+        }
+        final SongInfoDB.BatchWriter writer = batchWriter;
+        try {
+            // 复用的歌曲
+            for (int i = 0; i < result.added.size(); i++) {
+                addSongInfo(writer, songInfos, result.added.get(i), listener);
+            }
+            final int[] index = new int[] { 0 };
+            MetadataExtractService.getMetadataExtractService().extract(
+                    parseFiles, new MetadataExtractService.ExtractListener() {
+
+                        @Override
+                        public void onExtracted(File file, SongInfo songInfo) {
+                            String path = parsePaths.get(index[0]++);
+                            if (songInfo == null)
+                                return;
+                            result.parsed++;
+                            songInfo.setCategoryId(categoryId);
+                            result.added.add(songInfo);
+                            addSongInfo(writer, songInfos, songInfo, listener);
+                            changedFingerprints.put(path, createFingerprint(
+                                    file, path, categoryId, songInfo.getSid()));
+                        }
+                    });
+            if (writer != null) {
+                writer.commit();
+            }
+        } catch (SQLException e) {
+            logger.error("添加歌曲到数据库失败!" + e.toString());
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        FileFingerprintDB.getFileFingerprintDB().saveAll(
+                changedFingerprints.values());
+        logger.info("扫描完成 " + result);
+        return result;
+    }
+
+    /**
+     * 添加歌曲到播放列表和数据库
+     *
+     * @param writer
+     * @param songInfos
+     * @param songInfo
+     * @param listener
+     */
+    private void addSongInfo(SongInfoDB.BatchWriter writer,
+            List<SongInfo> songInfos, SongInfo songInfo, ScanListener listener) {
+        songInfos.add(songInfo);
+        boolean added = false;
+        if (writer != null) {
+            try {
+                writer.add(songInfo);
+                added = true;
+            } catch (SQLException e) {
+                logger.error(e.toString());
+            }
+        }
+        if (!added) {
+            SongInfoDB.getSongInfoDB().add(songInfo);
+        }
+        listener.onSongAdded(songInfo);
+    }
+
+    /**
+     * 由已解析的歌曲信息生成新的歌曲
+     *
+     * @param source
+     * @param categoryId
+     * @param file
+     * @return
+     */
+    private SongInfo newSongInfo(SongInfo source, String categoryId, File file) {
+        SongInfo songInfo = source.copy();
+        songInfo.setSid(IDGenerate.getId("SI-"));
+        songInfo.setCategoryId(categoryId);
+        songInfo.setFilePath(file.getPath());
+        songInfo.setCreateTime(DateUtil.dateToString(new Date()));
+        return songInfo;
+    }
+
+    /**
+     * 文件自上次解析之后是否没有变化.修改时间变了但内容摘要相同时也认为没有变化,
+     * 此时更新后的指纹加入 changedFingerprints
+     *
+     * @param file
+     * @param fingerprint
+     * @param changedFingerprints
+     * @return
+     */
+    private boolean isUnchanged(File file, FileFingerprint fingerprint,
+            Map<String, FileFingerprint> changedFingerprints) {
+        if (fingerprint == null || fingerprint.getSize() != file.length()) {
+            return false;
+        }
+        if (fingerprint.getLastModified() == file.lastModified()) {
+            return true;
+        }
+        if (!partialHashEnabled || fingerprint.getPartialHash() == null) {
+            return false;
+        }
+        if (fingerprint.getPartialHash().equals(getPartialHash(file))) {
+            fingerprint.setLastModified(file.lastModified());
+            changedFingerprints.put(fingerprint.getPath(), fingerprint);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 生成文件指纹
+     *
+     * @param file
+     * @param path
+     * @param categoryId
+     * @param sid
+     * @return
+     */
+    private FileFingerprint createFingerprint(File file, String path,
+            String categoryId, String sid) {
+        FileFingerprint fingerprint = new FileFingerprint();
+        fingerprint.setCategoryId(categoryId);
+        fingerprint.setPath(path);
+        fingerprint.setFolder(getCanonicalPath(file.getParentFile()));
+        fingerprint.setSize(file.length());
+        fingerprint.setLastModified(file.lastModified());
+        if (partialHashEnabled) {
+            fingerprint.setPartialHash(getPartialHash(file));
+        }
+        fingerprint.setSid(sid);
+        return fingerprint;
+    }
+
+    /**
+     * 计算文件头尾各 {@link #PARTIAL_HASH_LENGTH} 字节的摘要
+     *
+     * @param file
+     * @return 读取失败时返回null
+     */
+    private String getPartialHash(File file) {
+        RandomAccessFile raf = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            byte[] buffer = new byte[(int) Math.min(length,
+                    PARTIAL_HASH_LENGTH)];
+            raf.readFully(buffer);
+            digest.update(buffer);
+            if (length > PARTIAL_HASH_LENGTH) {
+                raf.seek(Math.max(PARTIAL_HASH_LENGTH, length
+                        - PARTIAL_HASH_LENGTH));
+                int len = raf.read(buffer);
+                if (len > 0) {
+                    digest.update(buffer, 0, len);
+                }
+            }
+            return new String(Hex.encodeHex(digest.digest()));
+        } catch (IOException e) {
+            logger.error(e.toString());
+        } catch (NoSuchAlgorithmException e) {
+            logger.error(e.toString());
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.getMessage();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取规范路径,失败时返回绝对路径
+     *
+     * @param file
+     * @return
+     */
+    public static String getCanonicalPath(File file) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package com.sparkle.service;
 
 import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import com.sparkle.observable.SparkleObserver;
 
 import com.sparkle.common.BaseData;
 import com.sparkle.logger.LoggerManage;
+import com.sparkle.manage.LyricsManage;
 import com.sparkle.manage.MediaManage;
 import com.sparkle.model.MessageIntent;
 import com.sparkle.model.SongInfo;
 import com.sparkle.model.SongMessage;
+import com.sparkle.observable.Delivery;
 import com.sparkle.observable.ObserverManage;
 import com.tulskiy.musique.audio.AudioFileReader;
 import com.tulskiy.musique.audio.player.Player;
@@ -40,18 +46,60 @@ public class MediaPlayerService implements SparkleObserver {
     private Player mediaPlayer;
 
     /**
-     * 歌词线程
+     * 无缝播放器,{@link BaseData#gaplessPlayback} 打开时使用
+     */
+    private GaplessPlayer gaplessPlayer;
+
+    /**
+     * 正在通知界面无缝切换到了下一首
      */
-    private Thread lrcThread;
+    private boolean gaplessAdvancing = false;
+
+    /**
+     * 播放时钟,播放时定时通知播放进度
+     */
+    private final PlaybackClock playbackClock;
+
+    /**
+     * 播放进度通道,播放时钟是唯一的写入者
+     */
+    private final PlaybackProgress playbackProgress = new PlaybackProgress();
     /**
      * 快进是否完成
      */
-    private boolean isSeekFinish = true;
+    private volatile boolean isSeekFinish = true;
+
+    /**
+     * 当前的基本播放进度,即歌曲进度与声卡播放位置的差值
+     */
+    private volatile long baseCurrentMillis = 0;
+
+    /**
+     * 播放器当前打开的歌曲,快进时用来换算采样位置
+     */
+    private Track mediaTrack;
+
+    /**
+     * 等待快进完成的最长时间(毫秒)
+     */
+    private static final long SEEK_TIMEOUT = 2000;
+
+    private final Object seekLock = new Object();
+
+    /**
+     * 等待执行的快进位置,-1表示没有.连续快进时只保留最后一次
+     */
+    private long pendingSeekProgress = -1;
 
     /**
-     * 当前的基本播放进度
+     * 快进线程是否正在处理
      */
-    private long baseCurrentMillis = 0;
+    private boolean seekRunning = false;
+
+    /**
+     * 快进线程
+     */
+    private ExecutorService seekExecutor;
 
     public static MediaPlayerService getMediaPlayerService() {
         if (_MediaPlayerService == null) {
@@ -61,7 +109,32 @@ public class MediaPlayerService implements SparkleObserver {
     }
 
     public MediaPlayerService() {
-        ObserverManage.getObserver().addObserver(this);
+        ObserverManage.getObserver().addSongObserver(this, Delivery.WORKER,
+                SongMessage.SERVICEPLAYMUSIC, SongMessage.SERVICEPAUSEMUSIC,
+                SongMessage.INITMUSIC, SongMessage.SERVICEPLAYINIT,
+                SongMessage.SERVICESEEKTOMUSIC, SongMessage.SERVICESTOPMUSIC);
+        ObserverManage.getObserver().addObserver(this, Delivery.WORKER,
+                MessageIntent.class);
+        playbackClock = new PlaybackClock(new PlaybackClock.ProgressSource() {
+
+            @Override
+            public long getProgress() {
+                // 只有当前正在播放才去刷新页面，如果当前正在快进，则不要刷新页面，免得页面出现闪烁
+                if (!isSeekFinish || songInfo == null
+                        || MediaManage.getMediaManage().getPlayStatus() != MediaManage.PLAYING) {
+                    return -1;
+                }
+                long progress = getPlayingProgress();
+                return progress == 0 ? -1 : progress;
+            }
+        });
+        playbackClock.addTickListener(new PlaybackClock.TickListener() {
+
+            @Override
+            public void onTick(long progress) {
+                playbackProgress.publish(progress);
+            }
+        });
     }
 
     public void init() {
@@ -71,6 +144,8 @@ public class MediaPlayerService implements SparkleObserver {
 
     public void close() {
         initPlayer();
+        logger.info("播放时钟 " + playbackClock.getStatistics());
+        logger.info("歌词缓存 " + LyricsManage.getStatistics());
     }
 
     @Override
@@ -87,6 +162,10 @@ public class MediaPlayerService implements SparkleObserver {
             } else if (songMessage.getType() == SongMessage.SERVICEPAUSEMUSIC) {
                 initMusic();
             } else if (songMessage.getType() == SongMessage.INITMUSIC) {
+                if (gaplessAdvancing) {
+                    // 播放器已经在播放下一首,不需要重新打开
+                    return;
+                }
                 SongInfo msongInfo = songMessage.getSongInfo();
                 if (msongInfo != null) {
                     songInfo = msongInfo;
@@ -117,10 +196,13 @@ public class MediaPlayerService implements SparkleObserver {
             if (mediaPlayer != null) {
                 mediaPlayer.pause();
                 mediaPlayer = null;
+                mediaTrack = null;
             }
-            if (lrcThread != null) {
-                lrcThread = null;
+            if (gaplessPlayer != null) {
+                gaplessPlayer.stop();
             }
+            playbackClock.stop();
+            playbackProgress.invalidate();
             if (songInfo != null) {
                 SongMessage msg = new SongMessage();
                 songInfo.setPlayProgress(0);
@@ -141,28 +223,116 @@ public class MediaPlayerService implements SparkleObserver {
             mediaPlayer.getAudioOutput().setVolume(
                     (float) (BaseData.volumeSize * 1.0 / 100));
         }
+        if (gaplessPlayer != null) {
+            gaplessPlayer.setVolume((float) (BaseData.volumeSize * 1.0 / 100));
+        }
     }
 
     /**
-     * 快进
+     * 快进,在已经打开的播放器上直接定位,不重新创建播放器.
+     * 快进在单独的线程中执行,前一次快进还没完成时只记录最新的位置
      * 
      * @param progress
      */
     private void seekTo(int progress) {
-        try {
-            if (mediaPlayer != null) {
+        if (mediaPlayer == null && !isGaplessPlaying()) {
+            return;
+        }
+        synchronized (seekLock) {
+            pendingSeekProgress = Math.max(0, progress);
+            if (seekRunning) {
+                return;
+            }
+            seekRunning = true;
+        }
+        getSeekExecutor().execute(new Runnable() {
 
-                isSeekFinish = false;
-                // 结束播放，重新创建一个播放器
-                initPlayer();
-                // 设置歌曲进度
-                songInfo.setPlayProgress(progress);
-                playInfoMusic(songInfo);
+            @Override
+            public void run() {
+                runSeek();
+            }
+        });
+    }
+
+    private synchronized ExecutorService getSeekExecutor() {
+        if (seekExecutor == null) {
+            seekExecutor = Executors
+                    .newSingleThreadExecutor(new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "SeekThread");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return seekExecutor;
+    }
 
+    /**
+     * 依次执行最新的快进位置,直到没有新的快进
+     */
+    private void runSeek() {
+        while (true) {
+            long progress;
+            synchronized (seekLock) {
+                progress = pendingSeekProgress;
+                pendingSeekProgress = -1;
+                if (progress < 0) {
+                    seekRunning = false;
+                    return;
+                }
+            }
+            try {
+                seekInPlace(progress);
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.error(e.toString());
+            }
+        }
+    }
+
+    /**
+     * 在当前的播放器上快进
+     * 
+     * @param progress
+     * @throws InterruptedException
+     */
+    private void seekInPlace(long progress) throws InterruptedException {
+        SongInfo mSongInfo = songInfo;
+        if (mSongInfo == null) {
+            return;
+        }
+        playbackProgress.invalidate();
+        if (isGaplessPlaying()) {
+            mSongInfo.setPlayProgress(progress);
+            if (gaplessPlayer.seek(progress)) {
                 MediaManage.getMediaManage().setPlayStatus(MediaManage.PLAYING);
+                return;
+            }
+        }
+        Player player = mediaPlayer;
+        Track track = mediaTrack;
+        if (player == null || track == null) {
+            return;
+        }
+        isSeekFinish = false;
+        mSongInfo.setPlayProgress(progress);
+        player.seek(AudioMath.millisToSamples(progress, track.getTrackData()
+                .getSampleRate()));
+        MediaManage.getMediaManage().setPlayStatus(MediaManage.PLAYING);
+
+        // 等这次快进完成之后再执行下一次
+        long deadline = System.currentTimeMillis() + SEEK_TIMEOUT;
+        synchronized (seekLock) {
+            while (!isSeekFinish && mediaPlayer == player) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                seekLock.wait(remaining);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
@@ -175,10 +345,13 @@ public class MediaPlayerService implements SparkleObserver {
             if (mediaPlayer != null) {
                 mediaPlayer.pause();
                 mediaPlayer = null;
+                mediaTrack = null;
             }
-            if (lrcThread != null) {
-                lrcThread = null;
+            if (gaplessPlayer != null) {
+                gaplessPlayer.stop();
             }
+            playbackClock.stop();
+            playbackProgress.invalidate();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -189,18 +362,29 @@ public class MediaPlayerService implements SparkleObserver {
      */
     private void initMusic() {
         try {
-            if (mediaPlayer != null) {
-                mediaPlayer.pause();
-                mediaPlayer = null;
+            boolean playing = isGaplessPlaying();
+            // 记下暂停时的进度,继续播放时从这里开始
+            long progress = getPlayingProgress();
+            if (progress > 0 && songInfo != null) {
+                songInfo.setPlayProgress(progress);
+            }
+            if (gaplessPlayer != null) {
+                gaplessPlayer.stop();
+            }
+            if (mediaPlayer != null || playing) {
+                if (mediaPlayer != null) {
+                    mediaPlayer.pause();
+                    mediaPlayer = null;
+                    mediaTrack = null;
+                }
 
                 SongMessage msg = new SongMessage();
                 msg.setSongInfo(songInfo);
                 msg.setType(SongMessage.SERVICEPAUSEEDMUSIC);
                 ObserverManage.getObserver().setMessage(msg);
             }
-            if (lrcThread != null) {
-                lrcThread = null;
-            }
+            playbackClock.stop();
+            playbackProgress.invalidate();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -235,7 +419,15 @@ public class MediaPlayerService implements SparkleObserver {
         }
 
         try {
-            if (mediaPlayer == null) {
+            if (BaseData.gaplessPlayback) {
+                if (!isGaplessPlaying()) {
+                    Track track = GaplessPlayer.readTrack(songInfo);
+                    getGaplessPlayer().play(songInfo, track,
+                            songInfo.getPlayProgress());
+                    baseCurrentMillis = 0;
+                    isSeekFinish = true;
+                }
+            } else if (mediaPlayer == null) {
                 mediaPlayer = new Player();
                 mediaPlayer.addListener(new PlayerListener() {                @Override
                     public void onEvent(PlayerEvent e) {
@@ -246,14 +438,19 @@ public class MediaPlayerService implements SparkleObserver {
                             ObserverManage.getObserver().setMessage(
                                     songMessage);
                         } else if (e.getEventCode() == PlayerEventCode.SEEK_FINISHED) {
-                            if (mediaPlayer != null) {
-                                // 获取快进后的播放进度
-                                double currentMS = mediaPlayer
-                                        .getCurrentMillis();
-                                long progress = Math.round(currentMS);
-                                baseCurrentMillis = progress;
+                            Player player = mediaPlayer;
+                            if (player != null) {
+                                // 快进后的播放进度减去声卡当前的位置，声卡在快进时不会重新打开
+                                long progress = Math.round(player
+                                        .getCurrentMillis());
+                                long lineMillis = Math.round(player
+                                        .getAudioOutput().getCurrentMillis());
+                                baseCurrentMillis = progress - lineMillis;
+                            }
+                            synchronized (seekLock) {
+                                isSeekFinish = true;
+                                seekLock.notifyAll();
                             }
-                            isSeekFinish = true;
                         }
                     }
                 });
@@ -263,6 +460,7 @@ public class MediaPlayerService implements SparkleObserver {
                         .getAudioFileReader(songFile.getName());
                 Track track = audioFileReader.read(songFile);
 
+                mediaTrack = track;
                 mediaPlayer.open(track);
                 long millis = songInfo.getPlayProgress();
                 if (millis != 0) {
@@ -284,62 +482,134 @@ public class MediaPlayerService implements SparkleObserver {
             ObserverManage.getObserver().setMessage(songMessage);
         }
 
-        if (lrcThread == null) {
-            lrcThread = new Thread(new LrcRunable());
-            lrcThread.start();
-        }
+        playbackClock.start();
 
     }
 
     /**
-     * 歌词绘画线程，歌词绘画每隔100ms去刷新歌词页面
+     * 无缝播放器是否正在播放
      * 
-     * @author yuyi2003
+     * @return
+     */
+    private boolean isGaplessPlaying() {
+        return gaplessPlayer != null && gaplessPlayer.isPlaying();
+    }
+
+    /**
+     * 获取无缝播放器,第一次使用时创建
      * 
+     * @return
      */
-    private class LrcRunable implements Runnable {
-
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    Thread.sleep(100);
-                    if (mediaPlayer != null && mediaPlayer.isPlaying()
-                            && isSeekFinish) {
-                        int status = MediaManage.getMediaManage()
-                                .getPlayStatus();
-
-                        // 只有当前正在播放才去刷新页面，如果当前正在快进，则不要刷新页面，免得页面出现闪烁
-                        if (songInfo != null && status == MediaManage.PLAYING) {
-
-                            // 由于直接获取当前的进度，在绘画歌词的时候会比较闪烁，所以，我这里采用获取line当前的frame所在的位置，再加上上一次快进的位置，得到当前的位置
-                            // 由于这种方法，导致了在快进的时候，要重新创建一个播放器和记录快进后的播放进度
-                            // 原谅我目前只想到这种方法
-                            double currentMS = mediaPlayer.getAudioOutput()
-                                    .getCurrentMillis();
-                            long progress = Math.round(currentMS);
-                            // System.out.println(progress);
-                            // 等于0时不刷新，防止快进时闪屏
-                            if (progress == 0)
-                                continue;
-
-                            songInfo.setPlayProgress(progress
-                                    + baseCurrentMillis);
-                            SongMessage msg = new SongMessage();
-                            msg.setSongInfo(songInfo);
-                            msg.setType(SongMessage.SERVICEPLAYINGMUSIC);
-                            ObserverManage.getObserver().setMessage(msg);
-                        }
+    private GaplessPlayer getGaplessPlayer() {
+        if (gaplessPlayer == null) {
+            gaplessPlayer = new GaplessPlayer(new GaplessPlayer.Listener() {
+
+                @Override
+                public void onTrackStarted(final SongInfo mSongInfo) {
+                    // 在服务线程中切换，保证发出的INITMUSIC在gaplessAdvancing期间处理
+                    ObserverManage.getObserver().execute(Delivery.WORKER,
+                            new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    gaplessAdvance(mSongInfo);
+                                }
+                            });
+                }
+
+                @Override
+                public void onFinished(SongInfo mSongInfo) {
+                    // 播放结束，播放下一首
+                    SongMessage songMessage = new SongMessage();
+                    songMessage.setType(SongMessage.NEXTMUSIC);
+                    ObserverManage.getObserver().setMessage(songMessage);
+                }
+
+                @Override
+                public void onError(SongInfo mSongInfo, Exception e) {
+                    logger.error("不能播放此文件:" + mSongInfo.getFilePath() + " "
+                            + e.toString());
+
+                    SongMessage songMessage = new SongMessage();
+                    songMessage.setType(SongMessage.NEXTMUSIC);
+                    ObserverManage.getObserver().setMessage(songMessage);
+                }
+
+                @Override
+                public SongInfo onPrepareNext(SongInfo mSongInfo) {
+                    if (!BaseData.gaplessPlayback) {
+                        return null;
                     }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    return MediaManage.getMediaManage().getNextSongInfo(
+                            mSongInfo);
                 }
-            }
+            });
+            initVolume();
         }
+        return gaplessPlayer;
+    }
+
+    /**
+     * 无缝播放已经开始播放下一首,通知界面切换
+     * 
+     * @param mSongInfo
+     */
+    private void gaplessAdvance(SongInfo mSongInfo) {
+        if (songInfo != null && songInfo.getSid().equals(mSongInfo.getSid())) {
+            return;
+        }
+        // 已经无缝切换到下一首
+        songInfo = mSongInfo;
+        playbackProgress.invalidate();
+        gaplessAdvancing = true;
+        try {
+            MediaManage.getMediaManage().gaplessNext(mSongInfo);
+        } finally {
+            gaplessAdvancing = false;
+        }
+    }
+
+    /**
+     * 当前的播放进度,没有在播放时返回0
+     * 
+     * @return
+     */
+    private long getPlayingProgress() {
+        if (isGaplessPlaying()) {
+            return Math.max(0, gaplessPlayer.getCurrentMillis());
+        }
+        if (mediaPlayer != null && mediaPlayer.isPlaying()) {
+            // 由于直接获取当前的进度，在绘画歌词的时候会比较闪烁，所以，我这里采用获取line当前的frame所在的位置，再加上快进时记录的偏移，得到当前的位置
+            double currentMS = mediaPlayer.getAudioOutput().getCurrentMillis();
+            long progress = Math.round(currentMS);
+            // 等于0时不刷新，防止快进时闪屏
+            if (progress == 0)
+                return 0;
+            return progress + baseCurrentMillis;
+        }
+        return 0;
     }
 
     public SongInfo getSongInfo() {
         return songInfo;
     }
 
+    /**
+     * 播放时钟
+     * 
+     * @return
+     */
+    public PlaybackClock getPlaybackClock() {
+        return playbackClock;
+    }
+
+    /**
+     * 播放进度通道
+     * 
+     * @return
+     */
+    public PlaybackProgress getPlaybackProgress() {
+        return playbackProgress;
+    }
+
 }
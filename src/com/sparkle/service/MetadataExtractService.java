@@ -0,0 +1,147 @@
+package com.sparkle.service;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.model.SongInfo;
+import com.sparkle.util.MediaUtils;
+
+/**
+ * 歌曲信息解析服务
+ * <p>
+ * 在固定大小(默认为 CPU 核数)的线程池中并行解析音频文件,
+ * 解析结果按文件的提交顺序逐个回调给调用者,同时在解析中的文件数有上限,
+ * 大量导入时不会一次性占用过多内存.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class MetadataExtractService {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    private static MetadataExtractService _MetadataExtractService;
+
+    /**
+     * 解析线程数
+     */
+    private final int threadCount;
+
+    /**
+     * 解析线程池
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * 解析结果回调
+     */
+    public interface ExtractListener {
+        /**
+         * 文件解析完成,在调用 {@link #extract(List, ExtractListener)} 的线程中按提交顺序回调
+         *
+         * @param file
+         * @param songInfo
+         *            解析失败或者文件被过滤时为null
+         */
+        void onExtracted(File file, SongInfo songInfo);
+    }
+
+    public static synchronized MetadataExtractService getMetadataExtractService() {
+        if (_MetadataExtractService == null) {
+            _MetadataExtractService = new MetadataExtractService(Runtime
+                    .getRuntime().availableProcessors());
+        }
+        return _MetadataExtractService;
+    }
+
+    private MetadataExtractService(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+        final AtomicInteger index = new AtomicInteger(0);
+        executorService = Executors.newFixedThreadPool(this.threadCount,
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "MetadataExtract-"
+                                + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * 解析文件列表,阻塞到所有文件解析完成为止
+     *
+     * @param files
+     * @param listener
+     * @return 解析成功的歌曲数
+     */
+    public int extract(List<File> files, ExtractListener listener) {
+        // 正在解析的文件数上限,保证线程池一直有任务且结果不会堆积
+        int window = threadCount * 2;
+        Deque<Future<SongInfo>> futures = new ArrayDeque<Future<SongInfo>>();
+        Deque<File> pendingFiles = new ArrayDeque<File>();
+        int count = 0;
+        int next = 0;
+        while (!futures.isEmpty() || next < files.size()
+                && !Thread.currentThread().isInterrupted()) {
+            while (next < files.size() && futures.size() < window
+                    && !Thread.currentThread().isInterrupted()) {
+                final File file = files.get(next++);
+                futures.add(executorService.submit(new Callable<SongInfo>() {
+
+                    @Override
+                    public SongInfo call() throws Exception {
+                        return MediaUtils.getSongInfoByFile(file.getPath());
+                    }
+                }));
+                pendingFiles.add(file);
+            }
+            SongInfo songInfo = await(futures.poll());
+            if (songInfo != null) {
+                count++;
+            }
+            listener.onExtracted(pendingFiles.poll(), songInfo);
+        }
+        return count;
+    }
+
+    /**
+     * 等待解析结果
+     *
+     * @param future
+     * @return
+     */
+    private SongInfo await(Future<SongInfo> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            logger.error(e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * 解析线程数
+     *
+     * @return
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+}
@@ -0,0 +1,287 @@
+package com.sparkle.service;
+
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.sparkle.logger.LoggerManage;
+
+/**
+ * 播放时钟
+ * <p>
+ * 由播放服务持有,整个进程只有一个定时线程.播放时按固定频率读取播放进度并通知订阅者,
+ * 暂停或停止时取消定时任务;有歌词显示时按屏幕刷新率通知,让歌词滚动更平滑.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class PlaybackClock {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 默认的通知间隔(毫秒)
+     */
+    public static final long DEFAULT_INTERVAL = 100;
+
+    /**
+     * 获取不到屏幕刷新率时使用的刷新率
+     */
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    /**
+     * 播放进度来源
+     */
+    public interface ProgressSource {
+        /**
+         * 当前的播放进度
+         *
+         * @return 小于0时表示这次不通知(例如正在快进)
+         */
+        long getProgress();
+    }
+
+    /**
+     * 播放进度订阅者
+     */
+    public interface TickListener {
+        /**
+         * 在时钟线程中回调
+         *
+         * @param progress
+         */
+        void onTick(long progress);
+    }
+
+    private final ProgressSource progressSource;
+
+    private final List<TickListener> listeners = new CopyOnWriteArrayList<TickListener>();
+
+    /**
+     * 需要按屏幕刷新率通知的对象,例如正在显示的歌词面板
+     */
+    private final Set<Object> displayRateOwners = new HashSet<Object>();
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 当前的定时任务,没有在播放时为null
+     */
+    private ScheduledFuture<?> tickFuture;
+
+    /**
+     * 当前的通知间隔(毫秒)
+     */
+    private long interval;
+
+    /**
+     * 普通的通知间隔(毫秒)
+     */
+    private final long normalInterval;
+
+    /**
+     * 屏幕刷新率对应的通知间隔(毫秒)
+     */
+    private long displayInterval = -1;
+
+    /**
+     * 本次开始计时以来的通知次数
+     */
+    private long tickCount = 0;
+
+    /**
+     * 本次开始计时的时间
+     */
+    private long startTime = 0;
+
+    public PlaybackClock(ProgressSource progressSource) {
+        this.progressSource = progressSource;
+        this.normalInterval = Math.max(1,
+                Long.getLong("sparkle.clock.interval", DEFAULT_INTERVAL));
+        this.interval = normalInterval;
+        scheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "PlaybackClock");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * 开始计时,已经在计时时不做处理
+     */
+    public synchronized void start() {
+        if (tickFuture != null) {
+            return;
+        }
+        tickCount = 0;
+        startTime = System.currentTimeMillis();
+        tickFuture = scheduler.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                tick();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止计时,暂停或停止播放时调用
+     */
+    public synchronized void stop() {
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+    }
+
+    /**
+     * 是否正在计时
+     *
+     * @return
+     */
+    public synchronized boolean isRunning() {
+        return tickFuture != null;
+    }
+
+    private void tick() {
+        synchronized (this) {
+            tickCount++;
+        }
+        if (listeners.isEmpty()) {
+            return;
+        }
+        long progress;
+        try {
+            progress = progressSource.getProgress();
+        } catch (Exception e) {
+            // 不能让异常取消定时任务
+            logger.error(e.toString());
+            return;
+        }
+        if (progress < 0) {
+            return;
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            try {
+                listeners.get(i).onTick(progress);
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.error(e.toString());
+            }
+        }
+    }
+
+    public void addTickListener(TickListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeTickListener(TickListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 设置是否需要按屏幕刷新率通知,任何一个对象需要时都按屏幕刷新率通知
+     *
+     * @param owner
+     * @param displayRate
+     */
+    public synchronized void setDisplayRate(Object owner, boolean displayRate) {
+        boolean changed;
+        if (displayRate) {
+            changed = displayRateOwners.add(owner);
+        } else {
+            changed = displayRateOwners.remove(owner);
+        }
+        if (!changed) {
+            return;
+        }
+        long newInterval = displayRateOwners.isEmpty() ? normalInterval
+                : Math.min(normalInterval, getDisplayInterval());
+        if (newInterval == interval) {
+            return;
+        }
+        interval = newInterval;
+        if (tickFuture != null) {
+            // 按新的间隔重新开始
+            stop();
+            start();
+        }
+    }
+
+    /**
+     * 屏幕刷新一次的时间(毫秒)
+     *
+     * @return
+     */
+    private long getDisplayInterval() {
+        if (displayInterval > 0) {
+            return displayInterval;
+        }
+        int refreshRate = DisplayMode.REFRESH_RATE_UNKNOWN;
+        try {
+            if (!GraphicsEnvironment.isHeadless()) {
+                refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                        .getDefaultScreenDevice().getDisplayMode()
+                        .getRefreshRate();
+            }
+        } catch (Exception e) {
+            logger.warn(e.toString());
+        }
+        if (refreshRate <= 0) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        displayInterval = Math.max(1, Math.round(1000.0 / refreshRate));
+        return displayInterval;
+    }
+
+    /**
+     * 当前的通知间隔(毫秒)
+     *
+     * @return
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * 订阅者数量
+     *
+     * @return
+     */
+    public int getSubscriberCount() {
+        return listeners.size();
+    }
+
+    /**
+     * 统计信息,包括订阅者数量、设定的频率和本次计时以来实际的频率
+     *
+     * @return
+     */
+    public synchronized String getStatistics() {
+        double rate = 0;
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (tickFuture != null && elapsed > 0) {
+            rate = tickCount * 1000.0 / elapsed;
+        }
+        return "[running=" + (tickFuture != null) + ",subscribers="
+                + listeners.size() + ",displayRateOwners="
+                + displayRateOwners.size() + ",interval=" + interval
+                + "ms,rate=" + Math.round(1000.0 / interval) + "Hz,actualRate="
+                + Math.round(rate * 10) / 10.0 + "Hz]";
+    }
+}
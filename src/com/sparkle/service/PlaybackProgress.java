@@ -0,0 +1,204 @@
+package com.sparkle.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.observable.Delivery;
+import com.sparkle.observable.ObserverManage;
+
+/**
+ * 播放进度通道
+ * <p>
+ * 播放时钟每次刷新都把当前进度写到这里,只有时钟线程写入,不加锁:
+ * 写入时先把版本号改成奇数,写完进度再改回偶数,读取时版本号前后一致并且是偶数才算读到.
+ * 界面可以随时读取,也可以添加监听器;异步的监听器每个线程只排队一次,
+ * 界面来不及处理时只收到最新的进度.写入和读取都不创建对象.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class PlaybackProgress {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 播放进度监听器
+     */
+    public interface ProgressListener {
+        /**
+         * 在监听器指定的线程中回调
+         *
+         * @param millis
+         *            播放进度(毫秒)
+         * @param sequence
+         *            进度的序号,每次写入加1
+         */
+        void onProgress(long millis, long sequence);
+    }
+
+    /**
+     * 版本号,写入时为奇数,序号为版本号的一半
+     */
+    private volatile long version = 0;
+
+    private volatile long millis = 0;
+
+    /**
+     * 序号不大于该值的进度已经失效
+     */
+    private volatile long invalidSequence = 0;
+
+    /**
+     * 每种投递方式一个通道
+     */
+    private final Lane[] lanes;
+
+    public PlaybackProgress() {
+        Delivery[] deliveries = Delivery.values();
+        lanes = new Lane[deliveries.length];
+        for (int i = 0; i < deliveries.length; i++) {
+            lanes[i] = new Lane(deliveries[i]);
+        }
+    }
+
+    /**
+     * 写入播放进度,只能在播放时钟线程中调用
+     *
+     * @param progress
+     */
+    public void publish(long progress) {
+        long v = version;
+        version = v + 1;
+        millis = progress;
+        version = v + 2;
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].signal();
+        }
+    }
+
+    /**
+     * 之前写入的进度失效,切换歌曲、暂停和快进时调用,可以在任何线程中调用
+     */
+    public void invalidate() {
+        invalidSequence = getSequence();
+    }
+
+    /**
+     * 当前的播放进度
+     *
+     * @return 还没有写入或者已经失效时返回-1
+     */
+    public long getMillis() {
+        while (true) {
+            long v = version;
+            long m = millis;
+            if ((v & 1) == 0 && v == version) {
+                return (v >> 1) > invalidSequence ? m : -1;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 最近一次写入的序号
+     *
+     * @return
+     */
+    public long getSequence() {
+        return version >> 1;
+    }
+
+    /**
+     * 添加监听器
+     *
+     * @param listener
+     * @param delivery
+     *            回调的线程,界面使用{@link Delivery#EDT}
+     */
+    public void addListener(ProgressListener listener, Delivery delivery) {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].listeners.remove(listener);
+        }
+        lanes[delivery.ordinal()].listeners.add(listener);
+    }
+
+    public void removeListener(ProgressListener listener) {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].listeners.remove(listener);
+        }
+    }
+
+    /**
+     * 监听器数量
+     *
+     * @return
+     */
+    public int getListenerCount() {
+        int count = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            count += lanes[i].listeners.size();
+        }
+        return count;
+    }
+
+    /**
+     * 同一种投递方式的监听器,异步投递时最多只有一个任务在排队
+     */
+    private class Lane implements Runnable {
+        private final Delivery delivery;
+
+        private final List<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+
+        /**
+         * 最近一次通知的序号,只在投递线程中使用
+         */
+        private long lastSequence = 0;
+
+        Lane(Delivery delivery) {
+            this.delivery = delivery;
+        }
+
+        void signal() {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            if (delivery == Delivery.SYNC) {
+                run();
+            } else if (pending.compareAndSet(false, true)) {
+                ObserverManage.getObserver().execute(delivery, this);
+            }
+        }
+
+        @Override
+        public void run() {
+            pending.set(false);
+            long sequence;
+            long progress;
+            while (true) {
+                long v = version;
+                progress = millis;
+                if ((v & 1) == 0 && v == version) {
+                    sequence = v >> 1;
+                    break;
+                }
+                Thread.yield();
+            }
+            if (sequence <= invalidSequence || sequence == lastSequence) {
+                return;
+            }
+            lastSequence = sequence;
+            for (int i = 0; i < listeners.size(); i++) {
+                try {
+                    listeners.get(i).onProgress(progress, sequence);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    logger.error(e.toString());
+                }
+            }
+        }
+    }
+}
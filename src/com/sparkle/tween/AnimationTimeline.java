@@ -0,0 +1,172 @@
+package com.sparkle.tween;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+import com.sparkle.logger.LoggerManage;
+
+/**
+ * 动画时间轴
+ * <p>
+ * 整个进程只有一个定时线程,按固定帧率(默认60帧,可以用 -Dsparkle.animation.fps 设置)
+ * 在界面线程中推进所有正在运行的动画,同一帧中的repaint由Swing合并成一次重绘.
+ * 上一帧还没有在界面线程中执行完时跳过这一帧,不会堆积.没有动画时取消定时任务.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class AnimationTimeline {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 默认帧率
+     */
+    public static final int DEFAULT_FRAME_RATE = 60;
+
+    private static AnimationTimeline instance;
+
+    /**
+     * 每一帧的回调
+     */
+    public interface FrameListener {
+        /**
+         * 在界面线程中回调,动画结束时由动画自己调用remove
+         */
+        void onFrame();
+    }
+
+    private final List<FrameListener> listeners = new CopyOnWriteArrayList<FrameListener>();
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 当前的定时任务,没有动画时为null
+     */
+    private ScheduledFuture<?> frameFuture;
+
+    /**
+     * 已经提交到界面线程但还没有执行的帧
+     */
+    private final AtomicBoolean framePending = new AtomicBoolean(false);
+
+    private final int frameRate;
+
+    /**
+     * 每一帧的间隔(纳秒)
+     */
+    private final long frameInterval;
+
+    private final Runnable frameTask = new Runnable() {
+
+        @Override
+        public void run() {
+            framePending.set(false);
+            doFrame();
+        }
+    };
+
+    private AnimationTimeline() {
+        frameRate = Math.max(1, Math.min(Integer.getInteger(
+                "sparkle.animation.fps", DEFAULT_FRAME_RATE), 1000));
+        frameInterval = TimeUnit.SECONDS.toNanos(1) / frameRate;
+        scheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "AnimationTimeline");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public static synchronized AnimationTimeline getInstance() {
+        if (instance == null) {
+            instance = new AnimationTimeline();
+        }
+        return instance;
+    }
+
+    /**
+     * 添加动画,已经添加过时不做处理
+     *
+     * @param listener
+     */
+    public synchronized void add(FrameListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        if (frameFuture == null) {
+            frameFuture = scheduler.scheduleAtFixedRate(new Runnable() {
+
+                @Override
+                public void run() {
+                    // 界面线程忙时跳过这一帧
+                    if (framePending.compareAndSet(false, true)) {
+                        SwingUtilities.invokeLater(frameTask);
+                    }
+                }
+            }, frameInterval, frameInterval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 移除动画
+     *
+     * @param listener
+     */
+    public synchronized void remove(FrameListener listener) {
+        listeners.remove(listener);
+        stopIfIdle();
+    }
+
+    /**
+     * 推进所有动画
+     */
+    private void doFrame() {
+        for (FrameListener listener : listeners) {
+            try {
+                listener.onFrame();
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.error(e.toString());
+                remove(listener);
+            }
+        }
+    }
+
+    private void stopIfIdle() {
+        if (listeners.isEmpty() && frameFuture != null) {
+            frameFuture.cancel(false);
+            frameFuture = null;
+        }
+    }
+
+    /**
+     * 帧率
+     *
+     * @return
+     */
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * 正在运行的动画个数
+     *
+     * @return
+     */
+    public int getAnimationCount() {
+        return listeners.size();
+    }
+}
@@ -8,6 +8,9 @@ import aurelienribon.tweenengine.equations.Linear;
 
 /**
  * 动画
+ * <p>
+ * 由AnimationTimeline在界面线程中按帧推进,不再为每个动画创建线程.
+ * </p>
  * 
  * @author yuyi2003
  * 
@@ -19,11 +22,22 @@ public class ValueAnimator {
     private int duration = 250;
     private TweenManager manager;
     private Tween tween;
-    private boolean isFinish = false;
+    private volatile boolean isFinish = false;
     private AnimatorUpdateListener animatorUpdateListener;
     private AnimationListener animationListener;
     private Particule particule;
 
+    /**
+     * 每一帧推进动画
+     */
+    private final AnimationTimeline.FrameListener frameListener = new AnimationTimeline.FrameListener() {
+
+        @Override
+        public void onFrame() {
+            update();
+        }
+    };
+
     public ValueAnimator() {
         Tween.setPoolEnabled(true);
     }
@@ -51,10 +65,8 @@ public class ValueAnimator {
         tween.addCompleteCallback(new TweenCallback() {
 
             public void tweenEventOccured(Types arg0, Tween arg1) {
+                // 最后一帧的值通知后再回调结束
                 isFinish = true;
-                if (animationListener != null) {
-                    animationListener.onAnimationEnd(particule.getY());
-                }
             }
         });
 
@@ -65,29 +77,7 @@ public class ValueAnimator {
                 if (animationListener != null) {
                     animationListener.onAnimationStart(particule.getY());
                 }
-                new Thread() {
-
-                    public void run() {
-
-                        while (true && !isFinish) {
-                            try {
-                                Thread.sleep(50);
-                                if (animatorUpdateListener != null) {
-                                    animatorUpdateListener
-                                            .onAnimationUpdate(particule.getY());
-                                }
-                                if (manager != null
-                                        && manager.getTweenCount() > 0)
-                                    manager.update();
-
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                    };
-
-                }.start();
+                AnimationTimeline.getInstance().add(frameListener);
             }
         });
 
@@ -96,13 +86,36 @@ public class ValueAnimator {
     /**
      * 开始
      */
-    public void start() {
+    public synchronized void start() {
         if (manager != null && tween != null)
             manager.add(tween.start());
     }
 
-    public void cancel() {
+    /**
+     * 推进一帧
+     */
+    private synchronized void update() {
+        if (isFinish || manager == null) {
+            // 已经取消
+            AnimationTimeline.getInstance().remove(frameListener);
+            return;
+        }
+        if (manager.getTweenCount() > 0)
+            manager.update();
+        if (animatorUpdateListener != null) {
+            animatorUpdateListener.onAnimationUpdate(particule.getY());
+        }
+        if (isFinish) {
+            AnimationTimeline.getInstance().remove(frameListener);
+            if (animationListener != null) {
+                animationListener.onAnimationEnd(particule.getY());
+            }
+        }
+    }
+
+    public synchronized void cancel() {
         isFinish = true;
+        AnimationTimeline.getInstance().remove(frameListener);
         if (manager != null) {
             manager.clear();
             manager = null;
@@ -15,6 +15,7 @@ import javax.swing.JLabel;
 
 import com.sparkle.common.BaseData;
 import com.sparkle.common.Constants;
+import com.sparkle.db.DBUtils;
 import com.sparkle.event.PanelMoveFrame;
 import com.sparkle.logger.LoggerManage;
 
@@ -22,6 +23,7 @@ import com.sparkle.manage.MediaManage;
 import com.sparkle.model.MessageIntent;
 import com.sparkle.model.SongInfo;
 import com.sparkle.model.SongMessage;
+import com.sparkle.observable.Delivery;
 import com.sparkle.observable.ObserverManage;
 import com.sparkle.observable.SparkleObserver;
 import com.sparkle.util.DataUtil;
@@ -78,7 +80,10 @@ public class MainFrame extends JFrame implements SparkleObserver, KeyListener {
         initKeyboardControl(); // 初始化键盘控制
         //
         setVisible(true);
-        ObserverManage.getObserver().addObserver(this);
+        ObserverManage.getObserver().addObserver(this, Delivery.EDT,
+                MessageIntent.class);
+        ObserverManage.getObserver().addSongObserver(this, Delivery.EDT,
+                SongMessage.INITMUSIC);
     }
 
     /**
@@ -248,6 +253,7 @@ public class MainFrame extends JFrame implements SparkleObserver, KeyListener {
         MediaManage.getMediaManage().stopToPlay();
         logger.info("准备退出播放器");
         DataUtil.saveData();
+        DBUtils.shutdown();
         logger.info("退出成功");
         System.exit(0);
     }
@@ -436,7 +442,7 @@ public class MainFrame extends JFrame implements SparkleObserver, KeyListener {
                         // 获取当前歌词行号（从当前播放进度计算）
                         if (lyricsView.getLyricsUtil() != null) {
                             currentLine = lyricsView.getLyricsUtil().getLineNumber(lyricsTreeMap, 
-                                (int) MediaManage.getMediaManage().getSongInfo().getPlayProgress());
+                                (int) MediaManage.getMediaManage().getPlayProgress());
                         }
                         
                         // 跳转到上一行
@@ -473,7 +479,7 @@ public class MainFrame extends JFrame implements SparkleObserver, KeyListener {
                         // 获取当前歌词行号（从当前播放进度计算）
                         if (lyricsView.getLyricsUtil() != null) {
                             currentLine = lyricsView.getLyricsUtil().getLineNumber(lyricsTreeMap, 
-                                (int) MediaManage.getMediaManage().getSongInfo().getPlayProgress());
+                                (int) MediaManage.getMediaManage().getPlayProgress());
                         }
                         
                         // 跳转到下一行
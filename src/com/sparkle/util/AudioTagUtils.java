@@ -16,6 +16,55 @@ import org.jaudiotagger.tag.datatype.Artwork;
  */
 public class AudioTagUtils {
 
+    /**
+     * 读取音频文件的标签和音频头信息,不支持的格式返回null
+     * 
+     * @param audioFile 音频文件
+     * @return
+     */
+    public static AudioFile readAudioFile(File audioFile) {
+        try {
+            return AudioFileIO.read(audioFile);
+        } catch (Exception e) {
+            // jaudiotagger 不支持的格式(ape、wav等)由调用者处理
+            return null;
+        }
+    }
+
+    /**
+     * 从已读取的音频文件中获取专辑封面
+     * 
+     * @param af 音频文件
+     * @return 专辑封面的字节数组，如果没有则返回null
+     */
+    public static byte[] getAlbumArt(AudioFile af) {
+        Tag tag = af.getTag();
+        if (tag != null) {
+            Artwork artwork = tag.getFirstArtwork();
+            if (artwork != null) {
+                return artwork.getBinaryData();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从已读取的音频文件中获取标签信息
+     * 
+     * @param af 音频文件
+     * @return 包含标签信息的字符串数组：[title, artist, album]
+     */
+    public static String[] getAudioTags(AudioFile af) {
+        String[] tags = new String[3]; // [title, artist, album]
+        Tag tag = af.getTag();
+        if (tag != null) {
+            tags[0] = tag.getFirst(FieldKey.TITLE);
+            tags[1] = tag.getFirst(FieldKey.ARTIST);
+            tags[2] = tag.getFirst(FieldKey.ALBUM);
+        }
+        return tags;
+    }
+
     /**
      * 提取MP3文件的专辑封面
      * 
@@ -71,5 +71,6 @@ public class DataUtil {
     public static void saveData() {
         logger.info("保存数据");
         BaseDataDB.getBaseDataDB().add();
+        MediaManage.getMediaManage().saveShuffleState();
     }
 }
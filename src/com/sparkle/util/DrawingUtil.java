@@ -7,6 +7,7 @@ import java.text.AttributedString;
 
 /**
  * 绘图工具类，支持字体回退功能
+ * 字体回退和测量的结果由FallbackTextCache缓存
  * 
  * @author yuyi2003
  * 
@@ -23,12 +24,7 @@ public class DrawingUtil {
      * @param fontSize 字体大小
      */
     public static void drawStringWithFallback(Graphics2D g2d, String text, float x, float y, int fontSize) {
-        if (text == null || text.length() == 0) {
-            return;
-        }
-        
-        AttributedString attributedString = FontsUtil.createFallbackString(text, fontSize);
-        g2d.drawString(attributedString.getIterator(), x, y);
+        FallbackTextCache.draw(g2d, text, x, y, fontSize);
     }
     
     /**
@@ -53,8 +49,7 @@ public class DrawingUtil {
         g2d.setPaint(paint);
         
         // 绘制文本
-        AttributedString attributedString = FontsUtil.createFallbackString(text, fontSize);
-        g2d.drawString(attributedString.getIterator(), x, y);
+        FallbackTextCache.draw(g2d, text, x, y, fontSize);
         
         // 恢复原始画笔
         g2d.setPaint(originalPaint);
@@ -90,23 +85,7 @@ public class DrawingUtil {
      * @return 文本宽度
      */
     public static int getTextWidthWithFallback(Graphics2D g2d, String text, int fontSize) {
-        if (text == null || text.length() == 0) {
-            return 0;
-        }
-        
-        // 更准确的方法：逐字符计算宽度
-        double totalWidth = 0;
-        
-        for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
-            java.awt.Font font = FontsUtil.needsFallback(c, fontSize) ? 
-                FontsUtil.getFallbackFont(fontSize) : FontsUtil.getBaseFont(fontSize);
-            
-            // 使用FontMetrics来计算字符宽度
-            java.awt.FontMetrics fm = g2d.getFontMetrics(font);
-            totalWidth += fm.charWidth(c);
-        }
-        
-        return (int) Math.ceil(totalWidth);
+        // 逐字符累加宽度，结果按文本缓存
+        return FallbackTextCache.getWidth(g2d, text, fontSize);
     }
 }
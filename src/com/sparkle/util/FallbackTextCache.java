@@ -0,0 +1,363 @@
+package com.sparkle.util;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.awt.geom.Rectangle2D;
+import java.text.AttributedString;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sparkle.lyrics.model.LyricsLineInfo;
+
+/**
+ * 字体回退文本的排版缓存
+ * <p>
+ * 按文本、字体大小、主字体和回退字体缓存字体回退后的AttributedString和每个字是否使用回退字体,
+ * 每个FontRenderContext下的TextLayout、文本宽度和文本边界在第一次用到时计算并保存.
+ * 重绘歌词时直接使用缓存的排版结果,不再逐字检查字体能否显示,也不再重新测量.
+ * 宽度和原来逐字累加FontMetrics.charWidth的结果一致,绘画和Graphics2D.drawString(AttributedCharacterIterator)一致.
+ * 按最近使用的顺序淘汰,条数可以用 -Dsparkle.text.cache.entries 设置.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class FallbackTextCache {
+
+    /**
+     * 缓存的最大条数
+     */
+    private static final int MAX_ENTRIES = Math.max(1,
+            Integer.getInteger("sparkle.text.cache.entries", 2048));
+
+    /**
+     * 每条缓存保存的FontRenderContext个数,界面和离屏图片的一般不同
+     */
+    private static final int MAX_CONTEXTS = 2;
+
+    /**
+     * 按访问顺序排列,最久没有使用的在最前面
+     */
+    private static final LinkedHashMap<Key, CachedLayout> cache = new LinkedHashMap<Key, CachedLayout>(
+            256, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedLayout> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private FallbackTextCache() {
+    }
+
+    /**
+     * 缓存的键
+     */
+    private static class Key {
+        private final String text;
+        private final int fontSize;
+        private final Font primaryFont;
+        private final Font fallbackFont;
+        private final int hash;
+
+        Key(String text, int fontSize, Font primaryFont, Font fallbackFont) {
+            this.text = text;
+            this.fontSize = fontSize;
+            this.primaryFont = primaryFont;
+            this.fallbackFont = fallbackFont;
+            int h = text.hashCode();
+            h = 31 * h + fontSize;
+            h = 31 * h + primaryFont.hashCode();
+            h = 31 * h + fallbackFont.hashCode();
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && fontSize == other.fontSize
+                    && text.equals(other.text)
+                    && primaryFont.equals(other.primaryFont)
+                    && fallbackFont.equals(other.fallbackFont);
+        }
+    }
+
+    /**
+     * 缓存项,字体回退的结果创建时计算,其它的按FontRenderContext延迟计算
+     */
+    private static class CachedLayout {
+        private final String text;
+        private final Font primaryFont;
+        private final Font fallbackFont;
+        private final AttributedString attributedString;
+
+        /**
+         * 每个字是否使用回退字体
+         */
+        private final boolean[] fallback;
+
+        private final Layout[] layouts = new Layout[MAX_CONTEXTS];
+
+        /**
+         * 下一个要替换的位置
+         */
+        private int next = 0;
+
+        CachedLayout(String text, Font primaryFont, Font fallbackFont) {
+            this.text = text;
+            this.primaryFont = primaryFont;
+            this.fallbackFont = fallbackFont;
+            fallback = new boolean[text.length()];
+            attributedString = createFallbackString(text, primaryFont,
+                    fallbackFont, fallback);
+        }
+
+        /**
+         * 获取FontRenderContext对应的排版结果,没有时替换最早的一个
+         *
+         * @param frc
+         * @return
+         */
+        synchronized Layout getLayout(FontRenderContext frc) {
+            for (int i = 0; i < layouts.length; i++) {
+                if (layouts[i] != null && layouts[i].frc.equals(frc)) {
+                    return layouts[i];
+                }
+            }
+            Layout layout = new Layout(frc);
+            layouts[next] = layout;
+            next = (next + 1) % layouts.length;
+            return layout;
+        }
+    }
+
+    /**
+     * 一个FontRenderContext下的排版结果
+     */
+    private static class Layout {
+        private final FontRenderContext frc;
+        private TextLayout textLayout;
+        private int width = -1;
+        private Font boundsFont;
+        private Rectangle2D bounds;
+
+        Layout(FontRenderContext frc) {
+            this.frc = frc;
+        }
+    }
+
+    /**
+     * 创建字体回退的AttributedString,和FontFallbackUtil.createFallbackString相同,同时记下每个字是否使用回退字体
+     *
+     * @param text
+     * @param primaryFont
+     * @param fallbackFont
+     * @param fallback
+     *            每个字是否使用回退字体
+     * @return
+     */
+    private static AttributedString createFallbackString(String text,
+            Font primaryFont, Font fallbackFont, boolean[] fallback) {
+        AttributedString result = new AttributedString(text);
+        int textLength = text.length();
+        result.addAttribute(TextAttribute.FONT, primaryFont, 0, textLength);
+        int fallbackBegin = -1;
+        for (int i = 0; i < textLength; i++) {
+            fallback[i] = !primaryFont.canDisplay(text.charAt(i));
+            if (fallback[i] && fallbackBegin == -1) {
+                fallbackBegin = i;
+            } else if (!fallback[i] && fallbackBegin != -1) {
+                result.addAttribute(TextAttribute.FONT, fallbackFont,
+                        fallbackBegin, i);
+                fallbackBegin = -1;
+            }
+        }
+        if (fallbackBegin != -1) {
+            result.addAttribute(TextAttribute.FONT, fallbackFont,
+                    fallbackBegin, textLength);
+        }
+        return result;
+    }
+
+    /**
+     * 获取缓存项,没有时创建
+     *
+     * @param text
+     *            不为空的文本
+     * @param fontSize
+     * @return
+     */
+    private static CachedLayout getEntry(String text, int fontSize) {
+        Font primaryFont = FontFallbackUtil.getPrimaryFont(fontSize);
+        Font fallbackFont = FontFallbackUtil.getFallbackFont(fontSize);
+        Key key = new Key(text, fontSize, primaryFont, fallbackFont);
+        CachedLayout entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry == null) {
+            // 在锁外做字体回退,同一个文本同时创建时后放入的覆盖先放入的,结果相同
+            entry = new CachedLayout(text, primaryFont, fallbackFont);
+            synchronized (cache) {
+                cache.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 绘制带有字体回退功能的文本
+     *
+     * @param g2d
+     * @param text
+     * @param x
+     * @param y
+     * @param fontSize
+     */
+    public static void draw(Graphics2D g2d, String text, float x, float y,
+            int fontSize) {
+        if (text == null || text.length() == 0) {
+            return;
+        }
+        CachedLayout entry = getEntry(text, fontSize);
+        Layout layout = entry.getLayout(g2d.getFontRenderContext());
+        TextLayout textLayout;
+        synchronized (entry) {
+            if (layout.textLayout == null) {
+                layout.textLayout = new TextLayout(
+                        entry.attributedString.getIterator(), layout.frc);
+            }
+            textLayout = layout.textLayout;
+        }
+        textLayout.draw(g2d, x, y);
+    }
+
+    /**
+     * 获取文本的宽度(考虑字体回退)
+     *
+     * @param g2d
+     * @param text
+     * @param fontSize
+     * @return
+     */
+    public static int getWidth(Graphics2D g2d, String text, int fontSize) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        CachedLayout entry = getEntry(text, fontSize);
+        Layout layout = entry.getLayout(g2d.getFontRenderContext());
+        synchronized (entry) {
+            if (layout.width < 0) {
+                FontMetrics primaryMetrics = g2d
+                        .getFontMetrics(entry.primaryFont);
+                FontMetrics fallbackMetrics = g2d
+                        .getFontMetrics(entry.fallbackFont);
+                double totalWidth = 0;
+                for (int i = 0; i < entry.fallback.length; i++) {
+                    FontMetrics fm = entry.fallback[i] ? fallbackMetrics
+                            : primaryMetrics;
+                    totalWidth += fm.charWidth(entry.text.charAt(i));
+                }
+                layout.width = (int) Math.ceil(totalWidth);
+            }
+            return layout.width;
+        }
+    }
+
+    /**
+     * 获取文本在g2d当前字体下的边界,和g2d.getFontMetrics().getStringBounds(text, g2d)相同
+     *
+     * @param g2d
+     * @param text
+     * @param fontSize
+     * @return 新的Rectangle2D
+     */
+    public static Rectangle2D getStringBounds(Graphics2D g2d, String text,
+            int fontSize) {
+        Font font = g2d.getFont();
+        if (text == null || text.length() == 0) {
+            return font.getStringBounds(text, g2d.getFontRenderContext());
+        }
+        CachedLayout entry = getEntry(text, fontSize);
+        Layout layout = entry.getLayout(g2d.getFontRenderContext());
+        synchronized (entry) {
+            if (layout.bounds == null || !font.equals(layout.boundsFont)) {
+                layout.bounds = font.getStringBounds(text, layout.frc);
+                layout.boundsFont = font;
+            }
+            return (Rectangle2D) layout.bounds.clone();
+        }
+    }
+
+    /**
+     * 预先为歌词行做字体回退,加载歌词时调用.
+     * 包括整行歌词、每个字之前的歌词和去掉空格的每个字,即绘画动感歌词时要测量的文本
+     *
+     * @param lyricsLineInfos
+     *            为null时不处理
+     * @param fontSize
+     */
+    public static void warm(Collection<LyricsLineInfo> lyricsLineInfos,
+            int fontSize) {
+        if (lyricsLineInfos == null) {
+            return;
+        }
+        for (LyricsLineInfo lyricsLineInfo : lyricsLineInfos) {
+            warm(lyricsLineInfo.getLineLyrics(), fontSize);
+            String[] lyricsWords = lyricsLineInfo.getLyricsWords();
+            if (lyricsWords == null) {
+                continue;
+            }
+            StringBuilder lyricsBeforeWord = new StringBuilder();
+            for (int i = 0; i < lyricsWords.length; i++) {
+                warm(lyricsBeforeWord.toString(), fontSize);
+                warm(lyricsWords[i].trim(), fontSize);
+                lyricsBeforeWord.append(lyricsWords[i]);
+            }
+        }
+    }
+
+    private static void warm(String text, int fontSize) {
+        if (text != null && text.length() > 0) {
+            getEntry(text, fontSize);
+        }
+    }
+
+    /**
+     * 清空缓存,字体大小改变时调用
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * 缓存条数
+     *
+     * @return
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+}
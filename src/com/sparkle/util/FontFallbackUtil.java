@@ -4,12 +4,15 @@ import java.awt.Font;
 import java.awt.font.TextAttribute;
 import java.io.File;
 import java.text.AttributedString;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.sparkle.common.Constants;
 
 /**
  * 字体回退工具类
  * 实现字体回退功能：默认使用HYRunYuan-65S.ttf，如果无法渲染则回退到Arial-Unicode-Regular.ttf
+ * 字体文件只加载一次，不同大小的字体由它派生并缓存，歌词和桌面歌词字体大小不同时不会反复读取字体文件
  * 
  * @author yuyi2003
  * 
@@ -24,9 +27,14 @@ public class FontFallbackUtil {
     public static final String FALLBACK_FONT_PATH = Constants.PATH_FONTS + File.separator
             + "Arial-Unicode-Regular.ttf";
     
-    // 缓存的主字体和回退字体
-    private static Font primaryFont;
-    private static Font fallbackFont;
+    // 从文件加载的主字体和回退字体，加载失败时为null
+    private static Font primaryBaseFont;
+    private static Font fallbackBaseFont;
+    private static boolean baseFontsLoaded = false;
+    
+    // 各个大小的主字体和回退字体
+    private static final Map<Integer, Font> primaryFonts = new HashMap<Integer, Font>();
+    private static final Map<Integer, Font> fallbackFonts = new HashMap<Integer, Font>();
     
     /**
      * 获取主字体
@@ -34,13 +42,17 @@ public class FontFallbackUtil {
      * @param fontSize 字体大小
      * @return Font对象
      */
-    public static Font getPrimaryFont(int fontSize) {
-        if (primaryFont == null || primaryFont.getSize() != fontSize) {
-            primaryFont = loadFontFromFile(PRIMARY_FONT_PATH, fontSize);
-            if (primaryFont == null) {
+    public static synchronized Font getPrimaryFont(int fontSize) {
+        Font primaryFont = primaryFonts.get(fontSize);
+        if (primaryFont == null) {
+            loadBaseFonts();
+            if (primaryBaseFont != null) {
+                primaryFont = primaryBaseFont.deriveFont(Font.PLAIN, fontSize);
+            } else {
                 // 如果主字体加载失败，使用回退字体
                 primaryFont = getFallbackFont(fontSize);
             }
+            primaryFonts.put(fontSize, primaryFont);
         }
         return primaryFont;
     }
@@ -51,28 +63,41 @@ public class FontFallbackUtil {
      * @param fontSize 字体大小
      * @return Font对象
      */
-    public static Font getFallbackFont(int fontSize) {
-        if (fallbackFont == null || fallbackFont.getSize() != fontSize) {
-            fallbackFont = loadFontFromFile(FALLBACK_FONT_PATH, fontSize);
-            if (fallbackFont == null) {
+    public static synchronized Font getFallbackFont(int fontSize) {
+        Font fallbackFont = fallbackFonts.get(fontSize);
+        if (fallbackFont == null) {
+            loadBaseFonts();
+            if (fallbackBaseFont != null) {
+                fallbackFont = fallbackBaseFont.deriveFont(Font.PLAIN, fontSize);
+            } else {
                 // 如果回退字体也加载失败，使用系统默认字体
                 fallbackFont = new Font(Font.SANS_SERIF, Font.PLAIN, fontSize);
             }
+            fallbackFonts.put(fontSize, fallbackFont);
         }
         return fallbackFont;
     }
     
+    /**
+     * 加载字体文件，只加载一次
+     */
+    private static void loadBaseFonts() {
+        if (!baseFontsLoaded) {
+            primaryBaseFont = loadFontFromFile(PRIMARY_FONT_PATH);
+            fallbackBaseFont = loadFontFromFile(FALLBACK_FONT_PATH);
+            baseFontsLoaded = true;
+        }
+    }
+    
     /**
      * 从文件加载字体
      * 
      * @param fontPath 字体文件路径
-     * @param fontSize 字体大小
      * @return Font对象，加载失败返回null
      */
-    private static Font loadFontFromFile(String fontPath, int fontSize) {
+    private static Font loadFontFromFile(String fontPath) {
         try {
-            Font font = Font.createFont(Font.TRUETYPE_FONT, new File(fontPath));
-            return font.deriveFont(Font.PLAIN, fontSize);
+            return Font.createFont(Font.TRUETYPE_FONT, new File(fontPath));
         } catch (Exception e) {
             System.err.println("无法加载字体文件: " + fontPath + ", 错误: " + e.getMessage());
             return null;
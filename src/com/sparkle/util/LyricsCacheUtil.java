@@ -0,0 +1,535 @@
+package com.sparkle.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sparkle.common.Constants;
+import com.sparkle.logger.LoggerManage;
+import com.sparkle.lyrics.model.LyricsInfo;
+import com.sparkle.lyrics.model.LyricsLineInfo;
+import com.sparkle.lyrics.model.TranslateLrcLineInfo;
+import com.sparkle.lyrics.model.TranslateLyricsInfo;
+import com.sparkle.lyrics.model.TransliterationLyricsInfo;
+
+/**
+ * 歌词解析结果的磁盘缓存
+ * <p>
+ * krc要解压和异或解密，hrcs、hrcx要解析base64和json的翻译歌词，每次加载都用正则分割，
+ * 解析后的歌词按二进制格式保存在歌词目录的cache文件夹中，下次加载时整个读入内存直接读取.
+ * 缓存文件不做内存映射，映射的文件在被回收之前不能覆盖和删除，源歌词改变后缓存就无法更新.
+ * 文件头保存格式版本和源文件的路径、大小、修改时间，和源文件不一致时重新解析.
+ * 数值按大端保存，字符串和数组以长度开头，字符按UTF-16保存，长度为-1表示null.
+ * 源歌词被删除后缓存文件不会再被覆盖,每次运行第一次保存缓存时清理一遍这样的缓存.
+ * 可以用 -Dsparkle.lyrics.diskcache=false 关闭.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class LyricsCacheUtil {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
+
+    /**
+     * 缓存目录
+     */
+    public static final String PATH_LYRICS_CACHE = Constants.PATH_LYRICS
+            + File.separator + "cache";
+
+    /**
+     * 缓存文件后缀
+     */
+    private static final String CACHE_EXT = ".cache";
+
+    /**
+     * 文件标识 "SLRC"
+     */
+    private static final int MAGIC = 0x534C5243;
+
+    /**
+     * 格式版本，格式改变时加1，旧的缓存自动失效
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * 文件标识、版本和数据长度
+     */
+    private static final int HEADER_SIZE = 12;
+
+    private static final boolean ENABLED = !"false".equals(System
+            .getProperty("sparkle.lyrics.diskcache"));
+
+    /**
+     * 本次运行是否已经清理过缓存目录
+     */
+    private static final AtomicBoolean PRUNED = new AtomicBoolean(false);
+
+    /**
+     * 临时文件超过该时间没有改名视为写入中断的残留文件
+     */
+    private static final long TEMP_EXPIRE = 60 * 1000;
+
+    /**
+     * 标签值的类型
+     */
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+
+    /**
+     * 获取歌词文件对应的缓存文件，文件名加上绝对路径的哈希值，不同文件夹中的同名歌词不共用缓存
+     *
+     * @param lyricsFile
+     * @return
+     */
+    public static File getCacheFile(File lyricsFile) {
+        String path = lyricsFile.getAbsolutePath();
+        return new File(PATH_LYRICS_CACHE, lyricsFile.getName() + "-"
+                + Integer.toHexString(path.hashCode()) + CACHE_EXT);
+    }
+
+    /**
+     * 读取缓存的歌词
+     *
+     * @param lyricsFile
+     *            源歌词文件
+     * @return 没有缓存、缓存已经过期或者损坏时返回null
+     */
+    public static LyricsInfo read(File lyricsFile) {
+        if (!ENABLED) {
+            return null;
+        }
+        File cacheFile = getCacheFile(lyricsFile);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(cacheFile, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return null;
+                }
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getInt() != size - HEADER_SIZE) {
+                return null;
+            }
+            if (buffer.getLong() != lyricsFile.length()
+                    || buffer.getLong() != lyricsFile.lastModified()
+                    || !lyricsFile.getAbsolutePath().equals(readString(buffer))) {
+                return null;
+            }
+            return readLyricsInfo(buffer);
+        } catch (Exception e) {
+            // 缓存损坏时重新解析，下次保存时覆盖
+            e.printStackTrace();
+            logger.error(e.toString());
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 保存解析后的歌词，先写临时文件再改名，读取时不会读到写了一半的文件
+     *
+     * @param lyricsFile
+     *            源歌词文件
+     * @param length
+     *            解析前源文件的大小
+     * @param lastModified
+     *            解析前源文件的修改时间
+     * @param lyricsInfo
+     */
+    public static void write(File lyricsFile, long length, long lastModified,
+            LyricsInfo lyricsInfo) {
+        if (!ENABLED || lyricsInfo == null
+                || lyricsInfo.getLyricsLineInfoTreeMap() == null) {
+            return;
+        }
+        File cacheFile = getCacheFile(lyricsFile);
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        FileOutputStream fileOutputStream = null;
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(8192);
+            DataOutputStream out = new DataOutputStream(data);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            writeString(out, lyricsFile.getAbsolutePath());
+            writeLyricsInfo(out, lyricsInfo);
+            out.flush();
+
+            if (!cacheFile.getParentFile().exists()) {
+                cacheFile.getParentFile().mkdirs();
+            }
+            if (PRUNED.compareAndSet(false, true)) {
+                pruneOrphans(cacheFile.getParentFile());
+            }
+            fileOutputStream = new FileOutputStream(tempFile);
+            DataOutputStream header = new DataOutputStream(fileOutputStream);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(data.size());
+            data.writeTo(header);
+            header.flush();
+            fileOutputStream.close();
+            fileOutputStream = null;
+
+            if (!tempFile.renameTo(cacheFile)) {
+                cacheFile.delete();
+                if (!tempFile.renameTo(cacheFile)) {
+                    logger.warn("歌词缓存保存失败: " + cacheFile.getPath());
+                    tempFile.delete();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error(e.toString());
+            tempFile.delete();
+        } finally {
+            if (fileOutputStream != null) {
+                try {
+                    fileOutputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 删除源歌词文件已经不存在的缓存、旧格式版本的缓存和写入中断残留的临时文件
+     *
+     * @param cacheDir
+     * @return 删除的文件数
+     */
+    public static int pruneOrphans(File cacheDir) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int count = 0;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            String name = file.getName();
+            boolean orphan = false;
+            if (name.endsWith(CACHE_EXT + ".tmp")) {
+                // 其它线程可能正在写入
+                orphan = now - file.lastModified() > TEMP_EXPIRE;
+            } else if (name.endsWith(CACHE_EXT) && file.isFile()) {
+                orphan = isOrphan(file);
+            }
+            if (orphan && file.delete()) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            logger.info("清理歌词缓存文件: " + count + "个");
+        }
+        return count;
+    }
+
+    /**
+     * 只读取缓存文件头中的源文件路径,判断源文件是否还存在
+     *
+     * @param cacheFile
+     * @return
+     */
+    private static boolean isOrphan(File cacheFile) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(cacheFile)));
+            if (in.readInt() != MAGIC) {
+                // 不是缓存文件,不删除
+                return false;
+            }
+            if (in.readInt() != VERSION) {
+                return true;
+            }
+            // 数据长度、源文件大小和修改时间
+            in.readInt();
+            in.readLong();
+            in.readLong();
+            int length = in.readInt();
+            if (length < 0) {
+                return true;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = in.readChar();
+            }
+            return !new File(new String(chars)).exists();
+        } catch (Exception e) {
+            // 文件头不完整,读取时也会失败
+            logger.error("读取歌词缓存文件头失败: " + cacheFile.getPath() + " "
+                    + e.toString());
+            return true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void writeLyricsInfo(DataOutputStream out,
+            LyricsInfo lyricsInfo) throws IOException {
+        writeString(out, lyricsInfo.getLyricsFileExt());
+
+        // 标签
+        Map<String, Object> lyricsTags = lyricsInfo.getLyricsTags();
+        if (lyricsTags == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(lyricsTags.size());
+            for (Map.Entry<String, Object> entry : lyricsTags.entrySet()) {
+                writeString(out, entry.getKey());
+                Object value = entry.getValue();
+                if (value == null) {
+                    out.writeByte(TYPE_NULL);
+                } else if (value instanceof Integer) {
+                    out.writeByte(TYPE_INTEGER);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong((Long) value);
+                } else {
+                    out.writeByte(TYPE_STRING);
+                    writeString(out, value.toString());
+                }
+            }
+        }
+
+        // 默认歌词行
+        TreeMap<Integer, LyricsLineInfo> lyricsLineInfoTreeMap = lyricsInfo
+                .getLyricsLineInfoTreeMap();
+        out.writeInt(lyricsLineInfoTreeMap.size());
+        Iterator<Map.Entry<Integer, LyricsLineInfo>> it = lyricsLineInfoTreeMap
+                .entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, LyricsLineInfo> entry = it.next();
+            out.writeInt(entry.getKey());
+            writeLine(out, entry.getValue());
+        }
+
+        // 翻译歌词
+        TranslateLyricsInfo translateLyricsInfo = lyricsInfo
+                .getTranslateLyricsInfo();
+        if (translateLyricsInfo == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            List<TranslateLrcLineInfo> translateLrcLineInfos = translateLyricsInfo
+                    .getTranslateLrcLineInfos();
+            if (translateLrcLineInfos == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(translateLrcLineInfos.size());
+                for (int i = 0; i < translateLrcLineInfos.size(); i++) {
+                    writeString(out, translateLrcLineInfos.get(i)
+                            .getLineLyrics());
+                }
+            }
+        }
+
+        // 音译歌词
+        TransliterationLyricsInfo transliterationLyricsInfo = lyricsInfo
+                .getTransliterationLyricsInfo();
+        if (transliterationLyricsInfo == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            List<LyricsLineInfo> transliterationLrcLineInfos = transliterationLyricsInfo
+                    .getTransliterationLrcLineInfos();
+            if (transliterationLrcLineInfos == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(transliterationLrcLineInfos.size());
+                for (int i = 0; i < transliterationLrcLineInfos.size(); i++) {
+                    writeLine(out, transliterationLrcLineInfos.get(i));
+                }
+            }
+        }
+    }
+
+    private static LyricsInfo readLyricsInfo(ByteBuffer buffer) {
+        LyricsInfo lyricsInfo = new LyricsInfo();
+        lyricsInfo.setLyricsFileExt(readString(buffer));
+
+        // 标签
+        int tagCount = buffer.getInt();
+        if (tagCount >= 0) {
+            Map<String, Object> lyricsTags = new HashMap<String, Object>();
+            for (int i = 0; i < tagCount; i++) {
+                String key = readString(buffer);
+                byte type = buffer.get();
+                if (type == TYPE_INTEGER) {
+                    lyricsTags.put(key, buffer.getInt());
+                } else if (type == TYPE_LONG) {
+                    lyricsTags.put(key, buffer.getLong());
+                } else if (type == TYPE_STRING) {
+                    lyricsTags.put(key, readString(buffer));
+                } else {
+                    lyricsTags.put(key, null);
+                }
+            }
+            lyricsInfo.setLyricsTags(lyricsTags);
+        }
+
+        // 默认歌词行
+        int lineCount = buffer.getInt();
+        TreeMap<Integer, LyricsLineInfo> lyricsLineInfoTreeMap = new TreeMap<Integer, LyricsLineInfo>();
+        for (int i = 0; i < lineCount; i++) {
+            int key = buffer.getInt();
+            lyricsLineInfoTreeMap.put(key, readLine(buffer));
+        }
+        lyricsInfo.setLyricsLineInfoTreeMap(lyricsLineInfoTreeMap);
+
+        // 翻译歌词
+        if (buffer.get() != 0) {
+            TranslateLyricsInfo translateLyricsInfo = new TranslateLyricsInfo();
+            int count = buffer.getInt();
+            if (count >= 0) {
+                List<TranslateLrcLineInfo> translateLrcLineInfos = new ArrayList<TranslateLrcLineInfo>(
+                        count);
+                for (int i = 0; i < count; i++) {
+                    TranslateLrcLineInfo translateLrcLineInfo = new TranslateLrcLineInfo();
+                    translateLrcLineInfo.setLineLyrics(readString(buffer));
+                    translateLrcLineInfos.add(translateLrcLineInfo);
+                }
+                translateLyricsInfo
+                        .setTranslateLrcLineInfos(translateLrcLineInfos);
+            }
+            lyricsInfo.setTranslateLyricsInfo(translateLyricsInfo);
+        }
+
+        // 音译歌词
+        if (buffer.get() != 0) {
+            TransliterationLyricsInfo transliterationLyricsInfo = new TransliterationLyricsInfo();
+            int count = buffer.getInt();
+            if (count >= 0) {
+                List<LyricsLineInfo> transliterationLrcLineInfos = new ArrayList<LyricsLineInfo>(
+                        count);
+                for (int i = 0; i < count; i++) {
+                    transliterationLrcLineInfos.add(readLine(buffer));
+                }
+                transliterationLyricsInfo
+                        .setTransliterationLrcLineInfos(transliterationLrcLineInfos);
+            }
+            lyricsInfo.setTransliterationLyricsInfo(transliterationLyricsInfo);
+        }
+        return lyricsInfo;
+    }
+
+    /**
+     * 歌词行：开始时间、结束时间、行歌词、每个字和每个字的时长
+     *
+     * @param out
+     * @param lyricsLineInfo
+     * @throws IOException
+     */
+    private static void writeLine(DataOutputStream out,
+            LyricsLineInfo lyricsLineInfo) throws IOException {
+        out.writeInt(lyricsLineInfo.getStartTime());
+        out.writeInt(lyricsLineInfo.getEndTime());
+        writeString(out, lyricsLineInfo.getLineLyrics());
+        String[] lyricsWords = lyricsLineInfo.getLyricsWords();
+        if (lyricsWords == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(lyricsWords.length);
+            for (int i = 0; i < lyricsWords.length; i++) {
+                writeString(out, lyricsWords[i]);
+            }
+        }
+        int[] wordsDisInterval = lyricsLineInfo.getWordsDisInterval();
+        if (wordsDisInterval == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(wordsDisInterval.length);
+            for (int i = 0; i < wordsDisInterval.length; i++) {
+                out.writeInt(wordsDisInterval[i]);
+            }
+        }
+    }
+
+    private static LyricsLineInfo readLine(ByteBuffer buffer) {
+        LyricsLineInfo lyricsLineInfo = new LyricsLineInfo();
+        lyricsLineInfo.setStartTime(buffer.getInt());
+        lyricsLineInfo.setEndTime(buffer.getInt());
+        lyricsLineInfo.setLineLyrics(readString(buffer));
+        int wordCount = buffer.getInt();
+        if (wordCount >= 0) {
+            String[] lyricsWords = new String[wordCount];
+            for (int i = 0; i < wordCount; i++) {
+                lyricsWords[i] = readString(buffer);
+            }
+            lyricsLineInfo.setLyricsWords(lyricsWords);
+        }
+        int intervalCount = buffer.getInt();
+        if (intervalCount >= 0) {
+            int[] wordsDisInterval = new int[intervalCount];
+            buffer.asIntBuffer().get(wordsDisInterval);
+            buffer.position(buffer.position() + intervalCount * 4);
+            lyricsLineInfo.setWordsDisInterval(wordsDisInterval);
+        }
+        return lyricsLineInfo;
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length());
+            out.writeChars(value);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + length * 2);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,338 @@
+package com.sparkle.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.sparkle.lyrics.model.LyricsDocument;
+import com.sparkle.lyrics.model.LyricsLineInfo;
+
+/**
+ * 编译后的歌词时间轴
+ * <p>
+ * 歌词加载时把每行的开始、结束时间和每个字的结束时间(字时长的前缀和)放到int数组中,
+ * 播放时按时间查找歌词行和字都用二分查找,不再遍历歌词集合.
+ * 顺序播放时下一次要找的行一般就是上一次的行或者下一行,先检查这两行.
+ * 时间都是歌词文件中的时间,时间补偿由调用者加上.
+ * 由歌词文档创建时直接使用文档中的时间数组.
+ * 查找结果和逐行遍历的结果一致,歌词行有重叠时退回到逐行遍历.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class LyricsTimeline {
+
+    /**
+     * 行数
+     */
+    private final int size;
+
+    private final int[] lineStart;
+
+    private final int[] lineEnd;
+
+    /**
+     * 时间不大于该值时属于这一行或者前面的行,即该行的结束时间和下一行开始之前的最大值
+     */
+    private final int[] lineSpan;
+
+    /**
+     * 每行第一个字在wordEnd中的位置,最后一个元素为字的总数
+     */
+    private final int[] wordFrom;
+
+    /**
+     * 每个字的结束时间
+     */
+    private final int[] wordEnd;
+
+    /**
+     * 歌词行按时间排列并且没有重叠
+     */
+    private final boolean ordered;
+
+    /**
+     * 每行中字的结束时间都是递增的
+     */
+    private final boolean wordsOrdered;
+
+    /**
+     * 上一次找到的行,顺序播放时从这里开始找
+     */
+    private int cursor = 0;
+
+    /**
+     *
+     * @param lyricsLineTreeMap
+     *            行号从0开始的歌词集合
+     */
+    public LyricsTimeline(TreeMap<Integer, LyricsLineInfo> lyricsLineTreeMap) {
+        this(toList(lyricsLineTreeMap));
+    }
+
+    public LyricsTimeline(List<LyricsLineInfo> lyricsLineInfos) {
+        this(new Timing(lyricsLineInfos));
+    }
+
+    /**
+     * 直接使用歌词文档中的时间数据,不复制
+     *
+     * @param lyricsDocument
+     */
+    public LyricsTimeline(LyricsDocument lyricsDocument) {
+        this(new Timing(lyricsDocument));
+    }
+
+    private LyricsTimeline(Timing timing) {
+        size = timing.lineStart.length;
+        lineStart = timing.lineStart;
+        lineEnd = timing.lineEnd;
+        wordFrom = timing.wordFrom;
+        lineSpan = new int[size];
+        wordEnd = new int[wordFrom[size]];
+        boolean mOrdered = true;
+        boolean mWordsOrdered = true;
+        for (int i = 0; i < size; i++) {
+            int elapseTime = lineStart[i];
+            for (int j = wordFrom[i]; j < wordFrom[i + 1]; j++) {
+                int interval = timing.wordDuration[j];
+                if (interval < 0) {
+                    mWordsOrdered = false;
+                }
+                elapseTime += interval;
+                wordEnd[j] = elapseTime;
+            }
+            if (lineStart[i] > lineEnd[i]) {
+                mOrdered = false;
+            }
+            if (i + 1 < size) {
+                int nextStart = lineStart[i + 1];
+                if (lineEnd[i] > nextStart) {
+                    mOrdered = false;
+                }
+                lineSpan[i] = Math.max(lineEnd[i], nextStart - 1);
+            } else {
+                lineSpan[i] = lineEnd[i];
+            }
+        }
+        ordered = mOrdered;
+        wordsOrdered = mWordsOrdered;
+    }
+
+    private static List<LyricsLineInfo> toList(
+            TreeMap<Integer, LyricsLineInfo> lyricsLineTreeMap) {
+        List<LyricsLineInfo> lyricsLineInfos = new ArrayList<LyricsLineInfo>(
+                lyricsLineTreeMap.size());
+        for (int i = 0; i < lyricsLineTreeMap.size(); i++) {
+            lyricsLineInfos.add(lyricsLineTreeMap.get(i));
+        }
+        return lyricsLineInfos;
+    }
+
+    /**
+     * 行和字的时间
+     */
+    private static class Timing {
+        private final int[] lineStart;
+        private final int[] lineEnd;
+        private final int[] wordFrom;
+        private final int[] wordDuration;
+
+        Timing(LyricsDocument lyricsDocument) {
+            lineStart = lyricsDocument.getLineStarts();
+            lineEnd = lyricsDocument.getLineEnds();
+            wordFrom = lyricsDocument.getWordFrom();
+            wordDuration = lyricsDocument.getWordDurations();
+        }
+
+        Timing(List<LyricsLineInfo> lyricsLineInfos) {
+            int size = lyricsLineInfos.size();
+            lineStart = new int[size];
+            lineEnd = new int[size];
+            wordFrom = new int[size + 1];
+            int wordCount = 0;
+            for (int i = 0; i < size; i++) {
+                LyricsLineInfo lyricsLineInfo = lyricsLineInfos.get(i);
+                lineStart[i] = lyricsLineInfo.getStartTime();
+                lineEnd[i] = lyricsLineInfo.getEndTime();
+                wordFrom[i] = wordCount;
+                wordCount += getWordCount(lyricsLineInfo);
+            }
+            wordFrom[size] = wordCount;
+            wordDuration = new int[wordCount];
+            for (int i = 0; i < size; i++) {
+                int[] wordsDisInterval = lyricsLineInfos.get(i)
+                        .getWordsDisInterval();
+                for (int j = wordFrom[i]; j < wordFrom[i + 1]; j++) {
+                    wordDuration[j] = wordsDisInterval[j - wordFrom[i]];
+                }
+            }
+        }
+
+        private static int getWordCount(LyricsLineInfo lyricsLineInfo) {
+            if (lyricsLineInfo.getLyricsWords() == null
+                    || lyricsLineInfo.getWordsDisInterval() == null) {
+                return 0;
+            }
+            return Math.min(lyricsLineInfo.getLyricsWords().length,
+                    lyricsLineInfo.getWordsDisInterval().length);
+        }
+    }
+
+    /**
+     * 行数
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 获取时间所在的歌词行,在两行之间时为前一行
+     *
+     * @param time
+     *            已经加上时间补偿的播放时间
+     * @return 在第一行之前时返回0
+     */
+    public int getLineNumber(int time) {
+        if (size == 0) {
+            return 0;
+        }
+        if (!ordered) {
+            return scanLineNumber(time);
+        }
+        int index = cursor;
+        if (index >= size) {
+            index = 0;
+        }
+        if (isLine(index, time)) {
+            return index;
+        }
+        if (index + 1 < size && isLine(index + 1, time)) {
+            cursor = index + 1;
+            return index + 1;
+        }
+        // 第一个lineSpan不小于time的行
+        int low = 0;
+        int high = size - 1;
+        if (lineSpan[high] < time) {
+            cursor = high;
+            return high;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lineSpan[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        cursor = low;
+        return low;
+    }
+
+    /**
+     * 有序时判断时间是否属于这一行
+     *
+     * @param index
+     * @param time
+     * @return
+     */
+    private boolean isLine(int index, int time) {
+        return lineSpan[index] >= time
+                && (index == 0 || lineSpan[index - 1] < time);
+    }
+
+    /**
+     * 逐行查找,歌词行有重叠时使用
+     *
+     * @param time
+     * @return
+     */
+    private int scanLineNumber(int time) {
+        for (int i = 0; i < size; i++) {
+            if (time >= lineStart[i] && time <= lineEnd[i]) {
+                return i;
+            }
+            if (time > lineEnd[i] && i + 1 < size && time < lineStart[i + 1]) {
+                return i;
+            }
+        }
+        if (time >= lineEnd[size - 1]) {
+            return size - 1;
+        }
+        return 0;
+    }
+
+    /**
+     * 获取时间正在唱的是这一行的第几个字
+     *
+     * @param lineNum
+     * @param time
+     *            已经加上时间补偿的播放时间
+     * @return 这一行已经唱完或者行号不对时返回-1
+     */
+    public int getWordIndex(int lineNum, int time) {
+        int index = findWord(lineNum, time);
+        return index < 0 ? -1 : index - wordFrom[lineNum];
+    }
+
+    /**
+     * 获取正在唱的字已经唱了多长时间
+     *
+     * @param lineNum
+     * @param time
+     *            已经加上时间补偿的播放时间
+     * @return 这一行已经唱完或者行号不对时返回0
+     */
+    public int getWordElapsedTime(int lineNum, int time) {
+        int index = findWord(lineNum, time);
+        if (index < 0) {
+            return 0;
+        }
+        int wordStart = index == wordFrom[lineNum] ? lineStart[lineNum]
+                : wordEnd[index - 1];
+        return time - wordStart;
+    }
+
+    /**
+     * 第一个结束时间大于time的字
+     *
+     * @param lineNum
+     * @param time
+     * @return 在wordEnd中的位置,没有时返回-1
+     */
+    private int findWord(int lineNum, int time) {
+        if (lineNum < 0 || lineNum >= size) {
+            return -1;
+        }
+        int low = wordFrom[lineNum];
+        int high = wordFrom[lineNum + 1];
+        if (!wordsOrdered) {
+            return scanWord(low, high, time);
+        }
+        if (low == high || wordEnd[high - 1] <= time) {
+            return -1;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (wordEnd[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int scanWord(int from, int to, int time) {
+        for (int i = from; i < to; i++) {
+            if (time < wordEnd[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
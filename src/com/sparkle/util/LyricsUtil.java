@@ -2,6 +2,7 @@ package com.sparkle.util;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -13,6 +14,7 @@ import javax.swing.SwingWorker;
 import org.apache.commons.codec.binary.Base64;
 
 import com.sparkle.lyrics.LyricsFileReader;
+import com.sparkle.lyrics.model.LyricsDocument;
 import com.sparkle.lyrics.model.LyricsInfo;
 import com.sparkle.lyrics.model.LyricsLineInfo;
 import com.sparkle.lyrics.model.LyricsTag;
@@ -60,6 +62,19 @@ public class LyricsUtil {
      */
     private List<LyricsLineInfo> mTransliterationLrcLineInfos;
 
+    /**
+     * 歌词集合的时间轴,加载歌词时编译
+     */
+    private LyricsTimeline mDefTimeline;
+    private LyricsTimeline mTranslateTimeline;
+    private LyricsTimeline mTransliterationTimeline;
+
+    /**
+     * 最近一次查询的其他歌词集合和它的时间轴
+     */
+    private Object mOtherLyricsLines;
+    private LyricsTimeline mOtherTimeline;
+
     /**
      * 没有的额外的歌词
      */
@@ -166,16 +181,23 @@ public class LyricsUtil {
     }
 
     /**
-     * 加载歌词数据
+     * 加载歌词数据，磁盘缓存有效时不再解析歌词文件
      * 
      * @param lyricsFile
      */
     public void loadLrc(File lyricsFile) {
         mLrcFilePath = lyricsFile.getPath();
-        LyricsFileReader lyricsFileReader = LyricsIOUtils
-                .getLyricsFileReader(lyricsFile);
         try {
-            mLyricsIfno = lyricsFileReader.readFile(lyricsFile);
+            mLyricsIfno = LyricsCacheUtil.read(lyricsFile);
+            if (mLyricsIfno == null) {
+                long length = lyricsFile.length();
+                long lastModified = lyricsFile.lastModified();
+                LyricsFileReader lyricsFileReader = LyricsIOUtils
+                        .getLyricsFileReader(lyricsFile);
+                mLyricsIfno = lyricsFileReader.readFile(lyricsFile);
+                LyricsCacheUtil.write(lyricsFile, length, lastModified,
+                        mLyricsIfno);
+            }
             Map<String, Object> tags = mLyricsIfno.getLyricsTags();
             if (tags.containsKey(LyricsTag.TAG_OFFSET)) {
                 mDefOffset = 0;
@@ -204,6 +226,7 @@ public class LyricsUtil {
                                 .getTransliterationLrcLineInfos());
 
             initExtraLrcType();
+            initTimelines();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -265,6 +288,7 @@ public class LyricsUtil {
                                 .getTransliterationLrcLineInfos());
 
             initExtraLrcType();
+            initTimelines();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -307,24 +331,7 @@ public class LyricsUtil {
 
         // 添加歌词增量
         int curPlayingTime = oldPlayingTime + getPlayOffset();
-
-        for (int i = 0; i < lyricsLineTreeMap.size(); i++) {
-            if (curPlayingTime >= lyricsLineTreeMap.get(i).getStartTime()
-                    && curPlayingTime <= lyricsLineTreeMap.get(i).getEndTime()) {
-                return i;
-            }
-            if (curPlayingTime > lyricsLineTreeMap.get(i).getEndTime()
-                    && i + 1 < lyricsLineTreeMap.size()
-                    && curPlayingTime < lyricsLineTreeMap.get(i + 1)
-                            .getStartTime()) {
-                return i;
-            }
-        }
-        if (curPlayingTime >= lyricsLineTreeMap.get(
-                lyricsLineTreeMap.size() - 1).getEndTime()) {
-            return lyricsLineTreeMap.size() - 1;
-        }
-        return 0;
+        return getTimeline(lyricsLineTreeMap).getLineNumber(curPlayingTime);
     }
 
     /**
@@ -339,24 +346,7 @@ public class LyricsUtil {
 
         // 添加歌词增量
         int curPlayingTime = oldPlayingTime + getPlayOffset();
-
-        for (int i = 0; i < lyricsLineInfos.size(); i++) {
-            if (curPlayingTime >= lyricsLineInfos.get(i).getStartTime()
-                    && curPlayingTime <= lyricsLineInfos.get(i).getEndTime()) {
-                return i;
-            }
-            if (curPlayingTime > lyricsLineInfos.get(i).getEndTime()
-                    && i + 1 < lyricsLineInfos.size()
-                    && curPlayingTime < lyricsLineInfos.get(i + 1)
-                            .getStartTime()) {
-                return i;
-            }
-        }
-        if (curPlayingTime >= lyricsLineInfos.get(lyricsLineInfos.size() - 1)
-                .getEndTime()) {
-            return lyricsLineInfos.size() - 1;
-        }
-        return 0;
+        return getTimeline(lyricsLineInfos).getLineNumber(curPlayingTime);
     }
 
     /**
@@ -375,16 +365,8 @@ public class LyricsUtil {
 
         // 添加歌词增量
         int curPlayingTime = oldPlayingTime + getPlayOffset();
-        LyricsLineInfo lyrLine = lyricsLineTreeMap.get(lyricsLineNum);
-        int elapseTime = lyrLine.getStartTime();
-        for (int i = 0; i < lyrLine.getLyricsWords().length; i++) {
-
-            elapseTime += lyrLine.getWordsDisInterval()[i];
-            if (curPlayingTime < elapseTime) {
-                return i;
-            }
-        }
-        return -1;
+        return getTimeline(lyricsLineTreeMap).getWordIndex(lyricsLineNum,
+                curPlayingTime);
     }
 
     /**
@@ -402,16 +384,8 @@ public class LyricsUtil {
 
         // 添加歌词增量
         int curPlayingTime = oldPlayingTime + getPlayOffset();
-        LyricsLineInfo lyrLine = lyricsLineInfos.get(lyricsLineNum);
-        int elapseTime = lyrLine.getStartTime();
-        for (int i = 0; i < lyrLine.getLyricsWords().length; i++) {
-
-            elapseTime += lyrLine.getWordsDisInterval()[i];
-            if (curPlayingTime < elapseTime) {
-                return i;
-            }
-        }
-        return -1;
+        return getTimeline(lyricsLineInfos).getWordIndex(lyricsLineNum,
+                curPlayingTime);
     }
 
     /**
@@ -429,16 +403,8 @@ public class LyricsUtil {
             return 0;
         // 添加歌词增量
         int curPlayingTime = oldPlayingTime + getPlayOffset();
-        LyricsLineInfo lyrLine = lyricsLineTreeMap.get(lyricsLineNum);
-        int elapseTime = lyrLine.getStartTime();
-        for (int i = 0; i < lyrLine.getLyricsWords().length; i++) {
-            elapseTime += lyrLine.getWordsDisInterval()[i];
-            if (curPlayingTime < elapseTime) {
-                return lyrLine.getWordsDisInterval()[i]
-                        - (elapseTime - curPlayingTime);
-            }
-        }
-        return 0;
+        return getTimeline(lyricsLineTreeMap).getWordElapsedTime(
+                lyricsLineNum, curPlayingTime);
     }
 
     /**
@@ -455,16 +421,87 @@ public class LyricsUtil {
             return 0;
         // 添加歌词增量
         int curPlayingTime = oldPlayingTime + getPlayOffset();
-        LyricsLineInfo lyrLine = lyricsLineInfos.get(lyricsLineNum);
-        int elapseTime = lyrLine.getStartTime();
-        for (int i = 0; i < lyrLine.getLyricsWords().length; i++) {
-            elapseTime += lyrLine.getWordsDisInterval()[i];
-            if (curPlayingTime < elapseTime) {
-                return lyrLine.getWordsDisInterval()[i]
-                        - (elapseTime - curPlayingTime);
-            }
+        return getTimeline(lyricsLineInfos).getWordElapsedTime(lyricsLineNum,
+                curPlayingTime);
+    }
+
+    /**
+     * 编译加载的歌词集合的时间轴
+     */
+    private void initTimelines() {
+        LyricsDocument lyricsDocument = mLyricsIfno.getLyricsDocument();
+        if (lyricsDocument != null
+                && mDefLyricsLineTreeMap == mLyricsIfno.getLyricsLineInfoTreeMap()) {
+            mDefTimeline = new LyricsTimeline(lyricsDocument);
+        } else {
+            mDefTimeline = mDefLyricsLineTreeMap == null ? null
+                    : new LyricsTimeline(mDefLyricsLineTreeMap);
+        }
+        // 翻译歌词重新分割了字，时间和原文不同
+        mTranslateTimeline = mTranslateLrcLineInfos == null ? null
+                : new LyricsTimeline(mTranslateLrcLineInfos);
+        // 音译歌词的字和原文一一对应，时间也相同
+        mTransliterationTimeline = mTransliterationLrcLineInfos == null ? null
+                : mDefTimeline;
+    }
+
+    /**
+     * 获取歌词集合的时间轴
+     * 
+     * @param lyricsLineTreeMap
+     * @return
+     */
+    private LyricsTimeline getTimeline(
+            TreeMap<Integer, LyricsLineInfo> lyricsLineTreeMap) {
+        LyricsTimeline timeline = findTimeline(lyricsLineTreeMap,
+                lyricsLineTreeMap.size());
+        if (timeline == null) {
+            timeline = new LyricsTimeline(lyricsLineTreeMap);
+            mOtherLyricsLines = lyricsLineTreeMap;
+            mOtherTimeline = timeline;
+        }
+        return timeline;
+    }
+
+    /**
+     * 获取歌词集合的时间轴
+     * 
+     * @param lyricsLineInfos
+     * @return
+     */
+    private LyricsTimeline getTimeline(List<LyricsLineInfo> lyricsLineInfos) {
+        LyricsTimeline timeline = findTimeline(lyricsLineInfos,
+                lyricsLineInfos.size());
+        if (timeline == null) {
+            timeline = new LyricsTimeline(lyricsLineInfos);
+            mOtherLyricsLines = lyricsLineInfos;
+            mOtherTimeline = timeline;
         }
-        return 0;
+        return timeline;
+    }
+
+    /**
+     * 查找已经编译的时间轴,歌词集合的行数变了时需要重新编译
+     * 
+     * @param lyricsLines
+     * @param size
+     * @return 没有时返回null
+     */
+    private LyricsTimeline findTimeline(Object lyricsLines, int size) {
+        LyricsTimeline timeline = null;
+        if (lyricsLines == mDefLyricsLineTreeMap) {
+            timeline = mDefTimeline;
+        } else if (lyricsLines == mTranslateLrcLineInfos) {
+            timeline = mTranslateTimeline;
+        } else if (lyricsLines == mTransliterationLrcLineInfos) {
+            timeline = mTransliterationTimeline;
+        } else if (lyricsLines == mOtherLyricsLines) {
+            timeline = mOtherTimeline;
+        }
+        if (timeline != null && timeline.size() == size) {
+            return timeline;
+        }
+        return null;
     }
 
     /**
@@ -620,6 +657,58 @@ public class LyricsUtil {
         return newLyricsLineInfos;
     }
 
+    /**
+     * 大约占用的内存,歌词缓存按这个限制大小
+     * 
+     * @return 字节数
+     */
+    public long getApproximateSize() {
+        long size = 256;
+        if (mLyricsIfno != null && mLyricsIfno.getLyricsDocument() != null) {
+            size += mLyricsIfno.getLyricsDocument().getApproximateSize();
+        }
+        if (mDefLyricsLineTreeMap != null) {
+            size += getApproximateSize(mDefLyricsLineTreeMap.values());
+        }
+        if (mTranslateLrcLineInfos != null) {
+            size += getApproximateSize(mTranslateLrcLineInfos);
+        }
+        if (mTransliterationLrcLineInfos != null) {
+            size += getApproximateSize(mTransliterationLrcLineInfos);
+        }
+        return size;
+    }
+
+    /**
+     * 歌词行对象大约占用的内存,包括集合的节点、字符串和数组
+     * 
+     * @param lyricsLineInfos
+     * @return
+     */
+    private static long getApproximateSize(
+            Collection<LyricsLineInfo> lyricsLineInfos) {
+        long size = 0;
+        for (LyricsLineInfo lyricsLineInfo : lyricsLineInfos) {
+            size += 96;
+            if (lyricsLineInfo.getLineLyrics() != null) {
+                size += 40 + 2 * lyricsLineInfo.getLineLyrics().length();
+            }
+            String[] words = lyricsLineInfo.getLyricsWords();
+            if (words != null) {
+                size += 16 + 4 * words.length;
+                for (int i = 0; i < words.length; i++) {
+                    if (words[i] != null) {
+                        size += 40 + 2 * words[i].length();
+                    }
+                }
+            }
+            if (lyricsLineInfo.getWordsDisInterval() != null) {
+                size += 16 + 4 * lyricsLineInfo.getWordsDisInterval().length;
+            }
+        }
+        return size;
+    }
+
     /**
      * 播放的时间补偿值
      * 
@@ -670,6 +759,8 @@ public class LyricsUtil {
     public void setDefLyricsLineTreeMap(
             TreeMap<Integer, LyricsLineInfo> mDefLyricsLineTreeMap) {
         this.mDefLyricsLineTreeMap = mDefLyricsLineTreeMap;
+        mDefTimeline = mDefLyricsLineTreeMap == null ? null
+                : new LyricsTimeline(mDefLyricsLineTreeMap);
     }
 
     public List<LyricsLineInfo> getTranslateLrcLineInfos() {
@@ -3,17 +3,39 @@ package com.sparkle.util;
 import java.io.File;
 import java.util.Date;
 
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioHeader;
+import org.jaudiotagger.audio.generic.GenericAudioHeader;
+
 import com.sparkle.lyrics.utils.FileUtils;
 import com.sparkle.lyrics.utils.TimeUtils;
 import com.sparkle.model.SongInfo;
 import com.tulskiy.musique.audio.AudioFileReader;
 import com.tulskiy.musique.model.Track;
+import com.tulskiy.musique.model.TrackData;
 import com.tulskiy.musique.system.TrackIO;
 import com.tulskiy.musique.util.AudioMath;
 
 public class MediaUtils {
     /**
-     * 通过文件获取mp3的相关数据信息
+     * 小于该大小的文件不加载
+     */
+    public static final long MIN_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * 是否值得解析该文件:存在、是音频文件且不小于 {@link #MIN_FILE_SIZE}.
+     * 只检查文件系统信息,不读取文件内容
+     * 
+     * @param sourceFile
+     * @return
+     */
+    public static boolean isCandidate(File sourceFile) {
+        return sourceFile.isFile() && AudioFilter.acceptFilter(sourceFile)
+                && sourceFile.length() >= MIN_FILE_SIZE;
+    }
+
+    /**
+     * 通过文件获取mp3的相关数据信息,标签、专辑图和时长只读取一次文件
      * 
      * @param filePath
      * @return
@@ -21,20 +43,12 @@ public class MediaUtils {
 
     public static SongInfo getSongInfoByFile(String filePath) {
         File sourceFile = new File(filePath);
-        if (!sourceFile.exists())
+        // 先做不需要读取文件内容的过滤
+        if (!isCandidate(sourceFile))
             return null;
         SongInfo songInfo = null;
         try {
-
-            AudioFileReader audioFileReader = TrackIO
-                    .getAudioFileReader(sourceFile.getName());
-            Track track = audioFileReader.read(sourceFile);
-
-            double totalMS = AudioMath.samplesToMillis(track.getTrackData()
-                    .getTotalSamples(), track.getTrackData().getSampleRate());
-            long duration = Math.round(totalMS);
-
-            String durationStr = TimeUtils.parseString((int) duration);
+            long fileSize = sourceFile.length();
 
             songInfo = new SongInfo();
             // 文件名
@@ -53,53 +67,94 @@ public class MediaUtils {
                 title = displayName;
             }
 
-            if (sourceFile.length() < 1024 * 1024) {
-                return null;
-            }
-
             songInfo.setSid(IDGenerate.getId("SI-"));
             songInfo.setDisplayName(displayName);
             songInfo.setSinger(artist);
             songInfo.setTitle(title);
-            songInfo.setDuration(duration);
-            songInfo.setDurationStr(durationStr);
-            songInfo.setSize(sourceFile.length());
-            songInfo.setSizeStr(FileUtils.getFileSize(sourceFile.length()));            songInfo.setFilePath(filePath);
+            songInfo.setSize(fileSize);
+            songInfo.setSizeStr(FileUtils.getFileSize(fileSize));
+            songInfo.setFilePath(filePath);
             songInfo.setType(SongInfo.LOCALSONG);
             // songInfo.setIslike(SongInfo.UNLIKE);
             // songInfo.setDownloadStatus(SongInfo.DOWNLOADED);
             songInfo.setCreateTime(DateUtil.dateToString(new Date()));
 
-            // 提取并保存专辑封面
-            try {
-                byte[] albumArtData = extractAlbumArt(filePath);
-                if (albumArtData != null) {
-                    // 使用歌曲ID作为文件名保存专辑封面
-                    String albumCoverPath = ImageUtils.saveAlbumCover(albumArtData, songInfo.getSid());
-                    if (albumCoverPath != null) {
-                        songInfo.setAlbumUrl(albumCoverPath);
+            String[] tags;
+            long duration;
+            AudioFile audioFile = AudioTagUtils.readAudioFile(sourceFile);
+            if (audioFile != null) {
+                duration = getDuration(audioFile.getAudioHeader());
+                tags = AudioTagUtils.getAudioTags(audioFile);
+
+                // 提取并保存专辑封面
+                try {
+                    byte[] albumArtData = AudioTagUtils.getAlbumArt(audioFile);
+                    if (albumArtData != null) {
+                        // 使用歌曲ID作为文件名保存专辑封面
+                        String albumCoverPath = ImageUtils.saveAlbumCover(
+                                albumArtData, songInfo.getSid());
+                        if (albumCoverPath != null) {
+                            songInfo.setAlbumUrl(albumCoverPath);
+                        }
                     }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    // 如果专辑封面提取失败，继续执行，不影响歌曲信息的获取
                 }
+            } else {
+                // jaudiotagger 不支持的格式由播放器的解码器读取
+                AudioFileReader audioFileReader = TrackIO
+                        .getAudioFileReader(sourceFile.getName());
+                Track track = audioFileReader.read(sourceFile);
+                TrackData trackData = track.getTrackData();
+                duration = Math.round(AudioMath.samplesToMillis(
+                        trackData.getTotalSamples(), trackData.getSampleRate()));
+                tags = new String[] { trackData.getTitle(),
+                        trackData.getArtist(), trackData.getAlbum() };
+            }
 
-                // 尝试从标签获取更准确的歌曲信息
-                SongInfo tagInfo = getAlbumInfo(filePath);
-                if (tagInfo.getSinger() != null && !tagInfo.getSinger().trim().isEmpty()) {
-                    songInfo.setSinger(tagInfo.getSinger());
-                }
-                if (tagInfo.getTitle() != null && !tagInfo.getTitle().trim().isEmpty()) {
-                    songInfo.setTitle(tagInfo.getTitle());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                // 如果专辑封面提取失败，继续执行，不影响歌曲信息的获取
+            songInfo.setDuration(duration);
+            songInfo.setDurationStr(TimeUtils.parseString((int) duration));
+
+            // 尝试从标签获取更准确的歌曲信息
+            if (tags[1] != null && !tags[1].trim().isEmpty()) {
+                songInfo.setSinger(tags[1]);
+            }
+            if (tags[0] != null && !tags[0].trim().isEmpty()) {
+                songInfo.setTitle(tags[0]);
             }
 
         } catch (Exception e) {
             e.printStackTrace();
+            songInfo = null;
         }
         return songInfo;
 
-    }    /**
+    }
+
+    /**
+     * 通过音频头获取时长(毫秒),优先使用总采样数
+     * 
+     * @param audioHeader
+     * @return
+     */
+    private static long getDuration(AudioHeader audioHeader) {
+        if (audioHeader instanceof GenericAudioHeader) {
+            GenericAudioHeader header = (GenericAudioHeader) audioHeader;
+            Long totalSamples = header.getTotalSamples();
+            int sampleRate = header.getSampleRateAsNumber();
+            if (totalSamples != null && totalSamples > 0 && sampleRate > 0) {
+                return Math.round(AudioMath.samplesToMillis(totalSamples,
+                        sampleRate));
+            }
+            if (header.getPreciseLength() > 0) {
+                return Math.round(header.getPreciseLength() * 1000);
+            }
+        }
+        return audioHeader.getTrackLength() * 1000L;
+    }
+
+    /**
      * 提取MP3文件的专辑封面
      * 
      * @param filePath 文件路径
@@ -8,13 +8,15 @@ import java.awt.Toolkit;
 import java.awt.event.MouseEvent;
 
 import javax.swing.JDialog;
-import javax.swing.SwingUtilities;
 import javax.swing.event.MouseInputListener;
 
 import com.sparkle.common.BaseData;
 import com.sparkle.model.MessageIntent;
+import com.sparkle.observable.Delivery;
 import com.sparkle.observable.ObserverManage;
 import com.sparkle.observable.SparkleObserver;
+import com.sparkle.service.MediaPlayerService;
+import com.sparkle.service.PlaybackProgress;
 import com.sparkle.widget.panel.des.DesOperatePanel;
 import com.sparkle.widget.panel.lrc.FloatLyricsView;
 
@@ -74,7 +76,18 @@ public class DesLrcDialog extends JDialog implements SparkleObserver {
 
         this.addMouseListener(desLrcDialogMouseListener);
         this.addMouseMotionListener(desLrcDialogMouseListener);
-        ObserverManage.getObserver().addObserver(this);
+        ObserverManage.getObserver().addObserver(this, Delivery.EDT,
+                MessageIntent.class);
+        MediaPlayerService.getMediaPlayerService().getPlaybackProgress()
+                .addListener(new PlaybackProgress.ProgressListener() {
+
+                    @Override
+                    public void onProgress(long millis, long sequence) {
+                        if (isVisible()) {
+                            floatLyricsView.updateView((int) millis);
+                        }
+                    }
+                }, Delivery.EDT);
     }
 
     private void init() {
@@ -257,16 +270,12 @@ public class DesLrcDialog extends JDialog implements SparkleObserver {
     }
     @Override
     public void update(Object source, final Object data) {
-        SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                if (data instanceof MessageIntent) {
-                    MessageIntent messageIntent = (MessageIntent) data;
-                    if (messageIntent.getAction().equals(
-                            MessageIntent.LOCKDESLRC)) {
-                        initLock();
-                    }
-                }
+        // 消息已经在事件分发线程中投递
+        if (data instanceof MessageIntent) {
+            MessageIntent messageIntent = (MessageIntent) data;
+            if (messageIntent.getAction().equals(MessageIntent.LOCKDESLRC)) {
+                initLock();
             }
-        });
+        }
     }
 }
\ No newline at end of file
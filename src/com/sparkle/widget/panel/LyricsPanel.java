@@ -3,6 +3,8 @@ package com.sparkle.widget.panel;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import com.sparkle.observable.SparkleObserver;
@@ -18,9 +20,13 @@ import javax.swing.SwingWorker;
 import com.sparkle.lyrics.model.LyricsLineInfo;
 import com.sparkle.common.BaseData;
 import com.sparkle.manage.LyricsManage;
+import com.sparkle.manage.MediaManage;
 import com.sparkle.model.SongInfo;
 import com.sparkle.model.SongMessage;
+import com.sparkle.observable.Delivery;
 import com.sparkle.observable.ObserverManage;
+import com.sparkle.service.MediaPlayerService;
+import com.sparkle.service.PlaybackProgress;
 import com.sparkle.util.LyricsUtil;
 import com.sparkle.widget.panel.lrc.ManyLineLyricsView;
 import com.sparkle.widget.panel.lrc.ManyLineLyricsView.MetaDownListener;
@@ -92,7 +98,25 @@ public class LyricsPanel extends JPanel implements SparkleObserver {
         initComponent(width, height);
         initPopMenu();
         // this.setBackground(Color.black);
-        ObserverManage.getObserver().addObserver(this);
+        ObserverManage.getObserver().addSongObserver(this, Delivery.EDT,
+                SongMessage.INITMUSIC, SongMessage.SERVICEPAUSEEDMUSIC,
+                SongMessage.SERVICESTOPEDMUSIC, SongMessage.ERRORMUSIC,
+                SongMessage.SERVICEERRORMUSIC, SongMessage.LRCKSCLOADED,
+                SongMessage.LRCKSCDOWNLOADED);
+        MediaPlayerService.getMediaPlayerService().getPlaybackProgress()
+                .addListener(new PlaybackProgress.ProgressListener() {
+
+                    @Override
+                    public void onProgress(long millis, long sequence) {
+                        if (mSongInfo != null
+                                && manyLineLyricsView.getLyricsUtil() != null
+                                && manyLineLyricsView.getLyricsLineTreeMap() != null
+                                && manyLineLyricsView.getLyricsLineTreeMap()
+                                        .size() > 0) {
+                            manyLineLyricsView.updateView((int) millis);
+                        }
+                    }
+                }, Delivery.EDT);
         this.setOpaque(false);
 
         //
@@ -208,6 +232,26 @@ public class LyricsPanel extends JPanel implements SparkleObserver {
         };
         manyLineLyricsView.setMetaDownListener(metaDownListener);
         this.add(manyLineLyricsView, BorderLayout.CENTER);
+
+        this.addHierarchyListener(new HierarchyListener() {
+
+            @Override
+            public void hierarchyChanged(HierarchyEvent e) {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+                    refreshClockRate();
+                }
+            }
+        });
+    }
+
+    /**
+     * 歌词显示在界面上时，播放时钟按屏幕刷新率刷新进度，歌词滚动更平滑
+     */
+    private void refreshClockRate() {
+        boolean visible = isShowing()
+                && manyLineLyricsView.getLyricsUtil() != null;
+        MediaPlayerService.getMediaPlayerService().getPlaybackClock()
+                .setDisplayRate(this, visible);
     }
 
     @Override
@@ -225,7 +269,6 @@ public class LyricsPanel extends JPanel implements SparkleObserver {
         if (data instanceof SongMessage) {
             SongMessage songMessage = (SongMessage) data;
             if (songMessage.getType() == SongMessage.INITMUSIC
-                    || songMessage.getType() == SongMessage.SERVICEPLAYINGMUSIC
                     || songMessage.getType() == SongMessage.SERVICEPAUSEEDMUSIC
                     || songMessage.getType() == SongMessage.SERVICESTOPEDMUSIC
                     || songMessage.getType() == SongMessage.ERRORMUSIC
@@ -270,14 +313,8 @@ public class LyricsPanel extends JPanel implements SparkleObserver {
                 LyricsUtil.loadLyrics(mSongInfo.getSid(), mSongInfo.getTitle(),                mSongInfo.getSinger(), mSongInfo.getDisplayName(),
                         mSongInfo.getLyricsUrl(), SongMessage.KSCTYPELRC);
 
-                manyLineLyricsView.setLyricsUtil(null);            } else if (songMessage.getType() == SongMessage.SERVICEPLAYINGMUSIC) {
-
-                if (manyLineLyricsView.getLyricsUtil() != null
-                        && manyLineLyricsView.getLyricsLineTreeMap() != null
-                        && manyLineLyricsView.getLyricsLineTreeMap().size() > 0) {
-                    manyLineLyricsView.updateView((int) mSongInfo
-                            .getPlayProgress());
-                }            } else if (songMessage.getType() == SongMessage.SERVICEPAUSEEDMUSIC
+                manyLineLyricsView.setLyricsUtil(null);
+                refreshClockRate();            } else if (songMessage.getType() == SongMessage.SERVICEPAUSEEDMUSIC
                     || songMessage.getType() == SongMessage.SERVICESTOPEDMUSIC) {
 
                 if (manyLineLyricsView.getLyricsUtil() != null
@@ -288,8 +325,10 @@ public class LyricsPanel extends JPanel implements SparkleObserver {
                 }
 
             }        } else {
-            if (manyLineLyricsView != null)
+            if (manyLineLyricsView != null) {
                 manyLineLyricsView.setLyricsUtil(null);
+                refreshClockRate();
+            }
         }
     }
 
@@ -323,9 +362,10 @@ public class LyricsPanel extends JPanel implements SparkleObserver {
             protected void done() {                lyricsLineTreeMap = lyricsParser.getDefLyricsLineTreeMap();
                 if (lyricsLineTreeMap != null && lyricsLineTreeMap.size() != 0) {
                     manyLineLyricsView.setLyricsUtil(lyricsParser);
+                    refreshClockRate();
                     if (mSongInfo != null) {
-                        manyLineLyricsView.updateView((int) mSongInfo
-                                .getPlayProgress());
+                        manyLineLyricsView.updateView((int) MediaManage
+                                .getMediaManage().getPlayProgress());
                     }
                 }
             }
@@ -26,8 +26,11 @@ import com.sparkle.manage.SongProgressTipManage;
 import com.sparkle.model.MessageIntent;
 import com.sparkle.model.SongInfo;
 import com.sparkle.model.SongMessage;
+import com.sparkle.observable.Delivery;
 import com.sparkle.observable.ObserverManage;
 import com.sparkle.observable.SparkleObserver;
+import com.sparkle.service.MediaPlayerService;
+import com.sparkle.service.PlaybackProgress;
 import com.sparkle.ui.MainFrame;
 import com.sparkle.widget.button.ImageButton;
 import com.sparkle.widget.dialog.ProgressTipDialog;
@@ -143,6 +146,11 @@ public class MainOperatePanel extends JPanel implements SparkleObserver {
      * 判断其是否是正在拖动
      */    private boolean isStartTrackingTouch = false;
 
+    /**
+     * 进度文字当前显示的秒数,文字每秒才刷新一次
+     */
+    private int progressSecond = -1;
+
     private MainFrame mainFrame;
     public MainOperatePanel(int width,
             int height, MainFrame mainFrame) {
@@ -155,7 +163,19 @@ public class MainOperatePanel extends JPanel implements SparkleObserver {
         // this.setBackground(Color.red);
         this.setOpaque(false);// 设置透明
 
-        ObserverManage.getObserver().addObserver(this);
+        ObserverManage.getObserver().addSongObserver(this, Delivery.EDT,
+                SongMessage.INITMUSIC, SongMessage.SERVICEPLAYMUSIC,
+                SongMessage.SERVICEPAUSEEDMUSIC,
+                SongMessage.SERVICESTOPEDMUSIC, SongMessage.ERRORMUSIC,
+                SongMessage.SERVICEERRORMUSIC);
+        MediaPlayerService.getMediaPlayerService().getPlaybackProgress()
+                .addListener(new PlaybackProgress.ProgressListener() {
+
+                    @Override
+                    public void onProgress(long millis, long sequence) {
+                        refreshProgress(millis);
+                    }
+                }, Delivery.EDT);
 
         //
         mExtraLyricsListener = new ExtraLyricsListener() {
@@ -901,7 +921,6 @@ public class MainOperatePanel extends JPanel implements SparkleObserver {
             SongMessage songMessage = (SongMessage) data;
             if (songMessage.getType() == SongMessage.INITMUSIC
                     || songMessage.getType() == SongMessage.SERVICEPLAYMUSIC
-                    || songMessage.getType() == SongMessage.SERVICEPLAYINGMUSIC
                     || songMessage.getType() == SongMessage.SERVICEPAUSEEDMUSIC
                     || songMessage.getType() == SongMessage.SERVICESTOPEDMUSIC
                     || songMessage.getType() == SongMessage.ERRORMUSIC
@@ -916,6 +935,7 @@ public class MainOperatePanel extends JPanel implements SparkleObserver {
      */
     private void refreshUI(SongMessage songMessage) {
 
+        progressSecond = -1;
         SongInfo mSongInfo = songMessage.getSongInfo();
         if (mSongInfo != null) {
             if (songMessage.getType() == SongMessage.INITMUSIC) {                if (MediaManage.PLAYING == MediaManage.getMediaManage()
@@ -935,16 +955,7 @@ public class MainOperatePanel extends JPanel implements SparkleObserver {
                 playButton.setVisible(false);
                 pauseButton.setVisible(true);
 
-            } else if (songMessage.getType() == SongMessage.SERVICEPLAYINGMUSIC) {
-
-                if (!isStartTrackingTouch) {
-                    songSlider.setValue((int) mSongInfo.getPlayProgress());
-                    songProgressLabel.setText(TimeUtils
-                            .parseString((int) mSongInfo.getPlayProgress())
-                            + "/"
-                            + TimeUtils.parseString((int) mSongInfo
-                                    .getDuration()));
-                }            } else if (songMessage.getType() == SongMessage.SERVICEPAUSEEDMUSIC
+            } else if (songMessage.getType() == SongMessage.SERVICEPAUSEEDMUSIC
                     || songMessage.getType() == SongMessage.SERVICESTOPEDMUSIC) {
                 playButton.setVisible(true);
                 pauseButton.setVisible(false);
@@ -966,6 +977,26 @@ public class MainOperatePanel extends JPanel implements SparkleObserver {
         }
     }
     
+    /**
+     * 播放时刷新进度
+     * 
+     * @param millis
+     */
+    private void refreshProgress(long millis) {
+        SongInfo mSongInfo = MediaManage.getMediaManage().getSongInfo();
+        if (mSongInfo == null || isStartTrackingTouch) {
+            return;
+        }
+        songSlider.setValue((int) millis);
+        int second = (int) (millis / 1000);
+        if (second != progressSecond) {
+            progressSecond = second;
+            songProgressLabel.setText(TimeUtils.parseString((int) millis)
+                    + "/"
+                    + TimeUtils.parseString((int) mSongInfo.getDuration()));
+        }
+    }
+
     public ExtraLyricsListener getExtraLyricsListener() {
         return mExtraLyricsListener;
     }
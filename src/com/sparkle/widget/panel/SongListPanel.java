@@ -24,7 +24,10 @@ import com.sparkle.model.Category;
 import com.sparkle.model.EventIntent;
 import com.sparkle.model.SongInfo;
 import com.sparkle.model.SongMessage;
+import com.sparkle.observable.Delivery;
 import com.sparkle.observable.ObserverManage;
+import com.sparkle.service.MediaPlayerService;
+import com.sparkle.service.PlaybackProgress;
 import com.sparkle.ui.MainFrame;
 import com.sparkle.widget.dialog.SongInfoDialog;
 import com.sparkle.widget.panel.songlist.ListViewComItemPanel;
@@ -68,6 +71,11 @@ public class SongListPanel extends JPanel implements SparkleObserver {
 
     private MainCenterPanel mainCenterPanel;
 
+    /**
+     * 正在播放的歌曲进度显示的秒数
+     */
+    private int progressSecond = -1;
+
     public SongListPanel( MainFrame mainFrame,
             MainCenterPanel mainCenterPanel, int width, int height) {
         this.mainCenterPanel = mainCenterPanel;
@@ -79,7 +87,28 @@ public class SongListPanel extends JPanel implements SparkleObserver {
 
         // this.setBackground(Color.BLUE);
         this.setOpaque(false);// 设置透明
-        ObserverManage.getObserver().addObserver(this);
+        ObserverManage.getObserver().addObserver(this, Delivery.EDT,
+                EventIntent.class);
+        ObserverManage.getObserver().addSongObserver(this, Delivery.EDT,
+                SongMessage.ADDMUSIC, SongMessage.LOCALDELMUSIC,
+                SongMessage.INITMUSIC, SongMessage.SERVICEPAUSEEDMUSIC,
+                SongMessage.SERVICESTOPEDMUSIC, SongMessage.ERRORMUSIC,
+                SongMessage.SERVICEERRORMUSIC);
+        MediaPlayerService.getMediaPlayerService().getPlaybackProgress()
+                .addListener(new PlaybackProgress.ProgressListener() {
+
+                    @Override
+                    public void onProgress(long millis, long sequence) {
+                        // 列表中只显示到秒
+                        int second = (int) (millis / 1000);
+                        SongInfo mSongInfo = MediaManage.getMediaManage()
+                                .getSongInfo();
+                        if (second != progressSecond && mSongInfo != null) {
+                            progressSecond = second;
+                            refreshPlayingProgress(mSongInfo, millis);
+                        }
+                    }
+                }, Delivery.EDT);
     }
 
     /**
@@ -243,16 +272,109 @@ public class SongListPanel extends JPanel implements SparkleObserver {
                 refreshListViewComItemPanelUI(eventIntent);
             }
         } else if (data instanceof SongMessage) {
-            udateListViewComItemPanelUI(data);
+            SongMessage songMessage = (SongMessage) data;
+            if (songMessage.getType() == SongMessage.ADDMUSIC) {
+                addListViewComItemPanelUI(songMessage.getSongInfo());
+            } else if (songMessage.getType() == SongMessage.LOCALDELMUSIC) {
+                delListViewComItemPanelUI(songMessage.getSongInfo());
+            } else {
+                udateListViewComItemPanelUI(data);
+            }
+        }
+    }
+
+    /**
+     * 添加歌曲到所属的播放列表面板
+     * 
+     * @param songInfo
+     */
+    private void addListViewComItemPanelUI(SongInfo songInfo) {
+        for (int i = 0; i < listViewPanel.getComponentCount(); i++) {
+            ListViewItemPanel itemPanel = (ListViewItemPanel) listViewPanel
+                    .getComponent(i);
+            ListViewHeadPanel listViewHeadPanel = (ListViewHeadPanel) itemPanel
+                    .getComponent(0);
+            if (listViewHeadPanel.getpLId().equals(songInfo.getCategoryId())) {
+                ListViewComPanel listViewComPanel = (ListViewComPanel) itemPanel
+                        .getComponent(1);
+                refreshLVComPanelUI(songInfo.getCategoryId(),
+                        listViewComPanel, songInfo);
+                refreshListViewHeadPanelUI(listViewHeadPanel);
+                listViewComPanel.updateUI();
+                break;
+            }
+        }
+    }
+
+    /**
+     * 从所属的播放列表面板中移除歌曲
+     * 
+     * @param songInfo
+     */
+    private void delListViewComItemPanelUI(SongInfo songInfo) {
+        for (int i = 0; i < listViewPanel.getComponentCount(); i++) {
+            ListViewItemPanel itemPanel = (ListViewItemPanel) listViewPanel
+                    .getComponent(i);
+            ListViewHeadPanel listViewHeadPanel = (ListViewHeadPanel) itemPanel
+                    .getComponent(0);
+            if (!listViewHeadPanel.getpLId().equals(songInfo.getCategoryId())) {
+                continue;
+            }
+            ListViewComPanel listViewComPanel = (ListViewComPanel) itemPanel
+                    .getComponent(1);
+            for (int j = 0; j < listViewComPanel.getComponentCount(); j++) {
+                ListViewComItemPanel listViewComItemPanel = (ListViewComItemPanel) listViewComPanel
+                        .getComponent(j);
+                if (songInfo.getSid().equals(listViewComItemPanel.getsId())) {
+                    listViewComPanel.remove(j);
+                    listViewComPanel.updateUI();
+                    break;
+                }
+            }
+            refreshListViewHeadPanelUI(listViewHeadPanel);
+            break;
         }
     }
 
+    /**
+     * 刷新播放列表标题上的歌曲数
+     * 
+     * @param listViewHeadPanel
+     */
+    private void refreshListViewHeadPanelUI(ListViewHeadPanel listViewHeadPanel) {
+        int size = MediaManage.getMediaManage().getSongSize(
+                listViewHeadPanel.getpLId());
+        listViewHeadPanel.getTitleNameJLabel().setText(
+                listViewHeadPanel.getTitleName() + "[" + size + "]");
+    }
+
     /**
      * 更新进度条
      * 
      * @param data
      */
     private void udateListViewComItemPanelUI(Object data) {
+        SongMessage songMessage = (SongMessage) data;
+        if (songMessage.getType() == SongMessage.INITMUSIC
+                || songMessage.getType() == SongMessage.SERVICEPAUSEEDMUSIC
+                || songMessage.getType() == SongMessage.SERVICESTOPEDMUSIC
+                || songMessage.getType() == SongMessage.ERRORMUSIC
+                || songMessage.getType() == SongMessage.SERVICEERRORMUSIC) {
+            SongInfo mSongInfo = songMessage.getSongInfo();
+            if (mSongInfo != null) {
+                progressSecond = -1;
+                refreshPlayingProgress(mSongInfo, mSongInfo.getPlayProgress());
+            }
+        }
+    }
+
+    /**
+     * 更新正在播放的歌曲的进度
+     * 
+     * @param mSongInfo
+     * @param progress
+     */
+    private void refreshPlayingProgress(SongInfo mSongInfo, long progress) {
         // 获取双击的列表下的歌曲id
 
         for (int i = 0; i < listViewPanel.getComponentCount(); i++) {
@@ -266,23 +388,10 @@ public class SongListPanel extends JPanel implements SparkleObserver {
                 String sId = listViewComItemPanel.getsId();
                 if (sId.equals(BaseData.playInfoID)) {
                     if (listViewComItemPanel.getSongProgress() != null) {
-                        SongMessage songMessage = (SongMessage) data;
-                        if (songMessage.getType() == SongMessage.INITMUSIC
-                                || songMessage.getType() == SongMessage.SERVICEPLAYINGMUSIC
-                                || songMessage.getType() == SongMessage.SERVICEPAUSEEDMUSIC
-                                || songMessage.getType() == SongMessage.SERVICESTOPEDMUSIC
-                                || songMessage.getType() == SongMessage.ERRORMUSIC
-                                || songMessage.getType() == SongMessage.SERVICEERRORMUSIC) {
-                            SongInfo mSongInfo = songMessage.getSongInfo();
-                            if (mSongInfo != null) {
-                                listViewComItemPanel.getSongProgress().setText(
-                                        TimeUtils.parseString((int) mSongInfo
-                                                .getPlayProgress())
-                                                + "/"
-                                                + mSongInfo.getDurationStr());
-                                listViewComItemPanel.updateUI();
-                            }
-                        }
+                        listViewComItemPanel.getSongProgress().setText(
+                                TimeUtils.parseString((int) progress) + "/"
+                                        + mSongInfo.getDurationStr());
+                        listViewComItemPanel.updateUI();
                     }
                 }
             }
@@ -7,12 +7,9 @@ import java.awt.GradientPaint;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
-import java.awt.Transparency;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.text.AttributedString;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -24,6 +21,7 @@ import com.sparkle.lyrics.model.LyricsLineInfo;
 import com.sparkle.common.BaseData;
 import com.sparkle.common.Constants;
 import com.sparkle.util.DrawingUtil;
+import com.sparkle.util.FallbackTextCache;
 import com.sparkle.util.FontsUtil;
 import com.sparkle.util.LyricsUtil;
 
@@ -56,6 +54,16 @@ public class FloatLyricsView extends JPanel {
      */
     private GradientPaint mPaintHL;
 
+    /**
+     * 动感歌词的离屏图片，当前行和额外歌词行各用一个
+     */
+    private LyricsSurfacePool mSurfacePool = new LyricsSurfacePool(4);
+
+    /**
+     * 动感歌词所在的区域，只有高亮宽度改变时只重绘这部分
+     */
+    private LyricsDirtyRegion mDirtyRegion = new LyricsDirtyRegion();
+
     /**
      * 空行高度
      */
@@ -238,6 +246,9 @@ public class FloatLyricsView extends JPanel {
         //
         g2d.setFont(mBaseFont);
 
+        mDirtyRegion.beginPaint(mLyricsLineNum, 0, mExtraLrcStatus,
+                mFontSize, getWidth(), getHeight());
+
         if (isEnter || isShow) {
             g2d.setPaint(new Color(0, 0, 0, 150));
             g2d.fillRect(0, 0, mWidth, mHeight);
@@ -499,24 +510,58 @@ public class FloatLyricsView extends JPanel {
     private void drawDGBufferedImage(Graphics2D origG2d, float textX,
             float textY, String text, float lineLyricsHLWidth) {
 
-        FontMetrics fm = origG2d.getFontMetrics();
-        Rectangle2D rc = fm.getStringBounds(text, origG2d);
-        int width = (int) rc.getWidth();
-        int height = (int) rc.getHeight() + fm.getDescent() * 2  + mSpaceLineHeight;
-        width = Math.max(width, 1);
-        height = Math.max(height, 1);
-
-        BufferedImage bufferedImage = new BufferedImage(width, height,
-                BufferedImage.TYPE_INT_ARGB);
-        // 获取Graphics2D
-        Graphics2D g2d = bufferedImage.createGraphics();
-        // ---------- 增加下面的代码使得背景透明 -----------------
-        bufferedImage = g2d.getDeviceConfiguration().createCompatibleImage(
-                width, height, Transparency.TRANSLUCENT);
-        g2d.dispose();
-        g2d = bufferedImage.createGraphics();
-        // ---------- 背景透明代码结束 -----------------
+        // 图片的高度和基线随行距变化
+        int style = (mSpaceLineHeight << 8) | BaseData.desktopLrcIndex;
+        LyricsSurfacePool.Surface surface = mSurfacePool.get(text, mFontSize,
+                style);
+        if (surface == null) {
+            FontMetrics fm = origG2d.getFontMetrics();
+            Rectangle2D rc = FallbackTextCache.getStringBounds(origG2d, text,
+                    mFontSize);
+            int width = (int) rc.getWidth();
+            int height = (int) rc.getHeight() + fm.getDescent() * 2  + mSpaceLineHeight;
+            width = Math.max(width, 1);
+            height = Math.max(height, 1);
+            surface = mSurfacePool.create(origG2d, text, mFontSize, style,
+                    width, height);
+
+            // 画轮廓和默认颜色的歌词
+            Graphics2D g2d = surface.createBaseGraphics();
+            initSurfaceGraphics(g2d);
+            int dgTextX = 0;
+            int dgTextY = getLineHeight(g2d);
+            drawBackground(g2d, text, dgTextX, dgTextY);
+            int textHeight = getTextHeight(g2d);
+            initPaintHLDEFColor(dgTextX, dgTextY, textHeight);
+            g2d.setPaint(mPaint);
+            drawStringWithFallback(g2d, text, dgTextX, dgTextY);
+            // 这里不知为何还要减去fm.getDescent() + fm.getLeading() 绘画时才能把全文字绘画完整
+            int clipY = dgTextY - getRealTextHeight(g2d)
+                    + getAdjustLrcHeight(g2d);
+            surface.setBaseline(dgTextY);
+            surface.setHighlightBand(clipY, getRealTextHeight(g2d));
+            g2d.dispose();
+
+            // 画高亮颜色的歌词
+            g2d = surface.createHighlightGraphics();
+            initSurfaceGraphics(g2d);
+            initPaintHLEDColor(dgTextX, dgTextY, textHeight);
+            g2d.setPaint(mPaintHL);
+            drawStringWithFallback(g2d, text, dgTextX, dgTextY);
+            g2d.dispose();
+        }
 
+        int surfaceY = (int) textY - surface.getBaseline();
+        surface.draw(origG2d, (int) textX, surfaceY, (int) lineLyricsHLWidth);
+        mDirtyRegion.addBand(surfaceY, surface.getHeight());
+    }
+
+    /**
+     * 设置画歌词图片的属性，和原来新建图片时相同
+     * 
+     * @param g2d
+     */
+    private void initSurfaceGraphics(Graphics2D g2d) {
         // 设置“抗锯齿”的属性
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                 RenderingHints.VALUE_ANTIALIAS_ON);
@@ -527,30 +572,6 @@ public class FloatLyricsView extends JPanel {
 
         //
         g2d.setFont(mBaseFont);
-        int dgTextX = 0;
-        int dgTextY = getLineHeight(g2d);
-        drawBackground(g2d, text, dgTextX, dgTextY);
-        int textHeight = getTextHeight(g2d);
-        initPaintHLDEFColor(dgTextX, dgTextY, textHeight);
-        g2d.setPaint(mPaint);
-        // 画当前歌词
-        drawStringWithFallback(g2d, text, dgTextX, dgTextY);
-        // 这里不知为何还要减去fm.getDescent() + fm.getLeading() 绘画时才能把全文字绘画完整
-        int clipY = dgTextY - getRealTextHeight(g2d)
-                + getAdjustLrcHeight(g2d);
-
-        g2d.setClip(dgTextX, clipY, (int) lineLyricsHLWidth,
-                getRealTextHeight(g2d));
-
-        initPaintHLEDColor(dgTextX, dgTextY, textHeight);
-        g2d.setPaint(mPaintHL);
-        drawStringWithFallback(g2d, text, dgTextX, dgTextY);
-
-        g2d.dispose();
-
-        origG2d.drawImage(bufferedImage, null, (int) textX, (int) textY
-                - dgTextY);
-
     }
 
     /**
@@ -608,12 +629,7 @@ public class FloatLyricsView extends JPanel {
      * @param y Y坐标
      */
     private void drawStringWithFallback(Graphics2D g2d, String text, float x, float y) {
-        if (text == null || text.length() == 0) {
-            return;
-        }
-        
-        AttributedString attributedString = FontsUtil.createFallbackString(text, mFontSize);
-        g2d.drawString(attributedString.getIterator(), x, y);
+        FallbackTextCache.draw(g2d, text, x, y, mFontSize);
     }
 
     /**
@@ -679,6 +695,10 @@ public class FloatLyricsView extends JPanel {
         if (mLyricsUtil == null || isReconstruct)
             return;
         //
+        int oldLyricsWordIndex = mLyricsWordIndex;
+        float oldLyricsWordHLTime = mLyricsWordHLTime;
+        int oldExtraLyricsWordIndex = mExtraLyricsWordIndex;
+        float oldExtraLyricsWordHLTime = mExtraLyricsWordHLTime;
 
         int newLyricsLineNum = mLyricsUtil.getLineNumber(mLyricsLineTreeMap,
                 playProgress);
@@ -722,7 +742,12 @@ public class FloatLyricsView extends JPanel {
             }
         }
 
-        repaint();
+        boolean changed = oldLyricsWordIndex != mLyricsWordIndex
+                || oldLyricsWordHLTime != mLyricsWordHLTime
+                || oldExtraLyricsWordIndex != mExtraLyricsWordIndex
+                || oldExtraLyricsWordHLTime != mExtraLyricsWordHLTime;
+        mDirtyRegion.repaint(this, mLyricsLineNum, 0, mExtraLrcStatus,
+                mFontSize, changed);
     }
 
     /**
@@ -743,13 +768,29 @@ public class FloatLyricsView extends JPanel {
         } else {
             mLyricsLineTreeMap = null;
         }
+        warmTextCache();
         // 额外歌词类型回调
         extraLrcTypeCallBack();
         resetData();
+        mDirtyRegion.invalidate();
 
         repaint();
     }
 
+    /**
+     * 预先为当前歌词做字体回退，重绘时不再逐字检查字体
+     */
+    private void warmTextCache() {
+        if (mLyricsUtil == null) {
+            return;
+        }
+        if (mLyricsLineTreeMap != null) {
+            FallbackTextCache.warm(mLyricsLineTreeMap.values(), mFontSize);
+        }
+        FallbackTextCache.warm(mTranslateLrcLineInfos, mFontSize);
+        FallbackTextCache.warm(mTransliterationLrcLineInfos, mFontSize);
+    }
+
     /**
      * 重置数据
      */
@@ -807,6 +848,8 @@ public class FloatLyricsView extends JPanel {
     public synchronized void refreshLrcFontColor() {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
+                mSurfacePool.clear();
+                mDirtyRegion.invalidate();
                 repaint();
             }
         });
@@ -818,7 +861,12 @@ public class FloatLyricsView extends JPanel {
     public synchronized void refreshLrcFontSize() {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
+                // 旧字体大小的排版缓存和歌词图片不再使用
+                FallbackTextCache.clear();
+                mSurfacePool.clear();
+                mDirtyRegion.invalidate();
                 initSizeWord();
+                warmTextCache();
                 updateView(mProgress);
                 repaint();
             }
@@ -832,6 +880,7 @@ public class FloatLyricsView extends JPanel {
      */
     public void setExtraLrcStatus(int mExtraLrcStatus) {
         this.mExtraLrcStatus = mExtraLrcStatus;
+        mDirtyRegion.invalidate();
         isReconstruct = true;
         // 更新歌词行索引
         int newLyricsLineNum = mLyricsUtil.getLineNumber(mLyricsLineTreeMap,
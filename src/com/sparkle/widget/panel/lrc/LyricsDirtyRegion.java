@@ -0,0 +1,126 @@
+package com.sparkle.widget.panel.lrc;
+
+import javax.swing.JComponent;
+
+/**
+ * 歌词界面的重绘区域
+ * <p>
+ * 绘画时记下动感歌词图片贴出的整条横向区域，以及决定这些区域位置的状态(行号、滑动高度、额外歌词状态、字体大小、界面大小).
+ * 播放进度更新时如果这些状态都没有改变，说明只有高亮的宽度改变，只需要重绘记下的区域，
+ * 其它歌词行和时间线不用重绘；状态改变或者还没有绘画过时重绘整个界面.
+ * 歌词界面都不是不透明的，Swing只在重绘区域内画父容器的背景.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class LyricsDirtyRegion {
+
+    /**
+     * 最多记下的区域个数，当前行和额外歌词行各一个
+     */
+    private static final int MAX_BANDS = 4;
+
+    private final int[] bandY = new int[MAX_BANDS];
+    private final int[] bandHeight = new int[MAX_BANDS];
+    private int bandCount = 0;
+
+    /**
+     * 是否已经绘画过并且之后没有失效
+     */
+    private boolean valid = false;
+
+    private int lineNum;
+    private float offsetY;
+    private int extraStatus;
+    private int fontSize;
+    private int width;
+    private int height;
+
+    /**
+     * 开始绘画时调用，记下这次绘画的状态并清空区域
+     *
+     * @param lineNum
+     *            当前行
+     * @param offsetY
+     *            滑动的高度，不滑动的界面为0
+     * @param extraStatus
+     *            额外歌词状态
+     * @param fontSize
+     * @param width
+     *            界面的宽度
+     * @param height
+     *            界面的高度
+     */
+    public synchronized void beginPaint(int lineNum, float offsetY,
+            int extraStatus, int fontSize, int width, int height) {
+        this.lineNum = lineNum;
+        this.offsetY = offsetY;
+        this.extraStatus = extraStatus;
+        this.fontSize = fontSize;
+        this.width = width;
+        this.height = height;
+        bandCount = 0;
+        valid = true;
+    }
+
+    /**
+     * 记下动感歌词图片贴出的区域
+     *
+     * @param y
+     *            图片左上角的Y坐标
+     * @param height
+     *            图片的高度
+     */
+    public synchronized void addBand(int y, int height) {
+        if (bandCount == MAX_BANDS) {
+            // 超出时不再只重绘部分区域
+            valid = false;
+            return;
+        }
+        bandY[bandCount] = y;
+        bandHeight[bandCount] = height;
+        bandCount++;
+    }
+
+    /**
+     * 设置改变后调用，下一次更新时重绘整个界面
+     */
+    public synchronized void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * 播放进度更新后重绘
+     *
+     * @param component
+     *            歌词界面
+     * @param lineNum
+     * @param offsetY
+     * @param extraStatus
+     * @param fontSize
+     * @param changed
+     *            高亮的位置是否改变
+     */
+    public synchronized void repaint(JComponent component, int lineNum,
+            float offsetY, int extraStatus, int fontSize, boolean changed) {
+        if (!valid || bandCount == 0 || this.lineNum != lineNum
+                || this.offsetY != offsetY || this.extraStatus != extraStatus
+                || this.fontSize != fontSize
+                || width != component.getWidth()
+                || height != component.getHeight()) {
+            component.repaint();
+            return;
+        }
+        if (!changed) {
+            return;
+        }
+        int top = bandY[0];
+        int bottom = bandY[0] + bandHeight[0];
+        for (int i = 1; i < bandCount; i++) {
+            top = Math.min(top, bandY[i]);
+            bottom = Math.max(bottom, bandY[i] + bandHeight[i]);
+        }
+        component.repaint(0, top, width, bottom - top);
+    }
+}
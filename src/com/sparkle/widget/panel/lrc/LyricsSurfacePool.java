@@ -0,0 +1,262 @@
+package com.sparkle.widget.panel.lrc;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * 动感歌词的离屏图片池
+ * <p>
+ * 每行歌词只画一次：默认颜色画在底图上，高亮图是底图再画上高亮颜色的歌词.
+ * 之后每一帧只按高亮的宽度从高亮图和底图中各取一部分贴到界面上，不再新建图片，也不再画文字.
+ * 两张图贴出的区域不重叠，结果和原来先画默认颜色、再按裁剪区域画高亮颜色后整张贴出相同.
+ * 图片的宽高按块向上取整，换行时大小合适的旧图片清空后直接重用.
+ * </p>
+ *
+ * @author yuyi2003
+ *
+ */
+public class LyricsSurfacePool {
+
+    /**
+     * 图片宽高取整的块大小
+     */
+    private static final int BLOCK = 64;
+
+    private final Surface[] surfaces;
+
+    /**
+     * 下一个要替换的位置
+     */
+    private int next = 0;
+
+    /**
+     *
+     * @param size
+     *            最多保存几行歌词的图片
+     */
+    public LyricsSurfacePool(int size) {
+        surfaces = new Surface[size];
+    }
+
+    /**
+     * 一行歌词的底图和高亮图
+     */
+    public static class Surface {
+        private String text;
+        private int fontSize;
+        private int style;
+        private int width;
+        private int height;
+        private BufferedImage baseImage;
+        private BufferedImage highlightImage;
+
+        /**
+         * 歌词在图片中的基线，由画图片的一方设置
+         */
+        private int baseline;
+
+        /**
+         * 高亮区域的Y坐标和高度，由画图片的一方设置
+         */
+        private int highlightY;
+        private int highlightHeight;
+
+        private boolean matches(String text, int fontSize, int style) {
+            return text != null && this.fontSize == fontSize
+                    && this.style == style && this.text.equals(text);
+        }
+
+        private boolean fits(int width, int height) {
+            return baseImage != null && baseImage.getWidth() >= width
+                    && baseImage.getHeight() >= height
+                    && baseImage.getWidth() < roundUp(width) * 2
+                    && baseImage.getHeight() < roundUp(height) * 2;
+        }
+
+        /**
+         * 获取画底图的Graphics2D，只能在图片的宽高内画
+         *
+         * @return
+         */
+        public Graphics2D createBaseGraphics() {
+            Graphics2D g2d = baseImage.createGraphics();
+            g2d.clipRect(0, 0, width, height);
+            return g2d;
+        }
+
+        /**
+         * 获取画高亮图的Graphics2D，图上已经有底图的内容，只能在图片的宽高内画
+         *
+         * @return
+         */
+        public Graphics2D createHighlightGraphics() {
+            Graphics2D g2d = highlightImage.createGraphics();
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.drawImage(baseImage, 0, 0, null);
+            g2d.setComposite(AlphaComposite.SrcOver);
+            g2d.clipRect(0, 0, width, height);
+            return g2d;
+        }
+
+        /**
+         * 贴到界面上的高度
+         *
+         * @return
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        public int getBaseline() {
+            return baseline;
+        }
+
+        public void setBaseline(int baseline) {
+            this.baseline = baseline;
+        }
+
+        /**
+         * 设置高亮区域的范围
+         *
+         * @param highlightY
+         *            相对图片的Y坐标
+         * @param highlightHeight
+         */
+        public void setHighlightBand(int highlightY, int highlightHeight) {
+            this.highlightY = highlightY;
+            this.highlightHeight = highlightHeight;
+        }
+
+        /**
+         * 贴到界面上，高亮区域内用高亮图，其它地方用底图
+         *
+         * @param g2d
+         * @param x
+         *            图片左上角的X坐标
+         * @param y
+         *            图片左上角的Y坐标
+         * @param highlightWidth
+         *            高亮的宽度，从图片左边开始
+         */
+        public void draw(Graphics2D g2d, int x, int y, int highlightWidth) {
+            int right = clamp(highlightWidth, 0, width);
+            int top = clamp(highlightY, 0, height);
+            int bottom = clamp(highlightY + Math.max(highlightHeight, 0), top,
+                    height);
+            // 高亮区域上面和下面的整条
+            blit(g2d, baseImage, x, y, 0, 0, width, top);
+            blit(g2d, baseImage, x, y, 0, bottom, width, height);
+            // 高亮区域右边
+            blit(g2d, baseImage, x, y, right, top, width, bottom);
+            // 高亮区域
+            blit(g2d, highlightImage, x, y, 0, top, right, bottom);
+        }
+
+        private static void blit(Graphics2D g2d, BufferedImage image, int x,
+                int y, int x1, int y1, int x2, int y2) {
+            if (x1 >= x2 || y1 >= y2) {
+                return;
+            }
+            g2d.drawImage(image, x + x1, y + y1, x + x2, y + y2, x1, y1, x2,
+                    y2, null);
+        }
+
+        private static int clamp(int value, int min, int max) {
+            return Math.max(min, Math.min(value, max));
+        }
+    }
+
+    /**
+     * 获取已经画好的歌词图片
+     *
+     * @param text
+     *            歌词
+     * @param fontSize
+     *            字体大小
+     * @param style
+     *            颜色等其它会影响图片内容的设置
+     * @return 没有时返回null
+     */
+    public Surface get(String text, int fontSize, int style) {
+        for (int i = 0; i < surfaces.length; i++) {
+            if (surfaces[i] != null
+                    && surfaces[i].matches(text, fontSize, style)) {
+                return surfaces[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 为一行歌词准备空白的图片，替换最早准备的一个，调用者随后画底图和高亮图
+     *
+     * @param g2d
+     *            要贴图的Graphics2D，按它的设备创建兼容的图片
+     * @param text
+     * @param fontSize
+     * @param style
+     * @param width
+     * @param height
+     * @return
+     */
+    public Surface create(Graphics2D g2d, String text, int fontSize,
+            int style, int width, int height) {
+        Surface surface = surfaces[next];
+        if (surface == null) {
+            surface = new Surface();
+            surfaces[next] = surface;
+        }
+        next = (next + 1) % surfaces.length;
+
+        if (surface.fits(width, height)) {
+            clear(surface.baseImage);
+        } else {
+            if (surface.baseImage != null) {
+                surface.baseImage.flush();
+                surface.highlightImage.flush();
+            }
+            surface.baseImage = g2d.getDeviceConfiguration()
+                    .createCompatibleImage(roundUp(width), roundUp(height),
+                            Transparency.TRANSLUCENT);
+            surface.highlightImage = g2d.getDeviceConfiguration()
+                    .createCompatibleImage(roundUp(width), roundUp(height),
+                            Transparency.TRANSLUCENT);
+        }
+        surface.text = text;
+        surface.fontSize = fontSize;
+        surface.style = style;
+        surface.width = width;
+        surface.height = height;
+        surface.baseline = 0;
+        surface.highlightY = 0;
+        surface.highlightHeight = 0;
+        return surface;
+    }
+
+    /**
+     * 清空，字体大小或者颜色改变时调用
+     */
+    public void clear() {
+        for (int i = 0; i < surfaces.length; i++) {
+            if (surfaces[i] != null && surfaces[i].baseImage != null) {
+                surfaces[i].baseImage.flush();
+                surfaces[i].highlightImage.flush();
+            }
+            surfaces[i] = null;
+        }
+        next = 0;
+    }
+
+    private static void clear(BufferedImage image) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setComposite(AlphaComposite.Clear);
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g2d.dispose();
+    }
+
+    private static int roundUp(int value) {
+        return (Math.max(value, 1) + BLOCK - 1) / BLOCK * BLOCK;
+    }
+}
@@ -10,15 +10,13 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Paint;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Toolkit;
-import java.awt.Transparency;
 import java.awt.event.MouseEvent;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.text.AttributedString;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -38,6 +36,7 @@ import com.sparkle.tween.ValueAnimator;
 import com.sparkle.tween.ValueAnimator.AnimationListener;
 import com.sparkle.tween.ValueAnimator.AnimatorUpdateListener;
 import com.sparkle.util.DrawingUtil;
+import com.sparkle.util.FallbackTextCache;
 import com.sparkle.util.FontsUtil;
 import com.sparkle.util.LyricsUtil;
 
@@ -187,6 +186,22 @@ public class ManyLineLyricsView extends JPanel {
      */
     private Color mPaintHL;
 
+    /**
+     * 动感歌词的离屏图片，当前行和额外歌词行各用一个
+     */
+    private LyricsSurfacePool mSurfacePool = new LyricsSurfacePool(4);
+
+    /**
+     * 每行歌词需要滑动的高度(包括前面的额外歌词行)，最后一个元素为全部歌词的高度。
+     * 加载歌词、字体大小或者额外歌词状态改变时置为null，用到时重新计算
+     */
+    private volatile int[] mLineOffsets;
+
+    /**
+     * 动感歌词所在的区域，只有高亮宽度改变时只重绘这部分
+     */
+    private LyricsDirtyRegion mDirtyRegion = new LyricsDirtyRegion();
+
     /**
      * 歌词解析
      */
@@ -238,6 +253,7 @@ public class ManyLineLyricsView extends JPanel {
     private void initSizeWord() {
         // 使用字体回退功能，优先使用HYRunYuan-65S.ttf
         mBaseFont = FontsUtil.getBaseFont(BaseData.lrcFontSize);
+        mLineOffsets = null;
     }
 
     /**
@@ -262,6 +278,9 @@ public class ManyLineLyricsView extends JPanel {
         //
         g2d.setFont(mBaseFont);
 
+        mDirtyRegion.beginPaint(mLyricsLineNum, mOffsetY, mExtraLrcStatus,
+                BaseData.lrcFontSize, getWidth(), getHeight());
+
         // 画时间线和时间线
         if (isTouchMove) {
             drawTimeLine(g2d);
@@ -309,11 +328,14 @@ public class ManyLineLyricsView extends JPanel {
         }
         centreY = drawDGLineLrc(g2d, centreY);
 
+        // 只画重绘区域内的歌词行
+        Rectangle clip = g2d.getClipBounds();
+
         // 画下面歌词
-        drawDownLineLrc(g2d, centreY);
+        drawDownLineLrc(g2d, centreY, clip);
 
         // 画上面歌词
-        drawUpLineLrc(g2d, centreY);
+        drawUpLineLrc(g2d, centreY, clip);
     }
 
     /**
@@ -321,8 +343,10 @@ public class ManyLineLyricsView extends JPanel {
      * 
      * @param g2d
      * @param centreY
+     * @param clip
+     *            重绘区域，为null时全部绘画
      */
-    private void drawUpLineLrc(Graphics2D g2d, float centreY) {
+    private void drawUpLineLrc(Graphics2D g2d, float centreY, Rectangle clip) {
         for (int i = mLyricsLineNum - 1; i >= 0; i--) {
 
             // 判断是否需要显示音译或者翻译歌词
@@ -341,14 +365,22 @@ public class ManyLineLyricsView extends JPanel {
                     centreY = centreY - getLineHeight(g2d);
                 }
 
-                drawLineLrc(g2d, centreY, extraLrcList.get(i));
+                if (isInClip(g2d, clip, centreY)) {
+                    drawLineLrc(g2d, centreY, extraLrcList.get(i));
+                }
                 centreY = centreY
                         + (mSpaceLineHeight - mExtraLrcSpaceLineHeight);
             }
 
             centreY = centreY - getLineHeight(g2d);
-            LyricsLineInfo lyricsLineInfo = mLyricsLineTreeMap.get(i);
-            drawLineLrc(g2d, centreY, lyricsLineInfo);
+            if (isInClip(g2d, clip, centreY)) {
+                LyricsLineInfo lyricsLineInfo = mLyricsLineTreeMap.get(i);
+                drawLineLrc(g2d, centreY, lyricsLineInfo);
+            } else if (clip != null
+                    && centreY + getRealTextHeight(g2d) <= clip.y) {
+                // 之后的歌词都在重绘区域上面
+                break;
+            }
 
         }
     }
@@ -358,15 +390,25 @@ public class ManyLineLyricsView extends JPanel {
      * 
      * @param g2d
      * @param centreY
+     * @param clip
+     *            重绘区域，为null时全部绘画
      */
-    private void drawDownLineLrc(Graphics2D g2d, float centreY) {
+    private void drawDownLineLrc(Graphics2D g2d, float centreY, Rectangle clip) {
         // 画当前歌词之后的歌词
         for (int i = mLyricsLineNum + 1; i < mLyricsLineTreeMap.size(); i++) {
 
             centreY = centreY + getLineHeight(g2d);
 
-            LyricsLineInfo lyricsLineInfo = mLyricsLineTreeMap.get(i);
-            drawLineLrc(g2d, centreY, lyricsLineInfo);
+            if (clip != null
+                    && centreY - getRealTextHeight(g2d) >= clip.y + clip.height) {
+                // 之后的歌词都在重绘区域下面
+                break;
+            }
+
+            if (isInClip(g2d, clip, centreY)) {
+                LyricsLineInfo lyricsLineInfo = mLyricsLineTreeMap.get(i);
+                drawLineLrc(g2d, centreY, lyricsLineInfo);
+            }
 
             // 判断是否需要显示音译或者翻译歌词
             if (mExtraLrcStatus == SHOWTRANSLATELRC
@@ -379,13 +421,33 @@ public class ManyLineLyricsView extends JPanel {
                 }
 
                 centreY = centreY + getExtraLrcLineHeight(g2d);
-                drawLineLrc(g2d, centreY, extraLrcList.get(i));
+                if (isInClip(g2d, clip, centreY)) {
+                    drawLineLrc(g2d, centreY, extraLrcList.get(i));
+                }
             }
 
         }
 
     }
 
+    /**
+     * 判断基线在centreY的歌词行是否和重绘区域相交
+     * 
+     * @param g2d
+     * @param clip
+     *            为null时返回true
+     * @param centreY
+     * @return
+     */
+    private boolean isInClip(Graphics2D g2d, Rectangle clip, float centreY) {
+        if (clip == null) {
+            return true;
+        }
+        int realTextHeight = getRealTextHeight(g2d);
+        return centreY + realTextHeight > clip.y
+                && centreY - realTextHeight < clip.y + clip.height;
+    }
+
     /**
      * 绘画额外行歌词
      * 
@@ -414,8 +476,7 @@ public class ManyLineLyricsView extends JPanel {
      * @param y
      */
     private void drawStringWithFallback(Graphics2D g2d, String text, float x, float y) {
-        AttributedString attrString = FontsUtil.createFallbackString(text, BaseData.lrcFontSize);
-        g2d.drawString(attrString.getIterator(), x, y);
+        FallbackTextCache.draw(g2d, text, x, y, BaseData.lrcFontSize);
     }
 
     /**
@@ -551,25 +612,53 @@ public class ManyLineLyricsView extends JPanel {
     private void drawDGBufferedImage(Graphics2D origG2d, float textX,
             float textY, String text, float lineLyricsHLWidth) {
 
-        FontMetrics fm = origG2d.getFontMetrics();
-        Rectangle2D rc = fm.getStringBounds(text, origG2d);
-        int width = (int) rc.getWidth();
-        int height = (int) rc.getHeight() + fm.getDescent() * 2
-                + mSpaceLineHeight;
-        width = Math.max(width, 1);
-        height = Math.max(height, 1);
-
-        BufferedImage bufferedImage = new BufferedImage(width, height,
-                BufferedImage.TYPE_INT_ARGB);
-        // 获取Graphics2D
-        Graphics2D g2d = bufferedImage.createGraphics();
-        // ---------- 增加下面的代码使得背景透明 -----------------
-        bufferedImage = g2d.getDeviceConfiguration().createCompatibleImage(
-                width, height, Transparency.TRANSLUCENT);
-        g2d.dispose();
-        g2d = bufferedImage.createGraphics();
-        // ---------- 背景透明代码结束 -----------------
+        int style = mPaintHL.getRGB();
+        LyricsSurfacePool.Surface surface = mSurfacePool.get(text,
+                BaseData.lrcFontSize, style);
+        if (surface == null) {
+            FontMetrics fm = origG2d.getFontMetrics();
+            Rectangle2D rc = FallbackTextCache.getStringBounds(origG2d, text,
+                    BaseData.lrcFontSize);
+            int width = (int) rc.getWidth();
+            int height = (int) rc.getHeight() + fm.getDescent() * 2
+                    + mSpaceLineHeight;
+            width = Math.max(width, 1);
+            height = Math.max(height, 1);
+            surface = mSurfacePool.create(origG2d, text,
+                    BaseData.lrcFontSize, style, width, height);
+
+            // 画默认颜色的歌词
+            Graphics2D g2d = surface.createBaseGraphics();
+            initSurfaceGraphics(g2d);
+            int dgTextY = getLineHeight(g2d);
+            // 这里不知为何还要减去fm.getDescent() + fm.getLeading() 绘画时才能把全文字绘画完整
+            int clipY = (dgTextY - getRealTextHeight(g2d))
+                    + getAdjustLrcHeight(g2d);
+            surface.setBaseline(dgTextY);
+            surface.setHighlightBand(clipY, getRealTextHeight(g2d));
+            g2d.setPaint(mPaint);
+            drawStringWithFallback(g2d, text, 0, surface.getBaseline());
+            g2d.dispose();
+
+            // 画高亮颜色的歌词
+            g2d = surface.createHighlightGraphics();
+            initSurfaceGraphics(g2d);
+            g2d.setPaint(mPaintHL);
+            drawStringWithFallback(g2d, text, 0, surface.getBaseline());
+            g2d.dispose();
+        }
 
+        int surfaceY = (int) textY - surface.getBaseline();
+        surface.draw(origG2d, (int) textX, surfaceY, (int) lineLyricsHLWidth);
+        mDirtyRegion.addBand(surfaceY, surface.getHeight());
+    }
+
+    /**
+     * 设置画歌词图片的属性，和原来新建图片时相同
+     * 
+     * @param g2d
+     */
+    private void initSurfaceGraphics(Graphics2D g2d) {
         // 设置“抗锯齿”的属性
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                 RenderingHints.VALUE_ANTIALIAS_ON);
@@ -580,24 +669,6 @@ public class ManyLineLyricsView extends JPanel {
 
         //
         g2d.setFont(mBaseFont);
-        int dgTextX = 0;
-        int dgTextY = getLineHeight(g2d);
-        g2d.setPaint(mPaint);
-        // 画当前歌词
-        drawStringWithFallback(g2d, text, dgTextX, dgTextY);        // 这里不知为何还要减去fm.getDescent() + fm.getLeading() 绘画时才能把全文字绘画完整
-        int clipY = (dgTextY - getRealTextHeight(g2d))
-                + getAdjustLrcHeight(g2d);
-
-        g2d.setClip(dgTextX, clipY, (int) lineLyricsHLWidth,
-                getRealTextHeight(g2d));
-        g2d.setPaint(mPaintHL);
-        drawStringWithFallback(g2d, text, dgTextX, dgTextY);
-
-        g2d.dispose();
-
-        origG2d.drawImage(bufferedImage, null, (int) textX, (int) textY
-                - dgTextY);
-
     }
 
     /**
@@ -688,39 +759,80 @@ public class ManyLineLyricsView extends JPanel {
     }
 
     /**
-     * 获取当前行所需的滑动高度
+     * 获取每行歌词需要滑动的高度，没有时计算
      * 
-     * @param lyricsLineNum
+     * @param g2d
+     *            字体为mBaseFont的Graphics2D，为null时使用getGraphics()
      * @return
      */
-    private float getCurLineScollHeight(Graphics2D g2d, int lyricsLineNum) {
-        int scrollHeight = 0;
-
-        for (int i = 0; i < lyricsLineNum; i++) {
-            scrollHeight += getLineHeight(g2d);
-            // 判断是否有翻译歌词或者音译歌词
-            if (mExtraLrcStatus == SHOWTRANSLATELRC) {
-                if (mTranslateLrcLineInfos != null
-                        && mTranslateLrcLineInfos.size() > 0) {
-                    scrollHeight += getExtraLrcLineHeight(g2d);
-                    mDuration = 1000;
-                }
-            } else if (mExtraLrcStatus == SHOWTRANSLITERATIONLRC) {
-                if (mTransliterationLrcLineInfos != null
-                        && mTransliterationLrcLineInfos.size() > 0) {
-                    scrollHeight += getExtraLrcLineHeight(g2d);
-                    mDuration = 1000;
-                }
+    private int[] getLineOffsets(Graphics2D g2d) {
+        int[] lineOffsets = mLineOffsets;
+        if (lineOffsets == null) {
+            if (g2d == null) {
+                Graphics2D graphics = (Graphics2D) getGraphics();
+                graphics.setFont(mBaseFont);
+                lineOffsets = buildLineOffsets(graphics);
+                graphics.dispose();
             } else {
-                mDuration = 500;
+                lineOffsets = buildLineOffsets(g2d);
             }
+            mLineOffsets = lineOffsets;
         }
-        return scrollHeight;
+        return lineOffsets;
     }
 
     /**
-     * 获取滑动的当前行
+     * 计算每行歌词需要滑动的高度，同时设置滑动动画的时间
      * 
+     * @param g2d
+     * @return
+     */
+    private int[] buildLineOffsets(Graphics2D g2d) {
+        int size = mLyricsLineTreeMap == null ? 0 : mLyricsLineTreeMap.size();
+        int rowHeight = getLineHeight(g2d);
+        // 判断是否有翻译歌词或者音译歌词
+        if (mExtraLrcStatus == SHOWTRANSLATELRC) {
+            if (mTranslateLrcLineInfos != null
+                    && mTranslateLrcLineInfos.size() > 0) {
+                rowHeight += getExtraLrcLineHeight(g2d);
+                mDuration = 1000;
+            }
+        } else if (mExtraLrcStatus == SHOWTRANSLITERATIONLRC) {
+            if (mTransliterationLrcLineInfos != null
+                    && mTransliterationLrcLineInfos.size() > 0) {
+                rowHeight += getExtraLrcLineHeight(g2d);
+                mDuration = 1000;
+            }
+        } else {
+            mDuration = 500;
+        }
+
+        int[] lineOffsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            lineOffsets[i + 1] = lineOffsets[i] + rowHeight;
+        }
+        return lineOffsets;
+    }
+
+    /**
+     * 获取当前行所需的滑动高度
+     * 
+     * @param g2d
+     *            为null时使用getGraphics()
+     * @param lyricsLineNum
+     * @return
+     */
+    private float getCurLineScollHeight(Graphics2D g2d, int lyricsLineNum) {
+        int[] lineOffsets = getLineOffsets(g2d);
+        int index = Math.max(0, Math.min(lyricsLineNum, lineOffsets.length - 1));
+        return lineOffsets[index];
+    }
+
+    /**
+     * 获取滑动的当前行，即第一个结束位置在offsetY之下的行
+     * 
+     * @param g2d
+     *            为null时使用getGraphics()
      * @return
      */
     private int getScrollLrcLineNum(Graphics2D g2d, float offsetY) {
@@ -728,33 +840,21 @@ public class ManyLineLyricsView extends JPanel {
             return 0;
         }
 
-        int scrollLrcLineNum = -1;
-        int lineHeight = 0;
-        for (int i = 0; i < mLyricsLineTreeMap.size(); i++) {
-            lineHeight += getLineHeight(g2d);
-
-            // 判断是否有翻译歌词或者音译歌词
-            if (mExtraLrcStatus == SHOWTRANSLATELRC) {
-                if (mTranslateLrcLineInfos != null
-                        && mTranslateLrcLineInfos.size() > 0) {
-                    lineHeight += getExtraLrcLineHeight(g2d);
-                }
-            } else if (mExtraLrcStatus == SHOWTRANSLITERATIONLRC) {
-                if (mTransliterationLrcLineInfos != null
-                        && mTransliterationLrcLineInfos.size() > 0) {
-                    lineHeight += getExtraLrcLineHeight(g2d);
-                }
-            }
-
-            if (lineHeight > offsetY) {
-                scrollLrcLineNum = i;
-                break;
-            }
+        int[] lineOffsets = getLineOffsets(g2d);
+        int low = 0;
+        int high = lineOffsets.length - 2;
+        if (lineOffsets[high + 1] <= offsetY) {
+            return high;
         }
-        if (scrollLrcLineNum == -1) {
-            scrollLrcLineNum = mLyricsLineTreeMap.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lineOffsets[mid + 1] > offsetY) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
         }
-        return scrollLrcLineNum;
+        return low;
     }
 
     /**
@@ -766,6 +866,11 @@ public class ManyLineLyricsView extends JPanel {
             return;
         //
 
+        int oldLyricsWordIndex = mLyricsWordIndex;
+        float oldLyricsWordHLTime = mLyricsWordHLTime;
+        int oldExtraLyricsWordIndex = mExtraLyricsWordIndex;
+        float oldExtraLyricsWordHLTime = mExtraLyricsWordHLTime;
+
         int newLyricsLineNum = mLyricsUtil.getLineNumber(mLyricsLineTreeMap,
                 playProgress);
         if (newLyricsLineNum != mLyricsLineNum) {
@@ -809,7 +914,18 @@ public class ManyLineLyricsView extends JPanel {
             }
         }
 
-        repaint();
+        if (isTouchMove
+                || (mValueAnimator != null && mValueAnimator.isRunning())) {
+            // 拖动或者滑动时整个界面都在变化
+            repaint();
+        } else {
+            boolean changed = oldLyricsWordIndex != mLyricsWordIndex
+                    || oldLyricsWordHLTime != mLyricsWordHLTime
+                    || oldExtraLyricsWordIndex != mExtraLyricsWordIndex
+                    || oldExtraLyricsWordHLTime != mExtraLyricsWordHLTime;
+            mDirtyRegion.repaint(this, mLyricsLineNum, mOffsetY,
+                    mExtraLrcStatus, BaseData.lrcFontSize, changed);
+        }
     }
 
     /**
@@ -828,11 +944,8 @@ public class ManyLineLyricsView extends JPanel {
             // mValueAnimator = new ValueAnimator();
         }
 
-        Graphics2D g2d = (Graphics2D) getGraphics();
-        g2d.setFont(mBaseFont);
-
         float start = mOffsetY;
-        float end = getCurLineScollHeight(g2d, newLyricsLineNum);
+        float end = getCurLineScollHeight(null, newLyricsLineNum);
 
         mValueAnimator.ofFloat(start, end);
         mValueAnimator.setAnimatorUpdateListener(new AnimatorUpdateListener() {
@@ -878,13 +991,32 @@ public class ManyLineLyricsView extends JPanel {
         } else {
             mLyricsLineTreeMap = null;
         }
+        warmTextCache();
         // 额外歌词类型回调
         extraLrcTypeCallBack();
         resetData();
+        mLineOffsets = null;
+        mDirtyRegion.invalidate();
 
         repaint();
     }
 
+    /**
+     * 预先为当前歌词做字体回退，重绘时不再逐字检查字体
+     */
+    private void warmTextCache() {
+        if (mLyricsUtil == null) {
+            return;
+        }
+        if (mLyricsLineTreeMap != null) {
+            FallbackTextCache.warm(mLyricsLineTreeMap.values(),
+                    BaseData.lrcFontSize);
+        }
+        FallbackTextCache.warm(mTranslateLrcLineInfos, BaseData.lrcFontSize);
+        FallbackTextCache.warm(mTransliterationLrcLineInfos,
+                BaseData.lrcFontSize);
+    }
+
     /**
      * 重置数据
      */
@@ -944,6 +1076,8 @@ public class ManyLineLyricsView extends JPanel {
     public synchronized void refreshLrcFontColor() {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
+                mSurfacePool.clear();
+                mDirtyRegion.invalidate();
                 initColor();
                 setExtraLrcStatus(mExtraLrcStatus);
             }
@@ -956,7 +1090,11 @@ public class ManyLineLyricsView extends JPanel {
     public synchronized void refreshLrcFontSize() {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
+                // 旧字体大小的排版缓存和歌词图片不再使用
+                FallbackTextCache.clear();
+                mSurfacePool.clear();
                 initSizeWord();
+                warmTextCache();
                 setExtraLrcStatus(mExtraLrcStatus);
             }
         });
@@ -969,6 +1107,8 @@ public class ManyLineLyricsView extends JPanel {
      */
     public void setExtraLrcStatus(int mExtraLrcStatus) {
         this.mExtraLrcStatus = mExtraLrcStatus;
+        mLineOffsets = null;
+        mDirtyRegion.invalidate();
         isReconstruct = true;
         // 更新歌词行索引
         int newLyricsLineNum = mLyricsUtil.getLineNumber(mLyricsLineTreeMap,
@@ -977,9 +1117,7 @@ public class ManyLineLyricsView extends JPanel {
             mLyricsLineNum = newLyricsLineNum;
         }
         // 切换歌词时，直接设置offsety值
-        Graphics2D g2d = (Graphics2D) getGraphics();
-        g2d.setFont(mBaseFont);
-        mOffsetY = getCurLineScollHeight(g2d, mLyricsLineNum);
+        mOffsetY = getCurLineScollHeight(null, mLyricsLineNum);
         //
         isReconstruct = false;
         updateView(mProgress);
@@ -1065,10 +1203,8 @@ public class ManyLineLyricsView extends JPanel {
                 float tt = e.getY();
                 touchY = tt;
 
-                Graphics2D g2d = (Graphics2D) getGraphics();
-                g2d.setFont(mBaseFont);
                 // 获取当前滑动到的歌词播放行
-                int scrollLrcLineNum = getScrollLrcLineNum(g2d, mOffsetY);
+                int scrollLrcLineNum = getScrollLrcLineNum(null, mOffsetY);
 
                 if (mOffsetY < 0) {
 
@@ -1076,7 +1212,7 @@ public class ManyLineLyricsView extends JPanel {
                     isTouchMove = false;
                     return;
 
-                } else if (mOffsetY > getCurLineScollHeight(g2d,
+                } else if (mOffsetY > getCurLineScollHeight(null,
                         mLyricsLineTreeMap.size())) {
 
                     smoothScrollTo(mLyricsLineTreeMap.size() - 1);
@@ -1167,11 +1303,9 @@ public class ManyLineLyricsView extends JPanel {
 
                 touchY = tt - touchY;
 
-                Graphics2D g2d = (Graphics2D) getGraphics();
-                g2d.setFont(mBaseFont);
                 if (mOffsetY < 0) {
                     touchY = touchY / 2;
-                } else if (mOffsetY > getCurLineScollHeight(g2d,
+                } else if (mOffsetY > getCurLineScollHeight(null,
                         mLyricsLineTreeMap.size())) {
                     touchY = touchY / 2;
                 }
@@ -1204,6 +1338,7 @@ public class ManyLineLyricsView extends JPanel {
 
     public void setWidth(int width) {
         this.mWidth = width;
+        mDirtyRegion.invalidate();
         repaint();
     }
 
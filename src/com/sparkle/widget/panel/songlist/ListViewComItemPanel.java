@@ -216,8 +216,8 @@ public class ListViewComItemPanel extends JPanel {
         String progressTime = "00:00";
         SongInfo tempSongInfo = MediaManage.getMediaManage().getSongInfo();
         if (tempSongInfo != null) {
-            progressTime = TimeUtils.parseString((int) tempSongInfo
-                    .getPlayProgress());
+            progressTime = TimeUtils.parseString((int) MediaManage
+                    .getMediaManage().getPlayProgress());
         }
         songProgress = new JLabel(progressTime + "/"
                 + songInfo.getDurationStr());
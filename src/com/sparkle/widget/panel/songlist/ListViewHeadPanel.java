@@ -23,20 +23,24 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.SwingWorker;
 
 import com.sparkle.common.BaseData;
 import com.sparkle.common.Constants;
 import com.sparkle.db.CategoryDB;
+import com.sparkle.db.FileFingerprintDB;
 import com.sparkle.db.SongInfoDB;
+import com.sparkle.logger.LoggerManage;
 import com.sparkle.manage.MediaManage;
 import com.sparkle.model.Category;
 import com.sparkle.model.EventIntent;
 import com.sparkle.model.SongInfo;
 import com.sparkle.observable.ObserverManage;
+import com.sparkle.service.FolderWatchService;
+import com.sparkle.service.MetadataExtractService;
 import com.sparkle.util.AudioFilter;
 import com.sparkle.util.DateUtil;
 import com.sparkle.util.IDGenerate;
-import com.sparkle.util.MediaUtils;
 import com.sparkle.widget.button.ImageButton;
 import com.sparkle.widget.panel.SongListPanel;
 
@@ -47,11 +51,13 @@ import com.sparkle.widget.panel.SongListPanel;
  * 
  */
 public class ListViewHeadPanel extends JPanel {
+    private static LoggerManage logger = LoggerManage.getYuyiLogger();
 
     /**
      * 
      */
     private static final long serialVersionUID = 1L;
+
     /**
      * 高度
      */
@@ -117,6 +123,10 @@ public class ListViewHeadPanel extends JPanel {
      * 定义一个添加歌曲文件菜单
      */
     public JMenuItem addSongFiledMenu;
+    /**
+     * 重新扫描文件夹菜单
+     */
+    private JMenuItem rescanFolderMenu;
     /**
      * 删除播放列表菜单
      */
@@ -242,10 +252,13 @@ public class ListViewHeadPanel extends JPanel {
         addSongMenu = new JMenuItem("添加歌曲");
         addSongFiledMenu = new JMenuItem("添加歌曲文件");
 
+        rescanFolderMenu = new JMenuItem("重新扫描文件夹");
+
         delPlaylistMenu = new JMenuItem("删除播放列表");
 
         addPop.add(addSongMenu);
         addPop.add(addSongFiledMenu);
+        addPop.add(rescanFolderMenu);
         if (pIndex != 0) {
             addPop.addSeparator();
             addPop.add(delPlaylistMenu);
@@ -315,9 +328,9 @@ public class ListViewHeadPanel extends JPanel {
                         playlistname = "新建列表";
                     }
 
-                    File[] files = songfile.getSelectedFile().listFiles();
                     // 更新内容面板，添加新播放列表数据
-                    refreshListViewPanelUI(playlistname, files);
+                    refreshListViewPanelUI(playlistname,
+                            songfile.getSelectedFile());
 
                 }
             }
@@ -326,10 +339,10 @@ public class ListViewHeadPanel extends JPanel {
              * 刷新列表的item页面
              * 
              * @param playlistname
-             * @param files
+             * @param folder
              */
             private void refreshListViewPanelUI(String playlistname,
-                    File[] files) {
+                    File folder) {
 
                 Category category = new Category(playlistname);
                 category.setCid(IDGenerate.getId(Category.key));
@@ -363,8 +376,9 @@ public class ListViewHeadPanel extends JPanel {
                 // 添加播放列表
                 CategoryDB.getCategoryDB().add(category);
 
-                // 更新歌曲列表
-                updateListViewComPanelUI(category.getCid(), playlistname, files);
+                // 在同步线程中扫描文件夹,之后监听该文件夹
+                FolderWatchService.getFolderWatchService().rescan(
+                        category.getCid(), folder);
             }
             // }.start();
             // }
@@ -395,46 +409,9 @@ public class ListViewHeadPanel extends JPanel {
                 songchooser.setMultiSelectionEnabled(true); // 实现多选
 
                 int result = songchooser.showOpenDialog(ListViewHeadPanel.this);
-                boolean hasUpdate = false;
                 if (result == JFileChooser.APPROVE_OPTION) {
-                    // 从MediaManage类获取当前的播放列表下的所有歌曲列表
-                    List<SongInfo> songInfos = MediaManage.getMediaManage()
-                            .getSongInfoList(pLId);
                     songfiles = songchooser.getSelectedFiles();
-                    for (int i = 0; i < songfiles.length; i++) {// 支持多选
-                        File file = songfiles[i];
-                        String filePath = file.getPath();
-                        if (!isSongExists(filePath, songInfos)) {
-                            hasUpdate = true;
-                            SongInfo songInfo = MediaUtils
-                                    .getSongInfoByFile(filePath);
-                            if (songInfo != null) {
-
-                                songInfo.setCategoryId(pLId);
-                                songInfos.add(songInfo);
-
-                                // 添加到数据库
-                                SongInfoDB.getSongInfoDB().add(songInfo);
-
-                                // 添加单首歌曲
-                                refreshListViewComPanelUI(pLId,
-                                        songInfos.size() - 1, listViewComPanel,
-                                        songInfo);
-
-                                titleNameJLabel.setText(titleName + "["
-                                        + songInfos.size() + "]");
-                            }
-                        }
-                    }
-                    if (hasUpdate) {
-
-                        // 更新MediaManage下当前播放列表下的所有歌曲列表数据
-                        MediaManage.getMediaManage().updateSongInfoList(pLId,
-                                songInfos);
-                        // 更新ui
-                        songListPanel.updateUI();
-
-                    }
+                    addSongFiles(songfiles);
                 } else if (result == JFileChooser.CANCEL_OPTION) {
                 }
 
@@ -443,6 +420,23 @@ public class ListViewHeadPanel extends JPanel {
             // }
         });
 
+        rescanFolderMenu.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser folderChooser = new JFileChooser();
+                folderChooser
+                        .setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                int result = folderChooser
+                        .showOpenDialog(ListViewHeadPanel.this);
+                final File folder = folderChooser.getSelectedFile();
+                if (result != JFileChooser.APPROVE_OPTION || folder == null)
+                    return;
+                // 和文件夹监听的同步在同一个线程中按顺序执行
+                FolderWatchService.getFolderWatchService().rescan(pLId, folder);
+            }
+        });
+
         delPlaylistMenu.addActionListener(new ActionListener() {
 
             @Override
@@ -489,6 +483,8 @@ public class ListViewHeadPanel extends JPanel {
                 //
                 SongInfoDB.getSongInfoDB().deleteAllSongs(pLId);
                 CategoryDB.getCategoryDB().delete(pLId);
+                FolderWatchService.getFolderWatchService().unwatch(pLId);
+                FileFingerprintDB.getFileFingerprintDB().deleteAll(pLId);
             }
 
             /**
@@ -539,78 +535,72 @@ public class ListViewHeadPanel extends JPanel {
     }
 
     /**
-     * 更新歌曲列表数据
+     * 导入歌曲文件:解析和写数据库在后台线程中进行,
+     * 完成后在事件分发线程中一次性添加到播放列表并刷新列表
      * 
-     * @param i
-     * @param playlistname
      * @param files
      */
-    private void updateListViewComPanelUI(final String pLId,
-            final String playlistname, final File[] files) {
-        new Thread() {
+    private void addSongFiles(final File[] files) {
+        new SwingWorker<List<SongInfo>, Void>() {
 
             @Override
-            public void run() {
-                ListViewHeadPanel listViewHeadPanel = null;
-                ListViewComPanel listViewComPanel = null;
-
-                for (int i = 0; i < listViewPanel.getComponentCount(); i++) {
-                    ListViewItemPanel itemPanel = (ListViewItemPanel) listViewPanel
-                            .getComponent(i);
-                    ListViewHeadPanel headTemp = (ListViewHeadPanel) itemPanel
-                            .getComponent(0);
-                    if (headTemp.getpLId().equals(pLId)) {
-                        listViewHeadPanel = headTemp;
-                        listViewComPanel = (ListViewComPanel) itemPanel
-                                .getComponent(1);
-                        break;
-                    }
-                }
-                if (listViewHeadPanel == null || listViewComPanel == null)
-                    return;
-
-                boolean hasUpdate = false;
-                List<SongInfo> songInfos = new ArrayList<SongInfo>();
-                for (int i = 0; i < files.length; i++) {
+            protected List<SongInfo> doInBackground() {
+                // 从MediaManage类获取当前的播放列表下的所有歌曲列表
+                List<SongInfo> songInfos = MediaManage.getMediaManage()
+                        .getSongInfoList(pLId);
+                List<File> audioFiles = new ArrayList<File>();
+                for (int i = 0; i < files.length; i++) {// 支持多选
                     File file = files[i];
-                    if (!file.exists() || file.isDirectory()
-                            || !AudioFilter.acceptFilter(file))
-                        continue;
                     String filePath = file.getPath();
                     if (!isSongExists(filePath, songInfos)) {
-                        hasUpdate = true;
-                        SongInfo songInfo = MediaUtils
-                                .getSongInfoByFile(filePath);
-                        if (songInfo != null) {
-
-                            songInfo.setCategoryId(pLId);
-                            songInfos.add(songInfo);
-
-                            // 添加歌曲到数据库
-                            SongInfoDB.getSongInfoDB().add(songInfo);
-
-                            // 添加单首歌曲
-                            refreshListViewComPanelUI(pLId,
-                                    songInfos.size() - 1, listViewComPanel,
-                                    songInfo);
-                            listViewHeadPanel.getTitleNameJLabel()
-                                    .setText(
-                                            playlistname + "["
-                                                    + songInfos.size() + "]");
-                        }
+                        audioFiles.add(file);
                     }
                 }
-                if (hasUpdate) {
-                    // 更新ui
-                    songListPanel.updateUI();
+                final List<SongInfo> addSongInfos = new ArrayList<SongInfo>();
+                MetadataExtractService.getMetadataExtractService().extract(
+                        audioFiles,
+                        new MetadataExtractService.ExtractListener() {
 
-                    // 更新mediamanage下的播放列表下的所有歌曲列表
-                    MediaManage.getMediaManage().updateSongInfoList(pLId,
-                            songInfos);
-                }
+                            @Override
+                            public void onExtracted(File file,
+                                    SongInfo songInfo) {
+                                if (songInfo == null)
+                                    return;
+
+                                songInfo.setCategoryId(pLId);
+                                addSongInfos.add(songInfo);
+                            }
+                        });
+                // 在一个事务中添加到数据库
+                SongInfoDB.getSongInfoDB().addAll(addSongInfos);
+                return addSongInfos;
             }
 
-        }.start();
+            @Override
+            protected void done() {
+                List<SongInfo> addSongInfos = null;
+                try {
+                    addSongInfos = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    logger.error("导入歌曲文件失败!" + e.toString());
+                }
+                if (addSongInfos == null || addSongInfos.isEmpty()) {
+                    return;
+                }
+                // 整批添加到MediaManage下当前播放列表
+                MediaManage.getMediaManage().addSongInfos(pLId, addSongInfos);
+                int size = MediaManage.getMediaManage().getSongSize(pLId);
+                for (int i = 0; i < addSongInfos.size(); i++) {
+                    refreshListViewComPanelUI(pLId,
+                            size - addSongInfos.size() + i, listViewComPanel,
+                            addSongInfos.get(i));
+                }
+                titleNameJLabel.setText(titleName + "[" + size + "]");
+                // 更新ui
+                songListPanel.updateUI();
+            }
+        }.execute();
     }
 
     /**